@@ -0,0 +1,52 @@
+/*
+ *   File      : BenchmarkRunner.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * The <tt>BenchmarkRunner</tt> class runs the benchmarks with the GC profiler, reporting throughput and allocation
+ * per operation, with a single thread, one thread per core and four threads per core.
+ */
+public final class BenchmarkRunner {
+
+  /** The number of threads per core used for the oversubscribed run. */
+  private static final int OVERSUBSCRIPTION = 4;
+
+  /**
+   * Hidden constructor for a utility class.
+   */
+  private BenchmarkRunner() {
+  }
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param args an optional regular expression selecting the benchmarks to run
+   * @throws RunnerException if a benchmark failed
+   */
+  public static void main(final String[] args) throws RunnerException {
+    String include = args.length > 0 ? args[0] : ".*";
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads : new int[]{1, cores, cores * OVERSUBSCRIPTION}) {
+      Options options = new OptionsBuilder()
+              .include(BenchmarkRunner.class.getPackage().getName() + "\\." + include)
+              .threads(threads)
+              .addProfiler(GCProfiler.class)
+              .build();
+      new Runner(options).run();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ *   File      : EngineBenchmark.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.benchmark;
+
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The <tt>EngineBenchmark</tt> class measures the cost of parsing a template and of rendering a parsed template
+ * separately, without the service around them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+  /**
+   * Parse the template source.
+   *
+   * @param state the benchmark state
+   * @return the parsed template
+   * @throws IOException if the template could not be parsed
+   */
+  @Benchmark
+  public Template parse(final GeneratorBenchmarkState state) throws IOException {
+    return state.parse();
+  }
+
+  /**
+   * Render the parsed template, discarding the output.
+   *
+   * @param state the benchmark state
+   * @return the number of characters rendered
+   * @throws IOException if the output could not be written
+   * @throws TemplateException if the template could not be processed
+   */
+  @Benchmark
+  public long render(final GeneratorBenchmarkState state) throws IOException, TemplateException {
+    CountingWriter out = new CountingWriter();
+    state.getParsedTemplate().process(state.getData(), out);
+    return out.count;
+  }
+
+  /**
+   * The <tt>CountingWriter</tt> class discards its output, counting the characters written.
+   */
+  private static final class CountingWriter extends Writer {
+
+    /** The number of characters written. */
+    private long count;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) {
+      count += len;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final String str, final int off, final int len) {
+      count += len;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *   File      : GenerateBenchmark.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The <tt>GenerateBenchmark</tt> class measures the end to end cost of generating a document through the service and
+ * the handler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateBenchmark {
+
+  /**
+   * Generate a document from a template path.
+   *
+   * @param state the benchmark state
+   * @return the generated content
+   */
+  @Benchmark
+  public byte[] generateFromPath(final GeneratorBenchmarkState state) {
+    return state.getService().generate(state.getTemplatePath(), state.getData());
+  }
+
+  /**
+   * Generate a document from a template input stream, parsing the template on every call.
+   *
+   * @param state the benchmark state
+   * @return the generated content
+   */
+  @Benchmark
+  public byte[] generateFromStream(final GeneratorBenchmarkState state) {
+    return state.getService().generate(new ByteArrayInputStream(state.getSourceBytes()), state.getData());
+  }
+
+  /**
+   * Generate a document from a template input stream with the input stream template cache enabled.
+   *
+   * @param state the benchmark state
+   * @return the generated content
+   */
+  @Benchmark
+  public byte[] generateFromCachedStream(final GeneratorBenchmarkState state) {
+    return state.getStreamCachingService().generate(new ByteArrayInputStream(state.getSourceBytes()),
+            state.getData());
+  }
+
+  /**
+   * Generate a document through the handler.
+   *
+   * @param state the benchmark state
+   * @return the generated content
+   */
+  @Benchmark
+  public byte[] handlerGenerate(final GeneratorBenchmarkState state) {
+    return state.getHandler().generate(state.getGenerateAttributes(), state.getData(), null);
+  }
+}
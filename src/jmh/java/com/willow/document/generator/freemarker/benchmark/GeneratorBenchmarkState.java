@@ -0,0 +1,332 @@
+/*
+ *   File      : GeneratorBenchmarkState.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.benchmark;
+
+import com.willow.common.document.generator.support.DocumentGeneratorStringTool;
+import com.willow.common.service.ServiceException;
+import com.willow.document.generator.freemarker.handler.impl.DocumentGenerationFreeMarkerHandlerImpl;
+import com.willow.document.generator.freemarker.model.impl.FastObjectWrapper;
+import com.willow.document.generator.freemarker.service.impl.LocalFreeMarkerDocumentGeneratorService;
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.Template;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ *
+ * The <tt>GeneratorBenchmarkState</tt> class holds the services, templates and data shared by the benchmarks. The
+ * "small" document is the TNS update session JSON template from the test suite, the "large" document is a generated
+ * statement with a list of line items and included header and footer fragments.
+ */
+@State(Scope.Benchmark)
+public class GeneratorBenchmarkState {
+
+  /** The charset of the template files. */
+  private static final Charset CHARSET = Charset.forName("utf-8");
+  /** The name of the template file. */
+  private static final String TEMPLATE_FILE = "document.ftl";
+  /** The attribute key used by the handler to find the template. */
+  private static final String TEMPLATE_ATTRIBUTE = "template";
+  /** The number of line items in the large document. */
+  private static final int LINE_ITEMS = 2000;
+
+  /** The document to generate, "small" or "large". */
+  @Param({"small", "large"})
+  private String document;
+  /** The object wrapper used by the services, "default" or "fast". */
+  @Param({"default", "fast"})
+  private String wrapper;
+
+  /** The directory holding the template files. */
+  private File templateDir;
+  /** The template source. */
+  private String source;
+  /** The template source as bytes. */
+  private byte[] sourceBytes;
+  /** The template data. */
+  private Map<String, Object> data;
+  /** The service with default settings. */
+  private LocalFreeMarkerDocumentGeneratorService service;
+  /** The service with the input stream template cache enabled. */
+  private LocalFreeMarkerDocumentGeneratorService streamCachingService;
+  /** The handler delegating to the service. */
+  private DocumentGenerationFreeMarkerHandlerImpl handler;
+  /** The attributes passed to the handler. */
+  private Map<String, String> generateAttributes;
+  /** A FreeMarker configuration matching the service, used to measure the engine alone. */
+  private Configuration configuration;
+  /** The template parsed once, used to measure rendering alone. */
+  private Template parsedTemplate;
+
+  /**
+   * Write the template files and start the services.
+   *
+   * @throws IOException if the template files could not be written
+   * @throws ServiceException if a service could not be started
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, ServiceException {
+    templateDir = Files.createTempDirectory("freemarker-benchmark").toFile();
+    if ("small".equals(document)) {
+      source = readResource("templates/updateSessionTemplate.txt");
+      data = buildSmallData();
+    } else {
+      source = buildLargeTemplate();
+      data = buildLargeData();
+    }
+    sourceBytes = source.getBytes(CHARSET);
+    Files.write(new File(templateDir, TEMPLATE_FILE).toPath(), sourceBytes);
+
+    service = createService(false);
+    streamCachingService = createService(true);
+
+    handler = new DocumentGenerationFreeMarkerHandlerImpl();
+    handler.setService(service);
+    handler.setTemplateLocationAttributeKey(TEMPLATE_ATTRIBUTE);
+    handler.setTemplates(Collections.singletonMap(document, TEMPLATE_FILE));
+    generateAttributes = Collections.singletonMap(TEMPLATE_ATTRIBUTE, document);
+
+    configuration = new Configuration(Configuration.VERSION_2_3_32);
+    configuration.setObjectWrapper(new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_32).build());
+    configuration.setTemplateLoader(new FileTemplateLoader(templateDir));
+    parsedTemplate = parse();
+  }
+
+  /**
+   * Stop the services and remove the template files.
+   *
+   * @throws ServiceException if a service could not be stopped
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws ServiceException {
+    service.stop();
+    streamCachingService.stop();
+    File[] files = templateDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    templateDir.delete();
+  }
+
+  /**
+   * Parse the template source with the benchmark configuration.
+   *
+   * @return a FreeMarker Template object
+   * @throws IOException if the template could not be parsed
+   */
+  Template parse() throws IOException {
+    return new Template("name", new StringReader(source), configuration);
+  }
+
+  /**
+   * Get the name of the template file, relative to the service base path.
+   *
+   * @return a String
+   */
+  String getTemplatePath() {
+    return TEMPLATE_FILE;
+  }
+
+  /**
+   * Get the template source as bytes.
+   *
+   * @return the bytes
+   */
+  byte[] getSourceBytes() {
+    return sourceBytes;
+  }
+
+  /**
+   * Get the template data.
+   *
+   * @return a map
+   */
+  Map<String, Object> getData() {
+    return data;
+  }
+
+  /**
+   * Get the service with default settings.
+   *
+   * @return the service
+   */
+  LocalFreeMarkerDocumentGeneratorService getService() {
+    return service;
+  }
+
+  /**
+   * Get the service with the input stream template cache enabled.
+   *
+   * @return the service
+   */
+  LocalFreeMarkerDocumentGeneratorService getStreamCachingService() {
+    return streamCachingService;
+  }
+
+  /**
+   * Get the handler delegating to the service.
+   *
+   * @return the handler
+   */
+  DocumentGenerationFreeMarkerHandlerImpl getHandler() {
+    return handler;
+  }
+
+  /**
+   * Get the attributes passed to the handler.
+   *
+   * @return a map
+   */
+  Map<String, String> getGenerateAttributes() {
+    return generateAttributes;
+  }
+
+  /**
+   * Get the template parsed once.
+   *
+   * @return a FreeMarker Template object
+   */
+  Template getParsedTemplate() {
+    return parsedTemplate;
+  }
+
+  /**
+   * Create and start a service reading templates from the template directory.
+   *
+   * @param streamCache true to enable the input stream template cache
+   * @return the started service
+   * @throws IOException if the template loader could not be created
+   * @throws ServiceException if the service could not be started
+   */
+  private LocalFreeMarkerDocumentGeneratorService createService(final boolean streamCache)
+          throws IOException, ServiceException {
+    LocalFreeMarkerDocumentGeneratorService result = new LocalFreeMarkerDocumentGeneratorService();
+    result.setStringUtil(new DocumentGeneratorStringTool());
+    result.setBasePath(templateDir.getPath());
+    result.setTemplateLoaders(Collections.<TemplateLoader>singletonList(new FileTemplateLoader(templateDir)));
+    result.setStreamTemplateCacheEnabled(streamCache);
+    if ("fast".equals(wrapper)) {
+      result.setObjectWrapper(new FastObjectWrapper());
+    }
+    result.start();
+    return result;
+  }
+
+  /**
+   * Write the header and footer fragments and build the statement template that includes them.
+   *
+   * @return the template source
+   * @throws IOException if the fragments could not be written
+   */
+  private String buildLargeTemplate() throws IOException {
+    Files.write(new File(templateDir, "header.ftl").toPath(),
+            "{\"statement\":{\"account\":\"${account.number}\",\"name\":\"${account.name}\"},".getBytes(CHARSET));
+    Files.write(new File(templateDir, "footer.ftl").toPath(),
+            "\"total\":\"${total}\",\"currency\":\"${account.currency}\"}".getBytes(CHARSET));
+    return "<#include \"header.ftl\">\"lines\":[<#list items as item>"
+            + "{\"line\":\"${item.reference}\",\"description\":\"${item.description}\","
+            + "\"amount\":\"${item.amount}\"<#if item.note?has_content>,\"note\":\"${item.note}\"</#if>}"
+            + "<#if item_has_next>,</#if></#list>],<#include \"footer.ftl\">";
+  }
+
+  /**
+   * Build the data for the small document.
+   *
+   * @return the template data
+   */
+  private static Map<String, Object> buildSmallData() {
+    Map<String, Object> expiry = new HashMap<>();
+    expiry.put("month", "05");
+    expiry.put("year", "17");
+    Map<String, Object> card = new HashMap<>();
+    card.put("number", "5123456789012346");
+    card.put("expiry", expiry);
+    Map<String, Object> provided = new HashMap<>();
+    provided.put("card", card);
+    Map<String, Object> sourceOfFunds = new HashMap<>();
+    sourceOfFunds.put("provided", provided);
+    sourceOfFunds.put("type", "CARD");
+    Map<String, Object> result = new HashMap<>();
+    result.put("sourceOfFunds", sourceOfFunds);
+    return result;
+  }
+
+  /**
+   * Build the data for the large document.
+   *
+   * @return the template data
+   */
+  private static Map<String, Object> buildLargeData() {
+    Map<String, Object> account = new HashMap<>();
+    account.put("number", "12345678");
+    account.put("name", "Benchmark Account");
+    account.put("currency", "GBP");
+    List<Map<String, Object>> items = new ArrayList<>(LINE_ITEMS);
+    for (int i = 0; i < LINE_ITEMS; i++) {
+      Map<String, Object> item = new HashMap<>();
+      item.put("reference", "REF" + i);
+      item.put("description", "Line item number " + i);
+      item.put("amount", (i % 100) + ".99");
+      item.put("note", i % 10 == 0 ? "Adjusted" : "");
+      items.add(item);
+    }
+    Map<String, Object> result = new HashMap<>();
+    result.put("account", account);
+    result.put("items", items);
+    result.put("total", "99999.99");
+    return result;
+  }
+
+  /**
+   * Read a classpath resource as a String.
+   *
+   * @param name the resource name
+   * @return the content
+   * @throws IOException if the resource could not be read
+   */
+  private static String readResource(final String name) throws IOException {
+    InputStream in = GeneratorBenchmarkState.class.getClassLoader().getResourceAsStream(name);
+    if (in == null) {
+      throw new IOException("Missing benchmark resource " + name);
+    }
+    try {
+      StringBuilder result = new StringBuilder();
+      byte[] buffer = new byte[4096];
+      int count = in.read(buffer);
+      while (count != -1) {
+        result.append(new String(buffer, 0, count, CHARSET));
+        count = in.read(buffer);
+      }
+      return result.toString();
+    } finally {
+      in.close();
+    }
+  }
+}
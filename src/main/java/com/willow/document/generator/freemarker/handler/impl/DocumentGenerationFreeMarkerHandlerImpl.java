@@ -10,9 +10,14 @@
 package com.willow.document.generator.freemarker.handler.impl;
 
 import com.willow.common.document.generator.service.DocumentGenerationHandler;
+import com.willow.document.generator.freemarker.model.SharedContext;
 import com.willow.document.generator.freemarker.service.FreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.service.RenderLimits;
+import com.willow.document.generator.freemarker.service.TemplateHandle;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -33,6 +38,32 @@ public final class DocumentGenerationFreeMarkerHandlerImpl implements DocumentGe
    */
   private String templateLocationAttributeKey;
 
+  /**
+   * The key used to pass the render time limit in milliseconds.
+   */
+  private String maxRenderMillisAttributeKey = "maxRenderMillis";
+
+  /**
+   * The key used to pass the document size limit in bytes.
+   */
+  private String maxOutputBytesAttributeKey = "maxOutputBytes";
+
+  /**
+   * The key used to pass the loop iteration limit.
+   */
+  private String maxLoopIterationsAttributeKey = "maxLoopIterations";
+
+  /**
+   * The key used to pass the name of the shared context the data overlays.
+   */
+  private String sharedContextAttributeKey = "sharedContext";
+
+  /**
+   * The precompiled template handles, keyed by template location. Each is created when its template location is first
+   * used, so a template that cannot be compiled only affects its own location.
+   */
+  private final Map<String, TemplateHandle> handles = new ConcurrentHashMap<String, TemplateHandle>();
+
   public DocumentGenerationFreeMarkerHandlerImpl() {
     templates = new HashMap<String, String>();
   }
@@ -53,6 +84,7 @@ public final class DocumentGenerationFreeMarkerHandlerImpl implements DocumentGe
    */
   public void setTemplates(Map<String, String> templates) {
     this.templates = templates;
+    handles.clear();
   }
 
   /**
@@ -73,6 +105,80 @@ public final class DocumentGenerationFreeMarkerHandlerImpl implements DocumentGe
     this.templateLocationAttributeKey = key;
   }
 
+  /**
+   * Get the key used to pass the render time limit in milliseconds.
+   *
+   * @return a String
+   */
+  public String getMaxRenderMillisAttributeKey() {
+    return maxRenderMillisAttributeKey;
+  }
+
+  /**
+   * Set the key used to pass the render time limit in milliseconds.
+   *
+   * @param key the attribute key
+   */
+  public void setMaxRenderMillisAttributeKey(final String key) {
+    maxRenderMillisAttributeKey = key;
+  }
+
+  /**
+   * Get the key used to pass the document size limit in bytes.
+   *
+   * @return a String
+   */
+  public String getMaxOutputBytesAttributeKey() {
+    return maxOutputBytesAttributeKey;
+  }
+
+  /**
+   * Set the key used to pass the document size limit in bytes.
+   *
+   * @param key the attribute key
+   */
+  public void setMaxOutputBytesAttributeKey(final String key) {
+    maxOutputBytesAttributeKey = key;
+  }
+
+  /**
+   * Get the key used to pass the loop iteration limit.
+   *
+   * @return a String
+   */
+  public String getMaxLoopIterationsAttributeKey() {
+    return maxLoopIterationsAttributeKey;
+  }
+
+  /**
+   * Set the key used to pass the loop iteration limit.
+   *
+   * @param key the attribute key
+   */
+  public void setMaxLoopIterationsAttributeKey(final String key) {
+    maxLoopIterationsAttributeKey = key;
+  }
+
+  /**
+   * Get the key used to pass the name of the shared context the data overlays.
+   *
+   * @return the attribute key
+   */
+  public String getSharedContextAttributeKey() {
+    return sharedContextAttributeKey;
+  }
+
+  /**
+   * Set the key used to pass the name of the shared context the data overlays. When the attribute names a shared
+   * context registered with the service, the data is looked up before the shared context instead of being rendered
+   * on its own.
+   *
+   * @param key the attribute key
+   */
+  public void setSharedContextAttributeKey(final String key) {
+    sharedContextAttributeKey = key;
+  }
+
   /**
    * Get the FreeMarker generation service.
    *
@@ -89,6 +195,15 @@ public final class DocumentGenerationFreeMarkerHandlerImpl implements DocumentGe
    */
   public void setService(final FreeMarkerDocumentGeneratorService newService) {
     service = newService;
+    handles.clear();
+  }
+
+  /**
+   * Discard the precompiled template handles, so that each template location is resolved again from the map of
+   * templates when it is next used. This must be called if the contents of the map of templates are changed in place.
+   */
+  public void refresh() {
+    handles.clear();
   }
 
   /**
@@ -97,12 +212,120 @@ public final class DocumentGenerationFreeMarkerHandlerImpl implements DocumentGe
   @Override
   public byte[] generate(final Map<String, String> generateAttributes, final Map<String, Object> data,
                          final String sessionId) {
+    TemplateHandle handle = resolveTemplateHandle(generateAttributes);
+    RenderLimits limits = resolveRenderLimits(generateAttributes);
+    SharedContext shared = resolveSharedContext(generateAttributes);
+    byte[] result;
+    if (shared != null) {
+      result = handle.generate(shared.overlay(data), limits);
+    } else {
+      result = limits == null ? handle.generate(data) : handle.generate(data, limits);
+    }
+    return result;
+  }
+
+  /**
+   * Generate a document, writing the content to an output stream as it is generated rather than returning it. For
+   * callers that can consume the content as a stream, this avoids holding the whole document in memory.
+   *
+   * @param generateAttributes the attributes describing the document to generate
+   * @param data the template data
+   * @param sessionId the session identifier
+   * @param out the destination for the generated content, flushed but not closed
+   */
+  public void generate(final Map<String, String> generateAttributes, final Map<String, Object> data,
+                       final String sessionId, final OutputStream out) {
+    TemplateHandle handle = resolveTemplateHandle(generateAttributes);
+    RenderLimits limits = resolveRenderLimits(generateAttributes);
+    SharedContext shared = resolveSharedContext(generateAttributes);
+    if (shared != null) {
+      handle.generate(shared.overlay(data), out, limits);
+    } else if (limits == null) {
+      handle.generate(data, out);
+    } else {
+      handle.generate(data, out, limits);
+    }
+  }
+
+  /**
+   * Return the handle of the template configured for the template location in the generate attributes.
+   *
+   * @param generateAttributes the attributes describing the document to generate
+   * @return the template handle
+   */
+  private TemplateHandle resolveTemplateHandle(final Map<String, String> generateAttributes) {
     String key = generateAttributes.get(templateLocationAttributeKey);
-    String templateName = templates.get(key);
-    if (templateName == null) {
-      throw new IllegalArgumentException("There was no template defined for key " + key);
+    TemplateHandle result = key != null ? handles.get(key) : null;
+    if (result == null) {
+      String templatePath = key != null ? templates.get(key) : null;
+      if (templatePath == null) {
+        throw new IllegalArgumentException("There was no template defined for key " + key);
+      }
+      result = getService().getTemplateHandle(templatePath);
+      TemplateHandle existing = handles.putIfAbsent(key, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the shared context named in the generate attributes.
+   *
+   * @param generateAttributes the attributes describing the document to generate
+   * @return the shared context, or null if none was named
+   */
+  private SharedContext resolveSharedContext(final Map<String, String> generateAttributes) {
+    String name = sharedContextAttributeKey != null ? generateAttributes.get(sharedContextAttributeKey) : null;
+    SharedContext result = null;
+    if (name != null && name.trim().length() > 0) {
+      result = getService().getSharedContext(name.trim());
+      if (result == null) {
+        throw new IllegalArgumentException("There was no shared context registered for name " + name);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the render limits passed in the generate attributes.
+   *
+   * @param generateAttributes the attributes describing the document to generate
+   * @return the limits or null if none were passed
+   */
+  private RenderLimits resolveRenderLimits(final Map<String, String> generateAttributes) {
+    Long maxRenderMillis = parseLimit(generateAttributes, maxRenderMillisAttributeKey);
+    Long maxOutputBytes = parseLimit(generateAttributes, maxOutputBytesAttributeKey);
+    Long maxLoopIterations = parseLimit(generateAttributes, maxLoopIterationsAttributeKey);
+    RenderLimits result = null;
+    if (maxRenderMillis != null || maxOutputBytes != null || maxLoopIterations != null) {
+      result = new RenderLimits();
+      result.setMaxRenderMillis(maxRenderMillis);
+      result.setMaxOutputBytes(maxOutputBytes);
+      result.setMaxLoopIterations(maxLoopIterations);
+    }
+    return result;
+  }
+
+  /**
+   * Parse a limit from the generate attributes.
+   *
+   * @param generateAttributes the attributes describing the document to generate
+   * @param key the key of the limit
+   * @return the limit or null if not passed
+   */
+  private Long parseLimit(final Map<String, String> generateAttributes, final String key) {
+    String value = key != null ? generateAttributes.get(key) : null;
+    Long result = null;
+    if (value != null && value.trim().length() > 0) {
+      try {
+        result = Long.valueOf(value.trim());
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("The value " + value + " for " + key + " is not a valid limit", ex);
+      }
     }
-    return getService().generate(templateName, data);
+    return result;
   }
 
 }
@@ -0,0 +1,38 @@
+/*
+ *   File      : GeneratorMetrics.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.metrics;
+
+/**
+ * The GeneratorMetrics interface describes a registry of per-template metrics for the FreeMarker document generator
+ * service. Implementations may keep the metrics locally or forward them to a monitoring system.
+ */
+public interface GeneratorMetrics {
+
+  /**
+   * Return the metrics for a template, creating them if necessary. The service keeps the returned instance with the
+   * compiled template, so this is not called on every generate call.
+   *
+   * @param templateName the name of the template
+   * @return the template metrics
+   */
+  TemplateMetrics forTemplate(String templateName);
+
+  /**
+   * Discard the metrics of a template, called when the template is deleted.
+   *
+   * @param templateName the name of the template
+   */
+  void remove(String templateName);
+
+  /**
+   * Discard the metrics of every template, called when the service stops.
+   */
+  void clear();
+}
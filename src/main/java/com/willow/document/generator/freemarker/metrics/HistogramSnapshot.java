@@ -0,0 +1,116 @@
+/*
+ *   File      : HistogramSnapshot.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ *
+ * The <tt>HistogramSnapshot</tt> class is a point in time summary of a histogram. Percentiles are approximate, being
+ * the upper bound of the power of two bucket holding the percentile.
+ */
+public final class HistogramSnapshot {
+
+  /** The number of values recorded. */
+  private final long count;
+  /** The mean of the values recorded. */
+  private final long mean;
+  /** The approximate median. */
+  private final long p50;
+  /** The approximate 90th percentile. */
+  private final long p90;
+  /** The approximate 99th percentile. */
+  private final long p99;
+  /** The largest value recorded. */
+  private final long max;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param count the number of values recorded
+   * @param mean the mean of the values recorded
+   * @param p50 the approximate median
+   * @param p90 the approximate 90th percentile
+   * @param p99 the approximate 99th percentile
+   * @param max the largest value recorded
+   */
+  @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+  public HistogramSnapshot(final long count, final long mean, final long p50, final long p90, final long p99,
+                           final long max) {
+    this.count = count;
+    this.mean = mean;
+    this.p50 = p50;
+    this.p90 = p90;
+    this.p99 = p99;
+    this.max = max;
+  }
+
+  /**
+   * Get the number of values recorded.
+   *
+   * @return the count
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the mean of the values recorded.
+   *
+   * @return the mean
+   */
+  public long getMean() {
+    return mean;
+  }
+
+  /**
+   * Get the approximate median.
+   *
+   * @return the median
+   */
+  public long getP50() {
+    return p50;
+  }
+
+  /**
+   * Get the approximate 90th percentile.
+   *
+   * @return the percentile
+   */
+  public long getP90() {
+    return p90;
+  }
+
+  /**
+   * Get the approximate 99th percentile.
+   *
+   * @return the percentile
+   */
+  public long getP99() {
+    return p99;
+  }
+
+  /**
+   * Get the largest value recorded.
+   *
+   * @return the maximum
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%d p50=%d p90=%d p99=%d max=%d", count, mean, p50, p90, p99, max);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ *   File      : TemplateMetrics.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.metrics;
+
+/**
+ * The TemplateMetrics interface describes the metrics recorded for a single template. The record methods are called
+ * on the generate path and must be cheap, thread-safe and must not allocate.
+ */
+public interface TemplateMetrics {
+
+  /**
+   * The phases of document generation that are timed.
+   */
+  enum Phase {
+    /** Reading the template source. */
+    LOAD,
+    /** Parsing the template source into a FreeMarker template. */
+    PARSE,
+    /** Processing the template with the data to produce the document. */
+    RENDER
+  }
+
+  /**
+   * Record a generate call.
+   */
+  void recordCall();
+
+  /**
+   * Record a failed generate call.
+   */
+  void recordError();
+
+  /**
+   * Record the time taken by a phase.
+   *
+   * @param phase the phase
+   * @param nanos the elapsed time in nanoseconds
+   */
+  void recordPhase(Phase phase, long nanos);
+
+  /**
+   * Record the size of a generated document.
+   *
+   * @param bytes the size in bytes
+   */
+  void recordOutputSize(long bytes);
+
+  /**
+   * Record a request served from the compiled template cache.
+   */
+  void recordCacheHit();
+
+  /**
+   * Record a request that required the template to be loaded.
+   */
+  void recordCacheMiss();
+
+  /**
+   * Record the eviction of the template from the compiled template cache.
+   */
+  void recordCacheEviction();
+}
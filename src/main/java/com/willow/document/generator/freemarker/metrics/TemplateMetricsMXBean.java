@@ -0,0 +1,86 @@
+/*
+ *   File      : TemplateMetricsMXBean.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.metrics;
+
+/**
+ * The TemplateMetricsMXBean interface describes the metrics of a single template as exposed through JMX.
+ */
+public interface TemplateMetricsMXBean {
+
+  /**
+   * Get the name of the template.
+   *
+   * @return a String
+   */
+  String getTemplateName();
+
+  /**
+   * Get the number of generate calls.
+   *
+   * @return the count
+   */
+  long getCallCount();
+
+  /**
+   * Get the number of failed generate calls.
+   *
+   * @return the count
+   */
+  long getErrorCount();
+
+  /**
+   * Get the number of requests served from the compiled template cache.
+   *
+   * @return the count
+   */
+  long getCacheHitCount();
+
+  /**
+   * Get the number of requests that required the template to be loaded.
+   *
+   * @return the count
+   */
+  long getCacheMissCount();
+
+  /**
+   * Get the number of times the template was evicted from the compiled template cache.
+   *
+   * @return the count
+   */
+  long getCacheEvictionCount();
+
+  /**
+   * Get the time taken to read the template source.
+   *
+   * @return a snapshot in nanoseconds
+   */
+  HistogramSnapshot getLoadNanos();
+
+  /**
+   * Get the time taken to parse the template source.
+   *
+   * @return a snapshot in nanoseconds
+   */
+  HistogramSnapshot getParseNanos();
+
+  /**
+   * Get the time taken to render documents.
+   *
+   * @return a snapshot in nanoseconds
+   */
+  HistogramSnapshot getRenderNanos();
+
+  /**
+   * Get the size of the generated documents.
+   *
+   * @return a snapshot in bytes
+   */
+  HistogramSnapshot getOutputBytes();
+}
@@ -0,0 +1,178 @@
+/*
+ *   File      : LocalGeneratorMetrics.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.metrics.impl;
+
+import com.willow.document.generator.freemarker.metrics.GeneratorMetrics;
+import com.willow.document.generator.freemarker.metrics.TemplateMetrics;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>LocalGeneratorMetrics</tt> class keeps per-template metrics in memory. If a JMX domain is set, the metrics
+ * of each template are also registered as an MXBean with the platform MBean server, and unregistered when the
+ * template is deleted or the service stops. Registries sharing a JMX domain need distinct registry names.
+ */
+public final class LocalGeneratorMetrics implements GeneratorMetrics {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(LocalGeneratorMetrics.class);
+
+  /** The metrics by template name. */
+  private final ConcurrentMap<String, LocalTemplateMetrics> templates = new ConcurrentHashMap<>();
+  /** The names the metrics were registered under, by template name. */
+  private final ConcurrentMap<String, ObjectName> registered = new ConcurrentHashMap<>();
+  /** The JMX domain the metrics are registered under, or null if they are not registered. */
+  private String jmxDomain;
+  /** The name distinguishing this registry from others in the same JMX domain. */
+  private String registryName = "default";
+
+  /**
+   * Get the JMX domain the metrics are registered under.
+   *
+   * @return a String or null if the metrics are not registered
+   */
+  public String getJmxDomain() {
+    return jmxDomain;
+  }
+
+  /**
+   * Set the JMX domain the metrics are registered under. Applies to templates first seen after it is set.
+   *
+   * @param domain the domain or null to not register the metrics
+   */
+  public void setJmxDomain(final String domain) {
+    jmxDomain = domain;
+  }
+
+  /**
+   * Get the name distinguishing this registry from others in the same JMX domain.
+   *
+   * @return a String
+   */
+  public String getRegistryName() {
+    return registryName;
+  }
+
+  /**
+   * Set the name distinguishing this registry from others in the same JMX domain.
+   *
+   * @param name the registry name
+   */
+  public void setRegistryName(final String name) {
+    registryName = name;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateMetrics forTemplate(final String templateName) {
+    LocalTemplateMetrics result = templates.get(templateName);
+    if (result == null) {
+      LocalTemplateMetrics created = new LocalTemplateMetrics(templateName);
+      result = templates.putIfAbsent(templateName, created);
+      if (result == null) {
+        result = created;
+        register(created);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void remove(final String templateName) {
+    if (templates.remove(templateName) != null) {
+      unregister(templateName);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    for (String templateName : templates.keySet()) {
+      remove(templateName);
+    }
+  }
+
+  /**
+   * Get the metrics of every template seen so far.
+   *
+   * @return the template metrics
+   */
+  public Collection<LocalTemplateMetrics> getTemplateMetrics() {
+    return Collections.unmodifiableCollection(templates.values());
+  }
+
+  /**
+   * Get the metrics of a template.
+   *
+   * @param templateName the name of the template
+   * @return the template metrics or null if the template has not been seen
+   */
+  public LocalTemplateMetrics getTemplateMetrics(final String templateName) {
+    return templates.get(templateName);
+  }
+
+  /**
+   * Register the metrics of a template with the platform MBean server if a JMX domain is set.
+   *
+   * @param metrics the template metrics
+   */
+  private void register(final LocalTemplateMetrics metrics) {
+    String domain = jmxDomain;
+    if (domain == null) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(domain + ":type=TemplateMetrics,registry=" + ObjectName.quote(registryName)
+              + ",template=" + ObjectName.quote(metrics.getTemplateName()));
+      if (server.isRegistered(name)) {
+        LOG.warn("The metrics of template " + metrics.getTemplateName() + " were not registered, as " + name
+                + " is already registered; give each registry in the domain its own registry name");
+      } else {
+        server.registerMBean(metrics, name);
+        registered.put(metrics.getTemplateName(), name);
+      }
+    } catch (JMException ex) {
+      LOG.warn("Failed to register the metrics of template " + metrics.getTemplateName(), ex);
+    }
+  }
+
+  /**
+   * Unregister the metrics of a template from the platform MBean server if this registry registered them.
+   *
+   * @param templateName the name of the template
+   */
+  private void unregister(final String templateName) {
+    ObjectName name = registered.remove(templateName);
+    if (name == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (JMException ex) {
+      LOG.warn("Failed to unregister the metrics of template " + templateName, ex);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ *   File      : LocalTemplateMetrics.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.metrics.impl;
+
+import com.willow.document.generator.freemarker.metrics.HistogramSnapshot;
+import com.willow.document.generator.freemarker.metrics.TemplateMetrics;
+import com.willow.document.generator.freemarker.metrics.TemplateMetricsMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The <tt>LocalTemplateMetrics</tt> class keeps the metrics of a single template in memory using striped counters and
+ * power of two histograms.
+ */
+public final class LocalTemplateMetrics implements TemplateMetrics, TemplateMetricsMXBean {
+
+  /** The name of the template. */
+  private final String templateName;
+  /** The number of generate calls. */
+  private final LongAdder calls = new LongAdder();
+  /** The number of failed generate calls. */
+  private final LongAdder errors = new LongAdder();
+  /** The number of cache hits. */
+  private final LongAdder cacheHits = new LongAdder();
+  /** The number of cache misses. */
+  private final LongAdder cacheMisses = new LongAdder();
+  /** The number of cache evictions. */
+  private final LongAdder cacheEvictions = new LongAdder();
+  /** The time taken by each phase, indexed by phase ordinal. */
+  private final Log2Histogram[] phases = new Log2Histogram[Phase.values().length];
+  /** The size of the generated documents. */
+  private final Log2Histogram outputBytes = new Log2Histogram();
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param name the name of the template
+   */
+  public LocalTemplateMetrics(final String name) {
+    templateName = name;
+    for (int i = 0; i < phases.length; i++) {
+      phases[i] = new Log2Histogram();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordCall() {
+    calls.increment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordError() {
+    errors.increment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordPhase(final Phase phase, final long nanos) {
+    phases[phase.ordinal()].record(nanos);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordOutputSize(final long bytes) {
+    outputBytes.record(bytes);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordCacheHit() {
+    cacheHits.increment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordCacheMiss() {
+    cacheMisses.increment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void recordCacheEviction() {
+    cacheEvictions.increment();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getTemplateName() {
+    return templateName;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getCallCount() {
+    return calls.sum();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getErrorCount() {
+    return errors.sum();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getCacheHitCount() {
+    return cacheHits.sum();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getCacheMissCount() {
+    return cacheMisses.sum();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getCacheEvictionCount() {
+    return cacheEvictions.sum();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public HistogramSnapshot getLoadNanos() {
+    return phases[Phase.LOAD.ordinal()].snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public HistogramSnapshot getParseNanos() {
+    return phases[Phase.PARSE.ordinal()].snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public HistogramSnapshot getRenderNanos() {
+    return phases[Phase.RENDER.ordinal()].snapshot();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public HistogramSnapshot getOutputBytes() {
+    return outputBytes.snapshot();
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ *   File      : Log2Histogram.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.metrics.impl;
+
+import com.willow.document.generator.freemarker.metrics.HistogramSnapshot;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The <tt>Log2Histogram</tt> class is a concurrent histogram of non-negative values with a bucket per power of two.
+ * Recording a value increments striped counters and does not allocate.
+ */
+final class Log2Histogram {
+
+  /** The number of buckets, one per bit of a long. */
+  private static final int BUCKETS = Long.SIZE;
+
+  /** The count of values in each bucket, bucket i holding values below 2^i. */
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  /** The sum of the values recorded. */
+  private final LongAdder sum = new LongAdder();
+  /** The largest value recorded. */
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * The default constructor.
+   */
+  Log2Histogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Record a value.
+   *
+   * @param value the value, negative values are recorded as zero
+   */
+  void record(final long value) {
+    long recorded = Math.max(0, value);
+    buckets[Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(recorded))].increment();
+    sum.add(recorded);
+    max.accumulate(recorded);
+  }
+
+  /**
+   * Summarise the values recorded so far.
+   *
+   * @return the snapshot
+   */
+  HistogramSnapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      count += counts[i];
+    }
+    long largest = max.get();
+    return new HistogramSnapshot(count, count == 0 ? 0 : sum.sum() / count, percentile(counts, count, 0.5, largest),
+            percentile(counts, count, 0.9, largest), percentile(counts, count, 0.99, largest), largest);
+  }
+
+  /**
+   * Return the upper bound of the bucket holding a percentile, limited to the largest value recorded.
+   *
+   * @param counts the bucket counts
+   * @param count the total count
+   * @param fraction the percentile as a fraction
+   * @param largest the largest value recorded
+   * @return the approximate percentile
+   */
+  private static long percentile(final long[] counts, final long count, final double fraction, final long largest) {
+    long target = (long) Math.ceil(count * fraction);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= target && seen > 0) {
+        return i == 0 ? 0 : Math.min(largest, i == BUCKETS - 1 ? largest : (1L << i) - 1);
+      }
+    }
+    return largest;
+  }
+}
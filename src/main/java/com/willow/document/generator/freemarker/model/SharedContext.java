@@ -0,0 +1,45 @@
+/*
+ *   File      : SharedContext.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.model;
+
+import freemarker.template.TemplateHashModel;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The SharedContext interface describes an immutable data model, wrapped once, that many documents are generated
+ * against. Each document supplies only a small overlay of request data, which is looked up before the shared context
+ * without either being copied.
+ */
+public interface SharedContext {
+
+  /**
+   * Get the names of the top level values in the shared context.
+   *
+   * @return an unmodifiable set of names
+   */
+  Set<String> getNames();
+
+  /**
+   * Get the wrapped shared context on its own.
+   *
+   * @return the wrapped data model
+   */
+  TemplateHashModel getModel();
+
+  /**
+   * Return a data model that looks up each name in an overlay first and in the shared context if the overlay has no
+   * value for it. The overlay is read, not copied, and should not be changed while a document is generated from it.
+   *
+   * @param overlay the request data, or null for none
+   * @return the combined data model
+   */
+  TemplateHashModel overlay(Map<String, Object> overlay);
+}
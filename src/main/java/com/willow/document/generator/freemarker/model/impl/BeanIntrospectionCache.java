@@ -0,0 +1,147 @@
+/*
+ *   File      : BeanIntrospectionCache.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.model.impl;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The <tt>BeanIntrospectionCache</tt> class holds the readable properties of the bean classes seen in data models, so
+ * that each class is introspected once rather than on every render. Lookups of cached classes take no lock. The cache
+ * holds at most a fixed number of classes; when a newly introspected class takes it over that number, other classes
+ * are discarded, in no particular order, until it is back within it.
+ */
+final class BeanIntrospectionCache {
+
+  /** The maximum number of classes held. */
+  private final int maxClasses;
+  /** The readable properties by class. */
+  private final ConcurrentMap<Class<?>, Map<String, Method>> properties =
+          new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+  /** The number of lookups that found the class in the cache. */
+  private final LongAdder hitCount = new LongAdder();
+  /** The number of lookups that introspected the class. */
+  private final LongAdder missCount = new LongAdder();
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param maximumClasses the maximum number of classes held
+   */
+  BeanIntrospectionCache(final int maximumClasses) {
+    maxClasses = maximumClasses;
+  }
+
+  /**
+   * Return the read method of a property of a class.
+   *
+   * @param type the bean class
+   * @param name the property name
+   * @return the public read method, or null if the class has no such readable property
+   */
+  Method getReadMethod(final Class<?> type, final String name) {
+    return getProperties(type).get(name);
+  }
+
+  /**
+   * Return the readable properties of a class, introspecting it if it is not in the cache.
+   *
+   * @param type the bean class
+   * @return the public read methods by property name
+   */
+  Map<String, Method> getProperties(final Class<?> type) {
+    Map<String, Method> result = properties.get(type);
+    if (result != null) {
+      hitCount.increment();
+    } else {
+      result = introspect(type);
+      missCount.increment();
+      properties.put(type, result);
+      if (properties.size() > maxClasses) {
+        trim(type);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the number of classes held.
+   *
+   * @return the number of classes
+   */
+  int size() {
+    return properties.size();
+  }
+
+  /**
+   * Get the number of lookups that found the class in the cache.
+   *
+   * @return the hit count
+   */
+  long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /**
+   * Get the number of lookups that introspected the class.
+   *
+   * @return the miss count
+   */
+  long getMissCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * Discard classes other than the one just added until the cache holds no more than the maximum number of classes.
+   *
+   * @param added the class just added
+   */
+  private void trim(final Class<?> added) {
+    Iterator<Class<?>> types = properties.keySet().iterator();
+    while (properties.size() > maxClasses && types.hasNext()) {
+      if (types.next() != added) {
+        types.remove();
+      }
+    }
+  }
+
+  /**
+   * Find the readable properties of a class. Read methods declared by classes that are not public cannot be invoked
+   * and are left out, so that such properties are read by the fallback wrapper instead.
+   *
+   * @param type the bean class
+   * @return the public read methods by property name
+   */
+  private static Map<String, Method> introspect(final Class<?> type) {
+    Map<String, Method> result = new HashMap<String, Method>();
+    try {
+      for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+        Method read = descriptor.getReadMethod();
+        if (read != null && Modifier.isPublic(read.getDeclaringClass().getModifiers())) {
+          result.put(descriptor.getName(), read);
+        }
+      }
+    } catch (IntrospectionException ex) {
+      result.clear();
+    }
+    return Collections.unmodifiableMap(result);
+  }
+}
@@ -0,0 +1,457 @@
+/*
+ *   File      : FastObjectWrapper.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.model.impl;
+
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleCollection;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.BaseStream;
+
+/**
+ *
+ * The <tt>FastObjectWrapper</tt> class exposes a data model to templates without copying it. Maps and random access
+ * lists are wrapped as live views, and the model wrapped for each value is kept with its container, so a value read
+ * repeatedly during a render, or across renders of a reused model, is wrapped once. Strings, numbers and booleans are
+ * wrapped directly, and the properties of application beans are read through a bounded cache of introspected
+ * classes. Iterators and streams are wrapped as one-shot <tt>LazySequence</tt>s, read one element at a time as they
+ * are listed. Anything else, such as dates, arrays and JDK collections, is wrapped by the fallback wrapper.
+ *
+ * <p>A wrapped value is replaced when the container holds a different object for the key, so changes made to a data
+ * model between renders are seen; changes made to a data model while it is being rendered are not supported.</p>
+ */
+public final class FastObjectWrapper implements ObjectWrapper {
+
+  /** The default maximum number of bean classes held in the introspection cache. */
+  public static final int DEFAULT_MAX_BEAN_CLASSES = 256;
+
+  /** The wrapper used for values the fast paths do not handle. */
+  private final ObjectWrapper fallback;
+  /** The readable properties of the bean classes seen. */
+  private final BeanIntrospectionCache beanCache;
+
+  /**
+   * The default constructor, holding up to DEFAULT_MAX_BEAN_CLASSES bean classes and falling back to FreeMarker's
+   * default wrapper.
+   */
+  public FastObjectWrapper() {
+    this(DEFAULT_MAX_BEAN_CLASSES, new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_32).build());
+  }
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param maxBeanClasses the maximum number of bean classes held in the introspection cache
+   * @param fallbackWrapper the wrapper used for values the fast paths do not handle
+   */
+  public FastObjectWrapper(final int maxBeanClasses, final ObjectWrapper fallbackWrapper) {
+    if (maxBeanClasses < 1) {
+      throw new IllegalArgumentException("The maximum number of bean classes must be positive");
+    }
+    if (fallbackWrapper == null) {
+      throw new IllegalArgumentException("A fallback object wrapper is required");
+    }
+    fallback = fallbackWrapper;
+    beanCache = new BeanIntrospectionCache(maxBeanClasses);
+  }
+
+  /**
+   * Get the number of bean classes held in the introspection cache.
+   *
+   * @return the number of classes
+   */
+  public int getBeanClassCount() {
+    return beanCache.size();
+  }
+
+  /**
+   * Get the number of bean property lookups that found the class in the introspection cache.
+   *
+   * @return the hit count
+   */
+  public long getBeanCacheHitCount() {
+    return beanCache.getHitCount();
+  }
+
+  /**
+   * Get the number of bean property lookups that introspected the class.
+   *
+   * @return the miss count
+   */
+  public long getBeanCacheMissCount() {
+    return beanCache.getMissCount();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateModel wrap(final Object obj) throws TemplateModelException {
+    TemplateModel result;
+    if (obj == null) {
+      result = null;
+    } else if (obj instanceof TemplateModel) {
+      result = (TemplateModel) obj;
+    } else if (obj instanceof String) {
+      result = new SimpleScalar((String) obj);
+    } else if (obj instanceof Number) {
+      result = new SimpleNumber((Number) obj);
+    } else if (obj instanceof Boolean) {
+      result = ((Boolean) obj) ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+    } else if (obj instanceof Map) {
+      result = new MapModel((Map<?, ?>) obj, this);
+    } else if (obj instanceof List && obj instanceof RandomAccess) {
+      result = new ListModel((List<?>) obj, this);
+    } else if (obj instanceof Iterator) {
+      result = LazySequence.of((Iterator<?>) obj, this);
+    } else if (obj instanceof BaseStream) {
+      result = LazySequence.of((BaseStream<?, ?>) obj, this);
+    } else if (isBean(obj)) {
+      result = new BeanModel(obj, this);
+    } else {
+      result = fallback.wrap(obj);
+    }
+    return result;
+  }
+
+  /**
+   * Return true if an object is an application bean whose properties can be read through the introspection cache.
+   *
+   * @param obj the object
+   * @return true if the object is a bean
+   */
+  private static boolean isBean(final Object obj) {
+    Class<?> type = obj.getClass();
+    String name = type.getName();
+    return !type.isArray() && !type.isEnum() && !(obj instanceof Collection) && !(obj instanceof Iterator)
+            && !name.startsWith("java.") && !name.startsWith("javax.");
+  }
+
+  /**
+   * The <tt>WrappedValue</tt> class holds the model wrapped for a value, together with the value it was wrapped from.
+   */
+  private static final class WrappedValue {
+
+    /** The wrapped value. */
+    private final Object value;
+    /** The model. */
+    private final TemplateModel model;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param wrappedValue the wrapped value
+     * @param wrappedModel the model
+     */
+    WrappedValue(final Object wrappedValue, final TemplateModel wrappedModel) {
+      value = wrappedValue;
+      model = wrappedModel;
+    }
+  }
+
+  /**
+   * The <tt>ContainerModel</tt> class is the base of the models that keep the model wrapped for each of their values.
+   */
+  private abstract static class ContainerModel implements AdapterTemplateModel, WrapperTemplateModel {
+
+    /** The wrapper for the values. */
+    protected final FastObjectWrapper wrapper;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param valueWrapper the wrapper for the values
+     */
+    ContainerModel(final FastObjectWrapper valueWrapper) {
+      wrapper = valueWrapper;
+    }
+
+    /**
+     * Return the model held for a value if it was wrapped from the same value, otherwise wrap the value.
+     *
+     * @param held the model held for the value's key, or null
+     * @param value the value
+     * @return the held model, or a new one
+     * @throws TemplateModelException if the value cannot be wrapped
+     */
+    protected final WrappedValue wrapValue(final WrappedValue held, final Object value) throws TemplateModelException {
+      WrappedValue result = held;
+      if (held == null || held.value != value) {
+        result = new WrappedValue(value, wrapper.wrap(value));
+      }
+      return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAdaptedObject(final Class<?> hint) {
+      return getWrappedObject();
+    }
+  }
+
+  /**
+   * The <tt>MapModel</tt> class exposes a map as a hash.
+   */
+  private static final class MapModel extends ContainerModel implements TemplateHashModelEx {
+
+    /** The map. */
+    private final Map<?, ?> map;
+    /** The models wrapped for the values, by key. */
+    private final Map<String, WrappedValue> wrapped = new ConcurrentHashMap<String, WrappedValue>();
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param wrappedMap the map
+     * @param valueWrapper the wrapper for the values
+     */
+    MapModel(final Map<?, ?> wrappedMap, final FastObjectWrapper valueWrapper) {
+      super(valueWrapper);
+      map = wrappedMap;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final String key) throws TemplateModelException {
+      TemplateModel result = null;
+      Object value = map.get(key);
+      if (value != null) {
+        WrappedValue held = wrapped.get(key);
+        WrappedValue current = wrapValue(held, value);
+        if (current != held) {
+          wrapped.put(key, current);
+        }
+        result = current.model;
+      }
+      return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+      return map.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateCollectionModel keys() {
+      return new SimpleCollection(map.keySet(), wrapper);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateCollectionModel values() {
+      return new SimpleCollection(map.values(), wrapper);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getWrappedObject() {
+      return map;
+    }
+  }
+
+  /**
+   * The <tt>ListModel</tt> class exposes a random access list as a sequence.
+   */
+  private static final class ListModel extends ContainerModel implements TemplateSequenceModel {
+
+    /** The list. */
+    private final List<?> list;
+    /** The models wrapped for the elements present when the list was wrapped, by index. */
+    private final WrappedValue[] wrapped;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param wrappedList the list
+     * @param valueWrapper the wrapper for the values
+     */
+    ListModel(final List<?> wrappedList, final FastObjectWrapper valueWrapper) {
+      super(valueWrapper);
+      list = wrappedList;
+      wrapped = new WrappedValue[wrappedList.size()];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final int index) throws TemplateModelException {
+      TemplateModel result = null;
+      Object value = index >= 0 && index < list.size() ? list.get(index) : null;
+      if (value != null && index < wrapped.length) {
+        WrappedValue current = wrapValue(wrapped[index], value);
+        wrapped[index] = current;
+        result = current.model;
+      } else if (value != null) {
+        result = wrapper.wrap(value);
+      }
+      return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+      return list.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getWrappedObject() {
+      return list;
+    }
+  }
+
+  /**
+   * The <tt>BeanModel</tt> class exposes the readable properties of a bean as a hash, and the bean's string form as a
+   * scalar. Keys that are not readable properties, such as method names, are looked up in the model produced by the
+   * fallback wrapper.
+   */
+  private static final class BeanModel extends ContainerModel implements TemplateHashModel, TemplateScalarModel {
+
+    /** The bean. */
+    private final Object bean;
+    /** The model produced by the fallback wrapper, created when first needed. */
+    private volatile TemplateModel fallbackModel;
+    /** The models wrapped for the property values, by property name. */
+    private final Map<String, WrappedValue> wrapped = new ConcurrentHashMap<String, WrappedValue>();
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param wrappedBean the bean
+     * @param valueWrapper the wrapper for the property values
+     */
+    BeanModel(final Object wrappedBean, final FastObjectWrapper valueWrapper) {
+      super(valueWrapper);
+      bean = wrappedBean;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final String key) throws TemplateModelException {
+      TemplateModel result = null;
+      Method read = wrapper.beanCache.getReadMethod(bean.getClass(), key);
+      if (read != null) {
+        Object value = readProperty(read, key);
+        if (value != null) {
+          WrappedValue held = wrapped.get(key);
+          WrappedValue current = wrapValue(held, value);
+          if (current != held) {
+            wrapped.put(key, current);
+          }
+          result = current.model;
+        }
+      } else {
+        TemplateModel model = fallbackModel;
+        if (model == null) {
+          model = wrapper.fallback.wrap(bean);
+          fallbackModel = model;
+        }
+        if (model instanceof TemplateHashModel) {
+          result = ((TemplateHashModel) model).get(key);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Read a property of the bean.
+     *
+     * @param read the read method
+     * @param key the property name
+     * @return the property value
+     * @throws TemplateModelException if the property cannot be read
+     */
+    private Object readProperty(final Method read, final String key) throws TemplateModelException {
+      try {
+        return read.invoke(bean);
+      } catch (IllegalAccessException ex) {
+        throw new TemplateModelException("Property " + key + " of " + bean.getClass().getName()
+                + " cannot be read", ex);
+      } catch (InvocationTargetException ex) {
+        throw new TemplateModelException("Property " + key + " of " + bean.getClass().getName()
+                + " failed to read", ex);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+      return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getAsString() {
+      return bean.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getWrappedObject() {
+      return bean;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *   File      : LazyObjectWrapper.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.model.impl;
+
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.Version;
+import java.util.Iterator;
+import java.util.stream.BaseStream;
+
+/**
+ *
+ * The <tt>LazyObjectWrapper</tt> class is FreeMarker's default object wrapper, except that iterators and streams are
+ * wrapped as one-shot <tt>LazySequence</tt>s. FreeMarker's own iterator adapter lists an iterator once and then
+ * silently lists nothing; a lazy sequence fails instead, and streams are listed rather than exposed as beans.
+ */
+public final class LazyObjectWrapper extends DefaultObjectWrapper {
+
+  /**
+   * The parameterised constructor. The wrapper is write protected.
+   *
+   * @param incompatibleImprovements the FreeMarker incompatible improvements version
+   */
+  public LazyObjectWrapper(final Version incompatibleImprovements) {
+    super(new DefaultObjectWrapperBuilder(incompatibleImprovements), true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateModel wrap(final Object obj) throws TemplateModelException {
+    TemplateModel result;
+    if (obj instanceof Iterator) {
+      result = LazySequence.of((Iterator<?>) obj, this);
+    } else if (obj instanceof BaseStream) {
+      result = LazySequence.of((BaseStream<?, ?>) obj, this);
+    } else {
+      result = super.wrap(obj);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ *   File      : LazySequence.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.model.impl;
+
+import freemarker.core.Environment;
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.stream.BaseStream;
+
+/**
+ *
+ * The <tt>LazySequence</tt> class exposes a source of elements to templates as a collection that is read one element
+ * at a time as it is listed, so a large result, such as the rows of a database cursor, never needs to be held in
+ * memory. Each element is wrapped as it is reached, by the object wrapper of the template being processed.
+ *
+ * <p>A sequence built from an iterator or a stream is one-shot: it can be listed once, and a template that lists it
+ * again fails with an error naming the source, even if the template exception handler ignores errors. Testing it with
+ * <tt>?has_content</tt> before listing it is allowed; its size is not known, so <tt>?size</tt> is not. A sequence
+ * built from a supplier asks the supplier for a new iterator each time it is listed, so it can be listed any number of
+ * times. The caller remains the owner of the source, and closes a stream or cursor once the document is
+ * generated.</p>
+ */
+public final class LazySequence implements TemplateCollectionModel, AdapterTemplateModel, WrapperTemplateModel {
+
+  /** The name of the environment attribute holding the state of the one-shot sources reached during a render. */
+  private static final String SOURCE_STATES = LazySequence.class.getName() + ".sourceStates";
+
+  /** The iterator, stream or supplier the sequence reads. */
+  private final Object source;
+  /** True if the source can only be listed once. */
+  private final boolean oneShot;
+  /** The wrapper for the elements, or null to use the wrapper of the template being processed. */
+  private final ObjectWrapper wrapper;
+  /** The state of a one-shot source, once reached. */
+  private SourceState state;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param sourceObject the iterator, stream or supplier the sequence reads
+   * @param oneShotSource true if the source can only be listed once
+   * @param elementWrapper the wrapper for the elements, or null to use the wrapper of the template being processed
+   */
+  private LazySequence(final Object sourceObject, final boolean oneShotSource, final ObjectWrapper elementWrapper) {
+    source = sourceObject;
+    oneShot = oneShotSource;
+    wrapper = elementWrapper;
+  }
+
+  /**
+   * Create a one-shot sequence over the remaining elements of an iterator.
+   *
+   * @param elements the iterator
+   * @return the sequence
+   */
+  public static LazySequence of(final Iterator<?> elements) {
+    return of(elements, null);
+  }
+
+  /**
+   * Create a one-shot sequence over the elements of a stream. The stream is consumed as the sequence is listed.
+   *
+   * @param elements the stream
+   * @return the sequence
+   */
+  public static LazySequence of(final BaseStream<?, ?> elements) {
+    return of(elements, null);
+  }
+
+  /**
+   * Create a repeatable sequence, which asks a supplier for a new iterator each time it is listed.
+   *
+   * @param elements the supplier of iterators
+   * @return the sequence
+   */
+  public static LazySequence from(final Supplier<? extends Iterator<?>> elements) {
+    if (elements == null) {
+      throw new IllegalArgumentException("A supplier of elements is required");
+    }
+    return new LazySequence(elements, false, null);
+  }
+
+  /**
+   * Create a one-shot sequence over the remaining elements of an iterator, wrapping the elements with a wrapper.
+   *
+   * @param elements the iterator
+   * @param elementWrapper the wrapper for the elements, or null to use the wrapper of the template being processed
+   * @return the sequence
+   */
+  static LazySequence of(final Iterator<?> elements, final ObjectWrapper elementWrapper) {
+    if (elements == null) {
+      throw new IllegalArgumentException("An iterator of elements is required");
+    }
+    return new LazySequence(elements, true, elementWrapper);
+  }
+
+  /**
+   * Create a one-shot sequence over the elements of a stream, wrapping the elements with a wrapper.
+   *
+   * @param elements the stream
+   * @param elementWrapper the wrapper for the elements, or null to use the wrapper of the template being processed
+   * @return the sequence
+   */
+  static LazySequence of(final BaseStream<?, ?> elements, final ObjectWrapper elementWrapper) {
+    if (elements == null) {
+      throw new IllegalArgumentException("A stream of elements is required");
+    }
+    return new LazySequence(elements, true, elementWrapper);
+  }
+
+  /**
+   * Return true if the sequence can only be listed once.
+   *
+   * @return true if one-shot
+   */
+  public boolean isOneShot() {
+    return oneShot;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateModelIterator iterator() throws TemplateModelException {
+    TemplateModelIterator result = null;
+    if (!oneShot) {
+      @SuppressWarnings("unchecked")
+      Supplier<? extends Iterator<?>> supplier = (Supplier<? extends Iterator<?>>) source;
+      Iterator<?> elements = supplier.get();
+      if (elements == null) {
+        throw new TemplateModelException("The supplier of a lazy sequence returned no iterator");
+      }
+      result = new ElementIterator(elements, null);
+    } else {
+      SourceState current = getState();
+      if (current.listed) {
+        throwListedTwice();
+      }
+      result = new ElementIterator(current.elements, current);
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getWrappedObject() {
+    return source;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getAdaptedObject(final Class<?> hint) {
+    return source;
+  }
+
+  /**
+   * Return the state of the one-shot source. A data model value is wrapped again each time a template reads it, so
+   * the state is kept for the render as well as by the sequence, and every sequence over the same source in a render
+   * shares it.
+   *
+   * @return the state
+   */
+  private synchronized SourceState getState() {
+    if (state == null) {
+      Environment environment = Environment.getCurrentEnvironment();
+      Map<Object, SourceState> states = null;
+      if (environment != null) {
+        @SuppressWarnings("unchecked")
+        Map<Object, SourceState> held = (Map<Object, SourceState>) environment.getCustomAttribute(SOURCE_STATES);
+        states = held;
+        if (states == null) {
+          states = new IdentityHashMap<Object, SourceState>();
+          environment.setCustomAttribute(SOURCE_STATES, states);
+        }
+        state = states.get(source);
+      }
+      if (state == null) {
+        state = new SourceState(source instanceof BaseStream ? ((BaseStream<?, ?>) source).iterator()
+                : (Iterator<?>) source);
+        if (states != null) {
+          states.put(source, state);
+        }
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Wrap an element with the wrapper of the sequence, or of the template being processed.
+   *
+   * @param element the element
+   * @return the model
+   * @throws TemplateModelException if the element cannot be wrapped
+   */
+  private TemplateModel wrap(final Object element) throws TemplateModelException {
+    ObjectWrapper elementWrapper = wrapper;
+    if (elementWrapper == null) {
+      Environment environment = Environment.getCurrentEnvironment();
+      if (environment == null) {
+        throw new TemplateModelException("A lazy sequence can only be listed while a template is processed");
+      }
+      elementWrapper = environment.getObjectWrapper();
+    }
+    return elementWrapper.wrap(element);
+  }
+
+  /**
+   * Throw the exception reporting that a one-shot sequence was listed more than once. The exception is unchecked, so
+   * that a template exception handler that ignores errors cannot turn it into a truncated document.
+   */
+  private void throwListedTwice() {
+    throw new IllegalStateException("This sequence wraps a one-shot " + source.getClass().getName()
+            + " and has already been listed; it can only be listed once. Assign it with ?sequence to list it again,"
+            + " or supply it as a LazySequence.from(supplier)");
+  }
+
+  /**
+   * The <tt>SourceState</tt> class holds the iterator over a one-shot source and whether it has been listed.
+   */
+  private static final class SourceState {
+
+    /** The iterator over the source. */
+    private final Iterator<?> elements;
+    /** Set when an iterator has read the first element. */
+    private boolean listed;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param sourceElements the iterator over the source
+     */
+    SourceState(final Iterator<?> sourceElements) {
+      elements = sourceElements;
+    }
+  }
+
+  /**
+   * The <tt>ElementIterator</tt> class reads the elements of the source one at a time. An iterator over a one-shot
+   * source claims the source when it reads the first element, so testing a one-shot sequence for content does not
+   * prevent it from being listed.
+   */
+  private final class ElementIterator implements TemplateModelIterator {
+
+    /** The source of the elements. */
+    private final Iterator<?> elements;
+    /** The state of a one-shot source not yet claimed by this iterator, or null. */
+    private SourceState unclaimed;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param sourceElements the source of the elements
+     * @param sourceState the state of a one-shot source, or null for a repeatable source
+     */
+    ElementIterator(final Iterator<?> sourceElements, final SourceState sourceState) {
+      elements = sourceElements;
+      unclaimed = sourceState;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel next() throws TemplateModelException {
+      if (unclaimed != null) {
+        if (unclaimed.listed) {
+          throwListedTwice();
+        }
+        unclaimed.listed = true;
+        unclaimed = null;
+      }
+      try {
+        return wrap(elements.next());
+      } catch (NoSuchElementException ex) {
+        throw new TemplateModelException("The lazy sequence has no more elements", ex);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() throws TemplateModelException {
+      if (unclaimed != null && unclaimed.listed) {
+        throwListedTwice();
+      }
+      return elements.hasNext();
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ *   File      : SharedContextSnapshot.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.model.impl;
+
+import com.willow.document.generator.freemarker.model.SharedContext;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateSequenceModel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * The <tt>SharedContextSnapshot</tt> class takes a snapshot of a data model and wraps all of it when it is created.
+ * Maps and collections are copied into immutable hashes and sequences, and every other value is wrapped by the object
+ * wrapper, so the snapshot can be read by any number of renders at once and later changes to the original data model
+ * are not seen. The data model must not contain cycles.
+ */
+public final class SharedContextSnapshot implements SharedContext {
+
+  /** The wrapper for overlay values. */
+  private final ObjectWrapper wrapper;
+  /** The wrapped snapshot. */
+  private final FrozenHash model;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param context the data model to take a snapshot of
+   * @param objectWrapper the wrapper for the values in the data model and in overlays
+   */
+  public SharedContextSnapshot(final Map<String, Object> context, final ObjectWrapper objectWrapper) {
+    if (context == null) {
+      throw new IllegalArgumentException("A shared context is required");
+    }
+    if (objectWrapper == null) {
+      throw new IllegalArgumentException("An object wrapper is required");
+    }
+    wrapper = objectWrapper;
+    try {
+      model = freezeMap(context);
+    } catch (TemplateModelException ex) {
+      throw new IllegalArgumentException("The shared context could not be wrapped", ex);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<String> getNames() {
+    return Collections.unmodifiableSet(model.values.keySet());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateHashModel getModel() {
+    return model;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateHashModel overlay(final Map<String, Object> overlay) {
+    TemplateHashModel result = model;
+    if (overlay != null && !overlay.isEmpty()) {
+      result = new OverlayModel(overlay);
+    }
+    return result;
+  }
+
+  /**
+   * Wrap a value, copying maps and collections into immutable models.
+   *
+   * @param value the value
+   * @return the model, or null if the value is null
+   * @throws TemplateModelException if the value cannot be wrapped
+   */
+  private TemplateModel freeze(final Object value) throws TemplateModelException {
+    TemplateModel result;
+    if (value instanceof Map) {
+      result = freezeMap((Map<?, ?>) value);
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      TemplateModel[] elements = new TemplateModel[collection.size()];
+      int index = 0;
+      for (Object element : collection) {
+        elements[index++] = freeze(element);
+      }
+      result = new FrozenSequence(elements);
+    } else {
+      result = value == null ? null : wrapper.wrap(value);
+    }
+    return result;
+  }
+
+  /**
+   * Wrap a map, copying it into an immutable hash that keeps the order of the map. Entries with null values are left
+   * out.
+   *
+   * @param map the map
+   * @return the hash
+   * @throws TemplateModelException if a value cannot be wrapped
+   */
+  private FrozenHash freezeMap(final Map<?, ?> map) throws TemplateModelException {
+    Map<String, TemplateModel> values = new LinkedHashMap<String, TemplateModel>();
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      TemplateModel value = freeze(entry.getValue());
+      if (value != null) {
+        values.put(String.valueOf(entry.getKey()), value);
+      }
+    }
+    return new FrozenHash(values);
+  }
+
+  /**
+   * The <tt>FrozenHash</tt> class is an immutable hash of wrapped values.
+   */
+  private static final class FrozenHash implements TemplateHashModelEx {
+
+    /** The wrapped values by name. */
+    private final Map<String, TemplateModel> values;
+    /** The names, wrapped. */
+    private final FrozenCollection keyModels;
+    /** The wrapped values. */
+    private final FrozenCollection valueModels;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param wrappedValues the wrapped values by name, not changed after construction
+     */
+    FrozenHash(final Map<String, TemplateModel> wrappedValues) {
+      values = wrappedValues;
+      TemplateModel[] names = new TemplateModel[wrappedValues.size()];
+      int index = 0;
+      for (String name : wrappedValues.keySet()) {
+        names[index++] = new SimpleScalar(name);
+      }
+      keyModels = new FrozenCollection(names);
+      valueModels = new FrozenCollection(wrappedValues.values().toArray(new TemplateModel[wrappedValues.size()]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final String key) {
+      return values.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+      return values.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+      return values.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateCollectionModel keys() {
+      return keyModels;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateCollectionModel values() {
+      return valueModels;
+    }
+  }
+
+  /**
+   * The <tt>FrozenCollection</tt> class is an immutable collection of wrapped values.
+   */
+  private static final class FrozenCollection implements TemplateCollectionModel {
+
+    /** The wrapped elements. */
+    private final TemplateModel[] elements;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param wrappedElements the wrapped elements, not changed after construction
+     */
+    FrozenCollection(final TemplateModel[] wrappedElements) {
+      elements = wrappedElements;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModelIterator iterator() {
+      return new TemplateModelIterator() {
+        private int next;
+
+        @Override
+        public TemplateModel next() throws TemplateModelException {
+          if (next >= elements.length) {
+            throw new TemplateModelException("The collection has no more elements");
+          }
+          return elements[next++];
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next < elements.length;
+        }
+      };
+    }
+  }
+
+  /**
+   * The <tt>FrozenSequence</tt> class is an immutable sequence of wrapped values.
+   */
+  private static final class FrozenSequence implements TemplateSequenceModel {
+
+    /** The wrapped elements. */
+    private final TemplateModel[] elements;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param wrappedElements the wrapped elements, not changed after construction
+     */
+    FrozenSequence(final TemplateModel[] wrappedElements) {
+      elements = wrappedElements;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final int index) {
+      return index >= 0 && index < elements.length ? elements[index] : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+      return elements.length;
+    }
+  }
+
+  /**
+   * The <tt>OverlayModel</tt> class looks up names in the overlay first and then in the snapshot.
+   */
+  private final class OverlayModel implements TemplateHashModel {
+
+    /** The overlay. */
+    private final Map<String, Object> overlay;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param overlayData the overlay
+     */
+    OverlayModel(final Map<String, Object> overlayData) {
+      overlay = overlayData;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final String key) throws TemplateModelException {
+      Object value = overlay.get(key);
+      return value != null ? wrapper.wrap(value) : model.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+      return overlay.isEmpty() && model.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,25 @@
+/*
+ *   File      : DocumentSink.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service;
+
+/**
+ * The DocumentSink interface describes the recipient of the documents generated by a batch generation call.
+ */
+public interface DocumentSink {
+
+  /**
+   * Accept a generated document. Documents are delivered in the order of the data they were generated from, on the
+   * thread that made the batch generation call.
+   *
+   * @param index the position of the data the document was generated from, starting at zero
+   * @param document the generated content
+   */
+  void accept(int index, byte[] document);
+}
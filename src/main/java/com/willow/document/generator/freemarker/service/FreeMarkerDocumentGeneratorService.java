@@ -11,8 +11,14 @@
 package com.willow.document.generator.freemarker.service;
 
 import com.willow.common.service.Service;
+import com.willow.document.generator.freemarker.model.SharedContext;
+import freemarker.template.TemplateHashModel;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The FreeMarkerDocumentGeneratorService interface describes a service that generates documents usingFreeMarker as the
@@ -37,7 +43,8 @@ public interface FreeMarkerDocumentGeneratorService extends Service {
   String getTemplate(String templatePath);
 
   /**
-   * Update template contents.
+   * Update template contents. The template is replaced atomically, so documents generated during the update use
+   * either the old or the new content.
    *
    * @param templatePath the path to the template
    * @param content the new template content
@@ -51,6 +58,15 @@ public interface FreeMarkerDocumentGeneratorService extends Service {
    */
   void deleteTemplate(String templatePath);
 
+  /**
+   * Return a handle to a template, compiling the template now so that documents generated through the handle skip
+   * path resolution and the cache lookup. The service must be running.
+   *
+   * @param templatePath the template path
+   * @return the template handle
+   */
+  TemplateHandle getTemplateHandle(String templatePath);
+
   /**
    * Generate a document.
    *
@@ -59,7 +75,116 @@ public interface FreeMarkerDocumentGeneratorService extends Service {
    * @return the generated content
    */
   byte[] generate(String templatePath, Map<String, Object> data);
-  
+
+  /**
+   * Generate a document, abandoning it if it exceeds the render limits. The limits in the request can only tighten
+   * the limits configured for the template and the service defaults.
+   *
+   * @param templatePath the template path
+   * @param data the template data
+   * @param limits the render limits for this document, or null
+   * @return the generated content
+   * @throws RenderLimitExceededException if the document exceeds a limit
+   */
+  byte[] generate(String templatePath, Map<String, Object> data, RenderLimits limits);
+
+  /**
+   * Generate a document from a data model that has already been wrapped. A wrapped model can be reused across
+   * documents, so that the values it holds are wrapped once rather than on every call.
+   *
+   * @param templatePath the path to the document template
+   * @param data the wrapped template data
+   * @return the generated content
+   */
+  byte[] generate(String templatePath, TemplateHashModel data);
+
+  /**
+   * Register a shared context, taking a snapshot of the data model and wrapping it once so that documents can be
+   * generated against it with only a small overlay of request data. A context already registered under the name is
+   * replaced.
+   *
+   * @param name the name of the shared context
+   * @param context the data model
+   * @return the shared context
+   */
+  SharedContext registerSharedContext(String name, Map<String, Object> context);
+
+  /**
+   * Get a registered shared context.
+   *
+   * @param name the name of the shared context
+   * @return the shared context, or null if none is registered under the name
+   */
+  SharedContext getSharedContext(String name);
+
+  /**
+   * Remove a registered shared context.
+   *
+   * @param name the name of the shared context
+   */
+  void unregisterSharedContext(String name);
+
+  /**
+   * Generate a document, writing the content to an output stream as it is generated. The stream is flushed but not
+   * closed. Together with lazy data, such as a <tt>LazySequence</tt> over a database cursor, a document of any length
+   * can be generated without holding either its data or its content in memory.
+   *
+   * @param templatePath the path to the document template
+   * @param data the template data
+   * @param out the destination for the generated content
+   */
+  void generate(String templatePath, Map<String, Object> data, OutputStream out);
+
+  /**
+   * Generate a document, writing the content to a channel as it is generated. The channel is not closed.
+   *
+   * @param templatePath the path to the document template
+   * @param data the template data
+   * @param channel the destination for the generated content
+   */
+  void generate(String templatePath, Map<String, Object> data, WritableByteChannel channel);
+
+  /**
+   * Generate a document for each of a batch of data models. The template is resolved and compiled once for the whole
+   * batch, and each document is generated as the result is iterated.
+   *
+   * @param templatePath the path to the document template
+   * @param data the template data for each document
+   * @return the generated content, in the order of the data
+   */
+  Iterable<byte[]> generateAll(String templatePath, Iterable<Map<String, Object>> data);
+
+  /**
+   * Generate a document for each of a batch of data models, passing each document to a sink in the order of the
+   * data. The template is resolved and compiled once for the whole batch.
+   *
+   * @param templatePath the path to the document template
+   * @param data the template data for each document
+   * @param sink the recipient of the generated documents
+   */
+  void generateAll(String templatePath, Iterable<Map<String, Object>> data, DocumentSink sink);
+
+  /**
+   * Generate a document asynchronously on the threads owned by the service. The call blocks while the service's
+   * queue of waiting documents is full.
+   *
+   * @param templatePath the path to the document template
+   * @param data the template data
+   * @return a future completed with the generated content
+   */
+  CompletableFuture<byte[]> generateAsync(String templatePath, Map<String, Object> data);
+
+  /**
+   * Generate a document for each of a batch of data models asynchronously on the threads owned by the service. The
+   * template is resolved and compiled once for the whole batch. The call blocks while the service's queue of waiting
+   * documents is full.
+   *
+   * @param templatePath the path to the document template
+   * @param data the template data for each document
+   * @return a future completed with the generated content, in the order of the data
+   */
+  CompletableFuture<List<byte[]>> generateAllAsync(String templatePath, Iterable<Map<String, Object>> data);
+
   /**
    * Generate a document from an input stream
    *
@@ -0,0 +1,71 @@
+/*
+ *   File      : RenderLimitExceededException.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service;
+
+import com.willow.common.document.generator.service.DocumentGenerationException;
+
+/**
+ *
+ * The <tt>RenderLimitExceededException</tt> class describes the abandonment of a document because it exceeded one of
+ * its render limits.
+ */
+public class RenderLimitExceededException extends DocumentGenerationException {
+
+  /** The serial version identifier. */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The limits that may be exceeded.
+   */
+  public enum Limit {
+    /** The render time in milliseconds. */
+    RENDER_MILLIS,
+    /** The document size in bytes. */
+    OUTPUT_BYTES,
+    /** The number of sequence or collection elements iterated. */
+    LOOP_ITERATIONS
+  }
+
+  /** The limit exceeded. */
+  private final Limit limit;
+  /** The value of the limit exceeded. */
+  private final long value;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param exceeded the limit exceeded
+   * @param limitValue the value of the limit exceeded
+   */
+  public RenderLimitExceededException(final Limit exceeded, final long limitValue) {
+    super(String.format("The %s limit of %d was exceeded when processing the FreeMarker template", exceeded,
+            limitValue), null);
+    limit = exceeded;
+    value = limitValue;
+  }
+
+  /**
+   * Get the limit exceeded.
+   *
+   * @return the limit
+   */
+  public Limit getLimit() {
+    return limit;
+  }
+
+  /**
+   * Get the value of the limit exceeded.
+   *
+   * @return the value
+   */
+  public long getValue() {
+    return value;
+  }
+}
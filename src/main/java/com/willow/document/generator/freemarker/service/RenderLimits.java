@@ -0,0 +1,134 @@
+/*
+ *   File      : RenderLimits.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service;
+
+/**
+ *
+ * The <tt>RenderLimits</tt> class describes the limits applied while a document is rendered. More specific limits can
+ * only tighten the less specific ones: a limit that is not set, zero or negative is inherited, and where both are set
+ * the smaller applies. A limit that is not in force at any level is unlimited.
+ */
+public final class RenderLimits {
+
+  /** The longest time in milliseconds a document may take to render. */
+  private Long maxRenderMillis;
+  /** The largest document that may be generated, in bytes. */
+  private Long maxOutputBytes;
+  /** The largest number of sequence or collection elements that may be iterated while rendering. */
+  private Long maxLoopIterations;
+
+  /**
+   * Get the longest time a document may take to render.
+   *
+   * @return the time in milliseconds or null if not set
+   */
+  public Long getMaxRenderMillis() {
+    return maxRenderMillis;
+  }
+
+  /**
+   * Set the longest time a document may take to render.
+   *
+   * @param millis the time in milliseconds, zero, negative or null to inherit
+   */
+  public void setMaxRenderMillis(final Long millis) {
+    maxRenderMillis = millis;
+  }
+
+  /**
+   * Get the largest document that may be generated.
+   *
+   * @return the size in bytes or null if not set
+   */
+  public Long getMaxOutputBytes() {
+    return maxOutputBytes;
+  }
+
+  /**
+   * Set the largest document that may be generated.
+   *
+   * @param bytes the size in bytes, zero, negative or null to inherit
+   */
+  public void setMaxOutputBytes(final Long bytes) {
+    maxOutputBytes = bytes;
+  }
+
+  /**
+   * Get the largest number of sequence or collection elements that may be iterated while rendering.
+   *
+   * @return the iteration count or null if not set
+   */
+  public Long getMaxLoopIterations() {
+    return maxLoopIterations;
+  }
+
+  /**
+   * Set the largest number of sequence or collection elements that may be iterated while rendering.
+   *
+   * @param iterations the iteration count, zero, negative or null to inherit
+   */
+  public void setMaxLoopIterations(final Long iterations) {
+    maxLoopIterations = iterations;
+  }
+
+  /**
+   * Determine whether any limit is in force.
+   *
+   * @return true if at least one limit is set to a positive value
+   */
+  public boolean isLimited() {
+    return isPositive(maxRenderMillis) || isPositive(maxOutputBytes) || isPositive(maxLoopIterations);
+  }
+
+  /**
+   * Combine two sets of limits, the limits set in the override tightening those of the base.
+   *
+   * @param base the less specific limits, or null
+   * @param override the more specific limits, or null
+   * @return the combined limits, or null if both are null
+   */
+  public static RenderLimits merge(final RenderLimits base, final RenderLimits override) {
+    if (override == null) {
+      return base;
+    } else if (base == null) {
+      return override;
+    }
+    RenderLimits result = new RenderLimits();
+    result.setMaxRenderMillis(stricter(base.maxRenderMillis, override.maxRenderMillis));
+    result.setMaxOutputBytes(stricter(base.maxOutputBytes, override.maxOutputBytes));
+    result.setMaxLoopIterations(stricter(base.maxLoopIterations, override.maxLoopIterations));
+    return result;
+  }
+
+  /**
+   * Choose the stricter of two limits.
+   *
+   * @param base the less specific limit
+   * @param override the more specific limit
+   * @return the override if it is in force and smaller than the base, otherwise the base
+   */
+  private static Long stricter(final Long base, final Long override) {
+    Long result = base;
+    if (isPositive(override) && (!isPositive(base) || override < base)) {
+      result = override;
+    }
+    return result;
+  }
+
+  /**
+   * Determine whether a limit is set to a positive value.
+   *
+   * @param value the limit
+   * @return true if in force
+   */
+  private static boolean isPositive(final Long value) {
+    return value != null && value > 0;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ *   File      : TemplateHandle.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service;
+
+import freemarker.template.TemplateHashModel;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * The TemplateHandle interface describes a template resolved and compiled in advance, so that generating a document
+ * from it needs no path resolution or cache lookup. A handle follows changes to its template and remains usable for
+ * as long as the service that created it is running.
+ */
+public interface TemplateHandle {
+
+  /**
+   * Get the template path the handle was created for.
+   *
+   * @return the template path
+   */
+  String getTemplatePath();
+
+  /**
+   * Generate a document.
+   *
+   * @param data the template data
+   * @return the generated content
+   */
+  byte[] generate(Map<String, Object> data);
+
+  /**
+   * Generate a document, abandoning it if it exceeds the render limits.
+   *
+   * @param data the template data
+   * @param limits the render limits for this document, or null
+   * @return the generated content
+   * @throws RenderLimitExceededException if the document exceeds a limit
+   */
+  byte[] generate(Map<String, Object> data, RenderLimits limits);
+
+  /**
+   * Generate a document from a data model that has already been wrapped.
+   *
+   * @param data the wrapped template data
+   * @return the generated content
+   */
+  byte[] generate(TemplateHashModel data);
+
+  /**
+   * Generate a document from a data model that has already been wrapped, abandoning it if it exceeds the render
+   * limits.
+   *
+   * @param data the wrapped template data
+   * @param limits the render limits for this document, or null
+   * @return the generated content
+   * @throws RenderLimitExceededException if the document exceeds a limit
+   */
+  byte[] generate(TemplateHashModel data, RenderLimits limits);
+
+  /**
+   * Generate a document, writing the content to an output stream as it is generated. The stream is flushed but not
+   * closed.
+   *
+   * @param data the template data
+   * @param out the destination for the generated content
+   */
+  void generate(Map<String, Object> data, OutputStream out);
+
+  /**
+   * Generate a document, writing the content to an output stream as it is generated and abandoning it if it exceeds
+   * the render limits. The stream is flushed but not closed.
+   *
+   * @param data the template data
+   * @param out the destination for the generated content
+   * @param limits the render limits for this document, or null
+   * @throws RenderLimitExceededException if the document exceeds a limit
+   */
+  void generate(Map<String, Object> data, OutputStream out, RenderLimits limits);
+
+  /**
+   * Generate a document from a data model that has already been wrapped, writing the content to an output stream as
+   * it is generated. The stream is flushed but not closed.
+   *
+   * @param data the wrapped template data
+   * @param out the destination for the generated content
+   */
+  void generate(TemplateHashModel data, OutputStream out);
+
+  /**
+   * Generate a document from a data model that has already been wrapped, writing the content to an output stream as
+   * it is generated and abandoning it if it exceeds the render limits. The stream is flushed but not closed.
+   *
+   * @param data the wrapped template data
+   * @param out the destination for the generated content
+   * @param limits the render limits for this document, or null
+   * @throws RenderLimitExceededException if the document exceeds a limit
+   */
+  void generate(TemplateHashModel data, OutputStream out, RenderLimits limits);
+}
@@ -12,27 +12,60 @@ package com.willow.document.generator.freemarker.service.impl;
 import com.willow.common.document.generator.service.DocumentGenerationException;
 import com.willow.common.document.generator.support.DocumentGeneratorStringTool;
 import com.willow.common.service.impl.AbstractService;
+import com.willow.document.generator.freemarker.metrics.GeneratorMetrics;
+import com.willow.document.generator.freemarker.metrics.TemplateMetrics;
+import com.willow.document.generator.freemarker.metrics.impl.LocalGeneratorMetrics;
+import com.willow.document.generator.freemarker.model.SharedContext;
+import com.willow.document.generator.freemarker.model.impl.FastObjectWrapper;
+import com.willow.document.generator.freemarker.model.impl.LazyObjectWrapper;
+import com.willow.document.generator.freemarker.model.impl.SharedContextSnapshot;
+import com.willow.document.generator.freemarker.service.DocumentSink;
 import com.willow.document.generator.freemarker.service.FreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.service.RenderLimitExceededException;
+import com.willow.document.generator.freemarker.service.RenderLimits;
+import com.willow.document.generator.freemarker.service.TemplateHandle;
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import com.willow.document.generator.freemarker.store.impl.FileSystemTemplateStore;
+import com.willow.document.generator.freemarker.store.impl.MappedBundleTemplateStore;
+import freemarker.cache.CacheStorage;
 import freemarker.cache.ClassTemplateLoader;
 import freemarker.cache.MultiTemplateLoader;
+import freemarker.cache.SoftCacheStorage;
 import freemarker.cache.TemplateLoader;
+import freemarker.core.TemplateClassResolver;
 import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
 import freemarker.template.ObjectWrapper;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateExceptionHandler;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.Version;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.log4j.Logger;
 
 /**
@@ -48,12 +81,130 @@ public abstract class AbstractFreeMarkerDocumentGeneratorService
 
   /**  The default charset for document content. */
   private static final String DEFAULT_DOCUMENT_CHARSET = "utf-8";
+  /**  The rough memory used by a parsed template per character of source, used to bound the template cache. */
+  private static final long ESTIMATED_BYTES_PER_CHAR = 8;
+  /**  The name under which metrics for templates supplied as input streams are recorded. */
+  private static final String STREAM_TEMPLATE_NAME = "(input stream)";
+  /**  The size of the buffer used to read templates supplied as input streams. */
+  private static final int READ_BUFFER_SIZE = 4096;
+  /**  The number of locks template changes are striped across, a power of two. */
+  private static final int TEMPLATE_LOCK_STRIPES = 64;
+  /**  The FreeMarker version whose behaviour changes are enabled unless configured otherwise. */
+  public static final String DEFAULT_INCOMPATIBLE_IMPROVEMENTS = "2.3.32";
   /**  The Document Generator string utility. */
   private DocumentGeneratorStringTool stringUtil;
   /**
    * The base template path *
    */
   private String basePath;
+  /**  The store the templates are kept in, or null to keep them as files under the base path. */
+  private TemplateStore templateStore;
+  /**  The template bundle the templates are served from, or null to use the template store. */
+  private String templateBundle;
+  /**  The FreeMarker version whose fixes and improvements that change behaviour are enabled. */
+  private String incompatibleImprovements = DEFAULT_INCOMPATIBLE_IMPROVEMENTS;
+  /**  The object wrapper used to expose the data model to templates, or null for FreeMarker's default wrapper. */
+  private ObjectWrapper objectWrapper;
+  /**  The handler invoked by FreeMarker when an error occurs during processing. */
+  private TemplateExceptionHandler templateExceptionHandler = TemplateExceptionHandler.IGNORE_HANDLER;
+  /**  The resolver of the classes templates may instantiate with ?new. */
+  private TemplateClassResolver newBuiltinClassResolver = TemplateClassResolver.SAFER_RESOLVER;
+  /**  The loaders used to resolve "included" templates, the classpath loader is used if none are set. */
+  private List<TemplateLoader> templateLoaders = new ArrayList<TemplateLoader>();
+  /**  The storage used by FreeMarker to cache "included" templates. */
+  private CacheStorage cacheStorage = new SoftCacheStorage();
+  /**  The number of milliseconds before FreeMarker checks an "included" template for changes. */
+  private long templateUpdateDelayMillis = 5000L;
+  /**  The maximum number of compiled templates held in the template cache. */
+  private int templateCacheMaxEntries = 256;
+  /**  The maximum estimated size in bytes of the compiled templates held in the template cache. */
+  private long templateCacheMaxSize = 64L * 1024 * 1024;
+  /**  The minimum time in milliseconds between checks of a cached template file for changes, negative for never. */
+  private long templateCacheRevalidateInterval = 1000;
+  /**  True if templates supplied as input streams are cached by a hash of their content. */
+  private boolean streamTemplateCacheEnabled;
+  /**  The maximum number of compiled templates held in the input stream template cache. */
+  private int streamTemplateCacheMaxEntries = 256;
+  /**  The maximum estimated size in bytes of the compiled templates held in the input stream template cache. */
+  private long streamTemplateCacheMaxSize = 16L * 1024 * 1024;
+  /**  True if the documents generated from template paths are cached by a fingerprint of their data. */
+  private boolean renderOutputCacheEnabled;
+  /**  The maximum total size in bytes of the documents held in the render output cache. */
+  private long renderOutputCacheMaxSize = 16L * 1024 * 1024;
+  /**  The time in milliseconds a cached document is served for, zero or negative for no limit. */
+  private long renderOutputCacheTimeToLive = 60000;
+  /**  The largest output buffer retained between calls, in bytes. */
+  private int outputBufferMaxRetainedSize = 256 * 1024;
+  /**  The most output buffers, and the most encoding writers, retained between calls. */
+  private int renderBufferPoolSize = Runtime.getRuntime().availableProcessors();
+  /**  The templates compiled when the service starts. */
+  private Collection<String> warmUpTemplates = new ArrayList<String>();
+  /**  True if every file under the base path is compiled when the service starts. */
+  private boolean warmUpBasePath;
+  /**  True if templates using only text, interpolations and simple conditions are rendered without FreeMarker. */
+  private boolean templateFastPathEnabled;
+  /**  True if the literal text of templates is encoded once when compiled rather than on every render. */
+  private boolean literalTextPreEncodingEnabled = true;
+  /**  The data used to render each template during warm-up, or null if templates are only compiled. */
+  private Map<String, Object> warmUpSampleData;
+  /**  The number of threads used to warm up templates. */
+  private int warmUpThreads = Runtime.getRuntime().availableProcessors();
+  /**  The longest time in milliseconds the service waits for warm-up before it reports itself as running. */
+  private long warmUpTimeout = 30000;
+  /**  True if the base path is watched for template changes instead of checking templates on request. */
+  private boolean templateWatchEnabled;
+  /**  True if the base path is polled for changes even when a watch service is available. */
+  private boolean templateWatchPolling;
+  /**  The interval in milliseconds at which cached templates are polled when the base path cannot be watched. */
+  private long templateWatchPollInterval = 2000;
+  /**  The executor used to generate batch documents in parallel, or null to generate them on the calling thread. */
+  private Executor batchExecutor;
+  /**  The maximum number of batch documents generated in parallel ahead of the one being returned. */
+  private int batchWindow = 2 * Runtime.getRuntime().availableProcessors();
+  /**  The number of platform threads used for asynchronous generation. */
+  private int renderThreads = Runtime.getRuntime().availableProcessors();
+  /**  True if asynchronous generation uses a virtual thread per document where the JVM supports them. */
+  private boolean renderVirtualThreads;
+  /**  The number of asynchronous documents that may wait for a thread before submission blocks. */
+  private int renderQueueCapacity = 1024;
+  /**  The longest time in milliseconds the service waits for asynchronous documents when it stops. */
+  private long renderShutdownTimeout = 10000;
+  /**  The registry of per-template metrics. */
+  private GeneratorMetrics metrics = new LocalGeneratorMetrics();
+  /**  The render limits applied to every document unless tightened. */
+  private RenderLimits renderLimits;
+  /**  The render limits for particular templates, keyed by template path. */
+  private Map<String, RenderLimits> templateRenderLimits = new HashMap<String, RenderLimits>();
+  /**  The shared FreeMarker configuration, built when the service starts. */
+  private volatile Configuration configuration;
+  /**  The store the templates are read from while the service is running. */
+  private volatile TemplateStore activeStore;
+  /**  The compiled templates, keyed by template path. */
+  private volatile CompiledTemplateCache templateCache;
+  /**  The compiled input stream templates, keyed by a hash of their content, or null if not enabled. */
+  private volatile CompiledTemplateCache streamTemplateCache;
+  /**  True if the fast path is enabled and the object wrapper exposes maps the way the fast path reads them. */
+  private volatile boolean fastPathActive;
+  /**  The number of documents rendered by the fast path. */
+  private final LongAdder fastPathRenders = new LongAdder();
+  /**  The generated documents, keyed by compiled template and data fingerprint, or null if not enabled. */
+  private volatile RenderOutputCache renderOutputCache;
+  /**  The executor for asynchronous generation, created when the service starts. */
+  private volatile RenderExecutor renderExecutor;
+  /**  The base path watcher, or null if not enabled. */
+  private TemplateWatcher templateWatcher;
+  /**  The loader used by the template cache to read templates from the template store. */
+  private final CompiledTemplateCache.Loader storeLoader = new StoreLoader();
+  /**  The output buffers and encoding writers reused between calls, kept while the service is running. */
+  private final RenderBufferPool bufferPool = new RenderBufferPool(Charset.forName(DEFAULT_DOCUMENT_CHARSET));
+  /**  The templates each template includes or imports, recorded as templates are compiled. */
+  private final TemplateDependencyGraph dependencyGraph = new TemplateDependencyGraph();
+  /**  The storage of FreeMarker's cache of "included" templates, or null if FreeMarker's default is used. */
+  private volatile IndexedCacheStorage includedTemplateStorage;
+  /**  The shared contexts registered, by name. */
+  private final Map<String, SharedContext> sharedContexts = new ConcurrentHashMap<String, SharedContext>();
+  /**  The locks serialising changes to templates, selected by template path. */
+  private final Object[] templateLocks = createTemplateLocks();
 
   /**
    * The default constructor as dictated by AbstractModelService.
@@ -99,7 +250,8 @@ public abstract class AbstractFreeMarkerDocumentGeneratorService
   }
 
   /**
-   * Set the templates base path.
+   * Set the templates base path. Template paths must then stay within the base path; if it is not set, template paths
+   * are used as given.
    *
    * @param newBasePath the base path or null if not set
    */
@@ -107,36 +259,1584 @@ public abstract class AbstractFreeMarkerDocumentGeneratorService
     basePath = newBasePath;
   }
 
+  /**
+   * Get the store the templates are kept in.
+   *
+   * @return a TemplateStore or null if the templates are kept as files under the base path
+   */
+  public TemplateStore getTemplateStore() {
+    return templateStore;
+  }
+
+  /**
+   * Set the store the templates are kept in. If not set, the templates are kept as files under the base path. Takes
+   * effect when the service is next started.
+   *
+   * @param store the template store
+   */
+  public void setTemplateStore(final TemplateStore store) {
+    templateStore = store;
+  }
+
+  /**
+   * Get the template bundle the templates are served from.
+   *
+   * @return the bundle file or null if not set
+   */
+  public String getTemplateBundle() {
+    return templateBundle;
+  }
+
+  /**
+   * Set the template bundle the templates are served from, as written by <tt>TemplateBundleCompiler</tt>. The bundle
+   * is memory mapped and every template in it is compiled when the service starts. The bundle replaces the template
+   * store and is read only. Takes effect when the service is next started.
+   *
+   * @param bundle the bundle file, or null to use the template store
+   */
+  public void setTemplateBundle(final String bundle) {
+    templateBundle = bundle;
+  }
+
+  /**
+   * Get the FreeMarker version whose fixes and improvements that change behaviour are enabled.
+   *
+   * @return the version, such as "2.3.32"
+   */
+  public String getIncompatibleImprovements() {
+    return incompatibleImprovements;
+  }
+
+  /**
+   * Set the FreeMarker version whose fixes and improvements that change behaviour are enabled. The version may not be
+   * later than the FreeMarker library in use. Takes effect when the service is next started.
+   *
+   * @param version the version, such as "2.3.32"
+   */
+  public void setIncompatibleImprovements(final String version) {
+    incompatibleImprovements = version;
+  }
+
+  /**
+   * Get the object wrapper used to expose the data model to templates.
+   *
+   * @return an ObjectWrapper, or null if FreeMarker's default wrapper is used
+   */
+  public ObjectWrapper getObjectWrapper() {
+    return objectWrapper;
+  }
+
+  /**
+   * Set the object wrapper used to expose the data model to templates, for example a FastObjectWrapper to wrap maps,
+   * lists and beans without copying them. If null, FreeMarker's default wrapper for the incompatible improvements
+   * version is used, with iterators and streams wrapped as one-shot lazy sequences. Takes effect when the service is
+   * next started.
+   *
+   * @param wrapper the object wrapper
+   */
+  public void setObjectWrapper(final ObjectWrapper wrapper) {
+    objectWrapper = wrapper;
+  }
+
+  /**
+   * Get the handler invoked by FreeMarker when an error occurs during processing.
+   *
+   * @return a TemplateExceptionHandler
+   */
+  public TemplateExceptionHandler getTemplateExceptionHandler() {
+    return templateExceptionHandler;
+  }
+
+  /**
+   * Set the handler invoked by FreeMarker when an error occurs during processing. Takes effect when the service is
+   * next started.
+   *
+   * @param handler the exception handler
+   */
+  public void setTemplateExceptionHandler(final TemplateExceptionHandler handler) {
+    templateExceptionHandler = handler;
+  }
+
+  /**
+   * Get the resolver of the classes templates may instantiate with <tt>?new</tt>.
+   *
+   * @return a TemplateClassResolver
+   */
+  public TemplateClassResolver getNewBuiltinClassResolver() {
+    return newBuiltinClassResolver;
+  }
+
+  /**
+   * Set the resolver of the classes templates may instantiate with <tt>?new</tt>. The default, FreeMarker's safer
+   * resolver, refuses the utility classes that run commands or load arbitrary classes; templates from untrusted
+   * sources should use <tt>TemplateClassResolver.ALLOWS_NOTHING_RESOLVER</tt>. Takes effect when the service is next
+   * started.
+   *
+   * @param resolver the class resolver
+   */
+  public void setNewBuiltinClassResolver(final TemplateClassResolver resolver) {
+    if (resolver == null) {
+      throw new IllegalArgumentException("A template class resolver is required");
+    }
+    newBuiltinClassResolver = resolver;
+  }
+
+  /**
+   * Get the loaders used to resolve "included" templates.
+   *
+   * @return a list of TemplateLoader
+   */
+  public List<TemplateLoader> getTemplateLoaders() {
+    return templateLoaders;
+  }
+
+  /**
+   * Set the loaders used to resolve "included" templates. Takes effect when the service is next started.
+   *
+   * @param loaders the template loaders, searched in order
+   */
+  public void setTemplateLoaders(final List<TemplateLoader> loaders) {
+    templateLoaders = loaders;
+  }
+
+  /**
+   * Get the storage used by FreeMarker to cache "included" templates.
+   *
+   * @return a CacheStorage
+   */
+  public CacheStorage getCacheStorage() {
+    return cacheStorage;
+  }
+
+  /**
+   * Set the storage used by FreeMarker to cache "included" templates, for example a MruCacheStorage to hold a fixed
+   * number of templates strongly and more softly. Storage that is concurrent, such as the default SoftCacheStorage, is
+   * read without locking. Takes effect when the service is next started.
+   *
+   * @param storage the cache storage
+   */
+  public void setCacheStorage(final CacheStorage storage) {
+    cacheStorage = storage;
+  }
+
+  /**
+   * Get the number of seconds before FreeMarker checks an "included" template for changes.
+   *
+   * @return the delay in seconds
+   */
+  public int getTemplateUpdateDelay() {
+    return (int) (templateUpdateDelayMillis / 1000L);
+  }
+
+  /**
+   * Set the number of seconds before FreeMarker checks an "included" template for changes. Takes effect when the
+   * service is next started.
+   *
+   * @param delay the delay in seconds
+   */
+  public void setTemplateUpdateDelay(final int delay) {
+    templateUpdateDelayMillis = delay * 1000L;
+  }
+
+  /**
+   * Get the number of milliseconds before FreeMarker checks an "included" template for changes.
+   *
+   * @return the delay in milliseconds
+   */
+  public long getTemplateUpdateDelayMillis() {
+    return templateUpdateDelayMillis;
+  }
+
+  /**
+   * Set the number of milliseconds before FreeMarker checks an "included" template for changes. Templates served from
+   * a template bundle never change, so they are not checked. Takes effect when the service is next started.
+   *
+   * @param delay the delay in milliseconds
+   */
+  public void setTemplateUpdateDelayMillis(final long delay) {
+    templateUpdateDelayMillis = delay;
+  }
+
+  /**
+   * Get the maximum number of compiled templates held in the template cache.
+   *
+   * @return the entry count
+   */
+  public int getTemplateCacheMaxEntries() {
+    return templateCacheMaxEntries;
+  }
+
+  /**
+   * Set the maximum number of compiled templates held in the template cache. Takes effect when the service is next
+   * started.
+   *
+   * @param maxEntries the entry count
+   */
+  public void setTemplateCacheMaxEntries(final int maxEntries) {
+    templateCacheMaxEntries = maxEntries;
+  }
+
+  /**
+   * Get the maximum estimated size of the compiled templates held in the template cache.
+   *
+   * @return the size in bytes
+   */
+  public long getTemplateCacheMaxSize() {
+    return templateCacheMaxSize;
+  }
+
+  /**
+   * Set the maximum estimated size of the compiled templates held in the template cache. Takes effect when the
+   * service is next started.
+   *
+   * @param maxSize the size in bytes
+   */
+  public void setTemplateCacheMaxSize(final long maxSize) {
+    templateCacheMaxSize = maxSize;
+  }
+
+  /**
+   * Get the minimum time between checks of a cached template file for changes.
+   *
+   * @return the interval in milliseconds, negative if cached templates are never checked
+   */
+  public long getTemplateCacheRevalidateInterval() {
+    return templateCacheRevalidateInterval;
+  }
+
+  /**
+   * Set the minimum time between checks of a cached template file for changes. Takes effect when the service is next
+   * started.
+   *
+   * @param interval the interval in milliseconds, negative if cached templates are never checked
+   */
+  public void setTemplateCacheRevalidateInterval(final long interval) {
+    templateCacheRevalidateInterval = interval;
+  }
+
+  /**
+   * Determine whether templates supplied as input streams are cached by a hash of their content.
+   *
+   * @return true if enabled
+   */
+  public boolean isStreamTemplateCacheEnabled() {
+    return streamTemplateCacheEnabled;
+  }
+
+  /**
+   * Set whether templates supplied as input streams are cached by a hash of their content. Takes effect when the
+   * service is next started.
+   *
+   * @param enabled true to enable the cache
+   */
+  public void setStreamTemplateCacheEnabled(final boolean enabled) {
+    streamTemplateCacheEnabled = enabled;
+  }
+
+  /**
+   * Get the maximum number of compiled templates held in the input stream template cache.
+   *
+   * @return the entry count
+   */
+  public int getStreamTemplateCacheMaxEntries() {
+    return streamTemplateCacheMaxEntries;
+  }
+
+  /**
+   * Set the maximum number of compiled templates held in the input stream template cache. Takes effect when the
+   * service is next started.
+   *
+   * @param maxEntries the entry count
+   */
+  public void setStreamTemplateCacheMaxEntries(final int maxEntries) {
+    streamTemplateCacheMaxEntries = maxEntries;
+  }
+
+  /**
+   * Get the maximum estimated size of the compiled templates held in the input stream template cache.
+   *
+   * @return the size in bytes
+   */
+  public long getStreamTemplateCacheMaxSize() {
+    return streamTemplateCacheMaxSize;
+  }
+
+  /**
+   * Set the maximum estimated size of the compiled templates held in the input stream template cache. Takes effect
+   * when the service is next started.
+   *
+   * @param maxSize the size in bytes
+   */
+  public void setStreamTemplateCacheMaxSize(final long maxSize) {
+    streamTemplateCacheMaxSize = maxSize;
+  }
+
+  /**
+   * Get the number of input stream templates served from the input stream template cache.
+   *
+   * @return the hit count, zero if the cache is not enabled
+   */
+  public long getStreamTemplateCacheHitCount() {
+    CompiledTemplateCache cache = streamTemplateCache;
+    return cache == null ? 0 : cache.getHitCount();
+  }
+
+  /**
+   * Get the number of input stream templates that had to be parsed because they were not in the input stream
+   * template cache.
+   *
+   * @return the miss count, zero if the cache is not enabled
+   */
+  public long getStreamTemplateCacheMissCount() {
+    CompiledTemplateCache cache = streamTemplateCache;
+    return cache == null ? 0 : cache.getMissCount();
+  }
+
+  /**
+   * Get whether the documents generated from template paths are cached by the compiled template and a fingerprint of
+   * the data. Only data made of maps, collections, strings, numbers, booleans, characters, dates and enums is
+   * fingerprinted, documents generated from other data, from wrapped data models or with request render limits are
+   * always generated.
+   *
+   * @return true if enabled
+   */
+  public boolean isRenderOutputCacheEnabled() {
+    return renderOutputCacheEnabled;
+  }
+
+  /**
+   * Set whether the documents generated from template paths are cached. Takes effect when the service is next
+   * started.
+   *
+   * @param enabled true to enable the cache
+   */
+  public void setRenderOutputCacheEnabled(final boolean enabled) {
+    renderOutputCacheEnabled = enabled;
+  }
+
+  /**
+   * Get the maximum total size in bytes of the documents held in the render output cache.
+   *
+   * @return the size in bytes
+   */
+  public long getRenderOutputCacheMaxSize() {
+    return renderOutputCacheMaxSize;
+  }
+
+  /**
+   * Set the maximum total size in bytes of the documents held in the render output cache. Takes effect when the
+   * service is next started.
+   *
+   * @param maxSize the size in bytes
+   */
+  public void setRenderOutputCacheMaxSize(final long maxSize) {
+    renderOutputCacheMaxSize = maxSize;
+  }
+
+  /**
+   * Get the time in milliseconds a cached document is served for before it is generated again.
+   *
+   * @return the time in milliseconds, zero or negative for no limit
+   */
+  public long getRenderOutputCacheTimeToLive() {
+    return renderOutputCacheTimeToLive;
+  }
+
+  /**
+   * Set the time in milliseconds a cached document is served for before it is generated again. Takes effect when the
+   * service is next started.
+   *
+   * @param timeToLive the time in milliseconds, zero or negative for no limit
+   */
+  public void setRenderOutputCacheTimeToLive(final long timeToLive) {
+    renderOutputCacheTimeToLive = timeToLive;
+  }
+
+  /**
+   * Get the number of documents served from the render output cache.
+   *
+   * @return the hit count, zero if the cache is not enabled
+   */
+  public long getRenderOutputCacheHitCount() {
+    RenderOutputCache cache = renderOutputCache;
+    return cache == null ? 0 : cache.getHitCount();
+  }
+
+  /**
+   * Get the number of cacheable documents that had to be generated because they were not in the render output cache.
+   *
+   * @return the miss count, zero if the cache is not enabled
+   */
+  public long getRenderOutputCacheMissCount() {
+    RenderOutputCache cache = renderOutputCache;
+    return cache == null ? 0 : cache.getMissCount();
+  }
+
+  /**
+   * Get whether templates that use only literal text, <tt>${a.b}</tt> interpolations of strings and
+   * <tt>&lt;#if&gt;</tt> blocks testing <tt>a.b?has_content</tt> or <tt>a.b??</tt> are rendered from a map without
+   * FreeMarker. Documents whose data the fast path cannot render exactly as FreeMarker would are rendered by
+   * FreeMarker. Disabled by default, as the fast path reads FreeMarker's internal template structure.
+   *
+   * @return true if enabled
+   */
+  public boolean isTemplateFastPathEnabled() {
+    return templateFastPathEnabled;
+  }
+
+  /**
+   * Set whether simple templates are rendered from a map without FreeMarker. The fast path is only used with
+   * FreeMarker's default object wrapper or a <tt>FastObjectWrapper</tt>. Takes effect when the service is next started.
+   *
+   * @param enabled true to enable the fast path
+   */
+  public void setTemplateFastPathEnabled(final boolean enabled) {
+    templateFastPathEnabled = enabled;
+  }
+
+  /**
+   * Get whether the literal text of templates is encoded into the document charset once when the template is compiled
+   * rather than on every render.
+   *
+   * @return true if enabled
+   */
+  public boolean isLiteralTextPreEncodingEnabled() {
+    return literalTextPreEncodingEnabled;
+  }
+
+  /**
+   * Set whether the literal text of templates is encoded once when compiled. Disabling it renders the same documents,
+   * encoding the text on every render instead. Takes effect for templates compiled after the service is next started.
+   *
+   * @param enabled true to pre-encode literal text
+   */
+  public void setLiteralTextPreEncodingEnabled(final boolean enabled) {
+    literalTextPreEncodingEnabled = enabled;
+  }
+
+  /**
+   * Get the number of documents rendered by the fast path rather than by FreeMarker.
+   *
+   * @return the render count
+   */
+  public long getFastPathRenderCount() {
+    return fastPathRenders.sum();
+  }
+
+  /**
+   * Return the templates a template includes or imports directly, as recorded when it was last compiled.
+   *
+   * @param templatePath the template path
+   * @return the names of the included templates, empty if none or the template has not been compiled
+   */
+  public Set<String> getTemplateDependencies(final String templatePath) {
+    return dependencyGraph.getDependencies(templatePath);
+  }
+
+  /**
+   * Return the compiled templates that include or import a template, directly or through other templates. These are
+   * the templates recompiled when the template changes.
+   *
+   * @param templatePath the template path
+   * @return the template paths of the dependent templates
+   */
+  public Set<String> getTemplateDependents(final String templatePath) {
+    return dependencyGraph.getDependents(templatePath);
+  }
+
+
+  /**
+   * Get the largest output buffer retained between calls to the generate methods returning bytes.
+   *
+   * @return the size in bytes
+   */
+  public int getOutputBufferMaxRetainedSize() {
+    return outputBufferMaxRetainedSize;
+  }
+
+  /**
+   * Set the largest output buffer retained between calls to the generate methods returning bytes. Buffers grown beyond
+   * this size by a large document are discarded after use. Takes effect when the service is next started.
+   *
+   * @param maxRetainedSize the size in bytes
+   */
+  public void setOutputBufferMaxRetainedSize(final int maxRetainedSize) {
+    outputBufferMaxRetainedSize = maxRetainedSize;
+  }
+
+  /**
+   * Get the most output buffers, and the most encoding writers, the service retains for reuse between calls.
+   *
+   * @return the pool size
+   */
+  public int getRenderBufferPoolSize() {
+    return renderBufferPoolSize;
+  }
+
+  /**
+   * Set the most output buffers, and the most encoding writers, the service retains for reuse between calls. They are
+   * shared by all threads generating documents and released when the service stops, so at most this many output
+   * buffers of the retained size are held. Takes effect when the service is next started.
+   *
+   * @param poolSize the pool size, zero to allocate for every call
+   */
+  public void setRenderBufferPoolSize(final int poolSize) {
+    renderBufferPoolSize = poolSize;
+  }
+
+  /**
+   * Get the templates compiled when the service starts.
+   *
+   * @return the template paths
+   */
+  public Collection<String> getWarmUpTemplates() {
+    return warmUpTemplates;
+  }
+
+  /**
+   * Set the templates compiled when the service starts, for example the values of the templates map of
+   * DocumentGenerationFreeMarkerHandlerImpl.
+   *
+   * @param templatePaths the template paths
+   */
+  public void setWarmUpTemplates(final Collection<String> templatePaths) {
+    warmUpTemplates = templatePaths;
+  }
+
+  /**
+   * Determine whether every template listed by the template store is compiled when the service starts.
+   *
+   * @return true if the base path is warmed up
+   */
+  public boolean isWarmUpBasePath() {
+    return warmUpBasePath;
+  }
+
+  /**
+   * Set whether every template listed by the template store is compiled when the service starts.
+   *
+   * @param warmUp true to warm up the base path
+   */
+  public void setWarmUpBasePath(final boolean warmUp) {
+    warmUpBasePath = warmUp;
+  }
+
+  /**
+   * Get the data used to render each template during warm-up.
+   *
+   * @return a map or null if templates are only compiled
+   */
+  public Map<String, Object> getWarmUpSampleData() {
+    return warmUpSampleData;
+  }
+
+  /**
+   * Set the data used to render each template during warm-up.
+   *
+   * @param sampleData a map or null if templates are only compiled
+   */
+  public void setWarmUpSampleData(final Map<String, Object> sampleData) {
+    warmUpSampleData = sampleData;
+  }
+
+  /**
+   * Get the number of threads used to warm up templates.
+   *
+   * @return the thread count
+   */
+  public int getWarmUpThreads() {
+    return warmUpThreads;
+  }
+
+  /**
+   * Set the number of threads used to warm up templates.
+   *
+   * @param threads the thread count
+   */
+  public void setWarmUpThreads(final int threads) {
+    warmUpThreads = threads;
+  }
+
+  /**
+   * Get the longest time the service waits for warm-up before it reports itself as running.
+   *
+   * @return the timeout in milliseconds
+   */
+  public long getWarmUpTimeout() {
+    return warmUpTimeout;
+  }
+
+  /**
+   * Set the longest time the service waits for warm-up before it reports itself as running. Templates still warming
+   * up when the timeout passes continue in the background.
+   *
+   * @param timeout the timeout in milliseconds
+   */
+  public void setWarmUpTimeout(final long timeout) {
+    warmUpTimeout = timeout;
+  }
+
+  /**
+   * Determine whether the base path is watched for template changes instead of checking templates on request.
+   *
+   * @return true if watching is enabled
+   */
+  public boolean isTemplateWatchEnabled() {
+    return templateWatchEnabled;
+  }
+
+  /**
+   * Set whether the base path is watched for template changes instead of checking templates on request. When enabled
+   * the template cache revalidate interval is not used. Takes effect when the service is next started.
+   *
+   * @param enabled true to watch the base path
+   */
+  public void setTemplateWatchEnabled(final boolean enabled) {
+    templateWatchEnabled = enabled;
+  }
+
+  /**
+   * Determine whether the base path is polled for changes even when a watch service is available.
+   *
+   * @return true if polling is forced
+   */
+  public boolean isTemplateWatchPolling() {
+    return templateWatchPolling;
+  }
+
+  /**
+   * Set whether the base path is polled for changes even when a watch service is available, for file systems where
+   * change notification is unreliable. Takes effect when the service is next started.
+   *
+   * @param polling true to force polling
+   */
+  public void setTemplateWatchPolling(final boolean polling) {
+    templateWatchPolling = polling;
+  }
+
+  /**
+   * Get the interval at which cached templates are polled when the base path cannot be watched.
+   *
+   * @return the interval in milliseconds
+   */
+  public long getTemplateWatchPollInterval() {
+    return templateWatchPollInterval;
+  }
+
+  /**
+   * Set the interval at which cached templates are polled when the base path cannot be watched. Takes effect when
+   * the service is next started.
+   *
+   * @param interval the interval in milliseconds
+   */
+  public void setTemplateWatchPollInterval(final long interval) {
+    templateWatchPollInterval = interval;
+  }
+
+  /**
+   * Get the executor used to generate batch documents in parallel.
+   *
+   * @return an Executor or null if batch documents are generated on the calling thread
+   */
+  public Executor getBatchExecutor() {
+    return batchExecutor;
+  }
+
+  /**
+   * Set the executor used to generate batch documents in parallel. Documents are still returned in the order of the
+   * data.
+   *
+   * @param executor an Executor or null to generate batch documents on the calling thread
+   */
+  public void setBatchExecutor(final Executor executor) {
+    batchExecutor = executor;
+  }
+
+  /**
+   * Get the maximum number of batch documents generated in parallel ahead of the one being returned.
+   *
+   * @return the window size
+   */
+  public int getBatchWindow() {
+    return batchWindow;
+  }
+
+  /**
+   * Set the maximum number of batch documents generated in parallel ahead of the one being returned. This bounds the
+   * memory held by completed documents waiting for an earlier one to finish.
+   *
+   * @param window the window size
+   */
+  public void setBatchWindow(final int window) {
+    batchWindow = window;
+  }
+
+  /**
+   * Get the number of platform threads used for asynchronous generation.
+   *
+   * @return the thread count
+   */
+  public int getRenderThreads() {
+    return renderThreads;
+  }
+
+  /**
+   * Set the number of platform threads used for asynchronous generation. Takes effect when the service is next
+   * started.
+   *
+   * @param threads the thread count
+   */
+  public void setRenderThreads(final int threads) {
+    renderThreads = threads;
+  }
+
+  /**
+   * Determine whether asynchronous generation uses a virtual thread per document.
+   *
+   * @return true if virtual threads are used
+   */
+  public boolean isRenderVirtualThreads() {
+    return renderVirtualThreads;
+  }
+
+  /**
+   * Set whether asynchronous generation uses a virtual thread per document. Platform threads are used if the JVM does
+   * not support virtual threads. Takes effect when the service is next started.
+   *
+   * @param virtualThreads true to use virtual threads
+   */
+  public void setRenderVirtualThreads(final boolean virtualThreads) {
+    renderVirtualThreads = virtualThreads;
+  }
+
+  /**
+   * Get the number of asynchronous documents that may wait for a thread before submission blocks.
+   *
+   * @return the queue capacity
+   */
+  public int getRenderQueueCapacity() {
+    return renderQueueCapacity;
+  }
+
+  /**
+   * Set the number of asynchronous documents that may wait for a thread before submission blocks. Takes effect when
+   * the service is next started.
+   *
+   * @param capacity the queue capacity
+   */
+  public void setRenderQueueCapacity(final int capacity) {
+    renderQueueCapacity = capacity;
+  }
+
+  /**
+   * Get the longest time the service waits for asynchronous documents when it stops.
+   *
+   * @return the timeout in milliseconds
+   */
+  public long getRenderShutdownTimeout() {
+    return renderShutdownTimeout;
+  }
+
+  /**
+   * Set the longest time the service waits for asynchronous documents when it stops, after which they are
+   * interrupted.
+   *
+   * @param timeout the timeout in milliseconds
+   */
+  public void setRenderShutdownTimeout(final long timeout) {
+    renderShutdownTimeout = timeout;
+  }
+
+  /**
+   * Get the registry of per-template metrics.
+   *
+   * @return a GeneratorMetrics, by default a LocalGeneratorMetrics
+   */
+  public GeneratorMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the registry of per-template metrics, for example to forward them to a monitoring system. Templates are
+   * identified by their template path, or as "(input stream)" for templates supplied as input streams.
+   *
+   * @param registry the metrics registry
+   */
+  public void setMetrics(final GeneratorMetrics registry) {
+    metrics = registry;
+  }
+
+  /**
+   * Get the render limits applied to every document unless tightened.
+   *
+   * @return a RenderLimits or null if not set
+   */
+  public RenderLimits getRenderLimits() {
+    return renderLimits;
+  }
+
+  /**
+   * Set the render limits applied to every document unless tightened by the limits for its template or by the
+   * limits passed with the request.
+   *
+   * @param limits the default limits, or null for no limits
+   */
+  public void setRenderLimits(final RenderLimits limits) {
+    renderLimits = limits;
+  }
+
+  /**
+   * Get the render limits for particular templates.
+   *
+   * @return a map of limits keyed by template path
+   */
+  public Map<String, RenderLimits> getTemplateRenderLimits() {
+    return templateRenderLimits;
+  }
+
+  /**
+   * Set the render limits for particular templates, keyed by the template path passed to generate. The limits set
+   * tighten the default limits for the template but cannot loosen them.
+   *
+   * @param limits a map of limits keyed by template path
+   */
+  public void setTemplateRenderLimits(final Map<String, RenderLimits> limits) {
+    templateRenderLimits = limits;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final boolean doStart() {
+    boolean result = true;
+    try {
+      activeStore = createTemplateStore();
+      configuration = buildFreeMarkerConfiguration();
+      fastPathActive = templateFastPathEnabled && isFastPathWrapper(configuration.getObjectWrapper());
+      templateCache = new CompiledTemplateCache(templateCacheMaxEntries, templateCacheMaxSize,
+              templateWatchEnabled || templateBundle != null ? -1 : templateCacheRevalidateInterval);
+      if (streamTemplateCacheEnabled) {
+        streamTemplateCache = new CompiledTemplateCache(streamTemplateCacheMaxEntries, streamTemplateCacheMaxSize,
+                -1);
+      }
+      if (renderOutputCacheEnabled) {
+        renderOutputCache = new RenderOutputCache(renderOutputCacheMaxSize, renderOutputCacheTimeToLive);
+      }
+    } catch (IOException | IllegalArgumentException ex) {
+      LOG.error("Failed to open the template store or build the FreeMarker configuration", ex);
+      result = false;
+    }
+    if (result) {
+      renderExecutor = new RenderExecutor(renderThreads, renderQueueCapacity, renderVirtualThreads);
+      bufferPool.open(renderBufferPoolSize, outputBufferMaxRetainedSize);
+    }
+    if (result && templateWatchEnabled) {
+      if (activeStore instanceof FileSystemTemplateStore) {
+        File root = ((FileSystemTemplateStore) activeStore).getRoot();
+        templateWatcher = new TemplateWatcher(root.toPath(), templateWatchPollInterval, new WatchListener());
+        templateWatcher.start(templateWatchPolling);
+      } else {
+        LOG.warn("Template watching is only supported for templates kept in the file system");
+      }
+    }
+    if (result) {
+      warmUp();
+    }
+    return result;
+  }
+
+  /**
+   * Compile, and optionally render, the warm-up templates. Failures are logged and do not prevent the service from
+   * starting.
+   */
+  private void warmUp() {
+    List<String> templatePaths = new ArrayList<String>();
+    if (warmUpTemplates != null) {
+      templatePaths.addAll(warmUpTemplates);
+    }
+    if (warmUpBasePath || templateBundle != null) {
+      try {
+        templatePaths.addAll(activeStore.list());
+      } catch (IOException ex) {
+        LOG.warn("Failed to list the templates in the template store", ex);
+      }
+    }
+    TemplateWarmUp.Task task = new TemplateWarmUp.Task() {
+      @Override
+      public void compile(final String templatePath) {
+        getCompiledTemplate(templatePath);
+      }
+
+      @Override
+      public void render(final String templatePath) {
+        generateBytes(getCompiledTemplate(templatePath), warmUpSampleData, null);
+      }
+    };
+    new TemplateWarmUp(task, warmUpSampleData != null, warmUpThreads, warmUpTimeout).run(templatePaths);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final boolean doStop() {
+    RenderExecutor currentExecutor = renderExecutor;
+    renderExecutor = null;
+    if (currentExecutor != null) {
+      currentExecutor.shutdown(renderShutdownTimeout);
+    }
+    if (templateWatcher != null) {
+      templateWatcher.stop();
+      templateWatcher = null;
+    }
+    CompiledTemplateCache currentCache = templateCache;
+    templateCache = null;
+    if (currentCache != null) {
+      currentCache.clear();
+    }
+    CompiledTemplateCache currentStreamCache = streamTemplateCache;
+    streamTemplateCache = null;
+    if (currentStreamCache != null) {
+      currentStreamCache.clear();
+    }
+    RenderOutputCache currentOutputCache = renderOutputCache;
+    renderOutputCache = null;
+    if (currentOutputCache != null) {
+      currentOutputCache.clear();
+    }
+    Configuration current = configuration;
+    configuration = null;
+    if (current != null) {
+      current.clearTemplateCache();
+    }
+    includedTemplateStorage = null;
+    bufferPool.close();
+    dependencyGraph.clear();
+    metrics.clear();
+    activeStore = null;
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void createTemplate(final String templatePath, final String content) {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Attempting to create template at location " + templatePath);
+    }
+    writeTemplate(templatePath, content, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final String getTemplate(final String templatePath) {
+    String result = "";
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Attempting to get template" + templatePath + " from " + basePath);
+    }
+    TemplateContent template = null;
+    try {
+      template = getActiveStore().read(templatePath);
+    } catch (IOException ex) {
+      throwReadErrorException(templatePath, ex);
+    }
+    if (template != null) {
+      result = new String(template.getContent(), Charset.forName(DEFAULT_DOCUMENT_CHARSET));
+    } else {
+      throwFileNotReadableException();
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void updateTemplate(final String templatePath, final String content) {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Attempting to update template at location " + templatePath);
+    }
+    writeTemplate(templatePath, content, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void deleteTemplate(final String templatePath) {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Attempting to delete template at " + templatePath);
+    }
+    boolean deleted = false;
+    synchronized (getTemplateLock(templatePath)) {
+      try {
+        deleted = getActiveStore().delete(templatePath);
+      } catch (IOException ex) {
+        LOG.warn("Failed to delete template " + templatePath, ex);
+      }
+      if (deleted) {
+        invalidateCompiledTemplate(templatePath);
+        applyTemplateChange(templatePath);
+        metrics.remove(templatePath);
+      }
+    }
+    if (!deleted) {
+      throwCouldNotDeleteException(templatePath);
+    }
+  }
+
+  /**
+   * Write a template to the template store. While the service is running the template is compiled before the store
+   * is changed, so invalid content is rejected, and the compiled template then replaces the cached one, so concurrent
+   * generate calls see either the old or the new template and never a missing one. Changes to the same template are
+   * serialised, changes to different templates are not.
+   *
+   * @param templatePath the template path
+   * @param content the template content
+   * @param overwrite true to replace an existing template, false to create a new one
+   */
+  private void writeTemplate(final String templatePath, final String content, final boolean overwrite) {
+    Charset charset = Charset.forName(DEFAULT_DOCUMENT_CHARSET);
+    byte[] bytes = content.getBytes(charset);
+    Template template = null;
+    long parseNanos = 0;
+    if (configuration != null) {
+      long start = System.nanoTime();
+      template = createFreeMarkerTemplate(content);
+      parseNanos = System.nanoTime() - start;
+    }
+    synchronized (getTemplateLock(templatePath)) {
+      TemplateStore store = getActiveStore();
+      try {
+        if (overwrite && store.getVersion(templatePath) == TemplateStore.MISSING_VERSION) {
+          throwTemplateNotFoundException(templatePath);
+        }
+        store.write(templatePath, bytes, overwrite);
+        long version = store.getVersion(templatePath);
+        CompiledTemplateCache cache = templateCache;
+        if (cache != null && template != null && version != TemplateStore.MISSING_VERSION) {
+          TemplateMetrics templateMetrics = metrics.forTemplate(templatePath);
+          templateMetrics.recordPhase(TemplateMetrics.Phase.PARSE, parseNanos);
+          cache.replace(templatePath, new CompiledTemplate(templatePath, template, version,
+                  content.length() * ESTIMATED_BYTES_PER_CHAR, templateMetrics, charset,
+                  literalTextPreEncodingEnabled, fastPathActive));
+          applyTemplateChange(templatePath);
+          recordDependencies(templatePath, template);
+        } else {
+          invalidateCompiledTemplate(templatePath);
+          applyTemplateChange(templatePath);
+        }
+      } catch (IOException ex) {
+        throwCouldNotCreateFileException(templatePath, ex);
+      }
+    }
+  }
+
+  /**
+   * Return the lock serialising changes to a template.
+   *
+   * @param templatePath the template path
+   * @return the lock
+   */
+  private Object getTemplateLock(final String templatePath) {
+    int hash = templatePath.hashCode();
+    return templateLocks[(hash ^ hash >>> 16) & TEMPLATE_LOCK_STRIPES - 1];
+  }
+
+  /**
+   * Create the locks serialising changes to templates.
+   *
+   * @return the locks
+   */
+  private static Object[] createTemplateLocks() {
+    Object[] result = new Object[TEMPLATE_LOCK_STRIPES];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = new Object();
+    }
+    return result;
+  }
+
+  /**
+   * Create the store the templates are read from while the service is running.
+   *
+   * @return the template bundle, or the configured template store, or a store for the files under the base path, or
+   *         for any file, relative paths resolved against the working directory, if the base path is not set
+   * @throws IOException if the template bundle could not be read
+   */
+  private TemplateStore createTemplateStore() throws IOException {
+    TemplateStore result;
+    if (templateBundle != null) {
+      result = new MappedBundleTemplateStore(Paths.get(templateBundle));
+    } else if (templateStore != null) {
+      result = templateStore;
+    } else {
+      boolean confined = basePath != null && !basePath.isEmpty();
+      result = new FileSystemTemplateStore(new File(confined ? basePath : ""), confined);
+    }
+    return result;
+  }
+
+  /**
+   * Get the store the templates are read from. Templates may be managed before the service is started, in which case
+   * the store that will be used once it is started is returned.
+   *
+   * @return the template store
+   */
+  private TemplateStore getActiveStore() {
+    TemplateStore result = activeStore;
+    if (result == null) {
+      try {
+        result = createTemplateStore();
+      } catch (IOException ex) {
+        throwReadErrorException(templateBundle, ex);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the compiled form of a template, reading and parsing it only if it is not already cached.
+   *
+   * @param templatePath the location of the template
+   * @return the compiled template
+   */
+  private CompiledTemplate getCompiledTemplate(final String templatePath) {
+    CompiledTemplate result = null;
+    CompiledTemplateCache cache = templateCache;
+    if (cache == null) {
+      throwServiceNotStartedException();
+    }
+    try {
+      result = cache.get(templatePath, storeLoader);
+    } catch (IOException ex) {
+      throwReadErrorException(templatePath, ex);
+    }
+    return result;
+  }
+
+  /**
+   * Return the current compiled form of a template already held by the caller, avoiding the cache lookup while the
+   * held template is still current.
+   *
+   * @param held the compiled template held by the caller
+   * @return the compiled template
+   */
+  private CompiledTemplate getCompiledTemplate(final CompiledTemplate held) {
+    CompiledTemplate result = null;
+    CompiledTemplateCache cache = templateCache;
+    if (cache == null) {
+      throwServiceNotStartedException();
+    }
+    try {
+      result = cache.get(held, storeLoader);
+    } catch (IOException ex) {
+      throwReadErrorException(held.getKey(), ex);
+    }
+    return result;
+  }
+
+  /**
+   * Return the FreeMarker template for an input stream. If the input stream template cache is enabled the content is
+   * read and fingerprinted so that identical content is only parsed once.
+   *
+   * @param inputStream the template content
+   * @return the compiled template
+   */
+  private CompiledTemplate getStreamTemplate(final InputStream inputStream) {
+    CompiledTemplateCache cache = streamTemplateCache;
+    CompiledTemplate result = null;
+    if (cache == null) {
+      final TemplateMetrics templateMetrics = metrics.forTemplate(STREAM_TEMPLATE_NAME);
+      long start = System.nanoTime();
+      Template template = createFreeMarkerTemplate(inputStream);
+      templateMetrics.recordPhase(TemplateMetrics.Phase.PARSE, System.nanoTime() - start);
+      result = new CompiledTemplate(STREAM_TEMPLATE_NAME, template, 0, 0, templateMetrics, null, false, false);
+    } else {
+      try {
+        final TemplateMetrics templateMetrics = metrics.forTemplate(STREAM_TEMPLATE_NAME);
+        long start = System.nanoTime();
+        final byte[] content = readFully(inputStream);
+        templateMetrics.recordPhase(TemplateMetrics.Phase.LOAD, System.nanoTime() - start);
+        result = cache.get(ContentHash.key(content, 0, content.length), new CompiledTemplateCache.Loader() {
+          @Override
+          public long getVersion(final String key) {
+            return 0;
+          }
+
+          @Override
+          public CompiledTemplate load(final String key) {
+            long parseStart = System.nanoTime();
+            Template template = createFreeMarkerTemplate(new ByteArrayInputStream(content));
+            templateMetrics.recordPhase(TemplateMetrics.Phase.PARSE, System.nanoTime() - parseStart);
+            return new CompiledTemplate(key, template, 0, content.length * ESTIMATED_BYTES_PER_CHAR,
+                    templateMetrics, Charset.forName(DEFAULT_DOCUMENT_CHARSET), literalTextPreEncodingEnabled,
+                    fastPathActive);
+          }
+        });
+      } catch (IOException ex) {
+        throwTemplateException(ex);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read the remaining content of an input stream.
+   *
+   * @param inputStream the input stream
+   * @return the content
+   * @throws IOException if the stream could not be read
+   */
+  private static byte[] readFully(final InputStream inputStream) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int count = inputStream.read(buffer);
+    while (count != -1) {
+      result.write(buffer, 0, count);
+      count = inputStream.read(buffer);
+    }
+    return result.toByteArray();
+  }
+
+  /**
+   * Remove a template from the template cache so that changes are visible to the next generate call.
+   *
+   * @param templatePath the location of the template
+   */
+  private void invalidateCompiledTemplate(final String templatePath) {
+    CompiledTemplateCache cache = templateCache;
+    if (cache != null) {
+      cache.invalidate(templatePath);
+    }
+  }
+
+  /**
+   * Apply a change to a template to the templates that depend on it. The compiled templates that include or import it
+   * are removed from the template cache, it is removed from FreeMarker's cache of "included" templates, and its own
+   * dependencies are forgotten until it is next compiled or included. Other templates are not affected.
+   *
+   * @param templatePath the template path
+   */
+  private void applyTemplateChange(final String templatePath) {
+    RenderOutputCache outputCache = renderOutputCache;
+    if (outputCache != null) {
+      outputCache.invalidate(templatePath);
+    }
+    for (String dependent : dependencyGraph.getDependents(templatePath)) {
+      invalidateCompiledTemplate(dependent);
+      if (outputCache != null) {
+        outputCache.invalidate(dependent);
+      }
+    }
+    dependencyGraph.remove(templatePath);
+    dependencyGraph.updateVersion(templatePath, getIncludedTemplateVersion(templatePath));
+    IndexedCacheStorage storage = includedTemplateStorage;
+    if (storage != null) {
+      storage.removeTemplate(templatePath);
+    } else {
+      Configuration current = configuration;
+      if (current != null) {
+        current.clearTemplateCache();
+      }
+    }
+  }
+
+  /**
+   * Record the templates a compiled template includes or imports, and the templates they in turn include or import.
+   *
+   * @param templatePath the template path
+   * @param template the compiled template
+   */
+  private void recordDependencies(final String templatePath, final Template template) {
+    TemplateDependencyGraph.Dependencies found = TemplateDependencyGraph.find(null, template);
+    dependencyGraph.record(templatePath, found, getIncludedTemplateVersions(found));
+    Set<String> visited = new HashSet<String>();
+    for (String name : found.getNames()) {
+      recordIncludedDependencies(name, visited);
+    }
+  }
+
+  /**
+   * Record the templates an included template includes or imports, loading it through FreeMarker's cache of
+   * "included" templates, where it is needed when the including template is rendered.
+   *
+   * @param templateName the included template name
+   * @param visited the included templates already visited
+   */
+  private void recordIncludedDependencies(final String templateName, final Set<String> visited) {
+    Configuration current = configuration;
+    if (current == null || !visited.add(templateName) || dependencyGraph.isRecorded(templateName)) {
+      return;
+    }
+    Template template;
+    try {
+      template = current.getTemplate(templateName);
+    } catch (IOException ex) {
+      LOG.debug("Included template " + templateName + " could not be loaded", ex);
+      return;
+    }
+    TemplateDependencyGraph.Dependencies found = TemplateDependencyGraph.find(templateName, template);
+    dependencyGraph.record(templateName, found, getIncludedTemplateVersions(found));
+    for (String name : found.getNames()) {
+      recordIncludedDependencies(name, visited);
+    }
+  }
+
+  /**
+   * Return the current version of each included template in the template store.
+   *
+   * @param found the included templates
+   * @return the versions by template name
+   */
+  private Map<String, Long> getIncludedTemplateVersions(final TemplateDependencyGraph.Dependencies found) {
+    Map<String, Long> result = new HashMap<String, Long>();
+    for (String name : found.getNames()) {
+      result.put(name, getIncludedTemplateVersion(name));
+    }
+    return result;
+  }
+
+  /**
+   * Return the current version of an included template in the template store.
+   *
+   * @param templateName the template name
+   * @return the version, or MISSING_VERSION if it is not in the template store
+   */
+  private long getIncludedTemplateVersion(final String templateName) {
+    long result = TemplateStore.MISSING_VERSION;
+    try {
+      result = getActiveStore().getVersion(templateName);
+    } catch (IOException ex) {
+      LOG.debug("The version of included template " + templateName + " could not be read", ex);
+    }
+    return result;
+  }
+
+  /**
+   * Create a FreeMarker configuration with the settings that decide how templates are parsed. The service builds its
+   * configuration on this, and the <tt>TemplateBundleCompiler</tt> validates templates with it, so that a bundle is
+   * checked the way the service will parse it.
+   *
+   * @param version the FreeMarker version whose fixes and improvements that change behaviour are enabled
+   * @return a FreeMarker Configuration object
+   */
+  public static Configuration createParsingConfiguration(final Version version) {
+    return new Configuration(version);
+  }
+
+  /**
+   * Build a FreeMarker configuration object based on the properties of this instance.
+   *
+   * @return a FreeMarker Configuration object
+   */
+  private Configuration buildFreeMarkerConfiguration() throws IOException {
+    Version version = new Version(incompatibleImprovements);
+    Configuration result = createParsingConfiguration(version);
+    result.setObjectWrapper(objectWrapper != null ? objectWrapper : new LazyObjectWrapper(version));
+    result.setTemplateExceptionHandler(templateExceptionHandler);
+    result.setNewBuiltinClassResolver(newBuiltinClassResolver);
+    if (cacheStorage != null) {
+      IndexedCacheStorage storage = new IndexedCacheStorage(cacheStorage);
+      result.setCacheStorage(storage);
+      includedTemplateStorage = storage;
+    }
+    result.setTemplateUpdateDelayMilliseconds(templateBundle != null ? Long.MAX_VALUE : templateUpdateDelayMillis);
+
+    //Templates "include" other templates from the template store first, so that changes made through the service
+    //are seen by the templates that include them.
+    List<TemplateLoader> loaders = new ArrayList<TemplateLoader>();
+    loaders.add(new TemplateStoreLoader(activeStore));
+    //ClassTemplateLoader is for reading the freemarker templates that are "included" from 
+    //within the main template. This will read both from the classpath (eg jar files) and the file system.
+    if (templateLoaders == null || templateLoaders.isEmpty()) {
+      loaders.add(new ClassTemplateLoader(this.getClass(), "/"));
+    } else {
+      loaders.addAll(templateLoaders);
+    }
+    MultiTemplateLoader multiTemplateLoader = new MultiTemplateLoader(loaders.toArray(
+            new TemplateLoader[loaders.size()]));
+    result.setTemplateLoader(multiTemplateLoader);
+    //end section to read "includes"
+
+    return result;
+  }
+
+  /**
+   * Return the object wrapper templates are processed with: the configured wrapper, or FreeMarker's default wrapper
+   * for the incompatible improvements version, listing iterators and streams lazily.
+   *
+   * @return the object wrapper
+   */
+  private ObjectWrapper resolveObjectWrapper() {
+    Configuration current = configuration;
+    ObjectWrapper result = objectWrapper;
+    if (current != null) {
+      result = current.getObjectWrapper();
+    } else if (result == null) {
+      result = new LazyObjectWrapper(new Version(incompatibleImprovements));
+    }
+    return result;
+  }
+
+  /**
+   * Return true if an object wrapper exposes maps, strings and collections to templates the way the fast path reads
+   * them. Subclasses of the default wrapper may wrap values differently, so only the wrappers themselves qualify.
+   *
+   * @param wrapper the object wrapper
+   * @return true if the fast path may be used with the wrapper
+   */
+  private static boolean isFastPathWrapper(final ObjectWrapper wrapper) {
+    return wrapper != null
+            && (wrapper.getClass() == DefaultObjectWrapper.class || wrapper.getClass() == LazyObjectWrapper.class
+            || wrapper.getClass() == FastObjectWrapper.class);
+  }
+
+  /**
+   * Get the shared FreeMarker configuration built when the service started.
+   *
+   * @return a FreeMarker Configuration object
+   */
+  protected final Configuration getConfiguration() {
+    Configuration result = configuration;
+    if (result == null) {
+      throwServiceNotStartedException();
+    }
+    return result;
+  }
+
+  /**
+   * Create a FreeMarkertemplate object.
+   *
+   * @param documentContent the document content to use as the FreeMarker template
+   *
+   * @return a FreeMarker Template object
+   */
+  private Template createFreeMarkerTemplate(final String documentContent) {
+    Template result = null;
+    try {
+      StringReader documentContentReader = new StringReader(documentContent);
+      result = new Template("name", documentContentReader, getConfiguration());
+    } catch (IOException ex) {
+      throwTemplateException(ex);
+    }
+    return result;
+  }
+  
+  private Template createFreeMarkerTemplate(final InputStream documentContent) {
+    Template result = null;
+    try {
+      InputStreamReader inputStreamReader = new InputStreamReader(documentContent);
+      result = new Template("name", inputStreamReader, getConfiguration());
+    } catch (IOException ex) {
+      throwTemplateException(ex);
+    }
+    return result;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
-  public final boolean doStart() {
-    return true;
+  public final TemplateHandle getTemplateHandle(final String templatePath) {
+    return new PathTemplateHandle(templatePath, getCompiledTemplate(templatePath));
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public final boolean doStop() {
-    return true;
+  public final byte[] generate(final String templatePath, final Map<String, Object> data) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Attempting to generate template " + templatePath);
+    }
+    return generateCachedBytes(getCompiledTemplate(templatePath), data, resolveRenderLimits(templatePath, null));
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public final void createTemplate(final String templatePath, final String content) {
-    if (LOG.isInfoEnabled()) {
-      LOG.info("Attempting to create template at location " + templatePath);
+  public final byte[] generate(final String templatePath, final Map<String, Object> data,
+                               final RenderLimits limits) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Attempting to generate template " + templatePath + " with render limits");
+    }
+    return generateBytes(getCompiledTemplate(templatePath), data, resolveRenderLimits(templatePath, limits));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final byte[] generate(final String templatePath, final TemplateHashModel data) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Attempting to generate template " + templatePath + " from a wrapped data model");
+    }
+    return generateBytes(getCompiledTemplate(templatePath), data, resolveRenderLimits(templatePath, null));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final SharedContext registerSharedContext(final String name, final Map<String, Object> context) {
+    if (name == null) {
+      throw new IllegalArgumentException("A shared context name is required");
+    }
+    SharedContext result = new SharedContextSnapshot(context, resolveObjectWrapper());
+    sharedContexts.put(name, result);
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final SharedContext getSharedContext(final String name) {
+    return name == null ? null : sharedContexts.get(name);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void unregisterSharedContext(final String name) {
+    if (name != null) {
+      sharedContexts.remove(name);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void generate(final String templatePath, final Map<String, Object> data, final OutputStream out) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Attempting to generate template " + templatePath + " to an output stream");
+    }
+    generateToStream(getCompiledTemplate(templatePath), data, out, resolveRenderLimits(templatePath, null));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void generate(final String templatePath, final Map<String, Object> data,
+                             final WritableByteChannel channel) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Attempting to generate template " + templatePath + " to a channel");
     }
-    File file = new File(templatePath);
+    CompiledTemplate compiled = getCompiledTemplate(templatePath);
+    EncodingWriter outWriter = bufferPool.acquireWriter(Charset.forName(DEFAULT_DOCUMENT_CHARSET), channel);
     try {
-      Charset charset = Charset.forName(DEFAULT_DOCUMENT_CHARSET);
-      Files.write(Paths.get(file.toURI()), content.getBytes(charset), StandardOpenOption.CREATE_NEW);
-    } catch (IOException ex) {
-      throwCouldNotCreateFileException(file.getPath(), ex);
+      renderTemplate(compiled, data, outWriter, resolveRenderLimits(templatePath, null));
+      compiled.getMetrics().recordOutputSize(outWriter.getByteCount());
+    } finally {
+      bufferPool.release(outWriter);
     }
   }
 
@@ -144,139 +1844,451 @@ public abstract class AbstractFreeMarkerDocumentGeneratorService
    * {@inheritDoc}
    */
   @Override
-  public final String getTemplate(final String templatePath) {
-    String result = "";
+  public final Iterable<byte[]> generateAll(final String templatePath, final Iterable<Map<String, Object>> data) {
     if (LOG.isDebugEnabled()) {
-      LOG.debug("Attempting to get template" + templatePath + " from " + basePath);
+      LOG.debug("Attempting to generate a batch from template " + templatePath);
     }
-    // Consider refactoring to use DocumentStorage service instead
-    File basePathFile = new File(basePath);
-    File file = new File(basePathFile, templatePath);
-    if (file.isFile()) {
-      try {
-        Charset charset = Charset.forName(DEFAULT_DOCUMENT_CHARSET);
-        byte[] readBytes = Files.readAllBytes(file.toPath());
-        result = new String(readBytes, charset);
-      } catch (IOException ex) {
-        throwReadErrorException(file.getPath(), ex);
+    final CompiledTemplate compiled = getCompiledTemplate(templatePath);
+    final Executor executor = batchExecutor;
+    final RenderLimits limits = resolveRenderLimits(templatePath, null);
+    return new Iterable<byte[]>() {
+      @Override
+      public Iterator<byte[]> iterator() {
+        return new BatchIterator(data.iterator(), new BatchIterator.Renderer() {
+          @Override
+          public byte[] render(final Map<String, Object> documentData) {
+            return generateBytes(compiled, documentData, limits);
+          }
+        }, executor, batchWindow);
       }
-    } else {
-      throwFileNotReadableException();
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public final void generateAll(final String templatePath, final Iterable<Map<String, Object>> data,
+                                final DocumentSink sink) {
+    int index = 0;
+    for (byte[] document : generateAll(templatePath, data)) {
+      sink.accept(index++, document);
     }
-    return result;
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public final void updateTemplate(final String templatePath, final String content) {
-    deleteTemplate(templatePath);
-    createTemplate(templatePath, content);
+  public final CompletableFuture<byte[]> generateAsync(final String templatePath, final Map<String, Object> data) {
+    final RenderExecutor executor = getRenderExecutor();
+    return executor.submit(() -> generate(templatePath, data));
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
-  public final void deleteTemplate(final String templatePath) {
-    if (LOG.isInfoEnabled()) {
-      LOG.info("Attempting to delete template at " + templatePath);
+  public final CompletableFuture<List<byte[]>> generateAllAsync(final String templatePath,
+                                                                final Iterable<Map<String, Object>> data) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Attempting to generate an asynchronous batch from template " + templatePath);
     }
-    File file = new File(templatePath);
-    if (!file.delete()) {
-      throwCouldNotDeleteException(templatePath);
+    final RenderExecutor executor = getRenderExecutor();
+    final CompiledTemplate compiled = getCompiledTemplate(templatePath);
+    final RenderLimits limits = resolveRenderLimits(templatePath, null);
+    final List<CompletableFuture<byte[]>> documents = new ArrayList<CompletableFuture<byte[]>>();
+    for (final Map<String, Object> documentData : data) {
+      documents.add(executor.submit(() -> generateBytes(compiled, documentData, limits)));
     }
+    return CompletableFuture.allOf(documents.toArray(new CompletableFuture<?>[documents.size()])).thenApply(done -> {
+      List<byte[]> result = new ArrayList<byte[]>(documents.size());
+      for (CompletableFuture<byte[]> document : documents) {
+        result.add(document.join());
+      }
+      return result;
+    });
   }
 
   /**
-   * Build a FreeMarker configuration object based on the properties of this instance.
+   * Get the executor for asynchronous generation.
    *
-   * @return a FreeMarker Configuration object
+   * @return the executor
    */
-  private Configuration buildFreeMarkerConfiguration() throws IOException {
-    Configuration result = new Configuration();
-    result.setObjectWrapper(ObjectWrapper.DEFAULT_WRAPPER);
-    result.setTemplateExceptionHandler(TemplateExceptionHandler.IGNORE_HANDLER);
-    
-    //ClassTemplateLoader is for reading the freemarker templates that are "included" from 
-    //within the main template. This will read both from the classpath (eg jar files) and the file system.
-    ClassTemplateLoader ct1 = new ClassTemplateLoader(this.getClass(), "/");
-    TemplateLoader[] templateLoaders = new TemplateLoader[]{ct1}; 
-    MultiTemplateLoader multiTemplateLoader = new MultiTemplateLoader(templateLoaders);
-    result.setTemplateLoader(multiTemplateLoader);
-    //end section to read "includes"
-    
+  private RenderExecutor getRenderExecutor() {
+    RenderExecutor result = renderExecutor;
+    if (result == null) {
+      throwServiceNotStartedException();
+    }
     return result;
   }
 
   /**
-   * Create a FreeMarkertemplate object.
+   * {@inheritDoc}
+   */
+  @Override
+  public final byte[] generate(final InputStream inputStream, final Map<String, Object> data) {
+    return generateBytes(getStreamTemplate(inputStream), data, renderLimits);
+  }
+
+  /**
+   * Return the render limits for a document, combining the default limits, the limits for the template and the
+   * limits passed with the request, the most specific taking precedence.
    *
-   * @param documentContent the document content to use as the FreeMarker template
+   * @param templatePath the template path
+   * @param requestLimits the limits passed with the request, or null
+   * @return the limits or null if none apply
+   */
+  private RenderLimits resolveRenderLimits(final String templatePath, final RenderLimits requestLimits) {
+    RenderLimits templateLimits = templateRenderLimits != null ? templateRenderLimits.get(templatePath) : null;
+    return RenderLimits.merge(RenderLimits.merge(renderLimits, templateLimits), requestLimits);
+  }
+
+  /**
+   * Generate a document into an exact length byte array. The content is encoded into a pooled buffer pre-sized from
+   * the average document size for the template, so most calls allocate only the returned array.
    *
-   * @return a FreeMarker Template object
+   * @param compiled the compiled template
+   * @param data the template data, either a map or a wrapped hash
+   * @param limits the render limits, or null
+   * @return the generated content
    */
-  private Template createFreeMarkerTemplate(final String documentContent) {
-    Template result = null;
+  private byte[] generateBytes(final CompiledTemplate compiled, final Object data,
+                               final RenderLimits limits) {
+    byte[] result = null;
+    OutputBuffer buffer = bufferPool.acquireBuffer(compiled.getAverageOutputSize());
+    EncodingWriter outWriter = bufferPool.acquireWriter(Charset.forName(DEFAULT_DOCUMENT_CHARSET), buffer);
     try {
-      StringReader documentContentReader = new StringReader(documentContent);
-      result = new Template("name", documentContentReader, buildFreeMarkerConfiguration());
-    } catch (IOException ex) {
-      throwTemplateException(ex);
+      renderTemplate(compiled, data, outWriter, limits);
+      result = buffer.toByteArray();
+    } finally {
+      bufferPool.release(outWriter);
+      bufferPool.release(buffer);
     }
+    compiled.recordOutputSize(result.length);
+    compiled.getMetrics().recordOutputSize(result.length);
     return result;
   }
-  
-  private Template createFreeMarkerTemplate(final InputStream documentContent) {
-    Template result = null;
-    try {
-      InputStreamReader inputStreamReader = new InputStreamReader(documentContent);
-      result = new Template("name", inputStreamReader, buildFreeMarkerConfiguration());
-    } catch (IOException ex) {
-      throwTemplateException(ex);
+
+  /**
+   * Generate a document as a byte array, serving it from the render output cache when the cache is enabled and the
+   * data can be fingerprinted. Only a document generated under the same limits is served.
+   *
+   * @param compiled the compiled template
+   * @param data the template data
+   * @param limits the render limits, or null
+   * @return the generated content, which the caller may change
+   */
+  private byte[] generateCachedBytes(final CompiledTemplate compiled, final Map<String, Object> data,
+                                     final RenderLimits limits) {
+    RenderOutputCache cache = renderOutputCache;
+    String fingerprint = cache != null ? DataFingerprint.of(data) : null;
+    byte[] result;
+    if (fingerprint != null) {
+      result = cache.get(compiled, limits, fingerprint, new RenderOutputCache.Renderer() {
+        @Override
+        public byte[] render() {
+          return generateBytes(compiled, data, limits);
+        }
+      });
+    } else {
+      result = generateBytes(compiled, data, limits);
     }
     return result;
   }
 
   /**
-   * {@inheritDoc}
+   * Generate a document to an output stream.
+   *
+   * @param compiled the compiled template
+   * @param data the template data, either a map or a wrapped hash
+   * @param out the destination for the generated content
+   * @param limits the render limits, or null
    */
-  @Override
-  public final byte[] generate(final String templatePath, final Map<String, Object> data) {
-    if (LOG.isInfoEnabled()) {
-      LOG.info("Attempting to generate template " + templatePath);
-    }
-    String documentContent = getTemplate(templatePath);
-    Writer outWriter = new StringWriter();
-    Template t = createFreeMarkerTemplate(documentContent);
+  private void generateToStream(final CompiledTemplate compiled, final Object data,
+                                final OutputStream out, final RenderLimits limits) {
+    EncodingWriter outWriter = bufferPool.acquireWriter(Charset.forName(DEFAULT_DOCUMENT_CHARSET), out);
     try {
-      t.process(data, outWriter);
-    } catch (TemplateException ex) {
-      throwProcessingException(ex);
-    } catch (IOException ex) {
-      throwProcessingException(ex);
+      renderTemplate(compiled, data, outWriter, limits);
+      compiled.getMetrics().recordOutputSize(outWriter.getByteCount());
+    } finally {
+      bufferPool.release(outWriter);
     }
-    byte[] result = getStringUtil().convertStringToBytes(outWriter.toString());
-    return result;
   }
-  
+
   /**
-   * {@inheritDoc}
+   * Render a compiled template to an encoding writer and complete the document, recording the call, the render time
+   * and any failure in the template metrics. The pre-encoded literal text of the template is copied to the output as
+   * bytes rather than encoded again. A template with a fast path plan is rendered by the plan when the data is a map
+   * the plan can read, and by FreeMarker otherwise. When limits apply, the data model is decorated so that iteration
+   * is counted and the writer checks the document size and render time as the content is encoded.
+   *
+   * @param compiled the compiled template
+   * @param data the template data, either a map or a wrapped hash
+   * @param outWriter the destination for the generated content
+   * @param limits the render limits, or null
    */
-  @Override
-  public final byte[] generate(final InputStream inputStream, final Map<String, Object> data) {
-    Writer outWriter = new StringWriter();
-    Template t = createFreeMarkerTemplate(inputStream);
+  private void renderTemplate(final CompiledTemplate compiled, final Object data,
+                              final EncodingWriter outWriter, final RenderLimits limits) {
+    TemplateMetrics templateMetrics = compiled.getMetrics();
+    templateMetrics.recordCall();
+    long start = System.nanoTime();
+    boolean completed = false;
     try {
-      t.process(data, outWriter);
+      Template template = compiled.getTemplate();
+      RenderGuard guard = RenderGuard.start(limits);
+      outWriter.setStaticText(compiled.getStaticText());
+      outWriter.setGuard(guard);
+      if (renderFastPath(compiled, data, outWriter)) {
+        fastPathRenders.increment();
+      } else if (guard == null) {
+        template.process(data, outWriter);
+      } else {
+        template.process(GuardedModels.decorate(template.getObjectWrapper().wrap(data), guard), outWriter);
+        guard.checkFailure();
+      }
+      outWriter.finish();
+      completed = true;
     } catch (TemplateException ex) {
+      throwLimitExceededException(ex);
       throwProcessingException(ex);
     } catch (IOException ex) {
       throwProcessingException(ex);
+    } finally {
+      templateMetrics.recordPhase(TemplateMetrics.Phase.RENDER, System.nanoTime() - start);
+      if (!completed) {
+        templateMetrics.recordError();
+      }
+    }
+  }
+
+  /**
+   * Render a compiled template by its fast path plan, if it has one and the data is a map.
+   *
+   * @param compiled the compiled template
+   * @param data the template data, either a map or a wrapped hash
+   * @param outWriter the destination for the generated content
+   * @return true if rendered, false if the template must be rendered by FreeMarker
+   * @throws IOException if the destination could not be written
+   */
+  private boolean renderFastPath(final CompiledTemplate compiled, final Object data, final EncodingWriter outWriter)
+          throws IOException {
+    FastPathPlan plan = fastPathActive ? compiled.getFastPath() : null;
+    return plan != null && data instanceof Map && plan.render((Map<?, ?>) data, outWriter);
+  }
+
+  /**
+   * The <tt>PathTemplateHandle</tt> class holds a compiled template for a template path, together with the render
+   * limits configured for it. The held template is replaced whenever the cache retires it or its source changes.
+   */
+  private final class PathTemplateHandle implements TemplateHandle {
+
+    /** The template path. */
+    private final String templatePath;
+    /** The render limits configured for the template, or null. */
+    private final RenderLimits limits;
+    /** The most recently used compiled template. */
+    private volatile CompiledTemplate compiled;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param path the template path
+     * @param initial the compiled template
+     */
+    PathTemplateHandle(final String path, final CompiledTemplate initial) {
+      templatePath = path;
+      limits = resolveRenderLimits(path, null);
+      compiled = initial;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTemplatePath() {
+      return templatePath;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final Map<String, Object> data) {
+      return generateCachedBytes(current(), data, limits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final Map<String, Object> data, final RenderLimits requestLimits) {
+      return generateBytes(current(), data, RenderLimits.merge(limits, requestLimits));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final TemplateHashModel data) {
+      return generateBytes(current(), data, limits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final TemplateHashModel data, final RenderLimits requestLimits) {
+      return generateBytes(current(), data, RenderLimits.merge(limits, requestLimits));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final Map<String, Object> data, final OutputStream out) {
+      generateToStream(current(), data, out, limits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final TemplateHashModel data, final OutputStream out) {
+      generateToStream(current(), data, out, limits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final Map<String, Object> data, final OutputStream out, final RenderLimits requestLimits) {
+      generateToStream(current(), data, out, RenderLimits.merge(limits, requestLimits));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final TemplateHashModel data, final OutputStream out, final RenderLimits requestLimits) {
+      generateToStream(current(), data, out, RenderLimits.merge(limits, requestLimits));
+    }
+
+    /**
+     * Return the current compiled template, replacing the held template if it is out of date.
+     *
+     * @return the compiled template
+     */
+    private CompiledTemplate current() {
+      CompiledTemplate held = compiled;
+      CompiledTemplate result = getCompiledTemplate(held);
+      if (result != held) {
+        compiled = result;
+      }
+      return result;
+    }
+  }
+
+  /**
+   * The <tt>StoreLoader</tt> class reads templates for the template cache from the template store, using the versions
+   * reported by the store to revalidate them.
+   */
+  private final class StoreLoader implements CompiledTemplateCache.Loader {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getVersion(final String key) throws IOException {
+      long result = getActiveStore().getVersion(key);
+      return result == TemplateStore.MISSING_VERSION ? CompiledTemplateCache.MISSING_VERSION : result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompiledTemplate load(final String key) throws IOException {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Compiling template " + key);
+      }
+      long start = System.nanoTime();
+      TemplateContent content = getActiveStore().read(key);
+      if (content == null) {
+        throwFileNotReadableException();
+      }
+      TemplateMetrics templateMetrics = metrics.forTemplate(key);
+      String documentContent = new String(content.getContent(), Charset.forName(DEFAULT_DOCUMENT_CHARSET));
+      long loaded = System.nanoTime();
+      templateMetrics.recordPhase(TemplateMetrics.Phase.LOAD, loaded - start);
+      Template template;
+      try {
+        template = createFreeMarkerTemplate(documentContent);
+      } catch (RuntimeException ex) {
+        templateMetrics.recordError();
+        throw ex;
+      }
+      templateMetrics.recordPhase(TemplateMetrics.Phase.PARSE, System.nanoTime() - loaded);
+      recordDependencies(key, template);
+      return new CompiledTemplate(key, template, content.getVersion(),
+              documentContent.length() * ESTIMATED_BYTES_PER_CHAR, templateMetrics,
+              Charset.forName(DEFAULT_DOCUMENT_CHARSET), literalTextPreEncodingEnabled, fastPathActive);
+    }
+  }
+
+  /**
+   * The <tt>WatchListener</tt> class applies changes reported by the base path watcher to the template caches. Only
+   * the changed template and the templates that include or import it are affected.
+   */
+  private final class WatchListener implements TemplateWatcher.Listener {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void templateChanged(final String templatePath) {
+      String changed = templatePath.replace(File.separatorChar, '/');
+      invalidateCompiledTemplate(changed);
+      applyTemplateChange(changed);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void allTemplatesChanged() {
+      CompiledTemplateCache cache = templateCache;
+      if (cache != null) {
+        cache.clear();
+      }
+      RenderOutputCache outputCache = renderOutputCache;
+      if (outputCache != null) {
+        outputCache.clear();
+      }
+      dependencyGraph.clear();
+      Configuration current = configuration;
+      if (current != null) {
+        current.clearTemplateCache();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void poll() {
+      CompiledTemplateCache cache = templateCache;
+      if (cache != null) {
+        for (String changed : cache.revalidate(storeLoader)) {
+          applyTemplateChange(changed);
+        }
+      }
+      for (Map.Entry<String, Long> included : dependencyGraph.getDependedOnVersions().entrySet()) {
+        if (getIncludedTemplateVersion(included.getKey()) != included.getValue()) {
+          applyTemplateChange(included.getKey());
+        }
+      }
     }
-    byte[] result = getStringUtil().convertStringToBytes(outWriter.toString());
-    return result;
   }
 
   /**
@@ -290,6 +2302,16 @@ public abstract class AbstractFreeMarkerDocumentGeneratorService
     throw new IllegalArgumentException(msg, ex);
   }
 
+  /**
+   * Throw an exception describing an update to a template that does not exist.
+   *
+   * @param templatePath the template path
+   */
+  private void throwTemplateNotFoundException(final String templatePath) {
+    String msg = String.format("Template %s does not exist", templatePath);
+    throw new IllegalArgumentException(msg);
+  }
+
   /**
    * Throw an exception describing failure to delete document content.
    *
@@ -321,6 +2343,21 @@ public abstract class AbstractFreeMarkerDocumentGeneratorService
     throw new DocumentGenerationException(msg, ex);
   }
 
+  /**
+   * Throw the exception describing an exceeded render limit if it caused an exception raised by FreeMarker.
+   *
+   * @param ex the exception from FreeMarker
+   */
+  private void throwLimitExceededException(final Exception ex) {
+    Throwable cause = ex;
+    while (cause != null && !(cause instanceof RenderLimitExceededException)) {
+      cause = cause.getCause();
+    }
+    if (cause != null) {
+      throw (RenderLimitExceededException) cause;
+    }
+  }
+
   /**
    * Throw an exception describing issues raised by FreeMarker when processing the template.
    *
@@ -331,6 +2368,14 @@ public abstract class AbstractFreeMarkerDocumentGeneratorService
     throw new DocumentGenerationException(msg, ex);
   }
 
+  /**
+   * Throw an exception describing use of the service before it has been started.
+   */
+  private void throwServiceNotStartedException() {
+    String msg = "The service must be started before templates can be generated";
+    throw new IllegalStateException(msg);
+  }
+
   /**
    * Throw an exception describing a failure to read the file.
    */
@@ -0,0 +1,145 @@
+/*
+ *   File      : BatchIterator.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ *
+ * The <tt>BatchIterator</tt> class generates a document for each data model of a batch as it is iterated. Without an
+ * executor each document is generated on the calling thread when it is requested. With an executor a window of
+ * documents ahead of the current one is generated in parallel, and documents are still returned in input order.
+ */
+final class BatchIterator implements Iterator<byte[]> {
+
+  /**
+   * The <tt>Renderer</tt> interface describes the generation of a single document of the batch.
+   */
+  interface Renderer {
+
+    /**
+     * Generate a document.
+     *
+     * @param data the template data
+     * @return the generated content
+     */
+    byte[] render(Map<String, Object> data);
+  }
+
+  /** The data models not yet submitted. */
+  private final Iterator<Map<String, Object>> source;
+  /** The document renderer. */
+  private final Renderer renderer;
+  /** The executor used for parallel generation, or null to generate on the calling thread. */
+  private final Executor executor;
+  /** The maximum number of documents generated ahead of the current one. */
+  private final int window;
+  /** The documents submitted for parallel generation, in input order. */
+  private final Deque<FutureTask<byte[]>> pending = new ArrayDeque<>();
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param data the data models
+   * @param documentRenderer the document renderer
+   * @param parallelExecutor the executor used for parallel generation, or null to generate on the calling thread
+   * @param windowSize the maximum number of documents generated ahead of the current one
+   */
+  BatchIterator(final Iterator<Map<String, Object>> data, final Renderer documentRenderer,
+                final Executor parallelExecutor, final int windowSize) {
+    source = data;
+    renderer = documentRenderer;
+    executor = parallelExecutor;
+    window = Math.max(1, windowSize);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean hasNext() {
+    if (executor == null) {
+      return source.hasNext();
+    }
+    fill();
+    return !pending.isEmpty();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    if (executor == null) {
+      return renderer.render(source.next());
+    }
+    FutureTask<byte[]> head = pending.poll();
+    byte[] result = await(head);
+    fill();
+    return result;
+  }
+
+  /**
+   * Submit documents for parallel generation until the window is full or the data is exhausted.
+   */
+  private void fill() {
+    while (pending.size() < window && source.hasNext()) {
+      final Map<String, Object> data = source.next();
+      FutureTask<byte[]> task = new FutureTask<>(() -> renderer.render(data));
+      pending.add(task);
+      executor.execute(task);
+    }
+  }
+
+  /**
+   * Wait for a document to be generated, cancelling the remaining documents if it failed.
+   *
+   * @param task the document
+   * @return the generated content
+   */
+  private byte[] await(final FutureTask<byte[]> task) {
+    try {
+      return task.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      cancel();
+      throw new IllegalStateException("Interrupted while waiting for a batch document", ex);
+    } catch (ExecutionException ex) {
+      cancel();
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Cancel the documents submitted for parallel generation.
+   */
+  private void cancel() {
+    for (FutureTask<byte[]> task : pending) {
+      task.cancel(false);
+    }
+    pending.clear();
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ *   File      : CompiledTemplate.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.document.generator.freemarker.metrics.TemplateMetrics;
+import freemarker.template.Template;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * The <tt>CompiledTemplate</tt> class holds a parsed FreeMarker template together with the version of the source it
+ * was parsed from, as stored by the <tt>CompiledTemplateCache</tt>, and the literal text of the template encoded in the
+ * document charset.
+ */
+final class CompiledTemplate {
+
+  /** The weight of the existing average when recording a document size, a new size contributes 1/8th. */
+  private static final int OUTPUT_SIZE_WEIGHT = 8;
+
+  /** The cache key, normally the resolved template path. */
+  private final String key;
+  /** The parsed FreeMarker template. */
+  private final Template template;
+  /** The version of the template source at the time it was read. */
+  private final long version;
+  /** The estimated memory used by the parsed template, in bytes. */
+  private final long estimatedSize;
+  /** The metrics recorded for the template. */
+  private final TemplateMetrics metrics;
+  /** The literal text of the template encoded in the document charset, or null if none is pre-encoded. */
+  private final StaticText staticText;
+  /** The plan rendering the template without FreeMarker, or null if the template needs FreeMarker. */
+  private final FastPathPlan fastPath;
+  /** The time the version was last checked against the template source. */
+  private final AtomicLong lastValidated;
+  /** The cache clock value of the most recent access, used for LRU eviction. */
+  private volatile long lastAccessed;
+  /** The moving average size of the documents generated from this template, in bytes. */
+  private volatile int averageOutputSize;
+  /** True once the template has been removed from its cache. */
+  private volatile boolean retired;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param templateKey the cache key
+   * @param parsedTemplate the parsed FreeMarker template
+   * @param sourceVersion the version of the template source
+   * @param size the estimated memory used by the parsed template, in bytes
+   * @param templateMetrics the metrics recorded for the template
+   * @param documentCharset the charset the documents are generated in, or null to encode the literal text when rendered
+   *                        and render the template only by FreeMarker
+   * @param preEncodeText true to encode the literal text in the document charset now rather than when rendered
+   * @param compileFastPath true to compile a plan rendering the template without FreeMarker, if it is simple enough
+   */
+  CompiledTemplate(final String templateKey, final Template parsedTemplate, final long sourceVersion,
+                   final long size, final TemplateMetrics templateMetrics, final Charset documentCharset,
+                   final boolean preEncodeText, final boolean compileFastPath) {
+    key = templateKey;
+    template = parsedTemplate;
+    version = sourceVersion;
+    estimatedSize = size;
+    metrics = templateMetrics;
+    staticText = documentCharset != null && preEncodeText ? StaticText.encode(parsedTemplate, documentCharset) : null;
+    fastPath = documentCharset != null && compileFastPath ? FastPathPlan.compile(parsedTemplate) : null;
+    lastValidated = new AtomicLong(System.currentTimeMillis());
+  }
+
+  /**
+   * Get the cache key.
+   *
+   * @return a String
+   */
+  String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the parsed FreeMarker template.
+   *
+   * @return a FreeMarker Template object
+   */
+  Template getTemplate() {
+    return template;
+  }
+
+  /**
+   * Get the version of the template source at the time it was read.
+   *
+   * @return the version
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Get the estimated memory used by the parsed template.
+   *
+   * @return the size in bytes
+   */
+  long getEstimatedSize() {
+    return estimatedSize;
+  }
+
+  /**
+   * Get the literal text of the template encoded in the document charset.
+   *
+   * @return the encoded text, or null if none is pre-encoded
+   */
+  StaticText getStaticText() {
+    return staticText;
+  }
+
+  /**
+   * Get the plan rendering the template without FreeMarker.
+   *
+   * @return the plan, or null if the template needs FreeMarker
+   */
+  FastPathPlan getFastPath() {
+    return fastPath;
+  }
+
+  /**
+   * Get the metrics recorded for the template.
+   *
+   * @return the template metrics
+   */
+  TemplateMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Get the cache clock value of the most recent access.
+   *
+   * @return the clock value
+   */
+  long getLastAccessed() {
+    return lastAccessed;
+  }
+
+  /**
+   * Record an access to this template.
+   *
+   * @param clock the current cache clock value
+   */
+  void touch(final long clock) {
+    lastAccessed = clock;
+  }
+
+  /**
+   * Determine whether the template has been removed from its cache, because it was invalidated, replaced or evicted.
+   * Holders of a retired template must fetch it from the cache again.
+   *
+   * @return true if retired
+   */
+  boolean isRetired() {
+    return retired;
+  }
+
+  /**
+   * Mark the template as removed from its cache.
+   */
+  void retire() {
+    retired = true;
+  }
+
+  /**
+   * Get the moving average size of the documents generated from this template.
+   *
+   * @return the size in bytes, zero if no documents have been generated
+   */
+  int getAverageOutputSize() {
+    return averageOutputSize;
+  }
+
+  /**
+   * Record the size of a document generated from this template in the moving average. Concurrent updates may be
+   * lost, which is acceptable for a sizing hint.
+   *
+   * @param size the document size in bytes
+   */
+  void recordOutputSize(final int size) {
+    int average = averageOutputSize;
+    averageOutputSize = average == 0 ? size : average + (size - average) / OUTPUT_SIZE_WEIGHT;
+  }
+
+  /**
+   * Claim the right to revalidate this template against its source. Only one caller succeeds per interval so that
+   * concurrent readers do not all check the source at once.
+   *
+   * @param now the current time in milliseconds
+   * @param interval the minimum time between checks in milliseconds
+   * @return true if the caller should revalidate the template
+   */
+  boolean claimValidation(final long now, final long interval) {
+    long previous = lastValidated.get();
+    return now - previous >= interval && lastValidated.compareAndSet(previous, now);
+  }
+}
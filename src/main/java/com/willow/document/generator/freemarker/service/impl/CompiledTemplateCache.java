@@ -0,0 +1,394 @@
+/*
+ *   File      : CompiledTemplateCache.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The <tt>CompiledTemplateCache</tt> class caches parsed FreeMarker templates. The cache is bounded by entry count and
+ * estimated size and evicts the least recently used templates first. Cached templates are revalidated against their
+ * source no more often than the configured interval, and concurrent misses on the same key share a single load.
+ */
+final class CompiledTemplateCache {
+
+  /** The version reported for a template whose source no longer exists. */
+  static final long MISSING_VERSION = Long.MIN_VALUE;
+
+  /**
+   * The <tt>Loader</tt> interface describes the source of the templates held by the cache.
+   */
+  interface Loader {
+
+    /**
+     * Return the current version of a template source without reading it.
+     *
+     * @param key the cache key
+     * @return the version or MISSING_VERSION if the source does not exist
+     * @throws IOException if the source could not be checked
+     */
+    long getVersion(String key) throws IOException;
+
+    /**
+     * Read and parse a template.
+     *
+     * @param key the cache key
+     * @return the compiled template
+     * @throws IOException if the source could not be read
+     */
+    CompiledTemplate load(String key) throws IOException;
+  }
+
+  /** The cached templates. */
+  private final ConcurrentMap<String, CompiledTemplate> entries = new ConcurrentHashMap<>();
+  /** The loads in progress, used so that concurrent misses on a key share a single load. */
+  private final ConcurrentMap<String, FutureTask<CompiledTemplate>> loading = new ConcurrentHashMap<>();
+  /** The logical clock used to order accesses for LRU eviction. */
+  private final AtomicLong clock = new AtomicLong();
+  /** The number of invalidations, used to discard loads that overlap an invalidation. */
+  private final AtomicLong generation = new AtomicLong();
+  /** The total estimated size of the cached templates. */
+  private final AtomicLong size = new AtomicLong();
+  /** The lock used to serialise eviction. */
+  private final Object evictionLock = new Object();
+  /** The number of requests served from the cache. */
+  private final LongAdder hits = new LongAdder();
+  /** The number of requests that required a load. */
+  private final LongAdder misses = new LongAdder();
+  /** The number of templates evicted to respect the bounds. */
+  private final LongAdder evictions = new LongAdder();
+  /** The maximum number of templates held. */
+  private final int maxEntries;
+  /** The maximum total estimated size of the templates held. */
+  private final long maxSize;
+  /** The minimum time in milliseconds between revalidations of a template, negative to never revalidate. */
+  private final long revalidateInterval;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param maximumEntries the maximum number of templates held
+   * @param maximumSize the maximum total estimated size of the templates held, in bytes
+   * @param interval the minimum time in milliseconds between revalidations of a template, negative to never revalidate
+   */
+  CompiledTemplateCache(final int maximumEntries, final long maximumSize, final long interval) {
+    maxEntries = maximumEntries;
+    maxSize = maximumSize;
+    revalidateInterval = interval;
+  }
+
+  /**
+   * Return a compiled template, loading it if it is not cached or its source has changed.
+   *
+   * @param key the cache key
+   * @param loader the source of the template
+   * @return the compiled template
+   * @throws IOException if the template source could not be read
+   */
+  CompiledTemplate get(final String key, final Loader loader) throws IOException {
+    return resolve(key, entries.get(key), loader);
+  }
+
+  /**
+   * Return the current version of a compiled template already held by the caller. While the held template remains in
+   * the cache and its source is unchanged it is returned without a cache lookup.
+   *
+   * @param held the compiled template held by the caller
+   * @param loader the source of the template
+   * @return the compiled template
+   * @throws IOException if the template source could not be read
+   */
+  CompiledTemplate get(final CompiledTemplate held, final Loader loader) throws IOException {
+    String key = held.getKey();
+    return resolve(key, held.isRetired() ? entries.get(key) : held, loader);
+  }
+
+  /**
+   * Replace a template in the cache with one compiled by the caller. Readers see either the previous or the new
+   * template and never a miss, and any load in progress for the key is discarded rather than installed.
+   *
+   * @param key the cache key
+   * @param entry the compiled template
+   */
+  void replace(final String key, final CompiledTemplate entry) {
+    generation.incrementAndGet();
+    install(key, entry);
+  }
+
+  /**
+   * Remove a template from the cache so that the next request reloads it.
+   *
+   * @param key the cache key
+   */
+  void invalidate(final String key) {
+    generation.incrementAndGet();
+    CompiledTemplate removed = entries.remove(key);
+    if (removed != null) {
+      retire(removed);
+    }
+  }
+
+  /**
+   * Check every cached template against its source, removing those that have changed.
+   *
+   * @param loader the source of the templates
+   * @return the keys of the templates removed
+   */
+  List<String> revalidate(final Loader loader) {
+    List<String> result = new ArrayList<>();
+    for (CompiledTemplate entry : entries.values()) {
+      long version;
+      try {
+        version = loader.getVersion(entry.getKey());
+      } catch (IOException ex) {
+        version = MISSING_VERSION;
+      }
+      if (version != entry.getVersion() && entries.remove(entry.getKey(), entry)) {
+        generation.incrementAndGet();
+        retire(entry);
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Remove all templates from the cache.
+   */
+  void clear() {
+    for (String key : entries.keySet()) {
+      invalidate(key);
+    }
+  }
+
+  /**
+   * Get the number of cached templates.
+   *
+   * @return the entry count
+   */
+  int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Get the total estimated size of the cached templates.
+   *
+   * @return the size in bytes
+   */
+  long getSize() {
+    return size.get();
+  }
+
+  /**
+   * Get the number of requests served from the cache.
+   *
+   * @return the hit count
+   */
+  long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of requests that required a load.
+   *
+   * @return the miss count
+   */
+  long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Get the number of templates evicted to respect the bounds.
+   *
+   * @return the eviction count
+   */
+  long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * Return a cached template if it is current, otherwise load it.
+   *
+   * @param key the cache key
+   * @param entry the cached template, or null if not cached
+   * @param loader the source of the template
+   * @return the compiled template
+   * @throws IOException if the template source could not be read
+   */
+  private CompiledTemplate resolve(final String key, final CompiledTemplate entry, final Loader loader)
+          throws IOException {
+    if (entry != null && !isStale(entry, loader)) {
+      hits.increment();
+      entry.getMetrics().recordCacheHit();
+      entry.touch(clock.incrementAndGet());
+      return entry;
+    }
+    misses.increment();
+    CompiledTemplate result = load(key, loader, entry);
+    result.getMetrics().recordCacheMiss();
+    return result;
+  }
+
+  /**
+   * Determine whether a cached template is out of date. At most one caller per interval checks the source, the others
+   * carry on with the cached template.
+   *
+   * @param entry the cached template
+   * @param loader the source of the template
+   * @return true if the template must be reloaded
+   * @throws IOException if the source could not be checked
+   */
+  private boolean isStale(final CompiledTemplate entry, final Loader loader) throws IOException {
+    if (revalidateInterval < 0 || !entry.claimValidation(System.currentTimeMillis(), revalidateInterval)) {
+      return false;
+    }
+    return loader.getVersion(entry.getKey()) != entry.getVersion();
+  }
+
+  /**
+   * Load a template, sharing the load with any concurrent callers for the same key. A load that overlaps an
+   * invalidation is returned to its callers but not cached, and is retired.
+   *
+   * @param key the cache key
+   * @param loader the source of the template
+   * @param stale the out of date entry being replaced, or null
+   * @return the compiled template
+   * @throws IOException if the template source could not be read
+   */
+  private CompiledTemplate load(final String key, final Loader loader, final CompiledTemplate stale)
+          throws IOException {
+    final long loadGeneration = generation.get();
+    FutureTask<CompiledTemplate> task = new FutureTask<>(new Callable<CompiledTemplate>() {
+      @Override
+      public CompiledTemplate call() throws IOException {
+        return loader.load(key);
+      }
+    });
+    FutureTask<CompiledTemplate> existing = loading.putIfAbsent(key, task);
+    if (existing != null) {
+      return await(existing);
+    }
+    try {
+      task.run();
+      CompiledTemplate result;
+      try {
+        result = await(task);
+      } catch (IOException | RuntimeException ex) {
+        if (stale != null && entries.remove(key, stale)) {
+          retire(stale);
+        }
+        throw ex;
+      }
+      if (generation.get() == loadGeneration) {
+        install(key, result);
+      } else {
+        //The template changed while it was loading, so the result serves this request only; retiring it makes a
+        //handle that receives it resolve the template again rather than keep it.
+        result.retire();
+      }
+      return result;
+    } finally {
+      loading.remove(key, task);
+    }
+  }
+
+  /**
+   * Wait for a load to complete.
+   *
+   * @param task the load
+   * @return the compiled template
+   * @throws IOException if the template source could not be read
+   */
+  private CompiledTemplate await(final FutureTask<CompiledTemplate> task) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IllegalStateException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Add a loaded template to the cache and evict the least recently used templates if the bounds are exceeded.
+   *
+   * @param key the cache key
+   * @param entry the compiled template
+   */
+  private void install(final String key, final CompiledTemplate entry) {
+    entry.touch(clock.incrementAndGet());
+    CompiledTemplate previous = entries.put(key, entry);
+    size.addAndGet(entry.getEstimatedSize());
+    if (previous != null && previous != entry) {
+      retire(previous);
+    }
+    if (entries.size() > maxEntries || size.get() > maxSize) {
+      evict();
+    }
+  }
+
+  /**
+   * Account for a template removed from the cache and mark it retired so that holders fetch it again.
+   *
+   * @param entry the removed template
+   */
+  private void retire(final CompiledTemplate entry) {
+    size.addAndGet(-entry.getEstimatedSize());
+    entry.retire();
+  }
+
+  /**
+   * Evict the least recently used templates until the cache is within its bounds.
+   */
+  private void evict() {
+    synchronized (evictionLock) {
+      while (!entries.isEmpty() && (entries.size() > maxEntries || size.get() > maxSize)) {
+        Map.Entry<String, CompiledTemplate> oldest = null;
+        for (Map.Entry<String, CompiledTemplate> candidate : entries.entrySet()) {
+          if (oldest == null || candidate.getValue().getLastAccessed() < oldest.getValue().getLastAccessed()) {
+            oldest = candidate;
+          }
+        }
+        if (oldest != null && entries.remove(oldest.getKey(), oldest.getValue())) {
+          retire(oldest.getValue());
+          evictions.increment();
+          oldest.getValue().getMetrics().recordCacheEviction();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ *   File      : ContentHash.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *
+ * The <tt>ContentHash</tt> class provides a SHA-256 fingerprint of template content. It is used to recognise content
+ * that has already been compiled, or that a render node already holds, without comparing the content itself, so it
+ * must be collision resistant: content chosen to share the fingerprint of another template would otherwise be served
+ * the other template.
+ */
+final class ContentHash {
+
+  /** The hexadecimal digits. */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * Hidden constructor for a utility class.
+   */
+  private ContentHash() {
+  }
+
+  /**
+   * Build a cache key from the SHA-256 digest of a range of bytes.
+   *
+   * @param content the content
+   * @param offset the index of the first byte
+   * @param length the number of bytes
+   * @return the key
+   */
+  static String key(final byte[] content, final int offset, final int length) {
+    MessageDigest digest = newDigest();
+    digest.update(content, offset, length);
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Create a SHA-256 digest.
+   *
+   * @return the digest
+   */
+  static MessageDigest newDigest() {
+    MessageDigest result;
+    try {
+      result = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 is not supported by the JVM", ex);
+    }
+    return result;
+  }
+
+  /**
+   * Format bytes as hexadecimal.
+   *
+   * @param bytes the bytes
+   * @return the hexadecimal string
+   */
+  static String toHex(final byte[] bytes) {
+    char[] result = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      result[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      result[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(result);
+  }
+}
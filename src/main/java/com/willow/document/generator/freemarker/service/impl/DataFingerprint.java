@@ -0,0 +1,155 @@
+/*
+ *   File      : DataFingerprint.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ *
+ * The <tt>DataFingerprint</tt> class calculates a SHA-256 fingerprint of a template data model, so that renders of the
+ * same template with the same data can share one output. Maps and collections are fingerprinted in iteration order,
+ * since the order in which a template lists them can change the output. Only data made of maps, collections, strings,
+ * numbers, booleans, characters, dates and enums can be fingerprinted; beans and other values may change without the
+ * change being seen, so data holding them has no fingerprint.
+ */
+final class DataFingerprint {
+
+  /** The deepest nesting of maps and collections fingerprinted, deeper data is assumed to be cyclic. */
+  private static final int MAX_DEPTH = 32;
+
+  /** The digest being calculated. */
+  private final MessageDigest digest;
+
+  /**
+   * Hidden constructor, the fingerprint is calculated by the static method.
+   *
+   * @param messageDigest the digest to calculate
+   */
+  private DataFingerprint(final MessageDigest messageDigest) {
+    digest = messageDigest;
+  }
+
+  /**
+   * Calculate the fingerprint of a data model.
+   *
+   * @param data the template data
+   * @return the fingerprint as hexadecimal, or null if the data holds values that cannot be fingerprinted
+   */
+  static String of(final Map<?, ?> data) {
+    String result = null;
+    DataFingerprint fingerprint = new DataFingerprint(ContentHash.newDigest());
+    if (fingerprint.add(data, 0)) {
+      result = ContentHash.toHex(fingerprint.digest.digest());
+    }
+    return result;
+  }
+
+  /**
+   * Add a value to the digest.
+   *
+   * @param value the value
+   * @param depth the nesting of the value
+   * @return true if added, false if the value cannot be fingerprinted
+   */
+  private boolean add(final Object value, final int depth) {
+    boolean result = true;
+    if (depth >= MAX_DEPTH) {
+      result = false;
+    } else if (value == null) {
+      addTag('0');
+    } else if (value instanceof String) {
+      addTag('S');
+      addString((String) value);
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      addTag('M');
+      addInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        result = result && entry.getKey() instanceof String;
+        if (result) {
+          addString((String) entry.getKey());
+          result = add(entry.getValue(), depth + 1);
+        }
+      }
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      addTag('C');
+      addInt(collection.size());
+      for (Object element : collection) {
+        result = result && add(element, depth + 1);
+      }
+    } else if (isSimpleValue(value)) {
+      addTag('V');
+      addString(value.getClass().getName());
+      addString(value.toString());
+    } else if (value instanceof Date) {
+      addTag('D');
+      addString(value.getClass().getName());
+      addString(Long.toString(((Date) value).getTime()));
+    } else if (value instanceof Enum) {
+      addTag('E');
+      addString(((Enum<?>) value).getDeclaringClass().getName());
+      addString(((Enum<?>) value).name());
+    } else {
+      result = false;
+    }
+    return result;
+  }
+
+  /**
+   * Return true if a value is immutable and fully described by its class and string form.
+   *
+   * @param value the value
+   * @return true for the standard numbers, booleans and characters
+   */
+  private static boolean isSimpleValue(final Object value) {
+    return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+            || value instanceof Double || value instanceof Float || value instanceof BigDecimal
+            || value instanceof BigInteger || value instanceof Boolean || value instanceof Character;
+  }
+
+  /**
+   * Add a type tag to the digest.
+   *
+   * @param tag the tag
+   */
+  private void addTag(final char tag) {
+    digest.update((byte) tag);
+  }
+
+  /**
+   * Add a length prefixed string to the digest.
+   *
+   * @param value the string
+   */
+  private void addString(final String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    addInt(bytes.length);
+    digest.update(bytes);
+  }
+
+  /**
+   * Add an integer to the digest.
+   *
+   * @param value the integer
+   */
+  private void addInt(final int value) {
+    digest.update((byte) (value >>> 24));
+    digest.update((byte) (value >>> 16));
+    digest.update((byte) (value >>> 8));
+    digest.update((byte) value);
+  }
+}
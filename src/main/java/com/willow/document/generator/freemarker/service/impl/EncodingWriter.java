@@ -0,0 +1,309 @@
+/*
+ *   File      : EncodingWriter.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ *
+ * The <tt>EncodingWriter</tt> class is a Writer that encodes generated content on the fly into a small byte buffer
+ * which is drained to an OutputStream or a WritableByteChannel whenever it fills, so that the generated document is
+ * never held in memory as a whole. Writers, with their encoders and buffers, are reused through the
+ * <tt>RenderBufferPool</tt> of the service. Literal template text that was encoded when the template was compiled is
+ * copied to the byte buffer as it is.
+ */
+final class EncodingWriter extends Writer {
+
+  /** The number of characters buffered before encoding. */
+  private static final int CHAR_BUFFER_SIZE = 2048;
+  /** The number of encoded bytes buffered before writing to the destination. */
+  private static final int BYTE_BUFFER_SIZE = 8192;
+
+  /** The charset used to encode the content. */
+  private final Charset charset;
+  /** The encoder for the charset. */
+  private final CharsetEncoder encoder;
+  /** The characters waiting to be encoded. */
+  private final CharBuffer chars;
+  /** The encoded bytes waiting to be written. */
+  private final ByteBuffer bytes;
+  /** The destination stream, or null if writing to a channel. */
+  private OutputStream outputStream;
+  /** The destination channel, or null if writing to a stream. */
+  private WritableByteChannel channel;
+  /** The number of bytes written to the destination for the current document. */
+  private long byteCount;
+  /** The guard enforcing the render limits of the current document, or null. */
+  private RenderGuard guard;
+  /** The pre-encoded literal text of the current template, or null. */
+  private StaticText staticText;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param documentCharset the charset used to encode the content
+   */
+  EncodingWriter(final Charset documentCharset) {
+    charset = documentCharset;
+    encoder = documentCharset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+  }
+
+  /**
+   * Get the charset used to encode the content.
+   *
+   * @return the charset
+   */
+  Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Set the output stream the current document is encoded to.
+   *
+   * @param destination the output stream
+   */
+  void setDestination(final OutputStream destination) {
+    outputStream = destination;
+  }
+
+  /**
+   * Set the channel the current document is encoded to.
+   *
+   * @param destination the channel
+   */
+  void setDestination(final WritableByteChannel destination) {
+    channel = destination;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final int c) throws IOException {
+    if (!chars.hasRemaining()) {
+      encode(false);
+    }
+    chars.put((char) c);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final char[] cbuf, final int off, final int len) throws IOException {
+    byte[] encoded = staticText != null ? staticText.get(cbuf, off, len) : null;
+    if (encoded == null || !writeEncoded(encoded)) {
+      int position = off;
+      int end = off + len;
+      while (position < end) {
+        if (!chars.hasRemaining()) {
+          encode(false);
+        }
+        int count = Math.min(end - position, chars.remaining());
+        chars.put(cbuf, position, count);
+        position += count;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final String str, final int off, final int len) throws IOException {
+    int position = off;
+    int end = off + len;
+    while (position < end) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      int count = Math.min(end - position, chars.remaining());
+      chars.put(str, position, position + count);
+      position += count;
+    }
+  }
+
+  /**
+   * Encode the buffered characters and write the buffered bytes to the destination.
+   *
+   * @throws IOException if the destination could not be written
+   */
+  @Override
+  public void flush() throws IOException {
+    encode(false);
+    drain();
+    flushDestination();
+  }
+
+  /**
+   * Flush the writer. The destination is owned by the caller and is not closed.
+   *
+   * @throws IOException if the destination could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  /**
+   * Complete the document, encoding any remaining characters and writing all bytes to the destination.
+   *
+   * @throws IOException if the destination could not be written
+   */
+  void finish() throws IOException {
+    encode(true);
+    CoderResult result = encoder.flush(bytes);
+    while (result.isOverflow()) {
+      drain();
+      result = encoder.flush(bytes);
+    }
+    drain();
+    flushDestination();
+  }
+
+  /**
+   * Get the number of bytes written to the destination for the current document.
+   *
+   * @return the byte count
+   */
+  long getByteCount() {
+    return byteCount;
+  }
+
+  /**
+   * Set the guard that checks the size of the current document as it is encoded.
+   *
+   * @param renderGuard the guard, or null for no limits
+   */
+  void setGuard(final RenderGuard renderGuard) {
+    guard = renderGuard;
+  }
+
+  /**
+   * Set the pre-encoded literal text of the template being rendered. Text encoded in another charset is ignored.
+   *
+   * @param text the pre-encoded text, or null for none
+   */
+  void setStaticText(final StaticText text) {
+    staticText = text != null && text.getCharset().equals(charset) ? text : null;
+  }
+
+  /**
+   * Discard the state of the current document so that the writer can encode the next one.
+   */
+  void reset() {
+    guard = null;
+    staticText = null;
+    outputStream = null;
+    channel = null;
+    encoder.reset();
+    chars.clear();
+    bytes.clear();
+    byteCount = 0;
+  }
+
+  /**
+   * Encode the buffered characters into the byte buffer, writing to the destination whenever the byte buffer fills.
+   * An incomplete surrogate pair is kept until more characters arrive unless this is the end of the input.
+   *
+   * @param endOfInput true if no more characters will be written
+   * @throws IOException if the destination could not be written
+   */
+  private void encode(final boolean endOfInput) throws IOException {
+    chars.flip();
+    CoderResult result = encoder.encode(chars, bytes, endOfInput);
+    while (result.isOverflow()) {
+      drain();
+      result = encoder.encode(chars, bytes, endOfInput);
+    }
+    chars.compact();
+    if (guard != null) {
+      guard.checkOutput(byteCount + bytes.position());
+    }
+  }
+
+  /**
+   * Write bytes that are already encoded, after encoding the characters buffered before them. Bytes that do not fit
+   * the byte buffer are written straight to the destination.
+   *
+   * @param encoded the encoded bytes
+   * @return true if written, false if an incomplete surrogate pair is buffered and the text must be encoded instead
+   * @throws IOException if the destination could not be written
+   */
+  private boolean writeEncoded(final byte[] encoded) throws IOException {
+    if (chars.position() > 0) {
+      encode(false);
+      if (chars.position() > 0) {
+        return false;
+      }
+    }
+    if (encoded.length > bytes.remaining()) {
+      drain();
+    }
+    if (encoded.length <= bytes.remaining()) {
+      bytes.put(encoded);
+    } else if (channel != null) {
+      ByteBuffer direct = ByteBuffer.wrap(encoded);
+      while (direct.hasRemaining()) {
+        channel.write(direct);
+      }
+      byteCount += encoded.length;
+    } else {
+      outputStream.write(encoded);
+      byteCount += encoded.length;
+    }
+    if (guard != null) {
+      guard.checkOutput(byteCount + bytes.position());
+    }
+    return true;
+  }
+
+  /**
+   * Flush the destination if it is a stream.
+   *
+   * @throws IOException if the destination could not be flushed
+   */
+  private void flushDestination() throws IOException {
+    if (outputStream != null) {
+      outputStream.flush();
+    }
+  }
+
+  /**
+   * Write the buffered bytes to the destination.
+   *
+   * @throws IOException if the destination could not be written
+   */
+  private void drain() throws IOException {
+    bytes.flip();
+    byteCount += bytes.remaining();
+    if (channel != null) {
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    } else if (bytes.hasRemaining()) {
+      outputStream.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    }
+    bytes.clear();
+  }
+}
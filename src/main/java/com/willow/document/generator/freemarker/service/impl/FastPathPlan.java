@@ -0,0 +1,369 @@
+/*
+ *   File      : FastPathPlan.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import freemarker.core.MarkupOutputFormat;
+import freemarker.core.TextBlock;
+import freemarker.template.Template;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * The <tt>FastPathPlan</tt> class renders templates that use only literal text, <tt>${a.b.c}</tt> interpolations and
+ * <tt>&lt;#if&gt;</tt> blocks testing <tt>a.b.c?has_content</tt> or <tt>a.b.c??</tt>, without a FreeMarker
+ * environment. Such a template is compiled into a flat list of steps: literal text, map path lookups, and branches
+ * that skip forward when their condition is false.
+ *
+ * <p>A plan only renders a document when it can be certain of producing the same output as FreeMarker. The data model
+ * is evaluated before anything is written, and if any lookup meets a value the plan does not handle, such as a number
+ * to format, a missing top level variable or a non-map container, the plan declines and the template is rendered by
+ * FreeMarker instead.</p>
+ *
+ * <p>FreeMarker has no supported API to inspect a parsed template, so the plan is compiled from its deprecated element
+ * tree, and the element types it handles are package-private classes recognised by name. A FreeMarker version that
+ * changes them only makes fewer templates compile into plans. The service uses plans only when enabled.</p>
+ */
+final class FastPathPlan {
+
+  /** A step writing literal text. */
+  private static final int TEXT = 0;
+  /** A step writing the string at a map path. */
+  private static final int VALUE = 1;
+  /** A step jumping to its target when its condition is false. */
+  private static final int BRANCH = 2;
+  /** A step jumping to its target. */
+  private static final int JUMP = 3;
+
+  /** The class name of the FreeMarker element holding a sequence of elements, which is not public. */
+  private static final String MIXED_CONTENT = "freemarker.core.MixedContent";
+  /** The class name of the FreeMarker element holding an if, elseif and else chain. */
+  private static final String IF_BLOCK = "freemarker.core.IfBlock";
+  /** The class name of the FreeMarker element holding one branch of an if. */
+  private static final String CONDITIONAL_BLOCK = "freemarker.core.ConditionalBlock";
+  /** The class name of the FreeMarker interpolation element. */
+  private static final String DOLLAR_VARIABLE = "freemarker.core.DollarVariable";
+
+  /** A dotted path of simple names. */
+  private static final String PATH = "[A-Za-z_][A-Za-z0-9_]*(?:\\.[A-Za-z_][A-Za-z0-9_]*)*";
+  /** The canonical form of an interpolation of a path. */
+  private static final Pattern INTERPOLATION = Pattern.compile("^\\$\\{(" + PATH + ")\\}$");
+  /** The description of an if or elseif testing whether a path has content or exists. */
+  private static final Pattern CONDITION = Pattern.compile(
+          "^#(if|elseif) (!?)(" + PATH + ")(\\?has_content|\\?\\?)$");
+  /** The description of an else. */
+  private static final String ELSE = "#else";
+
+  /** The result of a lookup the plan cannot render. */
+  private static final Object UNSUPPORTED = new Object();
+
+  /** The kind of each step. */
+  private final int[] codes;
+  /** The operand of each step: the text, the path, or the condition. */
+  private final Object[] operands;
+  /** The target of each branch and jump step. */
+  private final int[] targets;
+  /** The most text and value segments a render can write. */
+  private final int maxSegments;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param steps the compiled steps
+   */
+  private FastPathPlan(final List<Step> steps) {
+    codes = new int[steps.size()];
+    operands = new Object[steps.size()];
+    targets = new int[steps.size()];
+    int segments = 0;
+    for (int i = 0; i < codes.length; i++) {
+      Step step = steps.get(i);
+      codes[i] = step.code;
+      operands[i] = step.operand;
+      targets[i] = step.target;
+      if (step.code == TEXT || step.code == VALUE) {
+        segments++;
+      }
+    }
+    maxSegments = segments;
+  }
+
+  /**
+   * Compile a template into a plan if it uses only the elements a plan can render.
+   *
+   * @param template the parsed template
+   * @return the plan, or null if the template must be rendered by FreeMarker
+   */
+  @SuppressWarnings("deprecation")
+  static FastPathPlan compile(final Template template) {
+    FastPathPlan result = null;
+    if (!(template.getOutputFormat() instanceof MarkupOutputFormat)) {
+      List<Step> steps = new ArrayList<>();
+      if (compileElement(template.getRootTreeNode(), steps)) {
+        result = new FastPathPlan(steps);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Render a document from a data model, unless the data model holds values the plan does not handle. Nothing is
+   * written unless the whole document can be rendered.
+   *
+   * @param data the template data
+   * @param out the destination for the generated content
+   * @return true if rendered, false if the template must be rendered by FreeMarker instead
+   * @throws IOException if the destination could not be written
+   */
+  boolean render(final Map<?, ?> data, final Writer out) throws IOException {
+    Object[] segments = new Object[maxSegments];
+    int count = 0;
+    int step = 0;
+    boolean supported = true;
+    while (supported && step < codes.length) {
+      int next = step + 1;
+      if (codes[step] == TEXT) {
+        segments[count++] = operands[step];
+      } else if (codes[step] == VALUE) {
+        Object value = lookup(data, (String[]) operands[step]);
+        supported = value instanceof String;
+        segments[count++] = value;
+      } else if (codes[step] == BRANCH) {
+        Condition condition = (Condition) operands[step];
+        Object value = lookup(data, condition.path);
+        Boolean test = condition.hasContent ? hasContent(value) : Boolean.valueOf(value != null);
+        supported = value != UNSUPPORTED && test != null;
+        if (supported && test.booleanValue() == condition.negated) {
+          next = targets[step];
+        }
+      } else {
+        next = targets[step];
+      }
+      step = next;
+    }
+    if (supported) {
+      for (int i = 0; i < count; i++) {
+        if (segments[i] instanceof char[]) {
+          out.write((char[]) segments[i]);
+        } else {
+          out.write((String) segments[i]);
+        }
+      }
+    }
+    return supported;
+  }
+
+  /**
+   * Look up a path in the data model the way FreeMarker's default wrapping of maps does.
+   *
+   * @param data the template data
+   * @param path the names in the path
+   * @return the value, null if the last name has no value, or UNSUPPORTED if FreeMarker might resolve it differently
+   */
+  private static Object lookup(final Map<?, ?> data, final String[] path) {
+    Object result = data;
+    for (int i = 0; i < path.length && result != UNSUPPORTED; i++) {
+      if (result instanceof Map) {
+        try {
+          result = ((Map<?, ?>) result).get(path[i]);
+        } catch (ClassCastException | NullPointerException ex) {
+          //A map that cannot hold String keys, such as a TreeMap of numbers, is left to FreeMarker's map wrapping.
+          result = UNSUPPORTED;
+        }
+        //A missing top level variable may be a shared variable, and a missing single character key is retried as a
+        //Character by FreeMarker's map wrapping.
+        if (result == null && (i == 0 || path[i].length() == 1)) {
+          result = UNSUPPORTED;
+        }
+      } else {
+        result = UNSUPPORTED;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return whether a value has content the way the FreeMarker <tt>has_content</tt> built-in decides it.
+   *
+   * @param value the value
+   * @return true or false, or null if the value is of a type the plan does not handle
+   */
+  private static Boolean hasContent(final Object value) {
+    Boolean result = null;
+    if (value == null) {
+      result = Boolean.FALSE;
+    } else if (value instanceof String) {
+      result = !((String) value).isEmpty();
+    } else if (value instanceof Map) {
+      result = !((Map<?, ?>) value).isEmpty();
+    } else if (value instanceof Collection) {
+      result = !((Collection<?>) value).isEmpty();
+    }
+    return result;
+  }
+
+  /**
+   * Compile an element and its children.
+   *
+   * @param node the element
+   * @param steps the steps compiled so far
+   * @return true if compiled, false if the element cannot be rendered by a plan
+   */
+  @SuppressWarnings("deprecation")
+  private static boolean compileElement(final freemarker.core.TemplateElement node, final List<Step> steps) {
+    boolean result = true;
+    String type = node.getClass().getName();
+    if (node instanceof TextBlock) {
+      char[] text = StaticText.getText((TextBlock) node);
+      result = text != null;
+      if (result) {
+        steps.add(new Step(TEXT, text));
+      }
+    } else if (DOLLAR_VARIABLE.equals(type)) {
+      Matcher interpolation = INTERPOLATION.matcher(node.getCanonicalForm());
+      result = interpolation.matches() && isVariable(interpolation.group(1));
+      if (result) {
+        steps.add(new Step(VALUE, interpolation.group(1).split("\\.")));
+      }
+    } else if (MIXED_CONTENT.equals(type)) {
+      result = compileChildren(node, steps);
+    } else if (IF_BLOCK.equals(type)) {
+      List<Integer> jumps = new ArrayList<>();
+      for (int i = 0; i < node.getChildCount() && result; i++) {
+        result = compileBranch((freemarker.core.TemplateElement) node.getChildAt(i), i == node.getChildCount() - 1,
+                steps, jumps);
+      }
+      for (int jump : jumps) {
+        steps.get(jump).target = steps.size();
+      }
+    } else if (CONDITIONAL_BLOCK.equals(type)) {
+      result = compileBranch(node, true, steps, new ArrayList<Integer>());
+    } else {
+      result = false;
+    }
+    return result;
+  }
+
+  /**
+   * Compile one branch of an if, elseif and else chain.
+   *
+   * @param node the conditional element
+   * @param last true if this is the last branch of the chain
+   * @param steps the steps compiled so far
+   * @param jumps the indexes of the jumps to the end of the chain, added to for a branch that is not last
+   * @return true if compiled, false if the branch cannot be rendered by a plan
+   */
+  @SuppressWarnings("deprecation")
+  private static boolean compileBranch(final freemarker.core.TemplateElement node, final boolean last,
+                                       final List<Step> steps, final List<Integer> jumps) {
+    boolean result = CONDITIONAL_BLOCK.equals(node.getClass().getName());
+    String description = result ? node.getDescription() : null;
+    Matcher condition = result ? CONDITION.matcher(description) : null;
+    if (condition != null && condition.matches() && isVariable(condition.group(3))) {
+      Step branch = new Step(BRANCH, new Condition(condition.group(3).split("\\."),
+              condition.group(4).equals("?has_content"), condition.group(2).length() > 0));
+      steps.add(branch);
+      result = compileChildren(node, steps);
+      if (!last) {
+        jumps.add(steps.size());
+        steps.add(new Step(JUMP, null));
+      }
+      branch.target = steps.size();
+    } else if (result && ELSE.equals(description) && last) {
+      result = compileChildren(node, steps);
+    } else {
+      result = false;
+    }
+    return result;
+  }
+
+  /**
+   * Compile the children of an element in order.
+   *
+   * @param node the element
+   * @param steps the steps compiled so far
+   * @return true if compiled, false if a child cannot be rendered by a plan
+   */
+  @SuppressWarnings("deprecation")
+  private static boolean compileChildren(final freemarker.core.TemplateElement node, final List<Step> steps) {
+    boolean result = true;
+    for (int i = 0; i < node.getChildCount() && result; i++) {
+      result = compileElement((freemarker.core.TemplateElement) node.getChildAt(i), steps);
+    }
+    return result;
+  }
+
+  /**
+   * Return true if a path starts with a variable name rather than a boolean literal.
+   *
+   * @param path the path
+   * @return true if the path names a variable
+   */
+  private static boolean isVariable(final String path) {
+    return !path.equals("true") && !path.equals("false") && !path.startsWith("true.")
+            && !path.startsWith("false.");
+  }
+
+  /**
+   * The <tt>Step</tt> class is a step of a plan while it is compiled.
+   */
+  private static final class Step {
+
+    /** The kind of step. */
+    private final int code;
+    /** The text, path or condition. */
+    private final Object operand;
+    /** The target of a branch or jump. */
+    private int target;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param stepCode the kind of step
+     * @param stepOperand the text, path or condition
+     */
+    Step(final int stepCode, final Object stepOperand) {
+      code = stepCode;
+      operand = stepOperand;
+    }
+  }
+
+  /**
+   * The <tt>Condition</tt> class is the test of a branch.
+   */
+  private static final class Condition {
+
+    /** The names in the path tested. */
+    private final String[] path;
+    /** True to test has_content, false to test existence. */
+    private final boolean hasContent;
+    /** True if the test is negated. */
+    private final boolean negated;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param testedPath the names in the path tested
+     * @param testContent true to test has_content, false to test existence
+     * @param negate true if the test is negated
+     */
+    Condition(final String[] testedPath, final boolean testContent, final boolean negate) {
+      path = testedPath;
+      hasContent = testContent;
+      negated = negate;
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ *   File      : GuardedModels.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateDateModel;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateNodeModel;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+import freemarker.template.TemplateTransformModel;
+
+/**
+ *
+ * The <tt>GuardedModels</tt> class decorates the containers of a wrapped data model so that every element iterated
+ * while rendering is reported to a RenderGuard. Beans, which object wrappers expose as hashes that are also scalars
+ * and adapters, are decorated keeping those interfaces, so that lists reached through bean properties are counted.
+ * Other models that are also scalars, numbers, dates, booleans, methods, transforms or nodes are left undecorated so
+ * that none of their behaviour is lost.
+ */
+final class GuardedModels {
+
+  /**
+   * Hidden constructor for a utility class.
+   */
+  private GuardedModels() {
+  }
+
+  /**
+   * Decorate a model if it is a plain hash, sequence or collection.
+   *
+   * @param model the wrapped model
+   * @param guard the guard notified of iterations
+   * @return the decorated model, or the model itself if it is not decorated
+   */
+  static TemplateModel decorate(final TemplateModel model, final RenderGuard guard) {
+    if (isBean(model)) {
+      return model instanceof TemplateHashModelEx ? new GuardedScalarHashEx((TemplateHashModelEx) model, guard)
+              : new GuardedScalarHash((TemplateHashModel) model, guard);
+    } else if (model == null || model instanceof TemplateScalarModel || model instanceof TemplateNumberModel
+            || model instanceof TemplateDateModel || model instanceof TemplateBooleanModel
+            || isMethod(model) || model instanceof TemplateTransformModel
+            || model instanceof TemplateNodeModel) {
+      return model;
+    } else if (model instanceof TemplateSequenceModel) {
+      return new GuardedSequence((TemplateSequenceModel) model, guard);
+    } else if (model instanceof TemplateCollectionModel) {
+      return new GuardedCollection((TemplateCollectionModel) model, guard);
+    } else if (model instanceof TemplateHashModelEx) {
+      return new GuardedHashEx((TemplateHashModelEx) model, guard);
+    } else if (model instanceof TemplateHashModel) {
+      return new GuardedHash((TemplateHashModel) model, guard);
+    }
+    return model;
+  }
+
+  /**
+   * Return true if a model is a bean: a hash that is also a scalar, an adapter and a wrapper, and nothing else that
+   * the decorators would lose.
+   *
+   * @param model the wrapped model
+   * @return true if the model is decorated as a bean
+   */
+  private static boolean isBean(final TemplateModel model) {
+    return model instanceof TemplateHashModel && model instanceof TemplateScalarModel
+            && model instanceof AdapterTemplateModel && model instanceof WrapperTemplateModel
+            && !(model instanceof TemplateNumberModel) && !(model instanceof TemplateDateModel)
+            && !(model instanceof TemplateBooleanModel) && !isMethod(model)
+            && !(model instanceof TemplateTransformModel) && !(model instanceof TemplateNodeModel)
+            && !(model instanceof TemplateSequenceModel) && !(model instanceof TemplateCollectionModel);
+  }
+
+  /**
+   * Return true if a model is a method. The deprecated <tt>TemplateMethodModel</tt> is tested rather than
+   * <tt>TemplateMethodModelEx</tt>, which extends it, because object wrappers and applications still expose methods
+   * implementing only the older interface, and decorating one as a hash would lose the method. It is named in full
+   * because Java 8 warns about importing a deprecated type even where it is suppressed.
+   *
+   * @param model the wrapped model
+   * @return true if the model is a method
+   */
+  @SuppressWarnings("deprecation")
+  private static boolean isMethod(final TemplateModel model) {
+    return model instanceof freemarker.template.TemplateMethodModel;
+  }
+
+  /**
+   * The <tt>GuardedHash</tt> class decorates the values of a hash.
+   */
+  private static class GuardedHash implements TemplateHashModel {
+
+    /** The decorated hash. */
+    protected final TemplateHashModel delegate;
+    /** The guard notified of iterations. */
+    protected final RenderGuard guard;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param hash the decorated hash
+     * @param renderGuard the guard notified of iterations
+     */
+    GuardedHash(final TemplateHashModel hash, final RenderGuard renderGuard) {
+      delegate = hash;
+      guard = renderGuard;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final String key) throws TemplateModelException {
+      return decorate(delegate.get(key), guard);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() throws TemplateModelException {
+      return delegate.isEmpty();
+    }
+  }
+
+  /**
+   * The <tt>GuardedHashEx</tt> class decorates the values, keys and values collections of an extended hash.
+   */
+  private static class GuardedHashEx extends GuardedHash implements TemplateHashModelEx {
+
+    /** The decorated hash. */
+    private final TemplateHashModelEx delegateEx;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param hash the decorated hash
+     * @param renderGuard the guard notified of iterations
+     */
+    GuardedHashEx(final TemplateHashModelEx hash, final RenderGuard renderGuard) {
+      super(hash, renderGuard);
+      delegateEx = hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() throws TemplateModelException {
+      return delegateEx.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateCollectionModel keys() throws TemplateModelException {
+      return new GuardedCollection(delegateEx.keys(), guard);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateCollectionModel values() throws TemplateModelException {
+      return new GuardedCollection(delegateEx.values(), guard);
+    }
+  }
+
+  /**
+   * The <tt>GuardedScalarHash</tt> class decorates the values of a bean, keeping its string form and the object it
+   * adapts.
+   */
+  private static final class GuardedScalarHash extends GuardedHash
+          implements TemplateScalarModel, AdapterTemplateModel, WrapperTemplateModel {
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param bean the decorated bean, which must also be a scalar, an adapter and a wrapper
+     * @param renderGuard the guard notified of iterations
+     */
+    GuardedScalarHash(final TemplateHashModel bean, final RenderGuard renderGuard) {
+      super(bean, renderGuard);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getAsString() throws TemplateModelException {
+      return ((TemplateScalarModel) delegate).getAsString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAdaptedObject(final Class<?> hint) {
+      return ((AdapterTemplateModel) delegate).getAdaptedObject(hint);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getWrappedObject() {
+      return ((WrapperTemplateModel) delegate).getWrappedObject();
+    }
+  }
+
+  /**
+   * The <tt>GuardedScalarHashEx</tt> class decorates the values, keys and values collections of a bean exposed as an
+   * extended hash, keeping its string form and the object it adapts.
+   */
+  private static final class GuardedScalarHashEx extends GuardedHashEx
+          implements TemplateScalarModel, AdapterTemplateModel, WrapperTemplateModel {
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param bean the decorated bean, which must also be a scalar, an adapter and a wrapper
+     * @param renderGuard the guard notified of iterations
+     */
+    GuardedScalarHashEx(final TemplateHashModelEx bean, final RenderGuard renderGuard) {
+      super(bean, renderGuard);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getAsString() throws TemplateModelException {
+      return ((TemplateScalarModel) delegate).getAsString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getAdaptedObject(final Class<?> hint) {
+      return ((AdapterTemplateModel) delegate).getAdaptedObject(hint);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getWrappedObject() {
+      return ((WrapperTemplateModel) delegate).getWrappedObject();
+    }
+  }
+
+  /**
+   * The <tt>GuardedSequence</tt> class reports each element retrieved from a sequence.
+   */
+  private static final class GuardedSequence implements TemplateSequenceModel {
+
+    /** The decorated sequence. */
+    private final TemplateSequenceModel delegate;
+    /** The guard notified of iterations. */
+    private final RenderGuard guard;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param sequence the decorated sequence
+     * @param renderGuard the guard notified of iterations
+     */
+    GuardedSequence(final TemplateSequenceModel sequence, final RenderGuard renderGuard) {
+      delegate = sequence;
+      guard = renderGuard;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModel get(final int index) throws TemplateModelException {
+      guard.checkIteration();
+      return decorate(delegate.get(index), guard);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() throws TemplateModelException {
+      return delegate.size();
+    }
+  }
+
+  /**
+   * The <tt>GuardedCollection</tt> class reports each element iterated from a collection.
+   */
+  private static final class GuardedCollection implements TemplateCollectionModel {
+
+    /** The decorated collection. */
+    private final TemplateCollectionModel delegate;
+    /** The guard notified of iterations. */
+    private final RenderGuard guard;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param collection the decorated collection
+     * @param renderGuard the guard notified of iterations
+     */
+    GuardedCollection(final TemplateCollectionModel collection, final RenderGuard renderGuard) {
+      delegate = collection;
+      guard = renderGuard;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TemplateModelIterator iterator() throws TemplateModelException {
+      final TemplateModelIterator iterator = delegate.iterator();
+      return new TemplateModelIterator() {
+        @Override
+        public TemplateModel next() throws TemplateModelException {
+          guard.checkIteration();
+          return decorate(iterator.next(), guard);
+        }
+
+        @Override
+        public boolean hasNext() throws TemplateModelException {
+          return iterator.hasNext();
+        }
+      };
+    }
+  }
+}
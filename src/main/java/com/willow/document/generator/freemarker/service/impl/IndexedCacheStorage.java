@@ -0,0 +1,183 @@
+/*
+ *   File      : IndexedCacheStorage.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import freemarker.cache.CacheStorage;
+import freemarker.cache.CacheStorageWithGetSize;
+import freemarker.cache.ConcurrentCacheStorage;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>IndexedCacheStorage</tt> class wraps the storage of FreeMarker's cache of "included" templates, indexing the
+ * cache keys by template name so that a single template can be removed. FreeMarker does not expose the template name
+ * of its cache keys, so it is read reflectively; if that fails, removing a template clears the whole cache instead.
+ * The wrapper is concurrent when the wrapped storage is, so FreeMarker reads it without locking; adding and removing
+ * templates is serialised so that a template removed while it is being added cannot be left in the cache.
+ */
+final class IndexedCacheStorage implements ConcurrentCacheStorage, CacheStorageWithGetSize {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(IndexedCacheStorage.class);
+
+  /** The wrapped storage. */
+  private final CacheStorage storage;
+  /** The cache keys by template name. */
+  private final ConcurrentMap<String, Set<Object>> keys = new ConcurrentHashMap<>();
+  /** The field of the FreeMarker cache key holding the template name, or null if it could not be found. */
+  private volatile Field nameField;
+  /** True once the name field has been looked up. */
+  private volatile boolean nameFieldResolved;
+  /** True if a template has been cached whose name could not be read, until the cache is cleared. */
+  private volatile boolean unindexed;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param cacheStorage the wrapped storage
+   */
+  IndexedCacheStorage(final CacheStorage cacheStorage) {
+    storage = cacheStorage;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object get(final Object key) {
+    return storage.get(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void put(final Object key, final Object value) {
+    String name = getName(key);
+    if (name != null) {
+      Set<Object> named = keys.get(name);
+      if (named == null) {
+        Set<Object> created = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        named = keys.putIfAbsent(name, created);
+        if (named == null) {
+          named = created;
+        }
+      }
+      named.add(key);
+    } else {
+      unindexed = true;
+    }
+    storage.put(key, value);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void remove(final Object key) {
+    storage.remove(key);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void clear() {
+    keys.clear();
+    storage.clear();
+    unindexed = false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isConcurrent() {
+    return storage instanceof ConcurrentCacheStorage && ((ConcurrentCacheStorage) storage).isConcurrent();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getSize() {
+    return storage instanceof CacheStorageWithGetSize ? ((CacheStorageWithGetSize) storage).getSize() : keys.size();
+  }
+
+  /**
+   * Remove every cached version of a template, in any locale or encoding. If the name of a cached template could not
+   * be read, the whole cache is cleared instead. FreeMarker synchronises on storage that is not concurrent, so this
+   * does too.
+   *
+   * @param templateName the template name
+   */
+  synchronized void removeTemplate(final String templateName) {
+    if (unindexed) {
+      clear();
+    } else {
+      Set<Object> named = keys.remove(templateName);
+      if (named != null) {
+        for (Object key : named) {
+          storage.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the template name of a FreeMarker cache key.
+   *
+   * @param key the cache key
+   * @return the name or null if it could not be read
+   */
+  private String getName(final Object key) {
+    Field field = nameField;
+    if (field == null && !nameFieldResolved) {
+      field = resolveNameField(key.getClass());
+    }
+    String result = null;
+    if (field != null) {
+      try {
+        result = (String) field.get(key);
+      } catch (IllegalAccessException | IllegalArgumentException | ClassCastException ex) {
+        LOG.debug("Could not read the template name of a FreeMarker cache key", ex);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the field of the FreeMarker cache key holding the template name. The key is a private class of FreeMarker's
+   * template cache with no accessor for the name, so the private field is read reflectively. If the field is missing
+   * or cannot be made accessible, a warning is logged once and every removal clears the whole cache, which is slower
+   * but never serves a stale template.
+   *
+   * @param keyClass the class of the cache key
+   * @return the field or null if not found
+   */
+  private Field resolveNameField(final Class<?> keyClass) {
+    Field result = null;
+    try {
+      result = keyClass.getDeclaredField("name");
+      result.setAccessible(true);
+    } catch (NoSuchFieldException | RuntimeException ex) {
+      LOG.warn("FreeMarker cache keys cannot be indexed, so included templates are cleared together", ex);
+      result = null;
+    }
+    nameField = result;
+    nameFieldResolved = true;
+    return result;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ *   File      : OutputBuffer.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ *
+ * The <tt>OutputBuffer</tt> class is a growable byte buffer that collects a generated document before it is copied
+ * into an exact length byte array. Buffers are reused through the <tt>RenderBufferPool</tt> of the service, which
+ * sizes them from the expected document size and discards those that have grown beyond its retention limit.
+ */
+final class OutputBuffer extends OutputStream {
+
+  /** The smallest buffer allocated. */
+  private static final int MINIMUM_SIZE = 256;
+
+  /** The buffered bytes. */
+  private byte[] buffer;
+  /** The number of buffered bytes. */
+  private int count;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param size the initial buffer size
+   */
+  OutputBuffer(final int size) {
+    buffer = new byte[Math.max(size, MINIMUM_SIZE)];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final int b) {
+    ensureCapacity(count + 1);
+    buffer[count++] = (byte) b;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final byte[] b, final int off, final int len) {
+    ensureCapacity(count + len);
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  /**
+   * Get the number of buffered bytes.
+   *
+   * @return the count
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * Get the number of bytes the buffer holds before it grows.
+   *
+   * @return the capacity
+   */
+  int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Return a copy of the buffered bytes.
+   *
+   * @return an exact length byte array
+   */
+  byte[] toByteArray() {
+    return Arrays.copyOf(buffer, count);
+  }
+
+  /**
+   * Discard the buffered bytes so that the buffer can collect the next document.
+   */
+  void reset() {
+    count = 0;
+  }
+
+  /**
+   * Grow the buffer, at least doubling it, if it is smaller than the required capacity.
+   *
+   * @param capacity the required capacity
+   */
+  void ensureCapacity(final int capacity) {
+    if (capacity > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
+    }
+  }
+}
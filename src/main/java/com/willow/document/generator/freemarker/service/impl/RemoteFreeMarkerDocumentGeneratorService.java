@@ -0,0 +1,925 @@
+/*
+ *   File      : RemoteFreeMarkerDocumentGeneratorService.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.common.document.generator.service.DocumentGenerationException;
+import com.willow.common.service.impl.AbstractService;
+import com.willow.document.generator.freemarker.model.SharedContext;
+import com.willow.document.generator.freemarker.service.DocumentSink;
+import com.willow.document.generator.freemarker.service.FreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.service.RenderLimits;
+import com.willow.document.generator.freemarker.service.TemplateHandle;
+import freemarker.template.TemplateHashModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>RemoteFreeMarkerDocumentGeneratorService</tt> class is a client implementation of the FreeMarker document
+ * generator service that sends each request to a render node, a <tt>RenderNodeServer</tt> wrapping a local service.
+ * Requests are spread over a small pool of connections, and any number of requests may be in flight on a connection
+ * at once, so batches are pipelined rather than sent one round trip at a time. Template handles and templates supplied
+ * as streams are referenced by id once the render node knows them, so their paths and text are not sent again.
+ *
+ * <p>Template data must be made of maps with string keys, collections, strings, numbers, booleans, characters and
+ * dates. Wrapped data models and shared contexts cannot be sent to a render node and are not supported.</p>
+ */
+public final class RemoteFreeMarkerDocumentGeneratorService extends AbstractService
+        implements FreeMarkerDocumentGeneratorService {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(RemoteFreeMarkerDocumentGeneratorService.class);
+
+  /**  The host name of the render node. */
+  private String host = "localhost";
+  /**  The port of the render node. */
+  private int port;
+  /**  The number of connections opened to the render node. */
+  private int connections = 2;
+  /**  The longest time in milliseconds to wait for a connection to the render node. */
+  private int connectTimeout = 5000;
+  /**  The longest time in milliseconds to wait for a response from the render node. */
+  private long requestTimeout = 30000;
+  /**  The maximum number of batch documents requested ahead of the one being returned. */
+  private int batchWindow = 64;
+  /**  The largest frame accepted from the render node, in bytes. */
+  private int maxFrameSize = RenderProtocol.DEFAULT_MAX_FRAME_SIZE;
+  /**  The connection pool, created when the service starts; slots are connected when first used. */
+  private volatile RenderConnection[] pool;
+  /**  The scheduler failing requests that are not answered in time, created when the service starts. */
+  private volatile ScheduledExecutorService timeouts;
+  /**  The index of the next connection used. */
+  private final AtomicInteger nextConnection = new AtomicInteger();
+
+  /**
+   * The parameterised constructor as dictated by AbstractModelService.
+   *
+   * @param name the name of the service instance
+   */
+  public RemoteFreeMarkerDocumentGeneratorService(final String name) {
+    super(name);
+  }
+
+  /**
+   * The default constructor as dictated by AbstractModelService.
+   */
+  public RemoteFreeMarkerDocumentGeneratorService() {
+    super("RemoteFreeMarkerDocumentGeneratorService");
+  }
+
+  /**
+   * Get the host name of the render node.
+   *
+   * @return the host name
+   */
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * Set the host name of the render node. Takes effect when the service is next started.
+   *
+   * @param hostName the host name
+   */
+  public void setHost(final String hostName) {
+    host = hostName;
+  }
+
+  /**
+   * Get the port of the render node.
+   *
+   * @return the port
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Set the port of the render node. Takes effect when the service is next started.
+   *
+   * @param portNumber the port
+   */
+  public void setPort(final int portNumber) {
+    port = portNumber;
+  }
+
+  /**
+   * Get the number of connections opened to the render node.
+   *
+   * @return the connection count
+   */
+  public int getConnections() {
+    return connections;
+  }
+
+  /**
+   * Set the number of connections opened to the render node. Takes effect when the service is next started.
+   *
+   * @param count the connection count
+   */
+  public void setConnections(final int count) {
+    connections = count;
+  }
+
+  /**
+   * Get the longest time in milliseconds to wait for a connection to the render node.
+   *
+   * @return the time in milliseconds
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Set the longest time in milliseconds to wait for a connection to the render node.
+   *
+   * @param timeout the time in milliseconds
+   */
+  public void setConnectTimeout(final int timeout) {
+    connectTimeout = timeout;
+  }
+
+  /**
+   * Get the longest time in milliseconds to wait for a response from the render node.
+   *
+   * @return the time in milliseconds
+   */
+  public long getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  /**
+   * Set the longest time in milliseconds to wait for a response from the render node. The limit applies to the
+   * futures returned by the asynchronous methods as well as to the synchronous methods; zero or negative for no limit.
+   *
+   * @param timeout the time in milliseconds
+   */
+  public void setRequestTimeout(final long timeout) {
+    requestTimeout = timeout;
+  }
+
+  /**
+   * Get the maximum number of batch documents requested ahead of the one being returned.
+   *
+   * @return the window size
+   */
+  public int getBatchWindow() {
+    return batchWindow;
+  }
+
+  /**
+   * Set the maximum number of batch documents requested ahead of the one being returned.
+   *
+   * @param window the window size
+   */
+  public void setBatchWindow(final int window) {
+    batchWindow = window;
+  }
+
+  /**
+   * Get the largest frame accepted from the render node.
+   *
+   * @return the size in bytes
+   */
+  public int getMaxFrameSize() {
+    return maxFrameSize;
+  }
+
+  /**
+   * Set the largest frame accepted from the render node. Takes effect when the service is next started.
+   *
+   * @param size the size in bytes
+   */
+  public void setMaxFrameSize(final int size) {
+    maxFrameSize = size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean doStart() {
+    boolean result = port > 0 && host != null;
+    if (result) {
+      pool = new RenderConnection[Math.max(1, connections)];
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "freemarker-render-timeout");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.setRemoveOnCancelPolicy(true);
+      timeouts = scheduler;
+    } else {
+      LOG.error("The host and port of the render node must be set");
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean doStop() {
+    RenderConnection[] current = pool;
+    pool = null;
+    ScheduledExecutorService scheduler = timeouts;
+    timeouts = null;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    if (current != null) {
+      synchronized (current) {
+        for (RenderConnection connection : current) {
+          if (connection != null) {
+            connection.close();
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void createTemplate(final String templatePath, final String content) {
+    call(RenderProtocol.CREATE_TEMPLATE, new RenderProtocol.BodyWriter().writeString(templatePath)
+            .writeString(content).toByteArray());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getTemplate(final String templatePath) {
+    byte[] content = call(RenderProtocol.GET_TEMPLATE, new RenderProtocol.BodyWriter().writeString(templatePath)
+            .toByteArray());
+    return new String(content, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void updateTemplate(final String templatePath, final String content) {
+    call(RenderProtocol.UPDATE_TEMPLATE, new RenderProtocol.BodyWriter().writeString(templatePath)
+            .writeString(content).toByteArray());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void deleteTemplate(final String templatePath) {
+    call(RenderProtocol.DELETE_TEMPLATE, new RenderProtocol.BodyWriter().writeString(templatePath).toByteArray());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateHandle getTemplateHandle(final String templatePath) {
+    RemoteTemplateHandle result = new RemoteTemplateHandle(templatePath);
+    result.open();
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] generate(final String templatePath, final Map<String, Object> data) {
+    return generate(templatePath, data, (RenderLimits) null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] generate(final String templatePath, final Map<String, Object> data, final RenderLimits limits) {
+    return await(generateRemote(templatePath, data, limits));
+  }
+
+  /**
+   * Wrapped data models cannot be sent to a render node.
+   *
+   * @param templatePath the path to the document template
+   * @param data the wrapped template data
+   * @return never returns normally
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public byte[] generate(final String templatePath, final TemplateHashModel data) {
+    throwWrappedDataUnsupportedException();
+    return null;
+  }
+
+  /**
+   * Shared contexts are held as wrapped data models, which cannot be sent to a render node.
+   *
+   * @param name the name of the shared context
+   * @param context the data model to take a snapshot of
+   * @return never returns normally
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public SharedContext registerSharedContext(final String name, final Map<String, Object> context) {
+    throwWrappedDataUnsupportedException();
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return null, since shared contexts cannot be registered with a remote service
+   */
+  @Override
+  public SharedContext getSharedContext(final String name) {
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void unregisterSharedContext(final String name) {
+    //Shared contexts cannot be registered with a remote service
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void generate(final String templatePath, final Map<String, Object> data, final OutputStream out) {
+    writeDocument(generate(templatePath, data), out);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void generate(final String templatePath, final Map<String, Object> data, final WritableByteChannel channel) {
+    ByteBuffer document = ByteBuffer.wrap(generate(templatePath, data));
+    try {
+      while (document.hasRemaining()) {
+        channel.write(document);
+      }
+    } catch (IOException ex) {
+      throwWriteException(ex);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Iterable<byte[]> generateAll(final String templatePath, final Iterable<Map<String, Object>> data) {
+    return new Iterable<byte[]>() {
+      @Override
+      public Iterator<byte[]> iterator() {
+        return new PipelinedIterator(templatePath, data.iterator());
+      }
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void generateAll(final String templatePath, final Iterable<Map<String, Object>> data,
+                          final DocumentSink sink) {
+    int index = 0;
+    for (byte[] document : generateAll(templatePath, data)) {
+      sink.accept(index++, document);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CompletableFuture<byte[]> generateAsync(final String templatePath, final Map<String, Object> data) {
+    return generateRemote(templatePath, data, null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public CompletableFuture<List<byte[]>> generateAllAsync(final String templatePath,
+                                                          final Iterable<Map<String, Object>> data) {
+    return new AsyncBatch(templatePath, data.iterator()).start();
+  }
+
+  /**
+   * Generate a document from a template supplied as a stream. The render node is sent a hash of the template, and
+   * the template itself only if the render node does not already hold it.
+   *
+   * @param template the template as an input stream
+   * @param data the template data
+   * @return the generated content
+   */
+  @Override
+  public byte[] generate(final InputStream template, final Map<String, Object> data) {
+    byte[] content = readTemplate(template);
+    String contentId = ContentHash.key(content, 0, content.length);
+    byte[] request = new RenderProtocol.BodyWriter().writeString(contentId).writeValue(data).toByteArray();
+    RenderProtocol.Frame response = await(send(RenderProtocol.GENERATE_CONTENT, request));
+    if (response.getType() == RenderProtocol.UNKNOWN_TEMPLATE) {
+      call(RenderProtocol.REGISTER_CONTENT, new RenderProtocol.BodyWriter().writeString(contentId)
+              .writeBytes(content).toByteArray());
+      response = await(send(RenderProtocol.GENERATE_CONTENT, request));
+    }
+    return getResult(response);
+  }
+
+  /**
+   * Send a request to generate a document from a template path.
+   *
+   * @param templatePath the template path
+   * @param data the template data
+   * @param limits the render limits, or null for the render node's limits
+   * @return a future completed with the generated content
+   */
+  private CompletableFuture<byte[]> generateRemote(final String templatePath, final Map<String, Object> data,
+                                                   final RenderLimits limits) {
+    byte[] request = new RenderProtocol.BodyWriter().writeString(templatePath).writeLimits(limits).writeValue(data)
+            .toByteArray();
+    return send(RenderProtocol.GENERATE, request).thenApply(this::getResult);
+  }
+
+  /**
+   * Send a request and wait for its result.
+   *
+   * @param type the message type
+   * @param body the body
+   * @return the result, empty for a response with no body
+   */
+  private byte[] call(final byte type, final byte[] body) {
+    return getResult(await(send(type, body)));
+  }
+
+  /**
+   * Send a request on the next connection in the pool, connecting it if it is not open. The request fails if the
+   * render node does not answer within the request timeout, and a request that fails for any reason stops waiting
+   * on the connection.
+   *
+   * @param type the message type
+   * @param body the body
+   * @return a future completed with the response
+   */
+  private CompletableFuture<RenderProtocol.Frame> send(final byte type, final byte[] body) {
+    RenderConnection[] current = pool;
+    if (current == null) {
+      throwServiceNotStartedException();
+    }
+    int index = Math.floorMod(nextConnection.getAndIncrement(), current.length);
+    RenderConnection connection;
+    synchronized (current) {
+      connection = current[index];
+      if (connection == null || !connection.isOpen()) {
+        try {
+          connection = RenderConnection.open(new InetSocketAddress(host, port), connectTimeout, maxFrameSize);
+        } catch (IOException ex) {
+          throwConnectException(ex);
+        }
+        current[index] = connection;
+      }
+    }
+    final CompletableFuture<RenderProtocol.Frame> result = new CompletableFuture<>();
+    final RenderConnection sentOn = connection;
+    final int requestId = sentOn.send(type, body, result);
+    ScheduledExecutorService scheduler = timeouts;
+    if (requestTimeout > 0 && scheduler != null && !result.isDone()) {
+      final ScheduledFuture<?> timeout = scheduler.schedule(() -> result.completeExceptionally(
+              new DocumentGenerationException("The render node did not respond within " + requestTimeout + " ms",
+                      null)), requestTimeout, TimeUnit.MILLISECONDS);
+      result.whenComplete((response, failure) -> timeout.cancel(false));
+    }
+    result.whenComplete((response, failure) -> {
+      if (failure != null) {
+        sentOn.cancel(requestId);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Return the result carried by a response, or throw the exception it describes.
+   *
+   * @param response the response
+   * @return the result, empty for a response with no body
+   */
+  private byte[] getResult(final RenderProtocol.Frame response) {
+    byte[] result = null;
+    if (response.getType() == RenderProtocol.RESULT) {
+      result = new RenderProtocol.BodyReader(response.getBody()).readBytes();
+    } else if (response.getType() == RenderProtocol.OK) {
+      result = new byte[0];
+    } else if (response.getType() == RenderProtocol.ERROR) {
+      throw RenderProtocol.decodeError(response.getBody());
+    } else if (response.getType() == RenderProtocol.BUSY) {
+      throw new RejectedExecutionException("The render node is too busy to accept the request");
+    } else {
+      throw new IllegalStateException("The render node sent an unexpected response of type " + response.getType());
+    }
+    return result;
+  }
+
+  /**
+   * Wait for a request to complete. The request timeout is applied when the request is sent.
+   *
+   * @param <T> the type of the result
+   * @param request the future result
+   * @return the result
+   */
+  private <T> T await(final CompletableFuture<T> request) {
+    T result = null;
+    try {
+      result = request.get();
+    } catch (ExecutionException ex) {
+      throwFailure(ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      request.completeExceptionally(ex);
+      throwInterruptedException(ex);
+    }
+    return result;
+  }
+
+  /**
+   * Read a template supplied as a stream.
+   *
+   * @param template the template as an input stream
+   * @return the template content
+   */
+  private byte[] readTemplate(final InputStream template) {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    try {
+      for (int read = template.read(chunk); read >= 0; read = template.read(chunk)) {
+        result.write(chunk, 0, read);
+      }
+    } catch (IOException ex) {
+      throw new DocumentGenerationException("The template could not be read from the input stream", ex);
+    }
+    return result.toByteArray();
+  }
+
+  /**
+   * Write a document to an output stream and flush it.
+   *
+   * @param document the document
+   * @param out the output stream
+   */
+  private void writeDocument(final byte[] document, final OutputStream out) {
+    try {
+      out.write(document);
+      out.flush();
+    } catch (IOException ex) {
+      throwWriteException(ex);
+    }
+  }
+
+  /**
+   * Throw the exception that failed a request.
+   *
+   * @param cause the exception
+   */
+  private void throwFailure(final Throwable cause) {
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    throw new DocumentGenerationException("The render node request failed", cause);
+  }
+
+  /**
+   * Throw an exception describing a wait for the render node that was interrupted.
+   *
+   * @param ex the exception raised while waiting
+   */
+  private void throwInterruptedException(final InterruptedException ex) {
+    String msg = "Interrupted while waiting for the render node";
+    throw new DocumentGenerationException(msg, ex);
+  }
+
+  /**
+   * Throw an exception describing a render node that could not be reached.
+   *
+   * @param ex the exception raised when connecting
+   */
+  private void throwConnectException(final IOException ex) {
+    String msg = "Could not connect to the render node at " + host + ":" + port;
+    throw new DocumentGenerationException(msg, ex);
+  }
+
+  /**
+   * Throw an exception describing a document that could not be written to its destination.
+   *
+   * @param ex the exception raised when writing
+   */
+  private void throwWriteException(final IOException ex) {
+    String msg = "The generated document could not be written";
+    throw new DocumentGenerationException(msg, ex);
+  }
+
+  /**
+   * Throw an exception describing use of the service before it has been started.
+   */
+  private void throwServiceNotStartedException() {
+    String msg = "The service must be started before templates can be generated";
+    throw new IllegalStateException(msg);
+  }
+
+  /**
+   * Throw an exception describing the use of wrapped data models, which cannot be sent to a render node.
+   */
+  private static void throwWrappedDataUnsupportedException() {
+    throw new UnsupportedOperationException("Wrapped data models and shared contexts cannot be sent to a render node");
+  }
+
+  /**
+   * The <tt>PipelinedIterator</tt> class generates a batch of documents, keeping a window of requests in flight ahead
+   * of the document being returned.
+   */
+  private final class PipelinedIterator implements Iterator<byte[]> {
+
+    /** The template path. */
+    private final String templatePath;
+    /** The data not yet requested. */
+    private final Iterator<Map<String, Object>> data;
+    /** The documents requested and not yet returned, in the order of the data. */
+    private final Deque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param path the template path
+     * @param items the template data for each document
+     */
+    PipelinedIterator(final String path, final Iterator<Map<String, Object>> items) {
+      templatePath = path;
+      data = items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+      fill();
+      return !inFlight.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return await(inFlight.poll());
+    }
+
+    /**
+     * Request documents until the window is full or the data is exhausted.
+     */
+    private void fill() {
+      while (inFlight.size() < Math.max(1, batchWindow) && data.hasNext()) {
+        inFlight.add(generateRemote(templatePath, data.next(), null));
+      }
+    }
+  }
+
+  /**
+   * The <tt>AsyncBatch</tt> class generates a batch of documents asynchronously, keeping the same window of requests
+   * in flight as a <tt>PipelinedIterator</tt>: each completed document releases the request for the next item of
+   * data. The batch fails with the first request that fails.
+   */
+  private final class AsyncBatch {
+
+    /** The template path. */
+    private final String templatePath;
+    /** The data not yet requested. */
+    private final Iterator<Map<String, Object>> data;
+    /** The documents generated, in the order of the data; null until each is generated. */
+    private final List<byte[]> documents = new ArrayList<>();
+    /** The future completed with the documents. */
+    private final CompletableFuture<List<byte[]>> result = new CompletableFuture<>();
+    /** The number of requests in flight. */
+    private int inFlight;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param path the template path
+     * @param items the template data for each document
+     */
+    AsyncBatch(final String path, final Iterator<Map<String, Object>> items) {
+      templatePath = path;
+      data = items;
+    }
+
+    /**
+     * Send the first window of requests.
+     *
+     * @return the future completed with the documents
+     */
+    CompletableFuture<List<byte[]>> start() {
+      fill();
+      return result;
+    }
+
+    /**
+     * Request documents until the window is full or the data is exhausted, and complete the batch once every
+     * document has been generated.
+     */
+    private synchronized void fill() {
+      try {
+        while (!result.isDone() && inFlight < Math.max(1, batchWindow) && data.hasNext()) {
+          final int index = documents.size();
+          documents.add(null);
+          inFlight++;
+          generateRemote(templatePath, data.next(), null).whenComplete((document, failure) -> {
+            if (failure != null) {
+              result.completeExceptionally(failure);
+            } else {
+              complete(index, document);
+            }
+          });
+        }
+        if (inFlight == 0 && !data.hasNext()) {
+          result.complete(documents);
+        }
+      } catch (RuntimeException ex) {
+        result.completeExceptionally(ex);
+      }
+    }
+
+    /**
+     * Record a generated document and request the next.
+     *
+     * @param index the index of the document in the batch
+     * @param document the document
+     */
+    private synchronized void complete(final int index, final byte[] document) {
+      documents.set(index, document);
+      inFlight--;
+      fill();
+    }
+  }
+
+  /**
+   * The <tt>RemoteTemplateHandle</tt> class refers to a template on the render node by the id the render node
+   * assigned to it. If the render node no longer knows the id, for example because it has been restarted, the handle
+   * is opened again and the request retried.
+   */
+  private final class RemoteTemplateHandle implements TemplateHandle {
+
+    /** The template path. */
+    private final String templatePath;
+    /** The id the render node assigned to the handle. */
+    private volatile int handleId;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param path the template path
+     */
+    RemoteTemplateHandle(final String path) {
+      templatePath = path;
+    }
+
+    /**
+     * Ask the render node for the id of the template.
+     */
+    void open() {
+      byte[] id = call(RenderProtocol.OPEN_HANDLE, new RenderProtocol.BodyWriter().writeString(templatePath)
+              .toByteArray());
+      handleId = new RenderProtocol.BodyReader(id).readInt();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTemplatePath() {
+      return templatePath;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final Map<String, Object> data) {
+      return generate(data, (RenderLimits) null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final Map<String, Object> data, final RenderLimits limits) {
+      RenderProtocol.Frame response = await(send(RenderProtocol.GENERATE_HANDLE, request(data, limits)));
+      if (response.getType() == RenderProtocol.UNKNOWN_TEMPLATE) {
+        open();
+        response = await(send(RenderProtocol.GENERATE_HANDLE, request(data, limits)));
+      }
+      return getResult(response);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final TemplateHashModel data) {
+      throwWrappedDataUnsupportedException();
+      return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] generate(final TemplateHashModel data, final RenderLimits limits) {
+      throwWrappedDataUnsupportedException();
+      return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final Map<String, Object> data, final OutputStream out) {
+      writeDocument(generate(data), out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final TemplateHashModel data, final OutputStream out) {
+      throwWrappedDataUnsupportedException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final Map<String, Object> data, final OutputStream out, final RenderLimits limits) {
+      writeDocument(generate(data, limits), out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void generate(final TemplateHashModel data, final OutputStream out, final RenderLimits limits) {
+      throwWrappedDataUnsupportedException();
+    }
+
+    /**
+     * Build a request to generate a document from the handle.
+     *
+     * @param data the template data
+     * @param limits the render limits, or null
+     * @return the body
+     */
+    private byte[] request(final Map<String, Object> data, final RenderLimits limits) {
+      return new RenderProtocol.BodyWriter().writeInt(handleId).writeLimits(limits).writeValue(data).toByteArray();
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ *   File      : RenderBufferPool.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * The <tt>RenderBufferPool</tt> class keeps the output buffers and encoding writers of a service for reuse by the
+ * documents it generates next, whichever thread generates them. At most a fixed number of each are kept, and output
+ * buffers grown beyond the retention limit by a large document are discarded, so the memory held is bounded however
+ * many threads render. The most recently released instance is reused first, while it is still in the processor cache.
+ * The pool belongs to one service and is emptied when the service stops, so nothing is retained by threads that
+ * outlive the service.
+ */
+final class RenderBufferPool {
+
+  /** The charset of the writers kept. */
+  private final Charset charset;
+  /** The output buffers available for reuse. */
+  private final Deque<OutputBuffer> buffers = new ConcurrentLinkedDeque<>();
+  /** The number of output buffers available. */
+  private final AtomicInteger bufferCount = new AtomicInteger();
+  /** The encoding writers available for reuse. */
+  private final Deque<EncodingWriter> writers = new ConcurrentLinkedDeque<>();
+  /** The number of encoding writers available. */
+  private final AtomicInteger writerCount = new AtomicInteger();
+  /** The most output buffers and the most encoding writers kept, zero while the pool is closed. */
+  private volatile int capacity;
+  /** The largest output buffer kept, in bytes. */
+  private volatile int maxRetainedSize;
+
+  /**
+   * The parameterised constructor. The pool keeps nothing until it is opened.
+   *
+   * @param documentCharset the charset of the writers kept
+   */
+  RenderBufferPool(final Charset documentCharset) {
+    charset = documentCharset;
+  }
+
+  /**
+   * Start keeping released instances.
+   *
+   * @param poolCapacity the most output buffers and the most encoding writers kept
+   * @param maxRetainedBufferSize the largest output buffer kept, in bytes
+   */
+  void open(final int poolCapacity, final int maxRetainedBufferSize) {
+    maxRetainedSize = maxRetainedBufferSize;
+    capacity = Math.max(poolCapacity, 0);
+  }
+
+  /**
+   * Stop keeping released instances and discard those kept.
+   */
+  void close() {
+    capacity = 0;
+    OutputBuffer buffer = poll(buffers, bufferCount);
+    while (buffer != null) {
+      buffer = poll(buffers, bufferCount);
+    }
+    EncodingWriter writer = poll(writers, writerCount);
+    while (writer != null) {
+      writer = poll(writers, writerCount);
+    }
+  }
+
+  /**
+   * Return an output buffer holding at least the expected document, up to the retention limit. The buffer must be
+   * released when the document is complete.
+   *
+   * @param expectedSize the expected document size in bytes
+   * @return the buffer
+   */
+  OutputBuffer acquireBuffer(final int expectedSize) {
+    int size = Math.min(expectedSize, maxRetainedSize);
+    OutputBuffer result = poll(buffers, bufferCount);
+    if (result == null) {
+      result = new OutputBuffer(size);
+    } else {
+      result.ensureCapacity(size);
+    }
+    return result;
+  }
+
+  /**
+   * Release an output buffer, keeping it for reuse unless it has grown too large or the pool is full.
+   *
+   * @param buffer the buffer
+   */
+  void release(final OutputBuffer buffer) {
+    buffer.reset();
+    if (buffer.capacity() <= maxRetainedSize) {
+      offer(buffers, bufferCount, buffer);
+    }
+  }
+
+  /**
+   * Return an encoding writer that encodes to an output stream. The writer must be released when the document is
+   * complete.
+   *
+   * @param documentCharset the charset used to encode the content
+   * @param destination the output stream
+   * @return the writer
+   */
+  EncodingWriter acquireWriter(final Charset documentCharset, final OutputStream destination) {
+    EncodingWriter result = acquireWriter(documentCharset);
+    result.setDestination(destination);
+    return result;
+  }
+
+  /**
+   * Return an encoding writer that encodes to a channel. The writer must be released when the document is complete.
+   *
+   * @param documentCharset the charset used to encode the content
+   * @param destination the channel
+   * @return the writer
+   */
+  EncodingWriter acquireWriter(final Charset documentCharset, final WritableByteChannel destination) {
+    EncodingWriter result = acquireWriter(documentCharset);
+    result.setDestination(destination);
+    return result;
+  }
+
+  /**
+   * Release an encoding writer, keeping it for reuse unless it uses another charset or the pool is full.
+   *
+   * @param writer the writer
+   */
+  void release(final EncodingWriter writer) {
+    writer.reset();
+    if (writer.getCharset().equals(charset)) {
+      offer(writers, writerCount, writer);
+    }
+  }
+
+  /**
+   * Return a kept encoding writer, or a new writer if none is kept or the charset is not the pool's.
+   *
+   * @param documentCharset the charset used to encode the content
+   * @return the writer
+   */
+  private EncodingWriter acquireWriter(final Charset documentCharset) {
+    EncodingWriter result = documentCharset.equals(charset) ? poll(writers, writerCount) : null;
+    return result != null ? result : new EncodingWriter(documentCharset);
+  }
+
+  /**
+   * Take the most recently kept instance.
+   *
+   * @param <T> the type of instance
+   * @param kept the kept instances
+   * @param count the number of kept instances
+   * @return the instance, or null if none is kept
+   */
+  private static <T> T poll(final Deque<T> kept, final AtomicInteger count) {
+    T result = kept.pollFirst();
+    if (result != null) {
+      count.decrementAndGet();
+    }
+    return result;
+  }
+
+  /**
+   * Keep an instance unless the pool is full.
+   *
+   * @param <T> the type of instance
+   * @param kept the kept instances
+   * @param count the number of kept instances
+   * @param instance the instance
+   */
+  private <T> void offer(final Deque<T> kept, final AtomicInteger count, final T instance) {
+    if (count.incrementAndGet() <= capacity) {
+      kept.offerFirst(instance);
+    } else {
+      count.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ *   File      : RenderConnection.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.common.document.generator.service.DocumentGenerationException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>RenderConnection</tt> class is a client connection to a render node. Any number of threads may send
+ * requests at once: each request is written whole under a lock without waiting for earlier responses, and a reader
+ * thread completes the future of each request as its response arrives, in whatever order the node sends them. When
+ * the connection fails, every request waiting on it fails and the connection is closed. The caller applies any
+ * timeout, and cancels a request it stops waiting for.
+ */
+final class RenderConnection implements Runnable {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(RenderConnection.class);
+
+  /** The number of connections opened, used to name the reader threads. */
+  private static final AtomicInteger COUNT = new AtomicInteger();
+
+  /** The channel to the render node. */
+  private final SocketChannel channel;
+  /** The largest frame accepted from the render node. */
+  private final int maxFrameSize;
+  /** The requests waiting for a response, keyed by request id. */
+  private final ConcurrentMap<Integer, CompletableFuture<RenderProtocol.Frame>> pending = new ConcurrentHashMap<>();
+  /** The source of request ids. */
+  private final AtomicInteger requestIds = new AtomicInteger();
+  /** The lock serialising writes, so that frames are not interleaved. */
+  private final Object writeLock = new Object();
+  /** The failure that closed the connection, or null while it is open. */
+  private volatile DocumentGenerationException failure;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param socketChannel the connected channel
+   * @param maxFrame the largest frame accepted from the render node
+   */
+  private RenderConnection(final SocketChannel socketChannel, final int maxFrame) {
+    channel = socketChannel;
+    maxFrameSize = maxFrame;
+  }
+
+  /**
+   * Connect to a render node and start reading its responses.
+   *
+   * @param address the address of the render node
+   * @param connectTimeout the longest time in milliseconds to wait for the connection
+   * @param maxFrame the largest frame accepted from the render node
+   * @return the connection
+   * @throws IOException if the render node could not be reached
+   */
+  static RenderConnection open(final InetSocketAddress address, final int connectTimeout, final int maxFrame)
+          throws IOException {
+    SocketChannel socketChannel = SocketChannel.open();
+    try {
+      socketChannel.socket().setTcpNoDelay(true);
+      socketChannel.socket().connect(address, connectTimeout);
+    } catch (IOException ex) {
+      socketChannel.close();
+      throw ex;
+    }
+    RenderConnection result = new RenderConnection(socketChannel, maxFrame);
+    Thread reader = new Thread(result, "freemarker-render-client-" + COUNT.incrementAndGet());
+    reader.setDaemon(true);
+    reader.start();
+    return result;
+  }
+
+  /**
+   * Send a request.
+   *
+   * @param type the message type
+   * @param body the body
+   * @param response the future completed with the response, or completed exceptionally if the connection fails
+   * @return the request id, used to cancel the request
+   */
+  int send(final byte type, final byte[] body, final CompletableFuture<RenderProtocol.Frame> response) {
+    int result = requestIds.incrementAndGet();
+    pending.put(result, response);
+    if (failure != null) {
+      pending.remove(result);
+      response.completeExceptionally(failure);
+    } else {
+      ByteBuffer frame = RenderProtocol.frame(type, result, body);
+      try {
+        synchronized (writeLock) {
+          while (frame.hasRemaining()) {
+            channel.write(frame);
+          }
+        }
+      } catch (IOException ex) {
+        close(ex);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Stop waiting for the response to a request, for example because it timed out. A response that arrives later is
+   * discarded.
+   *
+   * @param requestId the request id
+   */
+  void cancel(final int requestId) {
+    pending.remove(requestId);
+  }
+
+  /**
+   * Return true while the connection can send requests.
+   *
+   * @return true if open
+   */
+  boolean isOpen() {
+    return failure == null;
+  }
+
+  /**
+   * Close the connection, failing the requests waiting on it.
+   */
+  void close() {
+    close(null);
+  }
+
+  /**
+   * Read responses until the connection closes.
+   */
+  @Override
+  public void run() {
+    ByteBuffer length = ByteBuffer.allocate(RenderProtocol.LENGTH_SIZE);
+    try {
+      while (failure == null) {
+        length.clear();
+        readFully(length);
+        int frameLength = length.getInt(0);
+        if (frameLength < RenderProtocol.HEADER_SIZE || frameLength > maxFrameSize) {
+          throw new IOException("The render node sent a frame of " + frameLength + " bytes");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(frameLength);
+        readFully(frame);
+        frame.flip();
+        RenderProtocol.Frame response = RenderProtocol.readFrame(frame, frameLength);
+        CompletableFuture<RenderProtocol.Frame> request = pending.remove(response.getRequestId());
+        if (request != null) {
+          request.complete(response);
+        }
+      }
+    } catch (IOException ex) {
+      close(ex);
+    }
+  }
+
+  /**
+   * Fill a buffer from the channel.
+   *
+   * @param buffer the buffer
+   * @throws IOException if the channel fails or is closed by the render node
+   */
+  private void readFully(final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("The render node closed the connection");
+      }
+    }
+  }
+
+  /**
+   * Close the connection, failing the requests waiting on it.
+   *
+   * @param cause the failure that closed the connection, or null if closed by the client
+   */
+  private void close(final IOException cause) {
+    synchronized (pending) {
+      if (failure == null) {
+        failure = new DocumentGenerationException("The connection to the render node is closed", cause);
+        if (cause != null) {
+          LOG.warn("The connection to the render node failed", cause);
+        }
+      }
+    }
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      LOG.debug("Failed to close the connection to the render node", ex);
+    }
+    for (Map.Entry<Integer, CompletableFuture<RenderProtocol.Frame>> entry : pending.entrySet()) {
+      if (pending.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().completeExceptionally(failure);
+      }
+    }
+  }
+}
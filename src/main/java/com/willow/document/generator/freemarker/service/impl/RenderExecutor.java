@@ -0,0 +1,133 @@
+/*
+ *   File      : RenderExecutor.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>RenderExecutor</tt> class runs asynchronous document generation on threads owned by the service, either a
+ * fixed pool of platform threads or a virtual thread per task where the JVM supports them. The number of tasks
+ * waiting or running is bounded, and submitting beyond the bound blocks the caller until a task completes.
+ */
+final class RenderExecutor {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(RenderExecutor.class);
+
+  /** The threads running the tasks. */
+  private final ExecutorService executor;
+  /** The permits for tasks waiting or running. */
+  private final Semaphore permits;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param threads the number of platform threads, ignored when virtual threads are used
+   * @param queueCapacity the number of tasks that may wait for a thread
+   * @param virtualThreads true to run each task on a virtual thread if the JVM supports them
+   */
+  RenderExecutor(final int threads, final int queueCapacity, final boolean virtualThreads) {
+    int threadCount = Math.max(1, threads);
+    ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+    if (virtualExecutor == null) {
+      executor = Executors.newFixedThreadPool(threadCount, new RenderThreadFactory());
+    } else {
+      executor = virtualExecutor;
+    }
+    permits = new Semaphore(threadCount + Math.max(0, queueCapacity));
+  }
+
+  /**
+   * Submit a task, blocking while the bound on waiting and running tasks is reached.
+   *
+   * @param <T> the task result type
+   * @param task the task
+   * @return a future completed with the task result
+   */
+  <T> CompletableFuture<T> submit(final Supplier<T> task) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting to submit a document", ex);
+    }
+    CompletableFuture<T> result;
+    try {
+      result = CompletableFuture.supplyAsync(task, executor);
+    } catch (RejectedExecutionException ex) {
+      permits.release();
+      throw ex;
+    }
+    result.whenComplete((value, failure) -> permits.release());
+    return result;
+  }
+
+  /**
+   * Stop accepting tasks and wait for running tasks to complete, interrupting them if the timeout passes.
+   *
+   * @param timeout the longest time in milliseconds to wait
+   */
+  void shutdown(final long timeout) {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+        LOG.warn("Document generation tasks did not complete within " + timeout + " ms, interrupting them");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Create an executor that runs each task on a virtual thread.
+   *
+   * @return the executor or null if the JVM does not support virtual threads
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    ExecutorService result = null;
+    try {
+      result = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException ex) {
+      LOG.warn("Virtual threads are not supported by this JVM, using platform threads instead");
+    }
+    return result;
+  }
+
+  /**
+   * The <tt>RenderThreadFactory</tt> class creates the daemon platform threads used for document generation.
+   */
+  private static final class RenderThreadFactory implements ThreadFactory {
+
+    /** The number of threads created. */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread result = new Thread(runnable, "freemarker-render-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+}
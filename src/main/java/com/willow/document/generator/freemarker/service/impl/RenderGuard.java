@@ -0,0 +1,131 @@
+/*
+ *   File      : RenderGuard.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.document.generator.freemarker.service.RenderLimitExceededException;
+import com.willow.document.generator.freemarker.service.RenderLimits;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * The <tt>RenderGuard</tt> class enforces the render limits of a single document. It is checked cooperatively by the
+ * writer as content is encoded and by the data model as sequences are iterated, and is confined to the rendering
+ * thread. Once a limit is exceeded every later check fails again, so the breach cannot be lost to a template exception
+ * handler that ignores errors.
+ */
+final class RenderGuard {
+
+  /** The number of iterations between checks of the clock. */
+  private static final int CLOCK_CHECK_INTERVAL = 256;
+
+  /** The render time limit in milliseconds, or zero if unlimited. */
+  private final long maxRenderMillis;
+  /** The time by which rendering must complete, in System.nanoTime() terms. */
+  private final long deadline;
+  /** The document size limit in bytes, or zero if unlimited. */
+  private final long maxOutputBytes;
+  /** The iteration limit, or zero if unlimited. */
+  private final long maxLoopIterations;
+  /** The number of iterations so far. */
+  private long iterations;
+  /** The number of iterations since the clock was last checked. */
+  private int iterationsSinceClockCheck;
+  /** The exception describing the first limit exceeded, or null. */
+  private RenderLimitExceededException failure;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param limits the limits to enforce
+   */
+  private RenderGuard(final RenderLimits limits) {
+    maxRenderMillis = positive(limits.getMaxRenderMillis());
+    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxRenderMillis);
+    maxOutputBytes = positive(limits.getMaxOutputBytes());
+    maxLoopIterations = positive(limits.getMaxLoopIterations());
+  }
+
+  /**
+   * Create a guard for a document, starting the render clock.
+   *
+   * @param limits the limits to enforce, or null
+   * @return the guard or null if no limit is in force
+   */
+  static RenderGuard start(final RenderLimits limits) {
+    return limits != null && limits.isLimited() ? new RenderGuard(limits) : null;
+  }
+
+  /**
+   * Record the iteration of a sequence or collection element.
+   */
+  void checkIteration() {
+    checkFailure();
+    iterations++;
+    if (maxLoopIterations > 0 && iterations > maxLoopIterations) {
+      fail(RenderLimitExceededException.Limit.LOOP_ITERATIONS, maxLoopIterations);
+    }
+    if (++iterationsSinceClockCheck >= CLOCK_CHECK_INTERVAL) {
+      iterationsSinceClockCheck = 0;
+      checkTime();
+    }
+  }
+
+  /**
+   * Check the size of the document so far, and the render clock.
+   *
+   * @param bytes the number of bytes generated so far
+   */
+  void checkOutput(final long bytes) {
+    checkFailure();
+    if (maxOutputBytes > 0 && bytes > maxOutputBytes) {
+      fail(RenderLimitExceededException.Limit.OUTPUT_BYTES, maxOutputBytes);
+    }
+    checkTime();
+  }
+
+  /**
+   * Check the render clock.
+   */
+  void checkTime() {
+    if (maxRenderMillis > 0 && System.nanoTime() - deadline > 0) {
+      fail(RenderLimitExceededException.Limit.RENDER_MILLIS, maxRenderMillis);
+    }
+  }
+
+  /**
+   * Throw the exception describing the first limit exceeded, if any.
+   */
+  void checkFailure() {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Record that a limit was exceeded and throw the exception describing it.
+   *
+   * @param limit the limit exceeded
+   * @param value the value of the limit
+   */
+  private void fail(final RenderLimitExceededException.Limit limit, final long value) {
+    failure = new RenderLimitExceededException(limit, value);
+    throw failure;
+  }
+
+  /**
+   * Return a limit value, treating unset and negative values as zero.
+   *
+   * @param value the limit
+   * @return the value or zero if unlimited
+   */
+  private static long positive(final Long value) {
+    return value == null || value < 0 ? 0 : value;
+  }
+}
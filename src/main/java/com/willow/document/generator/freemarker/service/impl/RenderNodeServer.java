@@ -0,0 +1,912 @@
+/*
+ *   File      : RenderNodeServer.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.common.service.impl.AbstractService;
+import com.willow.document.generator.freemarker.service.FreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.service.RenderLimits;
+import com.willow.document.generator.freemarker.service.TemplateHandle;
+import com.willow.document.generator.freemarker.store.impl.FileSystemTemplateStore;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>RenderNodeServer</tt> class serves a document generator service to
+ * <tt>RemoteFreeMarkerDocumentGeneratorService</tt> clients, so that rendering can run in its own process. One
+ * selector thread accepts connections, reads request frames and writes response frames without blocking, and the
+ * requests are processed by a pool of worker threads. Responses are written as each request completes, so a slow
+ * document does not hold up the documents requested after it on the same connection.
+ *
+ * <p>The work a node takes on is bounded: requests beyond the capacity of the worker queue are refused as busy, the
+ * server stops reading from a connection with too many responses outstanding until the client has read them, and
+ * connections beyond the maximum are closed as they are accepted.</p>
+ *
+ * <p>The server listens on the loopback address by default, and on an ephemeral port if none is set, so it can run
+ * in the same process as its clients as a stand-in for a render node.</p>
+ *
+ * <p>Clients are not authenticated: anyone who can reach the port can render the service's templates with any data.
+ * Template text is code, so by default clients can only use the templates the service already has, by relative paths
+ * that stay within its templates. Rendering templates sent by clients, and reading, creating, updating and deleting the
+ * service's templates, must be enabled explicitly, and only for clients trusted to run templates on the node. The
+ * render limits a client sends can only tighten the limits configured on the service, so a client cannot lift them. A
+ * node listening beyond the loopback address belongs behind a firewall or a private network, and its service keeps
+ * FreeMarker's safer <tt>?new</tt> class resolver, or a stricter one.</p>
+ */
+public final class RenderNodeServer extends AbstractService {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(RenderNodeServer.class);
+
+  /** The size of the buffer each connection reads requests into, grown for larger requests. */
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  /** The time in milliseconds the server stops accepting connections after accepting one failed. */
+  private static final long ACCEPT_RETRY_DELAY = 1000;
+
+  /**  The service generating the documents. */
+  private FreeMarkerDocumentGeneratorService service;
+  /**  The address the server listens on. */
+  private String bindAddress = "127.0.0.1";
+  /**  The port the server listens on, zero for an ephemeral port. */
+  private int port;
+  /**  The number of threads processing requests. */
+  private int workerThreads = Runtime.getRuntime().availableProcessors();
+  /**  The number of requests that may wait for a worker thread before further requests are refused as busy. */
+  private int requestQueueCapacity = 1024;
+  /**  The number of requests a connection may have in progress or waiting to be written before it is not read. */
+  private int maxPendingResponses = 256;
+  /**  The maximum number of client connections. */
+  private int maxConnections = 256;
+  /**  The largest request frame accepted, in bytes. */
+  private int maxFrameSize = RenderProtocol.DEFAULT_MAX_FRAME_SIZE;
+  /**  The maximum number of templates supplied as streams held for clients. */
+  private int maxRegisteredTemplates = 256;
+  /**  The longest time in milliseconds the server waits for requests in progress when it stops. */
+  private long shutdownTimeout = 10000;
+  /**  True if clients may render templates they send with the request. */
+  private volatile boolean clientTemplatesEnabled;
+  /**  True if clients may read, create, update and delete the service's templates. */
+  private volatile boolean templateChangesEnabled;
+  /**  The selector, open while the server is running. */
+  private volatile Selector selector;
+  /**  The listening channel, open while the server is running. */
+  private volatile ServerSocketChannel serverChannel;
+  /**  The selection key of the listening channel. */
+  private SelectionKey acceptKey;
+  /**  The number of open client connections, used by the selector thread only. */
+  private int connectionCount;
+  /**  The time accepting connections resumes after accepting one failed, zero while accepting. */
+  private long acceptResumeTime;
+  /**  The thread running the selector. */
+  private Thread selectorThread;
+  /**  The threads processing requests. */
+  private volatile ExecutorService workers;
+  /**  The connections with responses waiting to be written. */
+  private final Queue<ClientConnection> writable = new ConcurrentLinkedQueue<>();
+  /**  The template handles opened for clients, by id. */
+  private final Map<Integer, TemplateHandle> handles = new ConcurrentHashMap<>();
+  /**  The ids of the template handles opened for clients, by template path. */
+  private final Map<String, Integer> handleIds = new ConcurrentHashMap<>();
+  /**  The source of template handle ids. */
+  private final AtomicInteger nextHandleId = new AtomicInteger();
+  /**  The templates supplied as streams, by content id, least recently used first. */
+  private final Map<String, byte[]> registeredTemplates = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
+      return size() > maxRegisteredTemplates;
+    }
+  };
+
+  /**
+   * The parameterised constructor as dictated by AbstractModelService.
+   *
+   * @param name the name of the service instance
+   */
+  public RenderNodeServer(final String name) {
+    super(name);
+  }
+
+  /**
+   * The default constructor as dictated by AbstractModelService.
+   */
+  public RenderNodeServer() {
+    super("RenderNodeServer");
+  }
+
+  /**
+   * Get the service generating the documents.
+   *
+   * @return the service
+   */
+  public FreeMarkerDocumentGeneratorService getService() {
+    return service;
+  }
+
+  /**
+   * Set the service generating the documents. The service is started and stopped by its owner.
+   *
+   * @param generatorService the service
+   */
+  public void setService(final FreeMarkerDocumentGeneratorService generatorService) {
+    service = generatorService;
+  }
+
+  /**
+   * Get the address the server listens on.
+   *
+   * @return the address
+   */
+  public String getBindAddress() {
+    return bindAddress;
+  }
+
+  /**
+   * Set the address the server listens on. Takes effect when the service is next started.
+   *
+   * @param address the address
+   */
+  public void setBindAddress(final String address) {
+    bindAddress = address;
+  }
+
+  /**
+   * Get the port the server is set to listen on.
+   *
+   * @return the port, zero for an ephemeral port
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Set the port the server listens on. Takes effect when the service is next started.
+   *
+   * @param portNumber the port, zero for an ephemeral port
+   */
+  public void setPort(final int portNumber) {
+    port = portNumber;
+  }
+
+  /**
+   * Get the port the server is listening on.
+   *
+   * @return the port, or zero if the server is not running
+   */
+  public int getLocalPort() {
+    ServerSocketChannel current = serverChannel;
+    return current == null ? 0 : current.socket().getLocalPort();
+  }
+
+  /**
+   * Get the number of threads processing requests.
+   *
+   * @return the thread count
+   */
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  /**
+   * Set the number of threads processing requests. Takes effect when the service is next started.
+   *
+   * @param threads the thread count
+   */
+  public void setWorkerThreads(final int threads) {
+    workerThreads = threads;
+  }
+
+  /**
+   * Get the number of requests that may wait for a worker thread.
+   *
+   * @return the request count
+   */
+  public int getRequestQueueCapacity() {
+    return requestQueueCapacity;
+  }
+
+  /**
+   * Set the number of requests that may wait for a worker thread. Requests beyond it are refused as busy and may be
+   * sent again later. Takes effect when the service is next started.
+   *
+   * @param capacity the request count
+   */
+  public void setRequestQueueCapacity(final int capacity) {
+    requestQueueCapacity = capacity;
+  }
+
+  /**
+   * Get the number of requests a connection may have in progress or waiting to be written.
+   *
+   * @return the request count
+   */
+  public int getMaxPendingResponses() {
+    return maxPendingResponses;
+  }
+
+  /**
+   * Set the number of requests a connection may have in progress or waiting to be written. The server reads no
+   * further requests from a connection that reaches it until the client has read some of its responses.
+   *
+   * @param count the request count
+   */
+  public void setMaxPendingResponses(final int count) {
+    maxPendingResponses = count;
+  }
+
+  /**
+   * Get the maximum number of client connections.
+   *
+   * @return the connection count
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Set the maximum number of client connections. Connections beyond it are closed as they are accepted.
+   *
+   * @param count the connection count
+   */
+  public void setMaxConnections(final int count) {
+    maxConnections = count;
+  }
+
+  /**
+   * Get the largest request frame accepted.
+   *
+   * @return the size in bytes
+   */
+  public int getMaxFrameSize() {
+    return maxFrameSize;
+  }
+
+  /**
+   * Set the largest request frame accepted. A client sending a larger frame is disconnected.
+   *
+   * @param size the size in bytes
+   */
+  public void setMaxFrameSize(final int size) {
+    maxFrameSize = size;
+  }
+
+  /**
+   * Get the maximum number of templates supplied as streams held for clients.
+   *
+   * @return the template count
+   */
+  public int getMaxRegisteredTemplates() {
+    return maxRegisteredTemplates;
+  }
+
+  /**
+   * Set the maximum number of templates supplied as streams held for clients. Clients send a template again if it has
+   * been discarded.
+   *
+   * @param count the template count
+   */
+  public void setMaxRegisteredTemplates(final int count) {
+    maxRegisteredTemplates = count;
+  }
+
+  /**
+   * Get the longest time in milliseconds the server waits for requests in progress when it stops.
+   *
+   * @return the time in milliseconds
+   */
+  public long getShutdownTimeout() {
+    return shutdownTimeout;
+  }
+
+  /**
+   * Set the longest time in milliseconds the server waits for requests in progress when it stops.
+   *
+   * @param timeout the time in milliseconds
+   */
+  public void setShutdownTimeout(final long timeout) {
+    shutdownTimeout = timeout;
+  }
+
+  /**
+   * Return true if clients may render templates they send with the request.
+   *
+   * @return true if enabled
+   */
+  public boolean isClientTemplatesEnabled() {
+    return clientTemplatesEnabled;
+  }
+
+  /**
+   * Set whether clients may render templates they send with the request, as the remote service does for templates
+   * supplied as streams. Off by default, since a client able to send a template can run any code the template language
+   * allows on the node.
+   *
+   * @param enabled true to accept templates from clients
+   */
+  public void setClientTemplatesEnabled(final boolean enabled) {
+    clientTemplatesEnabled = enabled;
+  }
+
+  /**
+   * Return true if clients may read, create, update and delete the service's templates.
+   *
+   * @return true if enabled
+   */
+  public boolean isTemplateChangesEnabled() {
+    return templateChangesEnabled;
+  }
+
+  /**
+   * Set whether clients may read, create, update and delete the service's templates. Off by default, since a client
+   * able to change a template can run any code the template language allows on the node, and alters the documents of
+   * every other client, and a template may hold text meant only for the documents it generates.
+   *
+   * @param enabled true to accept template changes from clients
+   */
+  public void setTemplateChangesEnabled(final boolean enabled) {
+    templateChangesEnabled = enabled;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean doStart() {
+    boolean result = service != null;
+    if (!result) {
+      LOG.error("A document generator service is required to start a render node");
+    }
+    if (result) {
+      try {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(bindAddress, port));
+        serverChannel.configureBlocking(false);
+        acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+      } catch (IOException ex) {
+        LOG.error("Failed to listen on " + bindAddress + ":" + port, ex);
+        closeChannels();
+        result = false;
+      }
+    }
+    if (result) {
+      final AtomicInteger count = new AtomicInteger();
+      int threads = Math.max(1, workerThreads);
+      workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(Math.max(1, requestQueueCapacity)), runnable -> {
+                Thread thread = new Thread(runnable, "freemarker-render-node-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              });
+      connectionCount = 0;
+      acceptResumeTime = 0;
+      selectorThread = new Thread(this::select, "freemarker-render-node-selector");
+      selectorThread.setDaemon(true);
+      selectorThread.start();
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Render node listening on " + bindAddress + ":" + getLocalPort());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean doStop() {
+    ExecutorService currentWorkers = workers;
+    workers = null;
+    if (currentWorkers != null) {
+      currentWorkers.shutdown();
+      try {
+        if (!currentWorkers.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+          currentWorkers.shutdownNow();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        currentWorkers.shutdownNow();
+      }
+    }
+    closeChannels();
+    if (selectorThread != null) {
+      try {
+        selectorThread.join(shutdownTimeout);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      selectorThread = null;
+    }
+    handles.clear();
+    handleIds.clear();
+    synchronized (registeredTemplates) {
+      registeredTemplates.clear();
+    }
+    return true;
+  }
+
+  /**
+   * Close the selector, the listening channel and the client connections.
+   */
+  private void closeChannels() {
+    Selector currentSelector = selector;
+    selector = null;
+    if (currentSelector != null) {
+      try {
+        for (SelectionKey key : currentSelector.keys()) {
+          key.channel().close();
+        }
+        currentSelector.close();
+      } catch (IOException | ClosedSelectorException ex) {
+        LOG.debug("Failed to close the render node selector", ex);
+      }
+    }
+    ServerSocketChannel currentChannel = serverChannel;
+    serverChannel = null;
+    if (currentChannel != null) {
+      try {
+        currentChannel.close();
+      } catch (IOException ex) {
+        LOG.debug("Failed to close the render node channel", ex);
+      }
+    }
+  }
+
+  /**
+   * Accept connections, read requests and write responses until the selector is closed. A failure on one connection
+   * closes that connection only.
+   */
+  private void select() {
+    Selector current = selector;
+    try {
+      while (current.isOpen()) {
+        current.select(acceptResumeTime == 0 ? 0 : Math.max(1, acceptResumeTime - System.currentTimeMillis()));
+        if (acceptResumeTime != 0 && System.currentTimeMillis() >= acceptResumeTime && acceptKey.isValid()) {
+          acceptResumeTime = 0;
+          acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+        for (ClientConnection connection = writable.poll(); connection != null; connection = writable.poll()) {
+          connection.updateInterest();
+        }
+        for (SelectionKey key : current.selectedKeys()) {
+          handle(current, key);
+        }
+        current.selectedKeys().clear();
+      }
+    } catch (IOException | ClosedSelectorException ex) {
+      if (current.isOpen()) {
+        LOG.error("The render node selector failed", ex);
+      }
+    }
+  }
+
+  /**
+   * Handle a selected key, closing its connection if it fails.
+   *
+   * @param current the selector
+   * @param key the selected key
+   */
+  private void handle(final Selector current, final SelectionKey key) {
+    try {
+      if (key.isValid() && key.isAcceptable()) {
+        accept(current);
+      }
+      if (key.isValid() && key.isReadable()) {
+        ((ClientConnection) key.attachment()).read();
+      }
+      if (key.isValid() && key.isWritable()) {
+        ((ClientConnection) key.attachment()).write();
+      }
+    } catch (RuntimeException ex) {
+      LOG.error("A render node connection failed", ex);
+      if (key.attachment() instanceof ClientConnection) {
+        ((ClientConnection) key.attachment()).close();
+      }
+    }
+  }
+
+  /**
+   * Accept a client connection. If accepting fails, for example because the process has run out of file
+   * descriptors, no connections are accepted for a while; connections beyond the maximum are closed at once.
+   *
+   * @param current the selector
+   */
+  private void accept(final Selector current) {
+    SocketChannel channel = null;
+    try {
+      channel = serverChannel.accept();
+    } catch (IOException ex) {
+      LOG.warn("Failed to accept a render node connection, retrying in " + ACCEPT_RETRY_DELAY + " ms", ex);
+      acceptKey.interestOps(0);
+      acceptResumeTime = System.currentTimeMillis() + ACCEPT_RETRY_DELAY;
+    }
+    if (channel != null && connectionCount >= maxConnections) {
+      LOG.warn("Refused a render node connection, " + connectionCount + " connections are open");
+      closeChannel(channel);
+    } else if (channel != null) {
+      try {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(current, SelectionKey.OP_READ);
+        key.attach(new ClientConnection(channel, key));
+        connectionCount++;
+      } catch (IOException ex) {
+        LOG.warn("Failed to register a render node connection", ex);
+        closeChannel(channel);
+      }
+    }
+  }
+
+  /**
+   * Close a client channel.
+   *
+   * @param channel the channel
+   */
+  private static void closeChannel(final SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      LOG.debug("Failed to close a render node connection", ex);
+    }
+  }
+
+  /**
+   * Process a request and build the response.
+   *
+   * @param request the request
+   * @return the response frame
+   */
+  private ByteBuffer process(final RenderProtocol.Frame request) {
+    byte type = RenderProtocol.OK;
+    byte[] body = new byte[0];
+    try {
+      RenderProtocol.BodyReader reader = new RenderProtocol.BodyReader(request.getBody());
+      byte[] document = null;
+      RenderLimits limits;
+      switch (request.getType()) {
+        case RenderProtocol.GENERATE:
+          String templatePath = checkTemplatePath(reader.readString());
+          limits = reader.readLimits();
+          document = service.generate(templatePath, reader.readData(), limits);
+          break;
+        case RenderProtocol.OPEN_HANDLE:
+          int handleId = openHandle(checkTemplatePath(reader.readString()));
+          document = new RenderProtocol.BodyWriter().writeInt(handleId).toByteArray();
+          break;
+        case RenderProtocol.GENERATE_HANDLE:
+          TemplateHandle handle = handles.get(reader.readInt());
+          limits = reader.readLimits();
+          if (handle != null) {
+            document = handle.generate(reader.readData(), limits);
+          } else {
+            type = RenderProtocol.UNKNOWN_TEMPLATE;
+          }
+          break;
+        case RenderProtocol.GENERATE_CONTENT:
+          checkEnabled(clientTemplatesEnabled, "Templates sent by clients");
+          byte[] content = getRegisteredTemplate(reader.readString());
+          if (content != null) {
+            document = service.generate(new ByteArrayInputStream(content), reader.readData());
+          } else {
+            type = RenderProtocol.UNKNOWN_TEMPLATE;
+          }
+          break;
+        case RenderProtocol.REGISTER_CONTENT:
+          checkEnabled(clientTemplatesEnabled, "Templates sent by clients");
+          registerTemplate(reader.readString(), reader.readBytes());
+          break;
+        case RenderProtocol.GET_TEMPLATE:
+          checkEnabled(templateChangesEnabled, "Template reads");
+          document = service.getTemplate(checkTemplatePath(reader.readString())).getBytes(StandardCharsets.UTF_8);
+          break;
+        case RenderProtocol.CREATE_TEMPLATE:
+          checkEnabled(templateChangesEnabled, "Template changes");
+          service.createTemplate(checkTemplatePath(reader.readString()), reader.readString());
+          break;
+        case RenderProtocol.UPDATE_TEMPLATE:
+          checkEnabled(templateChangesEnabled, "Template changes");
+          service.updateTemplate(checkTemplatePath(reader.readString()), reader.readString());
+          break;
+        case RenderProtocol.DELETE_TEMPLATE:
+          checkEnabled(templateChangesEnabled, "Template changes");
+          service.deleteTemplate(checkTemplatePath(reader.readString()));
+          break;
+        default:
+          throw new UnsupportedOperationException("Unknown render request type " + request.getType());
+      }
+      if (document != null) {
+        type = RenderProtocol.RESULT;
+        body = new RenderProtocol.BodyWriter().writeBytes(document).toByteArray();
+      }
+    } catch (RuntimeException ex) {
+      LOG.debug("A render request failed", ex);
+      type = RenderProtocol.ERROR;
+      body = RenderProtocol.encodeError(ex);
+    } catch (Throwable ex) {
+      LOG.error("A render request failed", ex);
+      type = RenderProtocol.ERROR;
+      body = RenderProtocol.encodeError(ex);
+    }
+    return RenderProtocol.frame(type, request.getRequestId(), body);
+  }
+
+  /**
+   * Refuse a request that has not been enabled on this render node.
+   *
+   * @param enabled true if the request is enabled
+   * @param description the description of the request
+   */
+  private static void checkEnabled(final boolean enabled, final String description) {
+    if (!enabled) {
+      throw new UnsupportedOperationException(description + " are not enabled on this render node");
+    }
+  }
+
+  /**
+   * Refuse a template path from a client that is absolute or leads out of the service's templates, whatever store the
+   * service uses.
+   *
+   * @param templatePath the template path
+   * @return the template path
+   */
+  private static String checkTemplatePath(final String templatePath) {
+    if (!FileSystemTemplateStore.isContained(templatePath)) {
+      throw new IllegalArgumentException("The template path " + templatePath + " is not allowed on this render node");
+    }
+    return templatePath;
+  }
+
+  /**
+   * Open a template handle for a client, reusing the handle already opened for the template path.
+   *
+   * @param templatePath the template path
+   * @return the handle id
+   */
+  private int openHandle(final String templatePath) {
+    Integer result = handleIds.get(templatePath);
+    if (result == null) {
+      TemplateHandle handle = service.getTemplateHandle(templatePath);
+      synchronized (handleIds) {
+        result = handleIds.get(templatePath);
+        if (result == null) {
+          result = nextHandleId.incrementAndGet();
+          handles.put(result, handle);
+          handleIds.put(templatePath, result);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Hold a template supplied as a stream for later requests.
+   *
+   * @param contentId the content id the client computed
+   * @param content the template content
+   */
+  private void registerTemplate(final String contentId, final byte[] content) {
+    if (!ContentHash.key(content, 0, content.length).equals(contentId)) {
+      throw new IllegalArgumentException("The template content does not match its id " + contentId);
+    }
+    synchronized (registeredTemplates) {
+      registeredTemplates.put(contentId, content);
+    }
+  }
+
+  /**
+   * Return a template supplied as a stream.
+   *
+   * @param contentId the content id
+   * @return the template content, or null if not held
+   */
+  private byte[] getRegisteredTemplate(final String contentId) {
+    synchronized (registeredTemplates) {
+      return registeredTemplates.get(contentId);
+    }
+  }
+
+  /**
+   * The <tt>ClientConnection</tt> class holds the state of a client connection: the bytes read and not yet framed,
+   * and the responses waiting to be written. Only the selector thread reads and writes the channel and changes its
+   * interest in the channel.
+   */
+  private final class ClientConnection {
+
+    /** The client channel. */
+    private final SocketChannel channel;
+    /** The selection key of the channel. */
+    private final SelectionKey key;
+    /** The responses waiting to be written, in the order they completed. */
+    private final Deque<ByteBuffer> responses = new ArrayDeque<>();
+    /** The bytes read and not yet framed. */
+    private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    /** The number of requests dispatched whose responses have not been written, used by the selector thread only. */
+    private int pending;
+    /** True once the connection is closed. */
+    private boolean closed;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param clientChannel the client channel
+     * @param selectionKey the selection key of the channel
+     */
+    ClientConnection(final SocketChannel clientChannel, final SelectionKey selectionKey) {
+      channel = clientChannel;
+      key = selectionKey;
+    }
+
+    /**
+     * Read from the channel and dispatch the complete requests to the workers.
+     */
+    void read() {
+      try {
+        if (channel.read(input) < 0) {
+          close();
+        } else {
+          dispatchRequests();
+        }
+      } catch (IOException ex) {
+        LOG.warn("Closing a render node connection", ex);
+        close();
+      }
+    }
+
+    /**
+     * Write waiting responses until the channel will take no more, then dispatch any requests held back while too
+     * many responses were outstanding.
+     */
+    void write() {
+      try {
+        synchronized (responses) {
+          while (!responses.isEmpty()) {
+            ByteBuffer response = responses.peek();
+            channel.write(response);
+            if (response.hasRemaining()) {
+              break;
+            }
+            responses.poll();
+            pending--;
+          }
+        }
+        if (input.position() > 0 && pending < maxPendingResponses) {
+          dispatchRequests();
+        } else {
+          updateInterest();
+        }
+      } catch (IOException ex) {
+        LOG.debug("Closing a render node connection", ex);
+        close();
+      }
+    }
+
+    /**
+     * Read requests while the connection has fewer responses outstanding than allowed, and write while responses are
+     * waiting.
+     */
+    void updateInterest() {
+      if (key.isValid()) {
+        int ops = pending < maxPendingResponses ? SelectionKey.OP_READ : 0;
+        synchronized (responses) {
+          if (!responses.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+          }
+        }
+        key.interestOps(ops);
+      }
+    }
+
+    /**
+     * Dispatch the complete requests read, until the connection has as many responses outstanding as allowed.
+     *
+     * @throws IOException if a client sent a frame that is too small or too large
+     */
+    private void dispatchRequests() throws IOException {
+      input.flip();
+      boolean complete = true;
+      while (complete && pending < maxPendingResponses && input.remaining() >= RenderProtocol.LENGTH_SIZE) {
+        int length = input.getInt(input.position());
+        if (length < RenderProtocol.HEADER_SIZE || length > maxFrameSize) {
+          throw new IOException("A client sent a frame of " + length + " bytes");
+        }
+        complete = input.remaining() >= RenderProtocol.LENGTH_SIZE + length;
+        if (complete) {
+          input.position(input.position() + RenderProtocol.LENGTH_SIZE);
+          dispatch(RenderProtocol.readFrame(input, length));
+        } else if (RenderProtocol.LENGTH_SIZE + length > input.capacity()) {
+          ByteBuffer larger = ByteBuffer.allocate(RenderProtocol.LENGTH_SIZE + length);
+          larger.put(input);
+          larger.flip();
+          input = larger;
+        }
+      }
+      input.compact();
+      if (input.capacity() > READ_BUFFER_SIZE && input.position() == 0) {
+        input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      }
+      updateInterest();
+    }
+
+    /**
+     * Process a request on a worker thread and queue its response. A request the workers have no room for is
+     * answered as busy.
+     *
+     * @param request the request
+     */
+    private void dispatch(final RenderProtocol.Frame request) {
+      pending++;
+      ExecutorService current = workers;
+      try {
+        if (current == null) {
+          throw new RejectedExecutionException("The render node is stopping");
+        }
+        current.execute(() -> respond(process(request)));
+      } catch (RejectedExecutionException ex) {
+        if (current == null || current.isShutdown()) {
+          respond(RenderProtocol.frame(RenderProtocol.ERROR, request.getRequestId(),
+                  RenderProtocol.encodeError(new IllegalStateException("The render node is stopping", ex))));
+        } else {
+          respond(RenderProtocol.frame(RenderProtocol.BUSY, request.getRequestId(), new byte[0]));
+        }
+      }
+    }
+
+    /**
+     * Queue a response and wake the selector to write it.
+     *
+     * @param response the response frame
+     */
+    private void respond(final ByteBuffer response) {
+      synchronized (responses) {
+        responses.add(response);
+      }
+      writable.add(this);
+      Selector current = selector;
+      if (current != null) {
+        current.wakeup();
+      }
+    }
+
+    /**
+     * Close the connection.
+     */
+    void close() {
+      if (!closed) {
+        closed = true;
+        connectionCount--;
+      }
+      key.cancel();
+      closeChannel(channel);
+    }
+  }
+}
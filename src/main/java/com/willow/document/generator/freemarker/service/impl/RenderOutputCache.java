@@ -0,0 +1,343 @@
+/*
+ *   File      : RenderOutputCache.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.document.generator.freemarker.service.RenderLimits;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * The <tt>RenderOutputCache</tt> class caches generated documents, keyed by the compiled template, the render limits
+ * and a fingerprint of the data they were generated from, so a document is only served to callers whose limits it was
+ * generated under, and only they share a render that exceeds the limits. The cache is bounded by the total size of the documents and evicts the least
+ * recently used documents first, and documents older than the time to live are generated again. Concurrent misses on
+ * the same key share a single render. A document is only served for the compiled template that generated it, so a
+ * template that is recompiled for any reason generates its documents again.
+ */
+final class RenderOutputCache {
+
+  /**
+   * The <tt>Renderer</tt> interface generates a document on a cache miss.
+   */
+  interface Renderer {
+
+    /**
+     * Generate the document.
+     *
+     * @return the document
+     */
+    byte[] render();
+  }
+
+  /** The cached documents. */
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  /** The renders in progress, used so that concurrent misses on a key share a single render. */
+  private final ConcurrentMap<String, FutureTask<byte[]>> rendering = new ConcurrentHashMap<>();
+  /** The logical clock used to order accesses for LRU eviction. */
+  private final AtomicLong clock = new AtomicLong();
+  /** The number of invalidations, used to discard renders that overlap an invalidation. */
+  private final AtomicLong generation = new AtomicLong();
+  /** The total size of the cached documents. */
+  private final AtomicLong size = new AtomicLong();
+  /** The lock used to serialise eviction. */
+  private final Object evictionLock = new Object();
+  /** The number of requests served from the cache. */
+  private final LongAdder hits = new LongAdder();
+  /** The number of requests that required a render. */
+  private final LongAdder misses = new LongAdder();
+  /** The maximum total size of the documents held. */
+  private final long maxSize;
+  /** The time in milliseconds a document is served for, zero or negative for no limit. */
+  private final long timeToLive;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param maximumSize the maximum total size of the documents held, in bytes
+   * @param ttl the time in milliseconds a document is served for, zero or negative for no limit
+   */
+  RenderOutputCache(final long maximumSize, final long ttl) {
+    maxSize = maximumSize;
+    timeToLive = ttl;
+  }
+
+  /**
+   * Return a document, generating it if it is not cached for the compiled template, limits and data.
+   *
+   * @param compiled the compiled template
+   * @param limits the render limits the document is generated under, or null
+   * @param fingerprint the fingerprint of the template data
+   * @param renderer the renderer of the document
+   * @return a copy of the document, which the caller may change
+   */
+  byte[] get(final CompiledTemplate compiled, final RenderLimits limits, final String fingerprint,
+             final Renderer renderer) {
+    String key = compiled.getKey() + '\n' + compiled.getVersion() + '\n' + getLimitsKey(limits) + '\n' + fingerprint;
+    Entry entry = entries.get(key);
+    byte[] result;
+    if (entry != null && entry.compiled == compiled && !entry.isExpired(System.currentTimeMillis())) {
+      hits.increment();
+      entry.lastAccessed = clock.incrementAndGet();
+      result = entry.output;
+    } else {
+      misses.increment();
+      result = render(key, compiled, renderer);
+    }
+    return result.clone();
+  }
+
+  /**
+   * Describe the limits in force for a cache key.
+   *
+   * @param limits the render limits, or null
+   * @return the description, the same for limits with the same effect
+   */
+  private static String getLimitsKey(final RenderLimits limits) {
+    String result = "";
+    if (limits != null && limits.isLimited()) {
+      result = getLimitKey(limits.getMaxRenderMillis()) + ',' + getLimitKey(limits.getMaxOutputBytes()) + ','
+              + getLimitKey(limits.getMaxLoopIterations());
+    }
+    return result;
+  }
+
+  /**
+   * Describe a limit for a cache key.
+   *
+   * @param limit the limit, or null
+   * @return the limit if it is in force, otherwise an empty string
+   */
+  private static String getLimitKey(final Long limit) {
+    return limit != null && limit > 0 ? limit.toString() : "";
+  }
+
+  /**
+   * Remove the documents generated from a template.
+   *
+   * @param templateKey the cache key of the compiled template
+   */
+  void invalidate(final String templateKey) {
+    generation.incrementAndGet();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (entry.getValue().compiled.getKey().equals(templateKey)) {
+        remove(entry);
+      }
+    }
+  }
+
+  /**
+   * Remove every document.
+   */
+  void clear() {
+    generation.incrementAndGet();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      remove(entry);
+    }
+  }
+
+  /**
+   * Get the number of documents held.
+   *
+   * @return the entry count
+   */
+  int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Get the total size of the documents held.
+   *
+   * @return the size in bytes
+   */
+  long getSize() {
+    return size.get();
+  }
+
+  /**
+   * Get the number of requests served from the cache.
+   *
+   * @return the hit count
+   */
+  long getHitCount() {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of requests that required a render.
+   *
+   * @return the miss count
+   */
+  long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Generate a document, sharing the render with any concurrent callers for the same key.
+   *
+   * @param key the cache key
+   * @param compiled the compiled template
+   * @param renderer the renderer of the document
+   * @return the document
+   */
+  private byte[] render(final String key, final CompiledTemplate compiled, final Renderer renderer) {
+    final long renderGeneration = generation.get();
+    FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return renderer.render();
+      }
+    });
+    FutureTask<byte[]> existing = rendering.putIfAbsent(key, task);
+    if (existing != null) {
+      return await(existing);
+    }
+    try {
+      task.run();
+      byte[] result = await(task);
+      if (generation.get() == renderGeneration && result.length <= maxSize) {
+        install(key, new Entry(compiled, result, System.currentTimeMillis(), clock.incrementAndGet()));
+      }
+      return result;
+    } finally {
+      rendering.remove(key, task);
+    }
+  }
+
+  /**
+   * Wait for a render to complete.
+   *
+   * @param task the render
+   * @return the document
+   */
+  private static byte[] await(final FutureTask<byte[]> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IllegalStateException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Add a generated document to the cache and evict documents if the bound is exceeded.
+   *
+   * @param key the cache key
+   * @param entry the document
+   */
+  private void install(final String key, final Entry entry) {
+    Entry previous = entries.put(key, entry);
+    size.addAndGet(entry.output.length);
+    if (previous != null) {
+      size.addAndGet(-previous.output.length);
+    }
+    if (size.get() > maxSize) {
+      evict();
+    }
+  }
+
+  /**
+   * Remove the expired documents, then the least recently used documents until the cache is within its bound.
+   */
+  private void evict() {
+    synchronized (evictionLock) {
+      long now = System.currentTimeMillis();
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        if (entry.getValue().isExpired(now)) {
+          remove(entry);
+        }
+      }
+      while (!entries.isEmpty() && size.get() > maxSize) {
+        Map.Entry<String, Entry> oldest = null;
+        for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+          if (oldest == null || candidate.getValue().lastAccessed < oldest.getValue().lastAccessed) {
+            oldest = candidate;
+          }
+        }
+        if (oldest != null) {
+          remove(oldest);
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove a document unless it has already been replaced, and account for its size.
+   *
+   * @param entry the key and document
+   */
+  private void remove(final Map.Entry<String, Entry> entry) {
+    if (entries.remove(entry.getKey(), entry.getValue())) {
+      size.addAndGet(-entry.getValue().output.length);
+    }
+  }
+
+  /**
+   * The <tt>Entry</tt> class is a cached document.
+   */
+  private final class Entry {
+
+    /** The compiled template that generated the document. */
+    private final CompiledTemplate compiled;
+    /** The document, not changed after construction. */
+    private final byte[] output;
+    /** The time the document was generated. */
+    private final long created;
+    /** The cache clock value of the most recent access, used for LRU eviction. */
+    private volatile long lastAccessed;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param template the compiled template that generated the document
+     * @param document the document
+     * @param time the time the document was generated
+     * @param accessed the cache clock value of the access
+     */
+    Entry(final CompiledTemplate template, final byte[] document, final long time, final long accessed) {
+      compiled = template;
+      output = document;
+      created = time;
+      lastAccessed = accessed;
+    }
+
+    /**
+     * Return true if the document is older than the time to live.
+     *
+     * @param now the current time
+     * @return true if expired
+     */
+    boolean isExpired(final long now) {
+      return timeToLive > 0 && now - created >= timeToLive;
+    }
+  }
+}
@@ -0,0 +1,771 @@
+/*
+ *   File      : RenderProtocol.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.common.document.generator.service.DocumentGenerationException;
+import com.willow.document.generator.freemarker.service.RenderLimitExceededException;
+import com.willow.document.generator.freemarker.service.RenderLimits;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * The <tt>RenderProtocol</tt> class defines the binary protocol spoken between a
+ * <tt>RemoteFreeMarkerDocumentGeneratorService</tt> and a <tt>RenderNodeServer</tt>. Every message is a frame made of
+ * a four byte length, a one byte type, a four byte request id and a body. Requests on a connection may be pipelined,
+ * and each response carries the id of its request, so responses may arrive in any order.
+ *
+ * <p>Templates are referenced without resending their text: a template handle by the id the server assigned when the
+ * handle was created, and a template supplied as a stream by a hash of its content, registered with the server the
+ * first time the server does not recognise it. Template data is encoded as a tree of maps, collections, strings,
+ * numbers, booleans, characters and dates.</p>
+ */
+final class RenderProtocol {
+
+  /** The size of the frame length. */
+  static final int LENGTH_SIZE = 4;
+  /** The size of the frame type and request id. */
+  static final int HEADER_SIZE = 5;
+  /** The default largest frame accepted, in bytes. */
+  static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+  /** Generate a document from a template path: path, limits, data. */
+  static final byte GENERATE = 1;
+  /** Create a handle for a template path: path. */
+  static final byte OPEN_HANDLE = 2;
+  /** Generate a document from a template handle: handle id, limits, data. */
+  static final byte GENERATE_HANDLE = 3;
+  /** Generate a document from a registered template: content id, data. */
+  static final byte GENERATE_CONTENT = 4;
+  /** Register a template supplied as a stream: content id, content. */
+  static final byte REGISTER_CONTENT = 5;
+  /** Read a template: path. */
+  static final byte GET_TEMPLATE = 6;
+  /** Create a template: path, content. */
+  static final byte CREATE_TEMPLATE = 7;
+  /** Update a template: path, content. */
+  static final byte UPDATE_TEMPLATE = 8;
+  /** Delete a template: path. */
+  static final byte DELETE_TEMPLATE = 9;
+
+  /** A successful response with no body. */
+  static final byte OK = 64;
+  /** A successful response carrying a document, template text or handle id. */
+  static final byte RESULT = 65;
+  /** The handle id or content id in the request is not known to the server. */
+  static final byte UNKNOWN_TEMPLATE = 66;
+  /** The request failed: error kind, message, and for an exceeded limit the limit and its value. */
+  static final byte ERROR = 67;
+  /** The server is too busy to accept the request, which may be sent again later. */
+  static final byte BUSY = 68;
+
+  /** An error reported as a DocumentGenerationException. */
+  private static final byte ERROR_GENERATION = 0;
+  /** An error reported as a RenderLimitExceededException. */
+  private static final byte ERROR_LIMIT = 1;
+  /** An error reported as an IllegalArgumentException. */
+  private static final byte ERROR_ARGUMENT = 2;
+  /** An error reported as an IllegalStateException. */
+  private static final byte ERROR_STATE = 3;
+  /** An error reported as an UnsupportedOperationException. */
+  private static final byte ERROR_UNSUPPORTED = 4;
+
+  /** The tag of a null value. */
+  private static final byte NULL = 0;
+  /** The tag of a string. */
+  private static final byte STRING = 1;
+  /** The tag of true. */
+  private static final byte TRUE = 2;
+  /** The tag of false. */
+  private static final byte FALSE = 3;
+  /** The tag of an integer. */
+  private static final byte INTEGER = 4;
+  /** The tag of a long. */
+  private static final byte LONG = 5;
+  /** The tag of a double. */
+  private static final byte DOUBLE = 6;
+  /** The tag of a float. */
+  private static final byte FLOAT = 7;
+  /** The tag of a short. */
+  private static final byte SHORT = 8;
+  /** The tag of a byte. */
+  private static final byte BYTE = 9;
+  /** The tag of a big decimal. */
+  private static final byte BIG_DECIMAL = 10;
+  /** The tag of a big integer. */
+  private static final byte BIG_INTEGER = 11;
+  /** The tag of a character. */
+  private static final byte CHARACTER = 12;
+  /** The tag of a date and time. */
+  private static final byte DATE = 13;
+  /** The tag of a SQL date. */
+  private static final byte SQL_DATE = 14;
+  /** The tag of a SQL time. */
+  private static final byte SQL_TIME = 15;
+  /** The tag of a SQL timestamp. */
+  private static final byte SQL_TIMESTAMP = 16;
+  /** The tag of a map, which is decoded keeping its order. */
+  private static final byte MAP = 17;
+  /** The tag of a list. */
+  private static final byte LIST = 18;
+  /** The tag of a collection that is not a list, which is decoded as a set keeping its order. */
+  private static final byte SET = 19;
+
+  /** The deepest nesting of maps and collections encoded or decoded, deeper data is assumed to be cyclic. */
+  private static final int MAX_DEPTH = 64;
+
+  /**
+   * Hidden constructor for a utility class.
+   */
+  private RenderProtocol() {
+  }
+
+  /**
+   * Build a frame ready to be written.
+   *
+   * @param type the message type
+   * @param requestId the request id
+   * @param body the body
+   * @return the frame, positioned at its start
+   */
+  static ByteBuffer frame(final byte type, final int requestId, final byte[] body) {
+    ByteBuffer result = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE + body.length);
+    result.putInt(HEADER_SIZE + body.length).put(type).putInt(requestId).put(body);
+    result.flip();
+    return result;
+  }
+
+  /**
+   * Read a frame from its length onwards.
+   *
+   * @param buffer the bytes following the frame length, positioned at the type
+   * @param length the frame length
+   * @return the frame
+   */
+  static Frame readFrame(final ByteBuffer buffer, final int length) {
+    byte type = buffer.get();
+    int requestId = buffer.getInt();
+    byte[] body = new byte[length - HEADER_SIZE];
+    buffer.get(body);
+    return new Frame(type, requestId, body);
+  }
+
+  /**
+   * Build the body of an error response describing an exception.
+   *
+   * @param ex the exception
+   * @return the body
+   */
+  static byte[] encodeError(final Throwable ex) {
+    BodyWriter result = new BodyWriter();
+    if (ex instanceof RenderLimitExceededException) {
+      RenderLimitExceededException limitException = (RenderLimitExceededException) ex;
+      result.writeByte(ERROR_LIMIT);
+      result.writeString(String.valueOf(ex.getMessage()));
+      result.writeString(limitException.getLimit().name());
+      result.writeLong(limitException.getValue());
+    } else {
+      byte kind = ERROR_GENERATION;
+      if (ex instanceof IllegalArgumentException) {
+        kind = ERROR_ARGUMENT;
+      } else if (ex instanceof IllegalStateException) {
+        kind = ERROR_STATE;
+      } else if (ex instanceof UnsupportedOperationException) {
+        kind = ERROR_UNSUPPORTED;
+      }
+      result.writeByte(kind);
+      result.writeString(describe(ex));
+    }
+    return result.toByteArray();
+  }
+
+  /**
+   * Rebuild the exception described by the body of an error response.
+   *
+   * @param body the body
+   * @return the exception
+   */
+  static RuntimeException decodeError(final byte[] body) {
+    RuntimeException result;
+    BodyReader reader = new BodyReader(body);
+    byte kind = reader.readByte();
+    String message = reader.readString();
+    if (kind == ERROR_LIMIT) {
+      result = new RenderLimitExceededException(RenderLimitExceededException.Limit.valueOf(reader.readString()),
+              reader.readLong());
+    } else if (kind == ERROR_ARGUMENT) {
+      result = new IllegalArgumentException(message);
+    } else if (kind == ERROR_STATE) {
+      result = new IllegalStateException(message);
+    } else if (kind == ERROR_UNSUPPORTED) {
+      result = new UnsupportedOperationException(message);
+    } else {
+      result = new DocumentGenerationException(message, null);
+    }
+    return result;
+  }
+
+  /**
+   * Describe an exception and its causes, since the causes cannot be sent.
+   *
+   * @param ex the exception
+   * @return the description
+   */
+  private static String describe(final Throwable ex) {
+    StringBuilder result = new StringBuilder(message(ex));
+    for (Throwable cause = ex.getCause(); cause != null && cause != cause.getCause(); cause = cause.getCause()) {
+      result.append(": ").append(message(cause));
+    }
+    return result.toString();
+  }
+
+  /**
+   * Return the message of an exception, or its class name if it has none.
+   *
+   * @param ex the exception
+   * @return the message
+   */
+  private static String message(final Throwable ex) {
+    return ex.getMessage() != null ? ex.getMessage() : ex.getClass().getName();
+  }
+
+  /**
+   * The <tt>Frame</tt> class is a message received.
+   */
+  static final class Frame {
+
+    /** The message type. */
+    private final byte type;
+    /** The request id. */
+    private final int requestId;
+    /** The body. */
+    private final byte[] body;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param messageType the message type
+     * @param id the request id
+     * @param messageBody the body
+     */
+    Frame(final byte messageType, final int id, final byte[] messageBody) {
+      type = messageType;
+      requestId = id;
+      body = messageBody;
+    }
+
+    /**
+     * Get the message type.
+     *
+     * @return the type
+     */
+    byte getType() {
+      return type;
+    }
+
+    /**
+     * Get the request id.
+     *
+     * @return the id
+     */
+    int getRequestId() {
+      return requestId;
+    }
+
+    /**
+     * Get the body.
+     *
+     * @return the body
+     */
+    byte[] getBody() {
+      return body;
+    }
+  }
+
+  /**
+   * The <tt>BodyWriter</tt> class encodes the body of a message.
+   */
+  static final class BodyWriter {
+
+    /** The encoded bytes. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    /** The encoder. */
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * Write a byte.
+     *
+     * @param value the byte
+     * @return this writer
+     */
+    BodyWriter writeByte(final int value) {
+      try {
+        out.writeByte(value);
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+      return this;
+    }
+
+    /**
+     * Write an int.
+     *
+     * @param value the int
+     * @return this writer
+     */
+    BodyWriter writeInt(final int value) {
+      try {
+        out.writeInt(value);
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+      return this;
+    }
+
+    /**
+     * Write a long.
+     *
+     * @param value the long
+     * @return this writer
+     */
+    BodyWriter writeLong(final long value) {
+      try {
+        out.writeLong(value);
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+      return this;
+    }
+
+    /**
+     * Write length prefixed bytes.
+     *
+     * @param value the bytes
+     * @return this writer
+     */
+    BodyWriter writeBytes(final byte[] value) {
+      writeInt(value.length);
+      try {
+        out.write(value);
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+      return this;
+    }
+
+    /**
+     * Write a string as length prefixed UTF-8.
+     *
+     * @param value the string
+     * @return this writer
+     */
+    BodyWriter writeString(final String value) {
+      return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write render limits.
+     *
+     * @param limits the limits, or null
+     * @return this writer
+     */
+    BodyWriter writeLimits(final RenderLimits limits) {
+      writeBoolean(limits != null);
+      if (limits != null) {
+        writeOptionalLong(limits.getMaxRenderMillis());
+        writeOptionalLong(limits.getMaxOutputBytes());
+        writeOptionalLong(limits.getMaxLoopIterations());
+      }
+      return this;
+    }
+
+    /**
+     * Write template data.
+     *
+     * @param value the data
+     * @return this writer
+     * @throws IllegalArgumentException if the data holds a value that cannot be encoded
+     */
+    BodyWriter writeValue(final Object value) {
+      writeValue(value, 0);
+      return this;
+    }
+
+    /**
+     * Return the encoded body.
+     *
+     * @return the bytes
+     */
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Write a boolean.
+     *
+     * @param value the boolean
+     */
+    private void writeBoolean(final boolean value) {
+      writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Write a long that may be null.
+     *
+     * @param value the long, or null
+     */
+    private void writeOptionalLong(final Long value) {
+      writeBoolean(value != null);
+      if (value != null) {
+        writeLong(value);
+      }
+    }
+
+    /**
+     * Write a tagged value and, for maps and collections, its contents.
+     *
+     * @param value the value
+     * @param depth the nesting of the value
+     */
+    private void writeValue(final Object value, final int depth) {
+      if (depth > MAX_DEPTH) {
+        throw new IllegalArgumentException("The template data is nested too deeply to send to a render node");
+      }
+      if (value == null) {
+        writeByte(NULL);
+      } else if (value instanceof String) {
+        writeByte(STRING).writeString((String) value);
+      } else if (value instanceof Boolean) {
+        writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        writeByte(INTEGER).writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        writeByte(LONG).writeLong((Long) value);
+      } else if (value instanceof Double) {
+        writeByte(DOUBLE).writeLong(Double.doubleToRawLongBits((Double) value));
+      } else if (value instanceof Float) {
+        writeByte(FLOAT).writeInt(Float.floatToRawIntBits((Float) value));
+      } else if (value instanceof Short) {
+        writeByte(SHORT).writeInt((Short) value);
+      } else if (value instanceof Byte) {
+        writeByte(BYTE).writeInt((Byte) value);
+      } else if (value instanceof BigDecimal) {
+        writeByte(BIG_DECIMAL).writeString(value.toString());
+      } else if (value instanceof BigInteger) {
+        writeByte(BIG_INTEGER).writeString(value.toString());
+      } else if (value instanceof Character) {
+        writeByte(CHARACTER).writeInt((Character) value);
+      } else if (value instanceof Date) {
+        writeDate((Date) value);
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeByte(MAP).writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          if (!(entry.getKey() instanceof String)) {
+            throw new IllegalArgumentException("Only maps with string keys can be sent to a render node");
+          }
+          writeString((String) entry.getKey());
+          writeValue(entry.getValue(), depth + 1);
+        }
+      } else if (value instanceof Collection) {
+        Collection<?> collection = (Collection<?>) value;
+        writeByte(value instanceof List ? LIST : SET).writeInt(collection.size());
+        for (Object element : collection) {
+          writeValue(element, depth + 1);
+        }
+      } else {
+        throw new IllegalArgumentException("A " + value.getClass().getName() + " cannot be sent to a render node");
+      }
+    }
+
+    /**
+     * Write a tagged date, keeping the SQL type that tells FreeMarker which parts of the date to show.
+     *
+     * @param value the date
+     */
+    private void writeDate(final Date value) {
+      byte tag = DATE;
+      if (value instanceof java.sql.Date) {
+        tag = SQL_DATE;
+      } else if (value instanceof java.sql.Time) {
+        tag = SQL_TIME;
+      } else if (value instanceof java.sql.Timestamp) {
+        tag = SQL_TIMESTAMP;
+      }
+      writeByte(tag).writeLong(value.getTime());
+    }
+  }
+
+  /**
+   * The <tt>BodyReader</tt> class decodes the body of a message.
+   */
+  static final class BodyReader {
+
+    /** The decoder. */
+    private final DataInputStream in;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param body the body
+     */
+    BodyReader(final byte[] body) {
+      in = new DataInputStream(new ByteArrayInputStream(body));
+    }
+
+    /**
+     * Read a byte.
+     *
+     * @return the byte
+     */
+    byte readByte() {
+      byte result = 0;
+      try {
+        result = in.readByte();
+      } catch (IOException ex) {
+        throwMalformed(ex);
+      }
+      return result;
+    }
+
+    /**
+     * Read an int.
+     *
+     * @return the int
+     */
+    int readInt() {
+      int result = 0;
+      try {
+        result = in.readInt();
+      } catch (IOException ex) {
+        throwMalformed(ex);
+      }
+      return result;
+    }
+
+    /**
+     * Read a long.
+     *
+     * @return the long
+     */
+    long readLong() {
+      long result = 0;
+      try {
+        result = in.readLong();
+      } catch (IOException ex) {
+        throwMalformed(ex);
+      }
+      return result;
+    }
+
+    /**
+     * Read length prefixed bytes.
+     *
+     * @return the bytes
+     */
+    byte[] readBytes() {
+      int length = readInt();
+      byte[] result = null;
+      try {
+        if (length < 0 || length > in.available()) {
+          throwMalformed(null);
+        }
+        result = new byte[length];
+        in.readFully(result);
+      } catch (IOException ex) {
+        throwMalformed(ex);
+      }
+      return result;
+    }
+
+    /**
+     * Read a length prefixed UTF-8 string.
+     *
+     * @return the string
+     */
+    String readString() {
+      return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read render limits.
+     *
+     * @return the limits, or null
+     */
+    RenderLimits readLimits() {
+      RenderLimits result = null;
+      if (readByte() != 0) {
+        result = new RenderLimits();
+        result.setMaxRenderMillis(readOptionalLong());
+        result.setMaxOutputBytes(readOptionalLong());
+        result.setMaxLoopIterations(readOptionalLong());
+      }
+      return result;
+    }
+
+    /**
+     * Read template data written as a map.
+     *
+     * @return the data, or null
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> readData() {
+      Object result = readValue(0);
+      if (result != null && !(result instanceof Map)) {
+        throwMalformed(null);
+      }
+      return (Map<String, Object>) result;
+    }
+
+    /**
+     * Read a long that may be null.
+     *
+     * @return the long, or null
+     */
+    private Long readOptionalLong() {
+      return readByte() != 0 ? readLong() : null;
+    }
+
+    /**
+     * Read a tagged value and, for maps and collections, its contents. A value nested more deeply than any writer
+     * sends is refused, so that a malformed frame cannot exhaust the stack of the reading thread.
+     *
+     * @param depth the nesting of the value
+     * @return the value
+     */
+    private Object readValue(final int depth) {
+      if (depth > MAX_DEPTH) {
+        throwMalformed(null);
+      }
+      Object result;
+      byte tag = readByte();
+      switch (tag) {
+        case NULL:
+          result = null;
+          break;
+        case STRING:
+          result = readString();
+          break;
+        case TRUE:
+          result = Boolean.TRUE;
+          break;
+        case FALSE:
+          result = Boolean.FALSE;
+          break;
+        case INTEGER:
+          result = readInt();
+          break;
+        case LONG:
+          result = readLong();
+          break;
+        case DOUBLE:
+          result = Double.longBitsToDouble(readLong());
+          break;
+        case FLOAT:
+          result = Float.intBitsToFloat(readInt());
+          break;
+        case SHORT:
+          result = (short) readInt();
+          break;
+        case BYTE:
+          result = (byte) readInt();
+          break;
+        case BIG_DECIMAL:
+          result = new BigDecimal(readString());
+          break;
+        case BIG_INTEGER:
+          result = new BigInteger(readString());
+          break;
+        case CHARACTER:
+          result = (char) readInt();
+          break;
+        case DATE:
+          result = new Date(readLong());
+          break;
+        case SQL_DATE:
+          result = new java.sql.Date(readLong());
+          break;
+        case SQL_TIME:
+          result = new java.sql.Time(readLong());
+          break;
+        case SQL_TIMESTAMP:
+          result = new java.sql.Timestamp(readLong());
+          break;
+        case MAP:
+          result = readMap(depth);
+          break;
+        case LIST:
+          result = readElements(new ArrayList<Object>(), depth);
+          break;
+        case SET:
+          result = readElements(new LinkedHashSet<Object>(), depth);
+          break;
+        default:
+          throwMalformed(null);
+          result = null;
+      }
+      return result;
+    }
+
+    /**
+     * Read the entries of a map.
+     *
+     * @param depth the nesting of the map
+     * @return the map, in the order written
+     */
+    private Map<String, Object> readMap(final int depth) {
+      int size = readInt();
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      for (int i = 0; i < size; i++) {
+        String key = readString();
+        result.put(key, readValue(depth + 1));
+      }
+      return result;
+    }
+
+    /**
+     * Read the elements of a collection.
+     *
+     * @param result the collection to add the elements to
+     * @param depth the nesting of the collection
+     * @return the collection
+     */
+    private Collection<Object> readElements(final Collection<Object> result, final int depth) {
+      int size = readInt();
+      for (int i = 0; i < size; i++) {
+        result.add(readValue(depth + 1));
+      }
+      return result;
+    }
+
+    /**
+     * Throw an exception describing a body that could not be decoded.
+     *
+     * @param cause the cause, or null
+     */
+    private static void throwMalformed(final IOException cause) {
+      throw new IllegalStateException("A malformed render message was received", cause);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ *   File      : StaticText.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import freemarker.core.TextBlock;
+import freemarker.template.Template;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>StaticText</tt> class holds the literal text of a compiled template encoded once into bytes. FreeMarker
+ * writes each literal text block as the same character array on every render, so the <tt>EncodingWriter</tt> can
+ * recognise the array by identity and copy the encoded bytes instead of encoding the characters again.
+ *
+ * <p>FreeMarker has no supported API for this: the parsed element tree is only reachable through deprecated internal
+ * API, and the array is a private field of the text block. Its public <tt>getSource</tt> and
+ * <tt>getCanonicalForm</tt> return copies, which cannot be recognised by identity. All of that access is kept in this
+ * class. If it fails, for example after a FreeMarker upgrade, the template is rendered without pre-encoding, the same
+ * as when pre-encoding is disabled on the service, and its output is unchanged.</p>
+ */
+final class StaticText {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(StaticText.class);
+
+  /** The shortest literal text worth pre-encoding, shorter text is cheaper to encode than to look up. */
+  private static final int MIN_CHARS = 8;
+  /** The field of the FreeMarker text block holding its characters, or null if it could not be found. */
+  private static final Field TEXT_FIELD = resolveTextField();
+
+  /** The charset the text is encoded in. */
+  private final Charset charset;
+  /** The encoded text, keyed by the identity of the character array FreeMarker writes. */
+  private final Map<char[], byte[]> encoded;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param textCharset the charset the text is encoded in
+   * @param encodedText the encoded text, not changed after construction
+   */
+  private StaticText(final Charset textCharset, final Map<char[], byte[]> encodedText) {
+    charset = textCharset;
+    encoded = encodedText;
+  }
+
+  /**
+   * Encode the literal text of a template.
+   *
+   * @param template the parsed template
+   * @param textCharset the charset to encode the text in
+   * @return the encoded text, or null if the template has no literal text worth pre-encoding or its text could not be
+   *         read
+   */
+  static StaticText encode(final Template template, final Charset textCharset) {
+    StaticText result = null;
+    if (TEXT_FIELD != null) {
+      try {
+        Map<char[], byte[]> encodedText = encodeTextBlocks(template, textCharset);
+        if (!encodedText.isEmpty()) {
+          result = new StaticText(textCharset, encodedText);
+        }
+      } catch (RuntimeException | LinkageError ex) {
+        LOG.warn("The literal text of template " + template.getName() + " could not be read, so it is encoded when "
+                + "rendered", ex);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the charset the text is encoded in.
+   *
+   * @return the charset
+   */
+  Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Return the encoded form of characters written by FreeMarker, if they are the whole of a literal text block.
+   *
+   * @param text the characters written
+   * @param off the offset of the first character written
+   * @param len the number of characters written
+   * @return the encoded bytes, which must not be changed, or null if the characters are not a literal text block
+   */
+  byte[] get(final char[] text, final int off, final int len) {
+    return off == 0 && len == text.length ? encoded.get(text) : null;
+  }
+
+  /**
+   * Encode the text blocks of a template. The element tree is walked through <tt>Template.getRootTreeNode</tt> and
+   * <tt>TemplateElement</tt>, which FreeMarker deprecates as internal API but offers no replacement for. The element
+   * class is named in full because Java 8 warns about importing a deprecated type even where it is suppressed.
+   *
+   * @param template the parsed template
+   * @param textCharset the charset to encode the text in
+   * @return the encoded text keyed by the identity of the characters
+   */
+  @SuppressWarnings("deprecation")
+  private static Map<char[], byte[]> encodeTextBlocks(final Template template, final Charset textCharset) {
+    Map<char[], byte[]> result = new IdentityHashMap<>();
+    Deque<freemarker.core.TemplateElement> pending = new ArrayDeque<>();
+    pending.push(template.getRootTreeNode());
+    while (!pending.isEmpty()) {
+      freemarker.core.TemplateElement node = pending.pop();
+      if (node instanceof TextBlock) {
+        char[] text = getText((TextBlock) node);
+        byte[] bytes = text != null && text.length >= MIN_CHARS ? encodeText(text, textCharset) : null;
+        if (bytes != null) {
+          result.put(text, bytes);
+        }
+      }
+      for (int i = node.getChildCount() - 1; i >= 0; i--) {
+        pending.push((freemarker.core.TemplateElement) node.getChildAt(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Encode literal text. Text that cannot be encoded exactly, such as an unpaired surrogate, is left to be encoded
+   * when rendered so that the output is unchanged.
+   *
+   * @param text the characters
+   * @param textCharset the charset
+   * @return the bytes, or null if the text cannot be encoded exactly
+   */
+  private static byte[] encodeText(final char[] text, final Charset textCharset) {
+    byte[] result = null;
+    try {
+      ByteBuffer bytes = textCharset.newEncoder().encode(CharBuffer.wrap(text));
+      result = Arrays.copyOfRange(bytes.array(), bytes.arrayOffset() + bytes.position(),
+              bytes.arrayOffset() + bytes.limit());
+    } catch (CharacterCodingException ex) {
+      LOG.debug("Literal text could not be pre-encoded in " + textCharset, ex);
+    }
+    return result;
+  }
+
+  /**
+   * Return the characters of a text block, the same array FreeMarker writes when the block is rendered.
+   *
+   * @param block the text block
+   * @return the characters, or null if they could not be read
+   */
+  static char[] getText(final TextBlock block) {
+    char[] result = null;
+    try {
+      result = TEXT_FIELD != null ? (char[]) TEXT_FIELD.get(block) : null;
+    } catch (IllegalAccessException | ClassCastException ex) {
+      LOG.debug("Could not read the text of a FreeMarker text block", ex);
+    }
+    return result;
+  }
+
+  /**
+   * Find the private field of the FreeMarker text block holding its characters, the array it writes when rendered.
+   *
+   * @return the field or null if not found or not accessible
+   */
+  private static Field resolveTextField() {
+    Field result = null;
+    try {
+      result = TextBlock.class.getDeclaredField("text");
+      result.setAccessible(true);
+    } catch (NoSuchFieldException | RuntimeException ex) {
+      LOG.warn("FreeMarker text blocks cannot be read, so literal text is encoded when rendered", ex);
+      result = null;
+    }
+    return result;
+  }
+}
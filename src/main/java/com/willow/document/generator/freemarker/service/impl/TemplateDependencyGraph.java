@@ -0,0 +1,266 @@
+/*
+ *   File      : TemplateDependencyGraph.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import freemarker.template.Template;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * The <tt>TemplateDependencyGraph</tt> class records which templates "include" or import which others, so that a
+ * change to a shared fragment only affects the templates that depend on it. The dependencies of a template are taken
+ * from its parsed form when it is compiled. A template that includes a template named by an expression rather than a
+ * string literal is treated as depending on every template.
+ */
+final class TemplateDependencyGraph {
+
+  /** The canonical form of an include or import of a template named by a string literal. */
+  private static final Pattern LITERAL_DEPENDENCY = Pattern.compile(
+          "^<#(?:include|import)\\s+([\"'])((?:[^\"'\\\\]|\\\\.)*)\\1");
+  /** The class names of the FreeMarker elements that include or import another template, which are not public. */
+  private static final Set<String> DEPENDENCY_ELEMENTS = new HashSet<String>(Arrays.asList(
+          "freemarker.core.Include", "freemarker.core.LibraryLoad"));
+
+  /** The templates each template depends on directly. */
+  private final Map<String, Set<String>> dependencies = new HashMap<>();
+  /** The templates that depend directly on each template. */
+  private final Map<String, Set<String>> dependents = new HashMap<>();
+  /** The templates whose dependencies have been recorded. */
+  private final Set<String> recorded = new HashSet<>();
+  /** The templates that include or import a template named by an expression. */
+  private final Set<String> dynamic = new HashSet<>();
+  /** The version of each template depended on, when its dependents were recorded. */
+  private final Map<String, Long> versions = new HashMap<>();
+
+  /**
+   * The <tt>Dependencies</tt> class holds the dependencies found in a parsed template.
+   */
+  static final class Dependencies {
+
+    /** The templates named by string literals, resolved to template names. */
+    private final Set<String> names = new LinkedHashSet<>();
+    /** True if a template is named by an expression. */
+    private boolean dynamic;
+
+    /**
+     * Get the templates named by string literals.
+     *
+     * @return the template names
+     */
+    Set<String> getNames() {
+      return names;
+    }
+
+    /**
+     * Determine whether a template is named by an expression.
+     *
+     * @return true if the dependencies cannot all be known
+     */
+    boolean isDynamic() {
+      return dynamic;
+    }
+  }
+
+  /**
+   * Find the templates a parsed template includes or imports. FreeMarker has no supported API to list them, so they are
+   * found by walking the deprecated element tree, which is not expected to go away within FreeMarker 2.3; the element
+   * class is named in full because Java 8 warns about importing a deprecated type even where it is suppressed.
+   *
+   * @param templateName the name the included template names are resolved against, or null for the root
+   * @param template the parsed template
+   * @return the dependencies
+   */
+  @SuppressWarnings("deprecation")
+  static Dependencies find(final String templateName, final Template template) {
+    Dependencies result = new Dependencies();
+    Deque<freemarker.core.TemplateElement> pending = new ArrayDeque<>();
+    pending.push(template.getRootTreeNode());
+    while (!pending.isEmpty()) {
+      freemarker.core.TemplateElement node = pending.pop();
+      if (DEPENDENCY_ELEMENTS.contains(node.getClass().getName())) {
+        Matcher literal = LITERAL_DEPENDENCY.matcher(node.getCanonicalForm());
+        if (literal.find()) {
+          result.names.add(resolve(templateName, literal.group(2)));
+        } else {
+          result.dynamic = true;
+        }
+      }
+      for (int i = node.getChildCount() - 1; i >= 0; i--) {
+        pending.push((freemarker.core.TemplateElement) node.getChildAt(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Resolve the name of an included template the way FreeMarker does, relative to the directory of the including
+   * template unless it starts with '/'.
+   *
+   * @param templateName the name of the including template, or null for the root
+   * @param includedName the included name
+   * @return the resolved template name
+   */
+  static String resolve(final String templateName, final String includedName) {
+    String path;
+    if (includedName.startsWith("/") || templateName == null || templateName.lastIndexOf('/') < 0) {
+      path = includedName;
+    } else {
+      path = templateName.substring(0, templateName.lastIndexOf('/') + 1) + includedName;
+    }
+    Deque<String> segments = new ArrayDeque<>();
+    for (String segment : path.split("/")) {
+      if ("..".equals(segment)) {
+        segments.pollLast();
+      } else if (!segment.isEmpty() && !".".equals(segment)) {
+        segments.addLast(segment);
+      }
+    }
+    return String.join("/", segments);
+  }
+
+  /**
+   * Record the dependencies of a template, replacing any recorded before.
+   *
+   * @param templateName the template
+   * @param found the dependencies found in the template
+   * @param foundVersions the current version of each template depended on
+   */
+  synchronized void record(final String templateName, final Dependencies found, final Map<String, Long> foundVersions) {
+    remove(templateName);
+    recorded.add(templateName);
+    if (!found.names.isEmpty()) {
+      dependencies.put(templateName, new HashSet<>(found.names));
+      for (String name : found.names) {
+        Set<String> names = dependents.get(name);
+        if (names == null) {
+          names = new HashSet<>();
+          dependents.put(name, names);
+        }
+        names.add(templateName);
+      }
+    }
+    if (found.dynamic) {
+      dynamic.add(templateName);
+    }
+    versions.putAll(foundVersions);
+  }
+
+  /**
+   * Determine whether the dependencies of a template have been recorded.
+   *
+   * @param templateName the template
+   * @return true if recorded
+   */
+  synchronized boolean isRecorded(final String templateName) {
+    return recorded.contains(templateName);
+  }
+
+  /**
+   * Forget the dependencies of a template. Templates that depend on it keep their dependency.
+   *
+   * @param templateName the template
+   */
+  synchronized void remove(final String templateName) {
+    Set<String> previous = dependencies.remove(templateName);
+    if (previous != null) {
+      for (String name : previous) {
+        Set<String> names = dependents.get(name);
+        if (names != null) {
+          names.remove(templateName);
+          if (names.isEmpty()) {
+            dependents.remove(name);
+            versions.remove(name);
+          }
+        }
+      }
+    }
+    dynamic.remove(templateName);
+    recorded.remove(templateName);
+  }
+
+  /**
+   * Forget every dependency.
+   */
+  synchronized void clear() {
+    recorded.clear();
+    dependencies.clear();
+    dependents.clear();
+    dynamic.clear();
+    versions.clear();
+  }
+
+  /**
+   * Return the templates a template includes or imports directly.
+   *
+   * @param templateName the template
+   * @return the template names
+   */
+  synchronized Set<String> getDependencies(final String templateName) {
+    Set<String> names = dependencies.get(templateName);
+    return names == null ? Collections.<String>emptySet() : new HashSet<>(names);
+  }
+
+  /**
+   * Return every template that depends on a template, directly or through other templates, including the templates
+   * whose dependencies cannot all be known.
+   *
+   * @param templateName the template
+   * @return the template names, not including the template itself
+   */
+  synchronized Set<String> getDependents(final String templateName) {
+    Set<String> result = new LinkedHashSet<>();
+    Deque<String> pending = new ArrayDeque<>();
+    pending.add(templateName);
+    while (!pending.isEmpty()) {
+      Set<String> names = dependents.get(pending.poll());
+      if (names != null) {
+        for (String name : names) {
+          if (result.add(name)) {
+            pending.add(name);
+          }
+        }
+      }
+    }
+    result.addAll(dynamic);
+    result.remove(templateName);
+    return result;
+  }
+
+  /**
+   * Return the version recorded for each template that other templates depend on.
+   *
+   * @return the versions by template name
+   */
+  synchronized Map<String, Long> getDependedOnVersions() {
+    return new HashMap<>(versions);
+  }
+
+  /**
+   * Record a new version of a template that other templates depend on.
+   *
+   * @param templateName the template
+   * @param version the version
+   */
+  synchronized void updateVersion(final String templateName, final long version) {
+    if (versions.containsKey(templateName)) {
+      versions.put(templateName, version);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *   File      : TemplateStoreLoader.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import freemarker.cache.TemplateLoader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ *
+ * The <tt>TemplateStoreLoader</tt> class adapts a template store to a FreeMarker template loader, so that templates
+ * "included" or imported by another template are read from the same store. The version reported by the store is used
+ * as the modification time.
+ */
+final class TemplateStoreLoader implements TemplateLoader {
+
+  /** The store the templates are read from. */
+  private final TemplateStore store;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param templateStore the store the templates are read from
+   */
+  TemplateStoreLoader(final TemplateStore templateStore) {
+    store = templateStore;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object findTemplateSource(final String name) throws IOException {
+    TemplateContent content = store.read(name);
+    return content == null ? null : new Source(name, content);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getLastModified(final Object templateSource) {
+    return ((Source) templateSource).content.getVersion();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Reader getReader(final Object templateSource, final String encoding) throws IOException {
+    return new InputStreamReader(new ByteArrayInputStream(((Source) templateSource).content.getContent()), encoding);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void closeTemplateSource(final Object templateSource) {
+    // The content is held in memory
+  }
+
+  /**
+   * The <tt>Source</tt> class identifies a template found in the store. Sources are equal if they have the same name
+   * and version, which FreeMarker uses to detect that a cached template is still current.
+   */
+  private static final class Source {
+
+    /** The template name. */
+    private final String name;
+    /** The template content. */
+    private final TemplateContent content;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param templateName the template name
+     * @param templateContent the template content
+     */
+    Source(final String templateName, final TemplateContent templateContent) {
+      name = templateName;
+      content = templateContent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Source && ((Source) other).name.equals(name)
+              && ((Source) other).content.getVersion() == content.getVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      return name.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
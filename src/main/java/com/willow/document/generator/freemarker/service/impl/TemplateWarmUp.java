@@ -0,0 +1,159 @@
+/*
+ *   File      : TemplateWarmUp.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>TemplateWarmUp</tt> class compiles a set of templates in parallel when the service starts, optionally
+ * rendering each one with sample data, so that the first requests after a deploy do not pay for the disk read, the
+ * parse and JIT warm-up.
+ */
+final class TemplateWarmUp {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(TemplateWarmUp.class);
+
+  /**
+   * The <tt>Task</tt> interface describes the work performed for each template.
+   */
+  interface Task {
+
+    /**
+     * Compile a template into the template cache.
+     *
+     * @param templatePath the location of the template
+     */
+    void compile(String templatePath);
+
+    /**
+     * Render a template with the sample data, discarding the output.
+     *
+     * @param templatePath the location of the template
+     */
+    void render(String templatePath);
+  }
+
+  /** The task performed for each template. */
+  private final Task task;
+  /** True if each template is rendered with the sample data after it is compiled. */
+  private final boolean render;
+  /** The number of threads used. */
+  private final int threads;
+  /** The longest time in milliseconds to wait for the warm-up to complete. */
+  private final long timeout;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param warmUpTask the task performed for each template
+   * @param renderSample true if each template is rendered with the sample data after it is compiled
+   * @param threadCount the number of threads used
+   * @param timeoutMillis the longest time in milliseconds to wait for the warm-up to complete
+   */
+  TemplateWarmUp(final Task warmUpTask, final boolean renderSample, final int threadCount,
+                 final long timeoutMillis) {
+    task = warmUpTask;
+    render = renderSample;
+    threads = Math.max(1, threadCount);
+    timeout = timeoutMillis;
+  }
+
+  /**
+   * Warm up the templates, returning when all are complete or the timeout has passed. Failures are logged and do not
+   * stop the remaining templates.
+   *
+   * @param templatePaths the locations of the templates
+   * @return true if all the templates were warmed up successfully within the timeout
+   */
+  boolean run(final Collection<String> templatePaths) {
+    Set<String> paths = new LinkedHashSet<>(templatePaths);
+    if (paths.isEmpty()) {
+      return true;
+    }
+    long start = System.nanoTime();
+    AtomicInteger failures = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, paths.size()), new WarmUpThreadFactory());
+    for (String path : paths) {
+      executor.execute(() -> warmUp(path, failures));
+    }
+    executor.shutdown();
+    boolean completed;
+    try {
+      completed = executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      completed = false;
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    if (completed) {
+      LOG.info(String.format("Warmed up %d templates in %d ms with %d failures", paths.size(), elapsed,
+              failures.get()));
+    } else {
+      LOG.warn(String.format("Template warm-up did not complete within %d ms, continuing in the background",
+              timeout));
+    }
+    return completed && failures.get() == 0;
+  }
+
+  /**
+   * Warm up a single template, logging the time taken or the failure.
+   *
+   * @param templatePath the location of the template
+   * @param failures the count of failed templates
+   */
+  private void warmUp(final String templatePath, final AtomicInteger failures) {
+    long start = System.nanoTime();
+    try {
+      task.compile(templatePath);
+      long compiled = System.nanoTime();
+      if (render) {
+        task.render(templatePath);
+      }
+      if (LOG.isInfoEnabled()) {
+        long end = System.nanoTime();
+        LOG.info(String.format("Warmed up template %s, compiled in %d ms, rendered in %d ms", templatePath,
+                TimeUnit.NANOSECONDS.toMillis(compiled - start), TimeUnit.NANOSECONDS.toMillis(end - compiled)));
+      }
+    } catch (RuntimeException ex) {
+      failures.incrementAndGet();
+      LOG.warn(String.format("Failed to warm up template %s after %d ms", templatePath,
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), ex);
+    }
+  }
+
+  /**
+   * The <tt>WarmUpThreadFactory</tt> class creates the daemon threads used for the warm-up.
+   */
+  private static final class WarmUpThreadFactory implements ThreadFactory {
+
+    /** The number of threads created. */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread result = new Thread(runnable, "freemarker-warmup-" + count.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ *   File      : TemplateWatcher.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.service.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>TemplateWatcher</tt> class watches the template base path on a single daemon thread and reports changed
+ * templates to a listener, so that cached templates do not have to be checked on every request. Where a watch service
+ * is not available, or polling is requested, the listener is asked to poll the cached templates at a fixed interval.
+ */
+final class TemplateWatcher implements Runnable {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(TemplateWatcher.class);
+  /** The longest time in milliseconds to wait for the watcher thread to finish when stopping. */
+  private static final long STOP_TIMEOUT = 5000;
+
+  /**
+   * The <tt>Listener</tt> interface describes the recipient of template changes.
+   */
+  interface Listener {
+
+    /**
+     * A template file has been created, modified or deleted.
+     *
+     * @param templatePath the location of the template relative to the base path
+     */
+    void templateChanged(String templatePath);
+
+    /**
+     * Changes may have been missed, so every template must be treated as changed.
+     */
+    void allTemplatesChanged();
+
+    /**
+     * Check the cached templates for changes. Called at the poll interval when no watch service is available.
+     */
+    void poll();
+  }
+
+  /** The base path being watched. */
+  private final Path root;
+  /** The poll interval in milliseconds. */
+  private final long pollInterval;
+  /** The recipient of template changes. */
+  private final Listener listener;
+  /** The watched directories by watch key. */
+  private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+  /** The watch service, or null when polling. */
+  private volatile WatchService watchService;
+  /** The watcher thread. */
+  private Thread thread;
+  /** True while the watcher is running. */
+  private volatile boolean running;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param basePath the base path to watch
+   * @param interval the poll interval in milliseconds
+   * @param changeListener the recipient of template changes
+   */
+  TemplateWatcher(final Path basePath, final long interval, final Listener changeListener) {
+    root = basePath;
+    pollInterval = Math.max(1, interval);
+    listener = changeListener;
+  }
+
+  /**
+   * Start watching. Falls back to polling if the base path cannot be watched.
+   *
+   * @param forcePolling true to poll even if a watch service is available
+   */
+  void start(final boolean forcePolling) {
+    if (!forcePolling) {
+      try {
+        watchService = FileSystems.getDefault().newWatchService();
+        registerAll(root);
+      } catch (IOException | UncheckedIOException | UnsupportedOperationException ex) {
+        LOG.warn("Unable to watch " + root + ", polling every " + pollInterval + " ms instead", ex);
+        closeWatchService();
+      }
+    }
+    running = true;
+    thread = new Thread(this, "freemarker-template-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stop watching and wait for the watcher thread to finish.
+   */
+  void stop() {
+    running = false;
+    closeWatchService();
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(STOP_TIMEOUT);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      thread = null;
+    }
+  }
+
+  /**
+   * Determine whether the watcher is polling rather than using a watch service.
+   *
+   * @return true if polling
+   */
+  boolean isPolling() {
+    return watchService == null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void run() {
+    while (running) {
+      try {
+        if (watchService == null) {
+          Thread.sleep(pollInterval);
+          listener.poll();
+        } else {
+          WatchKey key = watchService.poll(pollInterval, TimeUnit.MILLISECONDS);
+          if (key != null) {
+            processEvents(key);
+          }
+        }
+      } catch (InterruptedException | ClosedWatchServiceException ex) {
+        running = false;
+      } catch (RuntimeException ex) {
+        LOG.warn("Failed to process template changes", ex);
+      }
+    }
+  }
+
+  /**
+   * Report the changes described by a watch key to the listener.
+   *
+   * @param key the watch key
+   */
+  private void processEvents(final WatchKey key) {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+        listener.allTemplatesChanged();
+        continue;
+      }
+      Path changed = directory.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+        try {
+          registerAll(changed);
+        } catch (IOException | UncheckedIOException ex) {
+          LOG.warn("Unable to watch " + changed, ex);
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Template change " + event.kind().name() + " " + changed);
+      }
+      listener.templateChanged(root.relativize(changed).toString());
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  /**
+   * Register a directory and all its subdirectories with the watch service.
+   *
+   * @param start the directory
+   * @throws IOException if a directory could not be registered
+   */
+  private void registerAll(final Path start) throws IOException {
+    try (Stream<Path> paths = Files.walk(start)) {
+      for (Path directory : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+      }
+    }
+  }
+
+  /**
+   * Close the watch service, if open.
+   */
+  private void closeWatchService() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException ex) {
+        LOG.warn("Failed to close the template watch service", ex);
+      }
+      watchService = null;
+    }
+  }
+}
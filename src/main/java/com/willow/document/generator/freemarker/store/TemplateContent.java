@@ -0,0 +1,61 @@
+/*
+ *   File      : TemplateContent.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store;
+
+/**
+ *
+ * The <tt>TemplateContent</tt> class holds the content of a template read from a template store, together with the
+ * version of the content.
+ */
+public final class TemplateContent {
+
+  /** The template content. */
+  private final byte[] content;
+  /** The version of the content. */
+  private final long version;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param templateContent the template content, which is not copied
+   * @param contentVersion the version of the content
+   */
+  public TemplateContent(final byte[] templateContent, final long contentVersion) {
+    content = templateContent;
+    version = contentVersion;
+  }
+
+  /**
+   * Get the template content. The array is shared and must not be modified.
+   *
+   * @return the content
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * Get the version of the content.
+   *
+   * @return the version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Get an entity tag for the content, suitable for HTTP caching of the template.
+   *
+   * @return the quoted entity tag
+   */
+  public String getETag() {
+    return '"' + Long.toHexString(version) + '"';
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ *   File      : TemplateStore.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * The TemplateStore interface describes where the FreeMarker document generator service keeps its templates. Each
+ * template has a version that changes whenever its content changes, so that compiled templates can be revalidated
+ * without reading the content again. Template paths always use '/' as the separator.
+ */
+public interface TemplateStore {
+
+  /** The version reported for a template that does not exist. */
+  long MISSING_VERSION = Long.MIN_VALUE;
+
+  /**
+   * Return the current version of a template without reading its content.
+   *
+   * @param templatePath the template path
+   * @return the version or MISSING_VERSION if the template does not exist
+   * @throws IOException if the store could not be read
+   */
+  long getVersion(String templatePath) throws IOException;
+
+  /**
+   * Read a template.
+   *
+   * @param templatePath the template path
+   * @return the content and version of the template, or null if the template does not exist
+   * @throws IOException if the store could not be read
+   */
+  TemplateContent read(String templatePath) throws IOException;
+
+  /**
+   * Write a template.
+   *
+   * @param templatePath the template path
+   * @param content the template content
+   * @param overwrite true to replace an existing template, false to fail if the template exists
+   * @throws java.nio.file.FileAlreadyExistsException if the template exists and overwrite is false
+   * @throws IOException if the template could not be written, or the store is read only
+   */
+  void write(String templatePath, byte[] content, boolean overwrite) throws IOException;
+
+  /**
+   * Delete a template.
+   *
+   * @param templatePath the template path
+   * @return true if the template was deleted, false if it did not exist
+   * @throws IOException if the template could not be deleted, or the store is read only
+   */
+  boolean delete(String templatePath) throws IOException;
+
+  /**
+   * Determine whether templates may be written and deleted.
+   *
+   * @return true if the store is writable
+   */
+  boolean isWritable();
+
+  /**
+   * List the templates in the store. Stores that cannot enumerate their templates return an empty collection.
+   *
+   * @return the template paths
+   * @throws IOException if the store could not be read
+   */
+  Collection<String> list() throws IOException;
+}
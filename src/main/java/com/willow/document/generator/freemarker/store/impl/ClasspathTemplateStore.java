@@ -0,0 +1,160 @@
+/*
+ *   File      : ClasspathTemplateStore.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store.impl;
+
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ *
+ * The <tt>ClasspathTemplateStore</tt> class reads templates from the classpath, under a package prefix. The store is
+ * read only and cannot list its templates. The version of a template is derived from the modification time and length
+ * reported for its resource, which for a template in a jar file is fixed for the life of the class loader.
+ */
+public final class ClasspathTemplateStore implements TemplateStore {
+
+  /** The size of the buffer used to read templates. */
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  /** The class loader the templates are read from. */
+  private final ClassLoader classLoader;
+  /** The prefix applied to template paths, empty or ending with '/'. */
+  private final String prefix;
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param loader the class loader the templates are read from
+   * @param pathPrefix the prefix applied to template paths, for example "templates"
+   */
+  public ClasspathTemplateStore(final ClassLoader loader, final String pathPrefix) {
+    classLoader = loader;
+    String normalised = pathPrefix == null ? "" : pathPrefix;
+    while (normalised.startsWith("/")) {
+      normalised = normalised.substring(1);
+    }
+    prefix = normalised.isEmpty() || normalised.endsWith("/") ? normalised : normalised + "/";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getVersion(final String templatePath) throws IOException {
+    long result = MISSING_VERSION;
+    URL resource = getResource(templatePath);
+    if (resource != null) {
+      URLConnection connection = resource.openConnection();
+      try {
+        result = getVersion(connection);
+      } finally {
+        closeQuietly(connection);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateContent read(final String templatePath) throws IOException {
+    TemplateContent result = null;
+    URL resource = getResource(templatePath);
+    if (resource != null) {
+      URLConnection connection = resource.openConnection();
+      long version = getVersion(connection);
+      try (InputStream inputStream = connection.getInputStream()) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int count = inputStream.read(buffer);
+        while (count != -1) {
+          content.write(buffer, 0, count);
+          count = inputStream.read(buffer);
+        }
+        result = new TemplateContent(content.toByteArray(), version);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final String templatePath, final byte[] content, final boolean overwrite) throws IOException {
+    throw new IOException("The classpath template store is read only");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean delete(final String templatePath) throws IOException {
+    throw new IOException("The classpath template store is read only");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isWritable() {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<String> list() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Return the resource for a template.
+   *
+   * @param templatePath the template path
+   * @return the resource or null if it does not exist
+   */
+  private URL getResource(final String templatePath) {
+    String path = templatePath.startsWith("/") ? templatePath.substring(1) : templatePath;
+    return classLoader.getResource(prefix + path);
+  }
+
+  /**
+   * Return the version of a resource.
+   *
+   * @param connection a connection to the resource
+   * @return the version
+   */
+  private static long getVersion(final URLConnection connection) {
+    return connection.getLastModified() * 31 + connection.getContentLengthLong();
+  }
+
+  /**
+   * Release a connection opened only to read its headers.
+   *
+   * @param connection the connection
+   */
+  private static void closeQuietly(final URLConnection connection) {
+    try {
+      connection.getInputStream().close();
+    } catch (IOException ex) {
+      // The connection was only used for its headers
+    }
+  }
+}
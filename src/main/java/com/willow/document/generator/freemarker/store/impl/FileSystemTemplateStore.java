@@ -0,0 +1,388 @@
+/*
+ *   File      : FileSystemTemplateStore.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store.impl;
+
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ *
+ * The <tt>FileSystemTemplateStore</tt> class keeps templates as files under a root directory. The version of a
+ * template is derived from a checksum of its content, the same version a template bundle gives it, so a template
+ * rewritten with new content of the same length within the file system timestamp resolution still gets a new version.
+ * The checksum is remembered with the modification time and length of the file, and is only computed again when they
+ * change, or while the file is recent enough that it could have been rewritten without changing them.
+ * <p>
+ * Templates are written to a temporary file in the same directory and then moved into place, so a reader sees either
+ * the old or the new content and never a missing or partly written template. A new template has the permissions of
+ * any other file created by the process, and a replaced template keeps its permissions.
+ * <p>
+ * A store confined to its root refuses template paths that are absolute or that lead out of the root directory.
+ */
+public final class FileSystemTemplateStore implements TemplateStore {
+
+  /**
+   * The coarsest file system timestamp resolution allowed for, in milliseconds. A file modified less than this long
+   * before its checksum was taken may be rewritten without its modification time changing.
+   */
+  private static final long TIMESTAMP_RESOLUTION = 2000;
+
+  /** The root directory. */
+  private final File root;
+  /** True if template paths must stay within the root directory. */
+  private final boolean confined;
+  /** The version last computed for each template file, by file path. */
+  private final ConcurrentMap<String, FileVersion> versions = new ConcurrentHashMap<>();
+
+  /**
+   * The parameterised constructor for a store confined to its root directory.
+   *
+   * @param rootDirectory the directory template paths are resolved against
+   */
+  public FileSystemTemplateStore(final File rootDirectory) {
+    this(rootDirectory, true);
+  }
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param rootDirectory the directory template paths are resolved against
+   * @param confinedToRoot true to refuse template paths that are absolute or lead out of the root directory
+   */
+  public FileSystemTemplateStore(final File rootDirectory, final boolean confinedToRoot) {
+    root = rootDirectory;
+    confined = confinedToRoot;
+  }
+
+  /**
+   * Get the directory template paths are resolved against.
+   *
+   * @return the root directory
+   */
+  public File getRoot() {
+    return root;
+  }
+
+  /**
+   * Return true if template paths must stay within the root directory.
+   *
+   * @return true if confined
+   */
+  public boolean isConfined() {
+    return confined;
+  }
+
+  /**
+   * Resolve a template path to its file.
+   *
+   * @param templatePath the template path
+   * @return the template file
+   * @throws IllegalArgumentException if the store is confined and the path is absolute or leads out of the root
+   */
+  public File resolve(final String templatePath) {
+    if (confined && !isContained(templatePath)) {
+      throw new IllegalArgumentException("The template path " + templatePath + " is outside " + root);
+    }
+    return new File(root, templatePath);
+  }
+
+  /**
+   * Determine whether a template path stays within the directory it is resolved against, that is whether it is
+   * relative and does not lead out of the directory once normalised.
+   *
+   * @param templatePath the template path
+   * @return true if contained
+   */
+  public static boolean isContained(final String templatePath) {
+    boolean result = false;
+    try {
+      Path path = Paths.get(templatePath);
+      Path normalised = path.normalize();
+      result = !path.isAbsolute() && path.getRoot() == null && !normalised.toString().isEmpty()
+              && !normalised.startsWith("..");
+    } catch (InvalidPathException ex) {
+      result = false;
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getVersion(final String templatePath) throws IOException {
+    return getVersion(resolve(templatePath));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateContent read(final String templatePath) throws IOException {
+    File file = resolve(templatePath);
+    long checked = System.currentTimeMillis();
+    BasicFileAttributes attributes = readAttributes(file);
+    TemplateContent result = null;
+    if (attributes != null) {
+      try {
+        byte[] content = Files.readAllBytes(file.toPath());
+        result = new TemplateContent(content, recordVersion(file, attributes, checked, content));
+      } catch (NoSuchFileException ex) {
+        versions.remove(file.getPath());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final String templatePath, final byte[] content, final boolean overwrite) throws IOException {
+    Path target = resolve(templatePath).toPath().toAbsolutePath();
+    if (!overwrite && Files.exists(target)) {
+      throw new FileAlreadyExistsException(target.toString());
+    }
+    Path temporary = createTemporaryFile(target);
+    try {
+      Files.write(temporary, content);
+      copyPermissions(target, temporary);
+      if (overwrite) {
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } else {
+        linkNew(temporary, target);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean delete(final String templatePath) throws IOException {
+    File file = resolve(templatePath);
+    boolean result = Files.deleteIfExists(file.toPath());
+    versions.remove(file.getPath());
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isWritable() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<String> list() throws IOException {
+    final Path rootPath = root.toPath();
+    final List<String> result = new ArrayList<>();
+    if (Files.isDirectory(rootPath)) {
+      try (Stream<Path> paths = Files.walk(rootPath)) {
+        paths.filter(Files::isRegularFile).forEach(path -> result.add(toTemplatePath(rootPath.relativize(path))));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Convert a path relative to the root directory to a template path.
+   *
+   * @param relativePath the relative path
+   * @return the template path
+   */
+  public static String toTemplatePath(final Path relativePath) {
+    return relativePath.toString().replace(File.separatorChar, '/');
+  }
+
+  /**
+   * Create an empty temporary file next to a template. Unlike <tt>Files.createTempFile</tt>, which makes the file
+   * readable by its owner only, the file is created with the default permissions of the process.
+   *
+   * @param target the template file
+   * @return the temporary file
+   * @throws IOException if the file could not be created
+   */
+  private static Path createTemporaryFile(final Path target) throws IOException {
+    Path result = null;
+    while (result == null) {
+      String suffix = Long.toHexString(ThreadLocalRandom.current().nextLong());
+      Path candidate = target.resolveSibling("." + target.getFileName() + "." + suffix + ".tmp");
+      try {
+        result = Files.createFile(candidate);
+      } catch (FileAlreadyExistsException ex) {
+        // another writer picked the same name, so try again
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Give a temporary file the permissions of the template it will replace, if there is one. Nothing is done on file
+   * systems without POSIX permissions.
+   *
+   * @param target the template file
+   * @param temporary the temporary file
+   * @throws IOException if the permissions could not be read or set
+   */
+  private static void copyPermissions(final Path target, final Path temporary) throws IOException {
+    if (Files.exists(target)
+            && Files.getFileStore(temporary).supportsFileAttributeView(PosixFileAttributeView.class)) {
+      Files.setPosixFilePermissions(temporary, Files.getPosixFilePermissions(target));
+    }
+  }
+
+  /**
+   * Put a new file in place without replacing a file created concurrently. A hard link fails if the target exists,
+   * where a move may silently replace it. If the file system does not support links, or refuses them, the file is
+   * copied instead, which also fails if the target exists, but which a concurrent reader may see partly written.
+   *
+   * @param temporary the fully written file
+   * @param target the new file
+   * @throws IOException if the file could not be put in place
+   */
+  private static void linkNew(final Path temporary, final Path target) throws IOException {
+    try {
+      Files.createLink(target, temporary);
+    } catch (FileAlreadyExistsException ex) {
+      throw ex;
+    } catch (UnsupportedOperationException | FileSystemException ex) {
+      Files.copy(temporary, target, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+  }
+
+  /**
+   * Return the version of a template file, reading the file only if its remembered version may be out of date.
+   *
+   * @param file the template file
+   * @return the version or MISSING_VERSION if the file does not exist
+   * @throws IOException if the file could not be read
+   */
+  private long getVersion(final File file) throws IOException {
+    long checked = System.currentTimeMillis();
+    BasicFileAttributes attributes = readAttributes(file);
+    long result = MISSING_VERSION;
+    if (attributes == null) {
+      versions.remove(file.getPath());
+    } else {
+      FileVersion known = versions.get(file.getPath());
+      if (known != null && known.isCurrent(attributes)) {
+        result = known.version;
+      } else {
+        try {
+          result = recordVersion(file, attributes, checked, Files.readAllBytes(file.toPath()));
+        } catch (NoSuchFileException ex) {
+          versions.remove(file.getPath());
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Compute and remember the version of template content read from a file.
+   *
+   * @param file the template file
+   * @param attributes the attributes of the file, read before its content
+   * @param checked the time the attributes were read, in milliseconds
+   * @param content the content of the file
+   * @return the version
+   */
+  private long recordVersion(final File file, final BasicFileAttributes attributes, final long checked,
+                             final byte[] content) {
+    long result = TemplateBundleWriter.version(content);
+    versions.put(file.getPath(), new FileVersion(attributes, checked, result));
+    return result;
+  }
+
+  /**
+   * Read the attributes of a template file.
+   *
+   * @param file the template file
+   * @return the attributes, or null if the file does not exist or is not a regular file
+   * @throws IOException if the attributes could not be read
+   */
+  private static BasicFileAttributes readAttributes(final File file) throws IOException {
+    BasicFileAttributes result = null;
+    try {
+      result = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    } catch (NoSuchFileException ex) {
+      result = null;
+    }
+    return result != null && result.isRegularFile() ? result : null;
+  }
+
+  /**
+   * The <tt>FileVersion</tt> class is the version of a template file, with the attributes it was computed for.
+   */
+  private static final class FileVersion {
+
+    /** The modification time of the file, in milliseconds. */
+    private final long modified;
+    /** The length of the file. */
+    private final long length;
+    /** The time the attributes were read, before the content, in milliseconds. */
+    private final long checked;
+    /** The version of the content. */
+    private final long version;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param attributes the attributes of the file, read before its content
+     * @param checkedTime the time the attributes were read
+     * @param contentVersion the version of the content
+     */
+    FileVersion(final BasicFileAttributes attributes, final long checkedTime, final long contentVersion) {
+      modified = attributes.lastModifiedTime().toMillis();
+      length = attributes.size();
+      checked = checkedTime;
+      version = contentVersion;
+    }
+
+    /**
+     * Return true if the file is unchanged since the version was computed. A file whose attributes were read within
+     * the timestamp resolution of its modification is never taken to be unchanged, as it may since have been rewritten
+     * with the same modification time and length.
+     *
+     * @param attributes the current attributes of the file
+     * @return true if the version is current
+     */
+    boolean isCurrent(final BasicFileAttributes attributes) {
+      return attributes.lastModifiedTime().toMillis() == modified && attributes.size() == length
+              && checked - modified > TIMESTAMP_RESOLUTION;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ *   File      : MappedBundleTemplateStore.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store.impl;
+
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * The <tt>MappedBundleTemplateStore</tt> class serves templates from a single read only bundle file written by
+ * <tt>TemplateBundleWriter</tt>. The file is memory mapped when the store is created and only its index is read onto
+ * the heap, so thousands of templates are served without opening a file per template. A bundle is immutable, so the
+ * version of each template is fixed when the bundle is written.
+ * <p>
+ * The bundle starts with a header of the magic number, the format version and the template count. An index entry
+ * follows for each template, holding the UTF-8 path length and path, the version, and the offset and length of the
+ * content. The content of the templates follows the index.
+ */
+public final class MappedBundleTemplateStore implements TemplateStore {
+
+  /** The magic number at the start of a bundle, "FMTB". */
+  static final int MAGIC = 0x464D5442;
+  /** The bundle format version. */
+  static final int FORMAT_VERSION = 1;
+  /** The size of the bundle header in bytes. */
+  static final int HEADER_SIZE = 12;
+  /** The size of an index entry in bytes, excluding the path. */
+  static final int INDEX_ENTRY_SIZE = 4 + 8 + 8 + 4;
+
+  /** The bundle file. */
+  private final Path bundleFile;
+  /** The mapped bundle content. */
+  private final MappedByteBuffer buffer;
+  /** The index entries by template path. */
+  private final Map<String, Entry> index;
+
+  /**
+   * The parameterised constructor, which maps the bundle and reads its index.
+   *
+   * @param bundle the bundle file
+   * @throws IOException if the bundle could not be read or is not a valid bundle
+   */
+  public MappedBundleTemplateStore(final Path bundle) throws IOException {
+    bundleFile = bundle;
+    try (FileChannel channel = FileChannel.open(bundle, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("The template bundle " + bundle + " is larger than 2GB");
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    index = readIndex();
+  }
+
+  /**
+   * Get the bundle file.
+   *
+   * @return the bundle file
+   */
+  public Path getBundleFile() {
+    return bundleFile;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getVersion(final String templatePath) {
+    Entry entry = index.get(templatePath);
+    return entry == null ? MISSING_VERSION : entry.version;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateContent read(final String templatePath) {
+    Entry entry = index.get(templatePath);
+    TemplateContent result = null;
+    if (entry != null) {
+      byte[] content = new byte[entry.length];
+      ByteBuffer view = buffer.duplicate();
+      view.position(entry.offset);
+      view.get(content);
+      result = new TemplateContent(content, entry.version);
+    }
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final String templatePath, final byte[] content, final boolean overwrite) throws IOException {
+    throw new IOException("The template bundle " + bundleFile + " is read only");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean delete(final String templatePath) throws IOException {
+    throw new IOException("The template bundle " + bundleFile + " is read only");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isWritable() {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<String> list() {
+    return new ArrayList<>(index.keySet());
+  }
+
+  /**
+   * Read and check the bundle index.
+   *
+   * @return the index entries by template path
+   * @throws IOException if the bundle is not a valid bundle
+   */
+  private Map<String, Entry> readIndex() throws IOException {
+    ByteBuffer view = buffer.duplicate();
+    if (view.remaining() < HEADER_SIZE || view.getInt() != MAGIC) {
+      throw new IOException(bundleFile + " is not a template bundle");
+    }
+    int formatVersion = view.getInt();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("The template bundle " + bundleFile + " has unsupported format " + formatVersion);
+    }
+    int count = view.getInt();
+    Map<String, Entry> result = new HashMap<>(count * 4 / 3 + 1);
+    try {
+      for (int i = 0; i < count; i++) {
+        byte[] path = new byte[view.getInt()];
+        view.get(path);
+        long version = view.getLong();
+        long offset = view.getLong();
+        int length = view.getInt();
+        if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+          throw new IOException("The template bundle " + bundleFile + " is corrupt");
+        }
+        result.put(new String(path, StandardCharsets.UTF_8), new Entry(version, (int) offset, length));
+      }
+    } catch (RuntimeException ex) {
+      throw new IOException("The template bundle " + bundleFile + " is corrupt", ex);
+    }
+    return result;
+  }
+
+  /**
+   * The <tt>Entry</tt> class holds the index entry of a template.
+   */
+  private static final class Entry {
+
+    /** The template version. */
+    private final long version;
+    /** The offset of the content in the bundle. */
+    private final int offset;
+    /** The length of the content. */
+    private final int length;
+
+    /**
+     * The parameterised constructor.
+     *
+     * @param templateVersion the template version
+     * @param contentOffset the offset of the content in the bundle
+     * @param contentLength the length of the content
+     */
+    Entry(final long templateVersion, final int contentOffset, final int contentLength) {
+      version = templateVersion;
+      offset = contentOffset;
+      length = contentLength;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ *   File      : MemoryTemplateStore.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store.impl;
+
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * The <tt>MemoryTemplateStore</tt> class keeps templates in memory. Versions are taken from a counter incremented on
+ * every write, so a template written twice with the same content still gets a new version.
+ */
+public final class MemoryTemplateStore implements TemplateStore {
+
+  /** The templates by path. */
+  private final ConcurrentMap<String, TemplateContent> templates = new ConcurrentHashMap<>();
+  /** The most recent version assigned. */
+  private final AtomicLong versions = new AtomicLong();
+
+  /**
+   * The default constructor.
+   */
+  public MemoryTemplateStore() {
+  }
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param initialTemplates the initial templates, keyed by template path
+   */
+  public MemoryTemplateStore(final Map<String, byte[]> initialTemplates) {
+    for (Map.Entry<String, byte[]> template : initialTemplates.entrySet()) {
+      templates.put(template.getKey(), new TemplateContent(template.getValue().clone(), versions.incrementAndGet()));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getVersion(final String templatePath) {
+    TemplateContent template = templates.get(templatePath);
+    return template == null ? MISSING_VERSION : template.getVersion();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TemplateContent read(final String templatePath) {
+    return templates.get(templatePath);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(final String templatePath, final byte[] content, final boolean overwrite)
+          throws FileAlreadyExistsException {
+    TemplateContent template = new TemplateContent(content.clone(), versions.incrementAndGet());
+    if (overwrite) {
+      templates.put(templatePath, template);
+    } else if (templates.putIfAbsent(templatePath, template) != null) {
+      throw new FileAlreadyExistsException(templatePath);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean delete(final String templatePath) {
+    return templates.remove(templatePath) != null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isWritable() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<String> list() {
+    return new ArrayList<>(templates.keySet());
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *   File      : TemplateBundleCompiler.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store.impl;
+
+import com.willow.document.generator.freemarker.service.impl.AbstractFreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.Version;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import org.apache.log4j.Logger;
+
+/**
+ *
+ * The <tt>TemplateBundleCompiler</tt> class builds a template bundle from a directory of templates at build time. Every
+ * template is parsed first, and the bundle is only written if all of them are valid, so syntax errors are reported by
+ * the build rather than by the first request in production. It runs as a command line tool:
+ * <pre>
+ *   java TemplateBundleCompiler &lt;template directory&gt; &lt;bundle file&gt; [&lt;incompatible improvements&gt;]
+ * </pre>
+ * and fails, without writing the bundle, if any template is invalid. Templates are parsed with the same configuration
+ * the service parses them with, so the incompatible improvements version should match the service's. FreeMarker
+ * templates cannot be serialised, so the bundle holds the validated source and the service parses it from the mapped
+ * bundle when it starts.
+ */
+public final class TemplateBundleCompiler {
+
+  /** The class logger. */
+  private static final Logger LOG = Logger.getLogger(TemplateBundleCompiler.class);
+
+  /** The directory the templates are read from. */
+  private final File sourceDirectory;
+  /** The FreeMarker version whose fixes and improvements that change behaviour are enabled when parsing. */
+  private final Version incompatibleImprovements;
+
+  /**
+   * The parameterised constructor, parsing templates with the service's default incompatible improvements version.
+   *
+   * @param templateDirectory the directory the templates are read from
+   */
+  public TemplateBundleCompiler(final File templateDirectory) {
+    this(templateDirectory, AbstractFreeMarkerDocumentGeneratorService.DEFAULT_INCOMPATIBLE_IMPROVEMENTS);
+  }
+
+  /**
+   * The parameterised constructor.
+   *
+   * @param templateDirectory the directory the templates are read from
+   * @param version the FreeMarker version whose fixes and improvements that change behaviour are enabled, as set on
+   *                the service, such as "2.3.32"
+   */
+  public TemplateBundleCompiler(final File templateDirectory, final String version) {
+    sourceDirectory = templateDirectory;
+    incompatibleImprovements = new Version(version);
+  }
+
+  /**
+   * Parse every template in the source directory.
+   *
+   * @return a description of each invalid template, empty if all are valid
+   * @throws IOException if the source directory does not exist or the templates could not be read
+   */
+  public List<String> validate() throws IOException {
+    if (!sourceDirectory.isDirectory()) {
+      throw new IOException("The template directory " + sourceDirectory + " does not exist");
+    }
+    TemplateStore source = new FileSystemTemplateStore(sourceDirectory);
+    Configuration configuration = AbstractFreeMarkerDocumentGeneratorService.createParsingConfiguration(
+            incompatibleImprovements);
+    List<String> result = new ArrayList<>();
+    for (String templatePath : new TreeSet<>(source.list())) {
+      TemplateContent content = source.read(templatePath);
+      try {
+        new Template(templatePath, new InputStreamReader(new ByteArrayInputStream(content.getContent()),
+                StandardCharsets.UTF_8), configuration);
+      } catch (IOException ex) {
+        result.add(templatePath + ": " + ex.getMessage());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Validate the templates and, if all are valid, write them to a bundle.
+   *
+   * @param bundle the bundle file
+   * @return the number of templates written
+   * @throws IOException if a template is invalid or the bundle could not be written
+   */
+  public int compile(final Path bundle) throws IOException {
+    List<String> errors = validate();
+    if (!errors.isEmpty()) {
+      StringBuilder message = new StringBuilder();
+      message.append(errors.size()).append(" invalid templates in ").append(sourceDirectory);
+      for (String error : errors) {
+        message.append(System.lineSeparator()).append(error);
+      }
+      throw new IOException(message.toString());
+    }
+    return TemplateBundleWriter.write(new FileSystemTemplateStore(sourceDirectory), bundle);
+  }
+
+  /**
+   * Build a template bundle from the command line. Failure is reported by throwing, rather than by exiting, so that
+   * the compiler can also run inside the Maven build process.
+   *
+   * @param args the template directory, the bundle file and optionally the incompatible improvements version
+   * @throws IOException if a template is invalid or the bundle could not be written
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      throw new IllegalArgumentException("Usage: TemplateBundleCompiler <template directory> <bundle file> "
+              + "[<incompatible improvements>]");
+    }
+    TemplateBundleCompiler compiler = args.length == 3 ? new TemplateBundleCompiler(new File(args[0]), args[2])
+            : new TemplateBundleCompiler(new File(args[0]));
+    int count = compiler.compile(Paths.get(args[1]));
+    LOG.info("Wrote " + count + " templates to " + args[1]);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ *   File      : TemplateBundleWriter.java
+ *   Author    : cmartin
+ *   Copyright : Martin Technical Consulting Limited Ltd (2026)
+ *   Created   : 18-Oct-2026
+ *
+ *   History
+ *     18-Oct-2026 cmartin The initial version.
+ */
+package com.willow.document.generator.freemarker.store.impl;
+
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * The <tt>TemplateBundleWriter</tt> class writes the bundle files served by <tt>MappedBundleTemplateStore</tt>. The
+ * bundle is written to a temporary file and moved into place, so a store never maps a partly written bundle. The
+ * version of each template is derived from a checksum of its content, so an unchanged template keeps its version
+ * across bundles.
+ */
+public final class TemplateBundleWriter {
+
+  /**
+   * Hidden constructor for a utility class.
+   */
+  private TemplateBundleWriter() {
+  }
+
+  /**
+   * Write every template listed by a store to a bundle.
+   *
+   * @param source the store the templates are read from
+   * @param bundle the bundle file
+   * @return the number of templates written
+   * @throws IOException if a template could not be read or the bundle could not be written
+   */
+  public static int write(final TemplateStore source, final Path bundle) throws IOException {
+    return write(source, source.list(), bundle);
+  }
+
+  /**
+   * Write templates from a store to a bundle.
+   *
+   * @param source the store the templates are read from
+   * @param templatePaths the paths of the templates to write
+   * @param bundle the bundle file
+   * @return the number of templates written
+   * @throws IOException if a template could not be read or the bundle could not be written
+   */
+  public static int write(final TemplateStore source, final Collection<String> templatePaths, final Path bundle)
+          throws IOException {
+    List<byte[]> paths = new ArrayList<>();
+    List<byte[]> contents = new ArrayList<>();
+    long indexSize = MappedBundleTemplateStore.HEADER_SIZE;
+    for (String templatePath : new TreeSet<>(templatePaths)) {
+      TemplateContent template = source.read(templatePath);
+      if (template == null) {
+        throw new IOException("The template " + templatePath + " does not exist");
+      }
+      byte[] path = templatePath.getBytes(StandardCharsets.UTF_8);
+      paths.add(path);
+      contents.add(template.getContent());
+      indexSize += MappedBundleTemplateStore.INDEX_ENTRY_SIZE + path.length;
+    }
+    Path parent = bundle.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temporary = Files.createTempFile(parent, bundle.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream fileStream = Files.newOutputStream(temporary);
+           DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream))) {
+        out.writeInt(MappedBundleTemplateStore.MAGIC);
+        out.writeInt(MappedBundleTemplateStore.FORMAT_VERSION);
+        out.writeInt(paths.size());
+        long offset = indexSize;
+        for (int i = 0; i < paths.size(); i++) {
+          byte[] content = contents.get(i);
+          out.writeInt(paths.get(i).length);
+          out.write(paths.get(i));
+          out.writeLong(version(content));
+          out.writeLong(offset);
+          out.writeInt(content.length);
+          offset += content.length;
+        }
+        for (byte[] content : contents) {
+          out.write(content);
+        }
+      }
+      Files.move(temporary, bundle, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return paths.size();
+  }
+
+  /**
+   * Return the version of a template in a bundle, which is also the version a <tt>FileSystemTemplateStore</tt> gives
+   * the same content.
+   *
+   * @param content the template content
+   * @return the version
+   */
+  static long version(final byte[] content) {
+    CRC32 checksum = new CRC32();
+    checksum.update(content, 0, content.length);
+    return checksum.getValue() << 32 | content.length & 0xFFFFFFFFL;
+  }
+}
@@ -2,11 +2,72 @@ package com.willow.document.generator.freemarker.service;
 
 import com.willow.common.application.ApplicationConfiguration;
 import com.willow.common.application.ApplicationConfigurationFactory;
+import com.willow.common.document.generator.service.DocumentGenerationException;
+import com.willow.common.document.generator.support.DocumentGeneratorStringTool;
 import com.willow.common.service.ServiceException;
+import com.willow.document.generator.freemarker.handler.impl.DocumentGenerationFreeMarkerHandlerImpl;
+import com.willow.document.generator.freemarker.metrics.impl.LocalGeneratorMetrics;
+import com.willow.document.generator.freemarker.metrics.impl.LocalTemplateMetrics;
+import com.willow.document.generator.freemarker.model.SharedContext;
+import com.willow.document.generator.freemarker.model.impl.FastObjectWrapper;
+import com.willow.document.generator.freemarker.model.impl.LazySequence;
+import com.willow.document.generator.freemarker.service.impl.AbstractFreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.service.impl.LocalFreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.service.impl.RemoteFreeMarkerDocumentGeneratorService;
+import com.willow.document.generator.freemarker.service.impl.RenderNodeServer;
+import com.willow.document.generator.freemarker.store.TemplateContent;
+import com.willow.document.generator.freemarker.store.TemplateStore;
+import com.willow.document.generator.freemarker.store.impl.FileSystemTemplateStore;
+import com.willow.document.generator.freemarker.store.impl.MappedBundleTemplateStore;
+import com.willow.document.generator.freemarker.store.impl.MemoryTemplateStore;
+import com.willow.document.generator.freemarker.store.impl.TemplateBundleCompiler;
+import com.willow.document.generator.freemarker.store.impl.TemplateBundleWriter;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.TemplateHashModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import org.apache.log4j.Logger;
 import org.junit.Test;
@@ -27,6 +88,8 @@ public class FreeMarkerDocumentGeneratorServiceTest {
   private static final String expectedStringTNSCreateTokenRawNumber = "{\"sourceOfFunds\":{\"provided\":{\"card\":{\"number\":\"5123456789012346,\"expiry\":{\"year\":17,\"month\":05}}},\"type\":\"CARD\"}}";
   private static final String expectedSimpleTemplate = "{\"name\":\"omer\"}";
   private static final String expectedSimpleTemplateMap = "{\"person\":{\"name\":\"omer\"}}";
+  private static final String[] RESOURCE_TEMPLATES = {"updateSessionTemplate.txt", "createOrUpdateTokenTemplate.txt",
+    "simpleTemplate.txt", "simpleTemplateMap.txt"};
 
   public FreeMarkerDocumentGeneratorServiceTest() {
     startServices();
@@ -158,6 +221,1679 @@ public class FreeMarkerDocumentGeneratorServiceTest {
     assertEquals(expectedSimpleTemplateMap, generatedString);
   }
 
+  /**
+   * Test the FreeMarker configuration is built when the service starts and shared by every generate call until it
+   * stops.
+   */
+  @Test
+  public void testConfigurationIsBuiltOncePerStart() throws Exception {
+    LOG.info("Testing the FreeMarker configuration is reused");
+
+    File templateFile = File.createTempFile("configurationTemplate", ".txt");
+    templateFile.delete();
+    ConfigurationProbeService service = new ConfigurationProbeService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setBasePath("");
+    service.start();
+    Configuration started;
+    try {
+      service.createTemplate(templateFile.getPath(), "{\"name\":\"${name}\"}");
+      started = service.configuration();
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      for (int i = 0; i < 3; i++) {
+        assertEquals(expectedSimpleTemplate, new String(service.generate(templateFile.getPath(), data), "utf-8"));
+        assertEquals(expectedSimpleTemplate, new String(service.generate(
+                new ByteArrayInputStream("{\"name\":\"${name}\"}".getBytes("utf-8")), data), "utf-8"));
+        assertTrue(started == service.configuration());
+      }
+    } finally {
+      templateFile.delete();
+      service.stop();
+    }
+    try {
+      service.configuration();
+      fail("The configuration was kept after the service stopped");
+    } catch (RuntimeException ex) {
+      LOG.debug("The configuration was released when the service stopped", ex);
+    }
+    service.start();
+    try {
+      assertFalse(started == service.configuration());
+    } finally {
+      service.stop();
+    }
+  }
+
+  /**
+   * Test byte array documents are collected in a per-thread buffer that is reused between calls, sized from the
+   * documents previously generated from the template, and dropped after a document larger than the retained size.
+   */
+  @Test
+  public void testOutputBuffersAreReusedAndSizeHinted() throws Exception {
+    LOG.info("Testing pooled output buffers");
+
+    File templateFile = File.createTempFile("sizedTemplate", ".txt");
+    File largeFile = File.createTempFile("largeTemplate", ".txt");
+    templateFile.delete();
+    largeFile.delete();
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setBasePath("");
+    service.setOutputBufferMaxRetainedSize(64 * 1024);
+    service.start();
+    try {
+      service.createTemplate(templateFile.getPath(), "<#list 1..count as i>0123456789</#list>");
+      service.createTemplate(largeFile.getPath(), "<#list 1..count as i>0123456789</#list>");
+      Map<String, Object> data = new HashMap<>();
+      data.put("count", 1000);
+      byte[] first = service.generate(templateFile.getPath(), data);
+      assertEquals(10000, first.length);
+      byte[] pooled = getPooledOutputBuffer(service);
+      assertTrue(pooled.length >= first.length);
+      assertTrue(pooled != first);
+      byte[] second = service.generate(templateFile.getPath(), data);
+      assertTrue(pooled == getPooledOutputBuffer(service));
+      assertTrue(Arrays.equals(first, second));
+
+      //A buffer grown beyond the retained size is discarded, so the next one is sized from the template's average
+      Map<String, Object> largeData = new HashMap<>();
+      largeData.put("count", 10000);
+      assertEquals(100000, service.generate(largeFile.getPath(), largeData).length);
+      assertEquals(null, getPooledOutputBuffer(service));
+      assertTrue(Arrays.equals(first, service.generate(templateFile.getPath(), data)));
+      assertEquals(10000, getPooledOutputBuffer(service).length);
+
+      //Buffers belong to the service and are released when it stops
+      service.stop();
+      assertEquals(null, getPooledOutputBuffer(service));
+    } finally {
+      templateFile.delete();
+      largeFile.delete();
+      service.stop();
+    }
+  }
+
+  /**
+   * Test the warm-up templates are compiled when the service starts, and that a template that fails to compile or is
+   * missing does not prevent the service from starting or the other templates from being compiled.
+   */
+  @Test
+  public void testWarmUpPrecompilesTemplates() throws Exception {
+    LOG.info("Testing template warm-up");
+
+    Path baseDir = Files.createTempDirectory("warmUpTemplates");
+    Path first = baseDir.resolve("first.ftl");
+    Path broken = baseDir.resolve("broken.ftl");
+    Path cold = baseDir.resolve("cold.ftl");
+    Files.write(first, "{\"name\":\"${name}\"}".getBytes("utf-8"));
+    Files.write(broken, "<#if name>".getBytes("utf-8"));
+    Files.write(cold, "${name}".getBytes("utf-8"));
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setBasePath(baseDir.toString());
+    service.setTemplateCacheRevalidateInterval(60000);
+    service.setWarmUpTemplates(Arrays.asList("first.ftl", "broken.ftl", "missing.ftl"));
+    service.start();
+    try {
+      assertTrue(service.isRunning());
+      Files.delete(first);
+      Files.delete(cold);
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals(expectedSimpleTemplate, new String(service.generate("first.ftl", data), "utf-8"));
+      try {
+        service.generate("cold.ftl", data);
+        fail("A template that was not warmed up was served after it was deleted");
+      } catch (RuntimeException ex) {
+        LOG.debug("The cold template was read when first used", ex);
+      }
+    } finally {
+      service.stop();
+      Files.delete(broken);
+      Files.delete(baseDir);
+    }
+  }
+
+  /**
+   * Test generate by path picks up a template changed through updateTemplate despite the compiled template cache.
+   */
+  @Test
+  public void testGenerateFromPathAfterUpdate() throws IOException, ServiceException {
+    LOG.info("Testing generate from path after update");
+
+    File templateFile = File.createTempFile("cachedTemplate", ".txt");
+    templateFile.delete();
+    LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    try {
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      service.createTemplate(templateFile.getPath(), "{\"name\":\"${name}\"}");
+      assertEquals(expectedSimpleTemplate, new String(service.generate(templateFile.getPath(), data)));
+      assertEquals(expectedSimpleTemplate, new String(service.generate(templateFile.getPath(), data)));
+
+      service.updateTemplate(templateFile.getPath(), "{\"person\":{\"name\":\"${name}\"}}");
+      assertEquals(expectedSimpleTemplateMap, new String(service.generate(templateFile.getPath(), data)));
+
+      LocalTemplateMetrics metrics = ((LocalGeneratorMetrics) service.getMetrics())
+              .getTemplateMetrics(new File(new File(""), templateFile.getPath()).getPath());
+      assertEquals(3, metrics.getCallCount());
+      assertEquals(3, metrics.getCacheHitCount());
+      assertEquals(0, metrics.getCacheMissCount());
+      assertEquals(3, metrics.getRenderNanos().getCount());
+      assertEquals(expectedSimpleTemplateMap.length(), metrics.getOutputBytes().getMax());
+    } finally {
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  /**
+   * Test template metrics are only kept for templates that exist, and are unregistered from JMX when the template is
+   * deleted or the service stops.
+   */
+  @Test
+  public void testTemplateMetricsFollowTemplateLifecycle() throws Exception {
+    LOG.info("Testing the template metrics lifecycle");
+
+    LocalGeneratorMetrics metrics = new LocalGeneratorMetrics();
+    metrics.setJmxDomain("com.willow.test");
+    metrics.setRegistryName("lifecycle");
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setTemplateStore(new MemoryTemplateStore());
+    service.setMetrics(metrics);
+    service.start();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName kept = new ObjectName(
+            "com.willow.test:type=TemplateMetrics,registry=\"lifecycle\",template=\"kept.ftl\"");
+    ObjectName deleted = new ObjectName(
+            "com.willow.test:type=TemplateMetrics,registry=\"lifecycle\",template=\"deleted.ftl\"");
+    try {
+      Map<String, Object> data = new HashMap<>();
+      try {
+        service.generate("missing.ftl", data);
+        fail("A document was generated from a missing template");
+      } catch (RuntimeException ex) {
+        LOG.debug("The missing template failed as expected", ex);
+      }
+      assertEquals(null, metrics.getTemplateMetrics("missing.ftl"));
+
+      service.createTemplate("kept.ftl", "kept");
+      service.createTemplate("deleted.ftl", "deleted");
+      service.generate("kept.ftl", data);
+      service.generate("deleted.ftl", data);
+      assertTrue(server.isRegistered(kept));
+      assertTrue(server.isRegistered(deleted));
+
+      service.deleteTemplate("deleted.ftl");
+      assertEquals(null, metrics.getTemplateMetrics("deleted.ftl"));
+      assertFalse(server.isRegistered(deleted));
+      assertEquals(1, metrics.getTemplateMetrics("kept.ftl").getCallCount());
+    } finally {
+      service.stop();
+    }
+    assertFalse(server.isRegistered(kept));
+    assertTrue(metrics.getTemplateMetrics().isEmpty());
+  }
+
+  /**
+   * Test templates written to the file system get the default permissions of new files, and keep their permissions
+   * when replaced.
+   */
+  @Test
+  public void testTemplateWritesKeepFilePermissions() throws Exception {
+    LOG.info("Testing template file permissions");
+
+    File templateFile = File.createTempFile("permissionTemplate", ".txt");
+    templateFile.delete();
+    File probe = File.createTempFile("permissionProbe", ".txt");
+    probe.delete();
+    LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    try {
+      Path template = templateFile.toPath();
+      if (!Files.getFileStore(template.getParent()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+        return;
+      }
+      Files.createFile(probe.toPath());
+      service.createTemplate(templateFile.getPath(), "created");
+      assertEquals(Files.getPosixFilePermissions(probe.toPath()), Files.getPosixFilePermissions(template));
+
+      Set<PosixFilePermission> shared = PosixFilePermissions.fromString("rw-r-----");
+      Files.setPosixFilePermissions(template, shared);
+      service.updateTemplate(templateFile.getPath(), "updated");
+      assertEquals(shared, Files.getPosixFilePermissions(template));
+      assertEquals("updated", new String(Files.readAllBytes(template), "utf-8"));
+    } finally {
+      templateFile.delete();
+      probe.delete();
+      service.stop();
+    }
+  }
+
+  /**
+   * Test generate from an input stream reuses the compiled template when the stream template cache is enabled.
+   */
+  @Test
+  public void testGenerateFromStreamUsesContentHashCache() throws ServiceException {
+    LOG.info("Testing generate from stream with the content hash cache");
+
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setStreamTemplateCacheEnabled(true);
+    service.start();
+    try {
+      Map<String, Object> name = new HashMap<>();
+      name.put("name", "omer");
+      for (int i = 0; i < 3; i++) {
+        InputStream in = this.getClass().getClassLoader().getResourceAsStream("templates/simpleTemplate.txt");
+        assertEquals(expectedSimpleTemplate, new String(service.generate(in, name)));
+      }
+      assertEquals(1, service.getStreamTemplateCacheMissCount());
+      assertEquals(2, service.getStreamTemplateCacheHitCount());
+    } finally {
+      service.stop();
+    }
+  }
+
+  /**
+   * Test the streaming generate methods produce the same content as generate returning bytes, including multi-byte
+   * characters spanning the internal buffers.
+   */
+  @Test
+  public void testGenerateToStreamMatchesBytes() throws IOException, ServiceException {
+    LOG.info("Testing generate to an output stream and a channel");
+
+    File templateFile = File.createTempFile("streamedTemplate", ".txt");
+    templateFile.delete();
+    LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    try {
+      StringBuilder name = new StringBuilder();
+      for (int i = 0; i < 5000; i++) {
+        name.append("\u00e9\ud83d\ude00x");
+      }
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", name.toString());
+      service.createTemplate(templateFile.getPath(), "{\"name\":\"${name}\"}");
+      byte[] expected = service.generate(templateFile.getPath(), data);
+
+      ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+      service.generate(templateFile.getPath(), data, streamed);
+      assertEquals(new String(expected, "utf-8"), new String(streamed.toByteArray(), "utf-8"));
+
+      ByteArrayOutputStream channelled = new ByteArrayOutputStream();
+      service.generate(templateFile.getPath(), data, Channels.newChannel(channelled));
+      assertEquals(new String(expected, "utf-8"), new String(channelled.toByteArray(), "utf-8"));
+    } finally {
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  /**
+   * Test a template edited directly on disk is picked up by a service watching its base path.
+   */
+  @Test
+  public void testGenerateFromPathAfterWatchedEdit() throws IOException, ServiceException, InterruptedException {
+    LOG.info("Testing generate from path after an edit seen by the watcher");
+
+    File baseDir = Files.createTempDirectory("watchedTemplates").toFile();
+    File templateFile = new File(baseDir, "watched.txt");
+    Files.write(templateFile.toPath(), "{\"name\":\"${name}\"}".getBytes("utf-8"));
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setBasePath(baseDir.getPath());
+    service.setTemplateWatchEnabled(true);
+    service.setTemplateWatchPollInterval(50);
+    service.start();
+    try {
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals(expectedSimpleTemplate, new String(service.generate("watched.txt", data)));
+
+      Files.write(templateFile.toPath(), "{\"person\":{\"name\":\"${name}\"}}".getBytes("utf-8"));
+      String generated = null;
+      for (int i = 0; i < 200 && !expectedSimpleTemplateMap.equals(generated); i++) {
+        Thread.sleep(50);
+        generated = new String(service.generate("watched.txt", data));
+      }
+      assertEquals(expectedSimpleTemplateMap, generated);
+    } finally {
+      service.stop();
+      templateFile.delete();
+      baseDir.delete();
+    }
+  }
+
+  /**
+   * Test batch generation in parallel returns documents in the order of the data.
+   */
+  @Test
+  public void testGenerateAllInParallelPreservesOrder() throws IOException, ServiceException {
+    LOG.info("Testing parallel batch generation");
+
+    File templateFile = File.createTempFile("batchTemplate", ".txt");
+    templateFile.delete();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    service.setBatchExecutor(executor);
+    try {
+      service.createTemplate(templateFile.getPath(), "{\"name\":\"${name}\"}");
+      List<Map<String, Object>> batch = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "omer" + i);
+        batch.add(data);
+      }
+      int index = 0;
+      for (byte[] document : service.generateAll(templateFile.getPath(), batch)) {
+        assertEquals("{\"name\":\"omer" + index++ + "\"}", new String(document, "utf-8"));
+      }
+      assertEquals(batch.size(), index);
+    } finally {
+      executor.shutdown();
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  /**
+   * Test asynchronous batch generation on the service's executor returns documents in the order of the data.
+   */
+  @Test
+  public void testGenerateAllAsync() throws Exception {
+    LOG.info("Testing asynchronous batch generation");
+
+    File templateFile = File.createTempFile("asyncTemplate", ".txt");
+    templateFile.delete();
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setBasePath("");
+    service.setRenderThreads(2);
+    service.setRenderQueueCapacity(4);
+    service.start();
+    try {
+      service.createTemplate(templateFile.getPath(), "{\"name\":\"${name}\"}");
+      List<Map<String, Object>> batch = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "omer" + i);
+        batch.add(data);
+      }
+      List<byte[]> documents = service.generateAllAsync(templateFile.getPath(), batch).get();
+      assertEquals(batch.size(), documents.size());
+      for (int i = 0; i < documents.size(); i++) {
+        assertEquals("{\"name\":\"omer" + i + "\"}", new String(documents.get(i), "utf-8"));
+      }
+      assertEquals("{\"name\":\"omer0\"}",
+              new String(service.generateAsync(templateFile.getPath(), batch.get(0)).get(), "utf-8"));
+    } finally {
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testGenerateWithRenderLimits() throws Exception {
+    LOG.info("Testing render limits");
+
+    File templateFile = File.createTempFile("limitTemplate", ".txt");
+    templateFile.delete();
+    LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    try {
+      service.createTemplate(templateFile.getPath(), "<#list items as item>${item},</#list>");
+      List<String> items = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        items.add("item" + i);
+      }
+      Map<String, Object> data = new HashMap<>();
+      data.put("items", items);
+
+      RenderLimits iterations = new RenderLimits();
+      iterations.setMaxLoopIterations(100L);
+      try {
+        service.generate(templateFile.getPath(), data, iterations);
+        fail("The loop iteration limit was not enforced");
+      } catch (RenderLimitExceededException ex) {
+        assertEquals(RenderLimitExceededException.Limit.LOOP_ITERATIONS, ex.getLimit());
+      }
+
+      RenderLimits size = new RenderLimits();
+      size.setMaxOutputBytes(1024L);
+      try {
+        service.generate(templateFile.getPath(), data, size);
+        fail("The output size limit was not enforced");
+      } catch (RenderLimitExceededException ex) {
+        assertEquals(RenderLimitExceededException.Limit.OUTPUT_BYTES, ex.getLimit());
+      }
+
+      size.setMaxOutputBytes(1024L * 1024);
+      assertEquals(new String(service.generate(templateFile.getPath(), data), "utf-8"),
+              new String(service.generate(templateFile.getPath(), data, size), "utf-8"));
+    } finally {
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testRequestLimitsOnlyTightenServiceLimits() throws Exception {
+    LOG.info("Testing request limits against service limits");
+
+    File templateFile = File.createTempFile("tightenTemplate", ".txt");
+    templateFile.delete();
+    LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    try {
+      service.createTemplate(templateFile.getPath(), "<#list items as item>${item},</#list>");
+      List<String> items = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        items.add("item" + i);
+      }
+      Map<String, Object> data = new HashMap<>();
+      data.put("items", items);
+      RenderLimits serviceLimits = new RenderLimits();
+      serviceLimits.setMaxLoopIterations(100L);
+      service.setRenderLimits(serviceLimits);
+
+      RenderLimits looser = new RenderLimits();
+      looser.setMaxLoopIterations(10000L);
+      RenderLimits unlimited = new RenderLimits();
+      unlimited.setMaxLoopIterations(0L);
+      for (RenderLimits request : Arrays.asList(looser, unlimited)) {
+        try {
+          service.generate(templateFile.getPath(), data, request);
+          fail("A request loosened the service loop iteration limit");
+        } catch (RenderLimitExceededException ex) {
+          assertEquals(RenderLimitExceededException.Limit.LOOP_ITERATIONS, ex.getLimit());
+        }
+      }
+
+      RenderLimits stricter = new RenderLimits();
+      stricter.setMaxOutputBytes(1024L);
+      serviceLimits.setMaxLoopIterations(10000L);
+      try {
+        service.generate(templateFile.getPath(), data, stricter);
+        fail("The request output size limit was not enforced");
+      } catch (RenderLimitExceededException ex) {
+        assertEquals(RenderLimitExceededException.Limit.OUTPUT_BYTES, ex.getLimit());
+      }
+    } finally {
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testTemplateHandleFollowsUpdates() throws Exception {
+    LOG.info("Testing template handles");
+
+    File templateFile = File.createTempFile("handleTemplate", ".txt");
+    templateFile.delete();
+    LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    try {
+      service.createTemplate(templateFile.getPath(), "{\"name\":\"${name}\"}");
+      TemplateHandle handle = service.getTemplateHandle(templateFile.getPath());
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals("{\"name\":\"omer\"}", new String(handle.generate(data), "utf-8"));
+
+      service.updateTemplate(templateFile.getPath(), "{\"user\":\"${name}\"}");
+      assertEquals("{\"user\":\"omer\"}", new String(handle.generate(data), "utf-8"));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      handle.generate(data, out);
+      assertEquals("{\"user\":\"omer\"}", out.toString("utf-8"));
+    } finally {
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testGenerateFromMappedBundle() throws Exception {
+    LOG.info("Testing generate from a memory mapped template bundle");
+
+    MemoryTemplateStore source = new MemoryTemplateStore();
+    source.write("simple.ftl", "{\"name\":\"${name}\"}".getBytes("utf-8"), false);
+    source.write("nested/map.ftl", "{\"person\":{\"name\":\"${name}\"}}".getBytes("utf-8"), false);
+    Path bundle = Files.createTempFile("templates", ".bundle");
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    try {
+      assertEquals(2, TemplateBundleWriter.write(source, bundle));
+      MappedBundleTemplateStore store = new MappedBundleTemplateStore(bundle);
+      service.setStringUtil(new DocumentGeneratorStringTool());
+      service.setTemplateStore(store);
+      service.start();
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals(expectedSimpleTemplate, new String(service.generate("simple.ftl", data), "utf-8"));
+      assertEquals(expectedSimpleTemplateMap, new String(service.generate("nested/map.ftl", data), "utf-8"));
+      assertEquals(TemplateStore.MISSING_VERSION, store.getVersion("missing.ftl"));
+      try {
+        service.createTemplate("other.ftl", "${name}");
+        fail("A read only template store was written");
+      } catch (IllegalArgumentException ex) {
+        LOG.debug("The template bundle is read only", ex);
+      }
+    } finally {
+      service.stop();
+      Files.delete(bundle);
+    }
+  }
+
+  @Test
+  public void testUpdateTemplateWhileGenerating() throws Exception {
+    LOG.info("Testing generate during concurrent template updates");
+
+    final File templateFile = File.createTempFile("updatedTemplate", ".txt");
+    templateFile.delete();
+    final LocalFreeMarkerDocumentGeneratorService service = createPathService();
+    ExecutorService readers = Executors.newFixedThreadPool(4);
+    try {
+      service.createTemplate(templateFile.getPath(), "{\"name\":\"${name}\"}");
+      final Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      final AtomicBoolean updating = new AtomicBoolean(true);
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(readers.submit(() -> {
+          int count = 0;
+          while (updating.get()) {
+            String generated = new String(service.generate(templateFile.getPath(), data), "utf-8");
+            if (!generated.equals(expectedSimpleTemplate) && !generated.equals(expectedSimpleTemplateMap)) {
+              throw new AssertionError("Unexpected document " + generated);
+            }
+            count++;
+          }
+          return count;
+        }));
+      }
+      for (int i = 0; i < 100; i++) {
+        service.updateTemplate(templateFile.getPath(),
+                i % 2 == 0 ? "{\"person\":{\"name\":\"${name}\"}}" : "{\"name\":\"${name}\"}");
+      }
+      updating.set(false);
+      for (Future<Integer> result : results) {
+        result.get();
+      }
+      assertEquals(expectedSimpleTemplate, new String(service.generate(templateFile.getPath(), data), "utf-8"));
+    } finally {
+      readers.shutdown();
+      templateFile.delete();
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testGenerateFromCompiledBundle() throws Exception {
+    LOG.info("Testing generate from a template bundle built by the bundle compiler");
+
+    Path sourceDir = Files.createTempDirectory("bundleTemplates");
+    Files.createDirectories(sourceDir.resolve("common"));
+    Files.write(sourceDir.resolve("common/name.ftl"), "\"name\":\"${name}\"".getBytes("utf-8"));
+    Files.write(sourceDir.resolve("person.ftl"),
+            "{\"person\":{<#include \"common/name.ftl\">}}".getBytes("utf-8"));
+    Path bundle = sourceDir.resolve("templates.bundle");
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    try {
+      assertEquals(2, new TemplateBundleCompiler(sourceDir.toFile(),
+              AbstractFreeMarkerDocumentGeneratorService.DEFAULT_INCOMPATIBLE_IMPROVEMENTS).compile(bundle));
+      service.setStringUtil(new DocumentGeneratorStringTool());
+      service.setTemplateBundle(bundle.toString());
+      service.start();
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals(expectedSimpleTemplateMap, new String(service.generate("person.ftl", data), "utf-8"));
+
+      Files.write(sourceDir.resolve("broken.ftl"), "<#if name>".getBytes("utf-8"));
+      try {
+        new TemplateBundleCompiler(sourceDir.toFile()).compile(sourceDir.resolve("broken.bundle"));
+        fail("An invalid template was bundled");
+      } catch (IOException ex) {
+        assertTrue(ex.getMessage().contains("broken.ftl"));
+      }
+      assertFalse(Files.exists(sourceDir.resolve("broken.bundle")));
+
+      try {
+        new TemplateBundleCompiler(sourceDir.resolve("missing").toFile()).compile(sourceDir.resolve("empty.bundle"));
+        fail("A missing template directory was bundled");
+      } catch (IOException ex) {
+        assertTrue(ex.getMessage().contains("missing"));
+      }
+      assertFalse(Files.exists(sourceDir.resolve("empty.bundle")));
+    } finally {
+      service.stop();
+      try (Stream<Path> paths = Files.walk(sourceDir)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  public void testUpdateIncludedTemplateRecompilesDependents() throws Exception {
+    LOG.info("Testing an update to an included template recompiles only the templates that include it");
+
+    Path baseDir = Files.createTempDirectory("includedTemplates");
+    Files.createDirectories(baseDir.resolve("common"));
+    Files.write(baseDir.resolve("common/name.ftl"), "\"name\":\"${name}\"".getBytes("utf-8"));
+    Files.write(baseDir.resolve("person.ftl"), "{\"person\":{<#include \"common/name.ftl\">}}".getBytes("utf-8"));
+    Files.write(baseDir.resolve("plain.ftl"), "{\"name\":\"${name}\"}".getBytes("utf-8"));
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setBasePath(baseDir.toString());
+    service.start();
+    try {
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals(expectedSimpleTemplateMap, new String(service.generate("person.ftl", data), "utf-8"));
+      assertEquals(expectedSimpleTemplate, new String(service.generate("plain.ftl", data), "utf-8"));
+      assertTrue(service.getTemplateDependencies("person.ftl").contains("common/name.ftl"));
+      assertTrue(service.getTemplateDependents("common/name.ftl").contains("person.ftl"));
+      assertFalse(service.getTemplateDependents("common/name.ftl").contains("plain.ftl"));
+
+      service.updateTemplate("common/name.ftl", "\"name\":\"${name?upper_case}\"");
+      assertEquals("{\"person\":{\"name\":\"OMER\"}}", new String(service.generate("person.ftl", data), "utf-8"));
+      assertEquals(expectedSimpleTemplate, new String(service.generate("plain.ftl", data), "utf-8"));
+      LocalGeneratorMetrics metrics = (LocalGeneratorMetrics) service.getMetrics();
+      assertEquals(2, metrics.getTemplateMetrics("person.ftl").getCacheMissCount());
+      assertEquals(1, metrics.getTemplateMetrics("plain.ftl").getCacheMissCount());
+    } finally {
+      service.stop();
+      try (Stream<Path> paths = Files.walk(baseDir)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  public void testGenerateWithFastObjectWrapper() throws Exception {
+    LOG.info("Testing generate with the fast object wrapper and a reused wrapped data model");
+
+    FastObjectWrapper wrapper = new FastObjectWrapper();
+    LocalFreeMarkerDocumentGeneratorService service = createStoreService(
+            createResourceStore("updateSessionTemplate.txt"));
+    service.setObjectWrapper(wrapper);
+    service.start();
+    try {
+      Map<String, Object> expiry = new HashMap<>();
+      expiry.put("month", "05");
+      expiry.put("year", "17");
+      Map<String, Object> provided = new HashMap<>();
+      provided.put("card", new Card("5123456789012346", expiry));
+      Map<String, Object> sourceOfFunds = new HashMap<>();
+      sourceOfFunds.put("provided", provided);
+      Map<String, Object> data = new HashMap<>();
+      data.put("sourceOfFunds", sourceOfFunds);
+      assertEquals(expectedStringTNSUpdateSession, new String(service.generate("updateSessionTemplate.txt", data), "utf-8"));
+
+      TemplateHashModel model = (TemplateHashModel) wrapper.wrap(data);
+      assertEquals(expectedStringTNSUpdateSession, new String(service.generate("updateSessionTemplate.txt", model), "utf-8"));
+      expiry.put("year", "18");
+      assertEquals(expectedStringTNSUpdateSession.replace("\"17\"", "\"18\""),
+              new String(service.generate("updateSessionTemplate.txt", model), "utf-8"));
+      assertEquals(1, wrapper.getBeanClassCount());
+      assertEquals(1, wrapper.getBeanCacheMissCount());
+
+      FastObjectWrapper bounded = new FastObjectWrapper(1, new DefaultObjectWrapperBuilder(
+              Configuration.VERSION_2_3_32).build());
+      Card card = new Card("5123456789012346", expiry);
+      Basket basket = new Basket(Collections.singletonList("a"));
+      ((TemplateHashModel) bounded.wrap(card)).get("number");
+      ((TemplateHashModel) bounded.wrap(basket)).get("items");
+      assertEquals(1, bounded.getBeanClassCount());
+      ((TemplateHashModel) bounded.wrap(card)).get("number");
+      assertEquals(1, bounded.getBeanClassCount());
+      assertEquals(3, bounded.getBeanCacheMissCount());
+    } finally {
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testGenerateWithSharedContextOverlay() throws Exception {
+    LOG.info("Testing generate against a shared context with a per-call overlay");
+
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("payment.txt", "{\"merchant\":\"${merchant.name}\",\"name\":\"${name}\",\"type\":\"${type}\"}"
+            .getBytes("utf-8"), false);
+    store.write("fields.txt", ("<#list fields as name, value>${name}=${value};</#list>"
+            + "<#list fields?values as value>${value}</#list>").getBytes("utf-8"), false);
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setTemplateStore(store);
+    service.start();
+    try {
+      Map<String, Object> fields = new LinkedHashMap<>();
+      for (String name : new String[] {"zulu", "alpha", "mike", "bravo", "yankee"}) {
+        fields.put(name, name.charAt(0));
+      }
+      Map<String, Object> ordered = new HashMap<>();
+      ordered.put("fields", fields);
+      SharedContext orderedContext = service.registerSharedContext("ordered", ordered);
+      assertEquals("zulu=z;alpha=a;mike=m;bravo=b;yankee=y;zamby", new String(service.generate("fields.txt",
+              orderedContext.overlay(new HashMap<String, Object>())), "utf-8"));
+
+      Map<String, Object> merchant = new HashMap<>();
+      merchant.put("name", "willow");
+      Map<String, Object> shared = new HashMap<>();
+      shared.put("merchant", merchant);
+      shared.put("type", "CARD");
+      service.registerSharedContext("merchant", shared);
+      merchant.put("name", "changed");
+
+      DocumentGenerationFreeMarkerHandlerImpl handler = new DocumentGenerationFreeMarkerHandlerImpl();
+      handler.setService(service);
+      handler.setTemplateLocationAttributeKey("template");
+      Map<String, String> templates = new HashMap<>();
+      templates.put("payment", "payment.txt");
+      templates.put("missing", "missing.txt");
+      handler.setTemplates(templates);
+      Map<String, String> attributes = new HashMap<>();
+      attributes.put("template", "missing");
+      Map<String, Object> overlay = new HashMap<>();
+      overlay.put("name", "omer");
+      try {
+        handler.generate(attributes, overlay, null);
+        fail("A document was generated from a missing template");
+      } catch (RuntimeException ex) {
+        LOG.debug("The missing template only fails its own key", ex);
+      }
+      attributes.put("template", "payment");
+      attributes.put("sharedContext", "merchant");
+      assertEquals("{\"merchant\":\"willow\",\"name\":\"omer\",\"type\":\"CARD\"}",
+              new String(handler.generate(attributes, overlay, null), "utf-8"));
+      overlay.put("type", "TOKEN");
+      assertEquals("{\"merchant\":\"willow\",\"name\":\"omer\",\"type\":\"TOKEN\"}",
+              new String(handler.generate(attributes, overlay, null), "utf-8"));
+
+      service.unregisterSharedContext("merchant");
+      try {
+        handler.generate(attributes, overlay, null);
+        fail("A document was generated against an unregistered shared context");
+      } catch (IllegalArgumentException ex) {
+        assertTrue(ex.getMessage().contains("merchant"));
+      }
+    } finally {
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testOutputParityAcrossIncompatibleImprovements() throws Exception {
+    LOG.info("Testing the existing templates render identically for each engine configuration");
+
+    MemoryTemplateStore store = createResourceStore(RESOURCE_TEMPLATES);
+    Map<String, Object> expiry = new HashMap<>();
+    expiry.put("month", "05");
+    expiry.put("year", "17");
+    Map<String, Object> card = new HashMap<>();
+    card.put("number", "5123456789012346");
+    card.put("expiry", expiry);
+    Map<String, Object> provided = new HashMap<>();
+    provided.put("card", card);
+    Map<String, Object> sourceOfFunds = new HashMap<>();
+    sourceOfFunds.put("provided", provided);
+    sourceOfFunds.put("type", "CARD");
+    Map<String, Object> session = new HashMap<>();
+    session.put("id", "123456789");
+    Map<String, Object> person = new HashMap<>();
+    person.put("name", "omer");
+    Map<String, Object> data = new HashMap<>();
+    data.put("sourceOfFunds", sourceOfFunds);
+    data.put("session", session);
+    data.put("name", "omer");
+    data.put("person", person);
+
+    List<String> expected = null;
+    for (String version : new String[] {"2.3.0", "2.3.21", null}) {
+      for (boolean fast : new boolean[] {false, true}) {
+        LocalFreeMarkerDocumentGeneratorService service = createStoreService(store);
+        if (version != null) {
+          service.setIncompatibleImprovements(version);
+        }
+        if (fast) {
+          service.setObjectWrapper(new FastObjectWrapper());
+        }
+        service.start();
+        try {
+          List<String> generated = new ArrayList<>();
+          for (String name : RESOURCE_TEMPLATES) {
+            generated.add(new String(service.generate(name, data), "utf-8"));
+          }
+          if (expected == null) {
+            expected = generated;
+            assertEquals(expectedStringTNSUpdateSession, generated.get(0));
+            assertEquals(expectedSimpleTemplate, generated.get(2));
+            assertEquals(expectedSimpleTemplateMap, generated.get(3));
+          }
+          assertEquals("Output differs for " + version + (fast ? " with the fast wrapper" : ""), expected, generated);
+        } finally {
+          service.stop();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testGenerateWithPreEncodedLiteralText() throws Exception {
+    LOG.info("Testing literal text is emitted unchanged when pre-encoded");
+
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      large.append("\u00a3\u20ac\ud83d\udcb3 ");
+    }
+    String source = "{\"currency\":\"\u20ac\u00a3 pay\u00e9\",\"name\":\"${name}\",\"card\":\"\ud83d\udcb3 card\"}"
+            + "<#list items as item>[${item}] \u00e9l\u00e9ment</#list>" + large + "${name}";
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("literal.txt", source.getBytes("utf-8"), false);
+    Map<String, Object> data = new HashMap<>();
+    data.put("name", "\u00f6mer");
+    List<String> items = new ArrayList<>();
+    items.add("a");
+    items.add("\u00df");
+    data.put("items", items);
+    String expected = "{\"currency\":\"\u20ac\u00a3 pay\u00e9\",\"name\":\"\u00f6mer\",\"card\":\"\ud83d\udcb3 card\"}"
+            + "[a] \u00e9l\u00e9ment[\u00df] \u00e9l\u00e9ment" + large + "\u00f6mer";
+    // Without pre-encoding the text is encoded on every render, as it is when the text of a template cannot be read
+    for (boolean preEncoded : new boolean[] {true, false}) {
+      LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+      service.setStringUtil(new DocumentGeneratorStringTool());
+      service.setTemplateStore(store);
+      service.setLiteralTextPreEncodingEnabled(preEncoded);
+      service.start();
+      try {
+        for (int i = 0; i < 2; i++) {
+          assertEquals(expected, new String(service.generate("literal.txt", data), "utf-8"));
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          service.generate("literal.txt", data, out);
+          assertEquals(expected, new String(out.toByteArray(), "utf-8"));
+        }
+      } finally {
+        service.stop();
+      }
+    }
+  }
+
+  @Test
+  public void testFastPathMatchesFreeMarker() throws Exception {
+    LOG.info("Testing templates rendered by the fast path match the output of FreeMarker");
+
+    MemoryTemplateStore store = createResourceStore(RESOURCE_TEMPLATES);
+    List<String> names = new ArrayList<>(Arrays.asList(RESOURCE_TEMPLATES));
+    store.write("chain.txt", ("<#if a.b??>b=${a.b}<#elseif !a.c?has_content>no c<#else>c=${a.c}</#if>|${a.d}"
+            + "<#if !a.b??>!b</#if>").getBytes("utf-8"), false);
+    store.write("single.txt", "${name}".getBytes("utf-8"), false);
+    store.write("unsupported.txt", "${name?upper_case} ${a.d!}".getBytes("utf-8"), false);
+    names.add("chain.txt");
+    names.add("single.txt");
+    names.add("unsupported.txt");
+
+    List<Map<String, Object>> dataSets = new ArrayList<>();
+    for (Object a : new Object[] {null, "text", new HashMap<String, Object>()}) {
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      if (a != null) {
+        data.put("a", a);
+      }
+      dataSets.add(data);
+    }
+    for (Object[] values : new Object[][] {{"x", null}, {null, "z"}, {null, ""}, {null, new ArrayList<>()},
+      {5, null}, {null, 5}}) {
+      Map<String, Object> a = new HashMap<>();
+      a.put("b", values[0]);
+      a.put("c", values[1]);
+      a.put("d", "\u00e9");
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", 7);
+      data.put("a", a);
+      dataSets.add(data);
+    }
+    for (String id : new String[] {"123456789", "", null}) {
+      for (String number : new String[] {"5123456789012346", ""}) {
+        Map<String, Object> expiry = new HashMap<>();
+        expiry.put("month", "05");
+        expiry.put("year", "17");
+        Map<String, Object> card = new HashMap<>();
+        card.put("number", number);
+        card.put("expiry", expiry);
+        Map<String, Object> provided = new HashMap<>();
+        provided.put("card", card);
+        Map<String, Object> sourceOfFunds = new HashMap<>();
+        sourceOfFunds.put("provided", provided);
+        Map<String, Object> session = new HashMap<>();
+        session.put("id", id);
+        Map<String, Object> person = new HashMap<>();
+        person.put("name", "omer");
+        Map<String, Object> data = new HashMap<>();
+        data.put("sourceOfFunds", sourceOfFunds);
+        data.put("session", session);
+        data.put("name", "omer");
+        data.put("person", person);
+        dataSets.add(data);
+      }
+    }
+
+    Map<Integer, Object> numbered = new TreeMap<>();
+    numbered.put(1, "one");
+    Map<String, Object> numberedData = new HashMap<>();
+    numberedData.put("name", "omer");
+    numberedData.put("a", numbered);
+    dataSets.add(numberedData);
+
+    LocalFreeMarkerDocumentGeneratorService fastService = createStoreService(store);
+    fastService.setTemplateFastPathEnabled(true);
+    fastService.start();
+    LocalFreeMarkerDocumentGeneratorService engineService = createStoreService(store);
+    engineService.start();
+    try {
+      for (String name : names) {
+        for (Map<String, Object> data : dataSets) {
+          assertEquals("Output differs for " + name + " with " + data, render(engineService, name, data),
+                  render(fastService, name, data));
+        }
+      }
+      assertTrue(fastService.getFastPathRenderCount() > 0);
+      assertEquals(0, engineService.getFastPathRenderCount());
+
+      long count = fastService.getFastPathRenderCount();
+      fastService.generate("simpleTemplate.txt", dataSets.get(0));
+      assertEquals(count + 1, fastService.getFastPathRenderCount());
+      fastService.generate("simpleTemplate.txt", dataSets.get(3));
+      fastService.generate("unsupported.txt", dataSets.get(0));
+      assertEquals(count + 1, fastService.getFastPathRenderCount());
+    } finally {
+      fastService.stop();
+      engineService.stop();
+    }
+  }
+
+  @Test
+  public void testRenderOutputCacheInvalidatedByTemplateChanges() throws Exception {
+    LOG.info("Testing cached documents are served until the template or a template it includes changes");
+
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("common/name.ftl", "\"name\":\"${name}\"".getBytes("utf-8"), false);
+    store.write("person.ftl", "{\"person\":{<#include \"common/name.ftl\">}}".getBytes("utf-8"), false);
+    store.write("plain.ftl", "{\"name\":\"${name}\"}".getBytes("utf-8"), false);
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setTemplateStore(store);
+    service.setRenderOutputCacheEnabled(true);
+    service.start();
+    try {
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      byte[] first = service.generate("plain.ftl", data);
+      first[0] = 'x';
+      assertEquals(expectedSimpleTemplate, new String(service.generate("plain.ftl", data), "utf-8"));
+      assertEquals(expectedSimpleTemplate,
+              new String(service.getTemplateHandle("plain.ftl").generate(data), "utf-8"));
+      assertEquals(1, service.getRenderOutputCacheMissCount());
+      assertEquals(2, service.getRenderOutputCacheHitCount());
+
+      Map<String, Object> other = new HashMap<>();
+      other.put("name", "ali");
+      assertEquals("{\"name\":\"ali\"}", new String(service.generate("plain.ftl", other), "utf-8"));
+      assertEquals(expectedSimpleTemplateMap, new String(service.generate("person.ftl", data), "utf-8"));
+      assertEquals(3, service.getRenderOutputCacheMissCount());
+
+      service.updateTemplate("plain.ftl", "{\"name\":\"${name?upper_case}\"}");
+      assertEquals("{\"name\":\"OMER\"}", new String(service.generate("plain.ftl", data), "utf-8"));
+      service.updateTemplate("common/name.ftl", "\"name\":\"${name?cap_first}\"");
+      assertEquals("{\"person\":{\"name\":\"Omer\"}}", new String(service.generate("person.ftl", data), "utf-8"));
+      assertEquals(5, service.getRenderOutputCacheMissCount());
+
+      Map<String, Object> beans = new HashMap<>();
+      beans.put("name", new StringBuilder("omer"));
+      service.generate("plain.ftl", beans);
+      service.generate("plain.ftl", beans);
+      assertEquals(5, service.getRenderOutputCacheMissCount());
+      assertEquals(2, service.getRenderOutputCacheHitCount());
+
+      store.write("list.ftl", "<#list items as item>${item},</#list>".getBytes("utf-8"), false);
+      Map<String, Object> listData = new HashMap<>();
+      listData.put("items", Collections.nCopies(1000, "item"));
+      service.generate("list.ftl", listData);
+      RenderLimits iterations = new RenderLimits();
+      iterations.setMaxLoopIterations(100L);
+      service.setRenderLimits(iterations);
+      try {
+        service.generate("list.ftl", listData);
+        fail("A document cached without limits was served to a caller with limits");
+      } catch (RenderLimitExceededException ex) {
+        assertEquals(RenderLimitExceededException.Limit.LOOP_ITERATIONS, ex.getLimit());
+      }
+    } finally {
+      service.stop();
+    }
+  }
+
+  @Test
+  public void testFileSystemTemplateVersionsFollowContent() throws Exception {
+    LOG.info("Testing file system template versions change with content of the same length and modification time");
+
+    Path baseDir = Files.createTempDirectory("versionedTemplates");
+    Path template = baseDir.resolve("same.ftl");
+    FileSystemTemplateStore store = new FileSystemTemplateStore(baseDir.toFile());
+    try {
+      store.write("same.ftl", "first".getBytes("utf-8"), false);
+      long first = store.getVersion("same.ftl");
+      FileTime modified = Files.getLastModifiedTime(template);
+      store.write("same.ftl", "other".getBytes("utf-8"), true);
+      long other = store.getVersion("same.ftl");
+      assertFalse(first == other);
+      assertFalse(Files.getLastModifiedTime(template).toMillis() > System.currentTimeMillis());
+
+      //An edit within the timestamp resolution leaves the modification time and length unchanged
+      Files.write(template, "third".getBytes("utf-8"));
+      Files.setLastModifiedTime(template, modified);
+      TemplateContent third = store.read("same.ftl");
+      assertEquals("third", new String(third.getContent(), "utf-8"));
+      assertFalse(other == third.getVersion());
+      assertEquals(third.getVersion(), store.getVersion("same.ftl"));
+
+      store.write("same.ftl", "first".getBytes("utf-8"), true);
+      assertEquals(first, store.getVersion("same.ftl"));
+      assertTrue(store.delete("same.ftl"));
+      assertEquals(TemplateStore.MISSING_VERSION, store.getVersion("same.ftl"));
+    } finally {
+      Files.deleteIfExists(template);
+      Files.delete(baseDir);
+    }
+  }
+
+  @Test
+  public void testTemplatePathsStayUnderBasePath() throws Exception {
+    LOG.info("Testing template paths outside the base path");
+
+    Path parent = Files.createTempDirectory("confinedTemplates");
+    Path baseDir = Files.createDirectories(parent.resolve("templates"));
+    Path outside = Files.write(parent.resolve("outside.ftl"), "outside".getBytes("utf-8"));
+    LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+    service.setStringUtil(new DocumentGeneratorStringTool());
+    service.setBasePath(baseDir.toString());
+    service.start();
+    try {
+      service.createTemplate("./inside.ftl", "inside");
+      assertEquals("inside", service.getTemplate("inside.ftl"));
+      for (String templatePath : Arrays.asList("../outside.ftl", "inside/../../outside.ftl", outside.toString())) {
+        try {
+          service.getTemplate(templatePath);
+          fail("Read a template outside the base path: " + templatePath);
+        } catch (IllegalArgumentException ex) {
+          LOG.debug("Refused a template path", ex);
+        }
+        try {
+          service.deleteTemplate(templatePath);
+          fail("Deleted a template outside the base path: " + templatePath);
+        } catch (IllegalArgumentException ex) {
+          LOG.debug("Refused a template path", ex);
+        }
+      }
+      assertTrue(Files.exists(outside));
+    } finally {
+      service.stop();
+      Files.deleteIfExists(baseDir.resolve("inside.ftl"));
+      Files.delete(baseDir);
+      Files.delete(outside);
+      Files.delete(parent);
+    }
+  }
+
+  /**
+   * Test a remote service rendering through a render node on the loopback interface generates the same documents as
+   * the local service behind the node.
+   */
+  @Test
+  public void testRemoteServiceMatchesLocalService() throws Exception {
+    LOG.info("Testing remote generation through a loopback render node");
+
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("plain.ftl", "{\"name\":\"${name}\"}".getBytes("utf-8"), false);
+    store.write("list.ftl", "<#list items as item>${item},</#list>".getBytes("utf-8"), false);
+    store.write("execute.ftl", "${\"freemarker.template.utility.Execute\"?new()(\"echo executed\")}".getBytes("utf-8"),
+            false);
+    store.write("recursive.ftl", "<#macro r><@r/></#macro><@r/>".getBytes("utf-8"), false);
+    LocalFreeMarkerDocumentGeneratorService local = new LocalFreeMarkerDocumentGeneratorService();
+    local.setStringUtil(new DocumentGeneratorStringTool());
+    local.setTemplateStore(store);
+    local.start();
+    RenderNodeServer server = new RenderNodeServer();
+    server.setService(local);
+    server.setWorkerThreads(4);
+    server.start();
+    RemoteFreeMarkerDocumentGeneratorService remote = new RemoteFreeMarkerDocumentGeneratorService();
+    remote.setPort(server.getLocalPort());
+    remote.setBatchWindow(8);
+    remote.start();
+    try {
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals(expectedSimpleTemplate, new String(remote.generate("plain.ftl", data), "utf-8"));
+      assertEquals(expectedSimpleTemplate, new String(remote.getTemplateHandle("plain.ftl").generate(data), "utf-8"));
+      assertEquals(expectedSimpleTemplate, new String(remote.generateAsync("plain.ftl", data).get(), "utf-8"));
+
+      List<Map<String, Object>> batch = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("name", "omer" + i);
+        batch.add(item);
+      }
+      int index = 0;
+      for (byte[] document : remote.generateAll("plain.ftl", batch)) {
+        assertEquals(new String(local.generate("plain.ftl", batch.get(index++)), "utf-8"), new String(document, "utf-8"));
+      }
+      assertEquals(batch.size(), index);
+
+      byte[] streamed = "{\"stream\":\"${name}\"}".getBytes("utf-8");
+      try {
+        remote.generate(new ByteArrayInputStream(streamed), data);
+        fail("The render node accepted a template from a client without being enabled to");
+      } catch (UnsupportedOperationException ex) {
+        LOG.debug("Refused a client template", ex);
+      }
+      try {
+        remote.updateTemplate("plain.ftl", "changed");
+        fail("The render node accepted a template change without being enabled to");
+      } catch (UnsupportedOperationException ex) {
+        LOG.debug("Refused a template change", ex);
+      }
+      try {
+        remote.getTemplate("plain.ftl");
+        fail("The render node returned a template without being enabled to");
+      } catch (UnsupportedOperationException ex) {
+        LOG.debug("Refused a template read", ex);
+      }
+      for (String templatePath : Arrays.asList("../plain.ftl", "/plain.ftl")) {
+        try {
+          remote.generate(templatePath, data);
+          fail("The render node accepted the template path " + templatePath);
+        } catch (IllegalArgumentException ex) {
+          LOG.debug("Refused a template path", ex);
+        }
+      }
+      server.setClientTemplatesEnabled(true);
+      server.setTemplateChangesEnabled(true);
+      for (int i = 0; i < 2; i++) {
+        assertEquals("{\"stream\":\"omer\"}",
+                new String(remote.generate(new ByteArrayInputStream(streamed), data), "utf-8"));
+      }
+
+      remote.updateTemplate("plain.ftl", "{\"name\":\"${name?upper_case}\"}");
+      assertEquals("{\"name\":\"${name?upper_case}\"}", remote.getTemplate("plain.ftl"));
+      assertEquals("{\"name\":\"OMER\"}", new String(remote.generate("plain.ftl", data), "utf-8"));
+
+      List<String> items = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        items.add("item" + i);
+      }
+      Map<String, Object> listData = new HashMap<>();
+      listData.put("items", items);
+      RenderLimits iterations = new RenderLimits();
+      iterations.setMaxLoopIterations(100L);
+      try {
+        remote.generate("list.ftl", listData, iterations);
+        fail("The loop iteration limit was not enforced by the render node");
+      } catch (RenderLimitExceededException ex) {
+        assertEquals(RenderLimitExceededException.Limit.LOOP_ITERATIONS, ex.getLimit());
+      }
+      local.setRenderLimits(iterations);
+      RenderLimits unlimited = new RenderLimits();
+      unlimited.setMaxLoopIterations(0L);
+      unlimited.setMaxOutputBytes(0L);
+      try {
+        remote.getTemplateHandle("list.ftl").generate(listData, unlimited);
+        fail("A client lifted the loop iteration limit of the render node");
+      } catch (RenderLimitExceededException ex) {
+        assertEquals(RenderLimitExceededException.Limit.LOOP_ITERATIONS, ex.getLimit());
+      }
+      local.setRenderLimits(null);
+
+      assertFalse(new String(remote.generate("execute.ftl", data), "utf-8").contains("executed"));
+      try {
+        remote.generate("recursive.ftl", data);
+        fail("A render node error was not reported");
+      } catch (DocumentGenerationException ex) {
+        LOG.debug("Reported a render node error", ex);
+      }
+
+      Map<String, Object> unsupported = new HashMap<>();
+      unsupported.put("name", new Object());
+      try {
+        remote.generate("plain.ftl", unsupported);
+        fail("Data that cannot be sent to the render node was accepted");
+      } catch (IllegalArgumentException ex) {
+        LOG.debug("Rejected unsupported data", ex);
+      }
+    } finally {
+      remote.stop();
+      server.stop();
+      local.stop();
+    }
+  }
+
+  /**
+   * Test requests to a render node that never responds time out, synchronously and asynchronously.
+   */
+  @Test
+  public void testRemoteRequestsTimeOut() throws Exception {
+    LOG.info("Testing remote requests time out");
+
+    ServerSocket silentNode = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    RemoteFreeMarkerDocumentGeneratorService remote = new RemoteFreeMarkerDocumentGeneratorService();
+    remote.setPort(silentNode.getLocalPort());
+    remote.setRequestTimeout(200);
+    remote.start();
+    try {
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      try {
+        remote.generate("plain.ftl", data);
+        fail("A request to a silent render node did not time out");
+      } catch (DocumentGenerationException ex) {
+        LOG.debug("Timed out", ex);
+      }
+      try {
+        remote.generateAllAsync("plain.ftl", Collections.nCopies(3, data)).get(5, TimeUnit.SECONDS);
+        fail("An asynchronous request to a silent render node did not time out");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof DocumentGenerationException);
+      }
+    } finally {
+      remote.stop();
+      silentNode.close();
+    }
+  }
+
+  /**
+   * Test a render node bounds the work it takes on: requests beyond the worker queue are refused as busy, requests
+   * held back on a connection with too many responses outstanding are still answered, and connections beyond the
+   * maximum are closed.
+   */
+  @Test
+  public void testRenderNodeBoundsItsWork() throws Exception {
+    LOG.info("Testing render node bounds");
+
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("slow.ftl", "<#list 1..count as i>${i}</#list>".getBytes("utf-8"), false);
+    LocalFreeMarkerDocumentGeneratorService local = createStoreService(store);
+    local.start();
+    RenderNodeServer server = new RenderNodeServer();
+    server.setService(local);
+    server.setWorkerThreads(1);
+    server.setRequestQueueCapacity(1);
+    server.setMaxConnections(1);
+    server.start();
+    RemoteFreeMarkerDocumentGeneratorService remote = new RemoteFreeMarkerDocumentGeneratorService();
+    remote.setPort(server.getLocalPort());
+    remote.setConnections(1);
+    remote.start();
+    RemoteFreeMarkerDocumentGeneratorService refused = new RemoteFreeMarkerDocumentGeneratorService();
+    refused.setPort(server.getLocalPort());
+    refused.start();
+    try {
+      Map<String, Object> data = new HashMap<>();
+      data.put("count", 100000);
+      List<Future<byte[]>> documents = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        documents.add(remote.generateAsync("slow.ftl", data));
+      }
+      int busy = 0;
+      for (Future<byte[]> document : documents) {
+        try {
+          document.get();
+        } catch (ExecutionException ex) {
+          assertTrue(ex.getCause() instanceof RejectedExecutionException);
+          busy++;
+        }
+      }
+      assertTrue(busy > 0 && busy < documents.size());
+
+      try {
+        refused.generate("slow.ftl", data);
+        fail("A connection beyond the maximum was served");
+      } catch (DocumentGenerationException ex) {
+        LOG.debug("Refused a connection", ex);
+      }
+
+      server.stop();
+      server.setRequestQueueCapacity(100);
+      server.setMaxPendingResponses(1);
+      server.start();
+      remote.setPort(server.getLocalPort());
+      remote.stop();
+      remote.start();
+      data.put("count", 100);
+      StringBuilder expected = new StringBuilder();
+      for (int i = 1; i <= 100; i++) {
+        expected.append(i);
+      }
+      documents.clear();
+      for (int i = 0; i < 20; i++) {
+        documents.add(remote.generateAsync("slow.ftl", data));
+      }
+      for (Future<byte[]> document : documents) {
+        assertEquals(expected.toString(), new String(document.get(), "utf-8"));
+      }
+    } finally {
+      refused.stop();
+      remote.stop();
+      server.stop();
+      local.stop();
+    }
+  }
+
+  /**
+   * Test a render node refuses a request whose data is nested more deeply than any client sends as malformed, rather
+   * than recursing until the stack overflows, and goes on serving.
+   */
+  @Test
+  public void testRenderNodeRefusesDeeplyNestedData() throws Exception {
+    LOG.info("Testing render node nesting limit");
+
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("plain.ftl", "{\"name\":\"${name}\"}".getBytes("utf-8"), false);
+    LocalFreeMarkerDocumentGeneratorService local = createStoreService(store);
+    local.start();
+    RenderNodeServer server = new RenderNodeServer();
+    server.setService(local);
+    server.start();
+    RemoteFreeMarkerDocumentGeneratorService remote = new RemoteFreeMarkerDocumentGeneratorService();
+    remote.setPort(server.getLocalPort());
+    remote.start();
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      DataOutputStream bodyOut = new DataOutputStream(body);
+      byte[] path = "plain.ftl".getBytes("utf-8");
+      bodyOut.writeInt(path.length);
+      bodyOut.write(path);
+      bodyOut.writeByte(0);
+      for (int i = 0; i < 100000; i++) {
+        bodyOut.writeByte(18);
+        bodyOut.writeInt(1);
+      }
+      bodyOut.writeByte(0);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(5 + body.size());
+      out.writeByte(1);
+      out.writeInt(1);
+      body.writeTo(out);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      in.readInt();
+      assertEquals(67, in.readByte());
+      assertEquals(1, in.readInt());
+      assertEquals("The nested data was not refused as malformed", 3, in.readByte());
+
+      Map<String, Object> data = new HashMap<>();
+      data.put("name", "omer");
+      assertEquals(expectedSimpleTemplate, new String(remote.generate("plain.ftl", data), "utf-8"));
+    } finally {
+      remote.stop();
+      server.stop();
+      local.stop();
+    }
+  }
+
+  /**
+   * Test iterators, streams and supplied sequences are listed one element at a time, with the default and the fast
+   * object wrapper, and that listing a one-shot sequence twice fails rather than listing nothing.
+   */
+  @Test
+  public void testLazySequencesAreListedOnce() throws Exception {
+    LOG.info("Testing lazy sequences");
+
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("rows.ftl", "<#if rows?has_content><#list rows as row>${row.id};</#list><#else>none</#if>"
+            .getBytes("utf-8"), false);
+    store.write("twice.ftl", "<#list rows as row>${row}</#list>/<#list rows as row>${row}</#list>"
+            .getBytes("utf-8"), false);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      expected.append(i).append(';');
+    }
+    for (boolean fastWrapper : new boolean[] {true, false}) {
+      LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+      service.setStringUtil(new DocumentGeneratorStringTool());
+      service.setTemplateStore(store);
+      if (fastWrapper) {
+        service.setObjectWrapper(new FastObjectWrapper());
+      }
+      service.start();
+      try {
+        Map<String, Object> data = new HashMap<>();
+        data.put("rows", Stream.iterate(0, i -> i + 1).limit(1000).map(i -> {
+          Map<String, Object> row = new HashMap<>();
+          row.put("id", i);
+          return row;
+        }));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.generate("rows.ftl", data, out);
+        assertEquals(expected.toString(), new String(out.toByteArray(), "utf-8"));
+        data.put("rows", Collections.emptyIterator());
+        assertEquals("none", new String(service.generate("rows.ftl", data), "utf-8"));
+
+        List<String> letters = new ArrayList<>();
+        letters.add("a");
+        letters.add("b");
+        data.put("rows", LazySequence.from(letters::iterator));
+        assertEquals("ab/ab", new String(service.generate("twice.ftl", data), "utf-8"));
+        data.put("rows", fastWrapper ? letters.iterator() : letters.stream());
+        try {
+          service.generate("twice.ftl", data);
+          fail("A one-shot sequence was listed twice");
+        } catch (IllegalStateException ex) {
+          assertTrue(ex.getMessage(), ex.getMessage().contains("can only be listed once"));
+        }
+      } finally {
+        service.stop();
+      }
+    }
+  }
+
+  /**
+   * Test the loop iteration limit counts lists reached through bean properties, with the default and the fast object
+   * wrapper, and that the handler applies its limit attributes when streaming a document.
+   */
+  @Test
+  public void testRenderLimitsCountBeanProperties() throws Exception {
+    LOG.info("Testing render limits on lists reached through beans");
+
+    MemoryTemplateStore store = new MemoryTemplateStore();
+    store.write("basket.ftl", "${basket}:<#list basket.items as item>${item},</#list>".getBytes("utf-8"), false);
+    List<String> items = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      items.add("item" + i);
+    }
+    Map<String, Object> data = new HashMap<>();
+    data.put("basket", new Basket(items));
+    RenderLimits iterations = new RenderLimits();
+    iterations.setMaxLoopIterations(100L);
+    for (boolean fastWrapper : new boolean[] {true, false}) {
+      LocalFreeMarkerDocumentGeneratorService service = new LocalFreeMarkerDocumentGeneratorService();
+      service.setStringUtil(new DocumentGeneratorStringTool());
+      service.setTemplateStore(store);
+      if (fastWrapper) {
+        service.setObjectWrapper(new FastObjectWrapper());
+      }
+      service.start();
+      try {
+        String document = new String(service.generate("basket.ftl", data), "utf-8");
+        assertTrue(document, document.startsWith("basket of 1000:item0,"));
+        try {
+          service.generate("basket.ftl", data, iterations);
+          fail("The loop iteration limit was not enforced on a bean property");
+        } catch (RenderLimitExceededException ex) {
+          assertEquals(RenderLimitExceededException.Limit.LOOP_ITERATIONS, ex.getLimit());
+        }
+
+        DocumentGenerationFreeMarkerHandlerImpl handler = new DocumentGenerationFreeMarkerHandlerImpl();
+        handler.setService(service);
+        handler.setTemplateLocationAttributeKey("template");
+        handler.setTemplates(Collections.singletonMap("basket", "basket.ftl"));
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("template", "basket");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        handler.generate(attributes, data, null, out);
+        assertEquals(document, new String(out.toByteArray(), "utf-8"));
+        attributes.put("maxLoopIterations", "100");
+        try {
+          handler.generate(attributes, data, null, new ByteArrayOutputStream());
+          fail("The loop iteration limit attribute was ignored when streaming");
+        } catch (RenderLimitExceededException ex) {
+          assertEquals(RenderLimitExceededException.Limit.LOOP_ITERATIONS, ex.getLimit());
+        }
+      } finally {
+        service.stop();
+      }
+    }
+  }
+
+  /**
+   * Render a template to a string, or to the name of the exception thrown.
+   *
+   * @param service the started service
+   * @param name the template path
+   * @param data the template data
+   * @return the document or the exception name
+   */
+  private String render(final LocalFreeMarkerDocumentGeneratorService service, final String name,
+                        final Map<String, Object> data) throws IOException {
+    String result;
+    try {
+      result = new String(service.generate(name, data), "utf-8");
+    } catch (DocumentGenerationException ex) {
+      result = ex.getClass().getName();
+    }
+    return result;
+  }
+
+  /**
+   * A card bean, read through the bean introspection cache of the fast object wrapper.
+   */
+  public static final class Card {
+
+    private final String number;
+    private final Map<String, Object> expiry;
+
+    public Card(final String number, final Map<String, Object> expiry) {
+      this.number = number;
+      this.expiry = expiry;
+    }
+
+    public String getNumber() {
+      return number;
+    }
+
+    public Map<String, Object> getExpiry() {
+      return expiry;
+    }
+  }
+
+  /**
+   * A basket bean, whose items are only reachable through a bean property.
+   */
+  public static final class Basket {
+
+    private final List<String> items;
+
+    public Basket(final List<String> items) {
+      this.items = items;
+    }
+
+    public List<String> getItems() {
+      return items;
+    }
+
+    @Override
+    public String toString() {
+      return "basket of " + items.size();
+    }
+  }
+
+  /**
+   * Create a template store holding test template resources under their file names.
+   *
+   * @param names the file names of the resources in the templates directory
+   * @return the template store
+   */
+  private MemoryTemplateStore createResourceStore(final String... names) throws IOException {
+    MemoryTemplateStore result = new MemoryTemplateStore();
+    for (String name : names) {
+      try (InputStream in = getClass().getClassLoader().getResourceAsStream("templates/" + name)) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        for (int read = in.read(chunk); read > 0; read = in.read(chunk)) {
+          content.write(chunk, 0, read);
+        }
+        result.write(name, content.toByteArray(), false);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Create a service, not yet started, that reads its templates from a template store.
+   *
+   * @param store the template store
+   * @return the service
+   */
+  private LocalFreeMarkerDocumentGeneratorService createStoreService(final TemplateStore store) {
+    LocalFreeMarkerDocumentGeneratorService result = new LocalFreeMarkerDocumentGeneratorService();
+    result.setStringUtil(new DocumentGeneratorStringTool());
+    result.setTemplateStore(store);
+    return result;
+  }
+
+  /**
+   * Create and start a service that resolves template paths from the file system root.
+   *
+   * @return the started service
+   */
+  private LocalFreeMarkerDocumentGeneratorService createPathService() throws ServiceException {
+    LocalFreeMarkerDocumentGeneratorService result = new LocalFreeMarkerDocumentGeneratorService();
+    result.setStringUtil(new DocumentGeneratorStringTool());
+    result.setBasePath("");
+    result.start();
+    return result;
+  }
+
+  /**
+   * A service exposing the FreeMarker configuration it shares between generate calls.
+   */
+  private static final class ConfigurationProbeService extends AbstractFreeMarkerDocumentGeneratorService {
+
+    ConfigurationProbeService() {
+      super("ConfigurationProbeService");
+    }
+
+    Configuration configuration() {
+      return getConfiguration();
+    }
+  }
+
+  /**
+   * Return the bytes of the output buffer pooled for the current thread.
+   *
+   * @return the buffer
+   */
+  private static byte[] getPooledOutputBuffer(final AbstractFreeMarkerDocumentGeneratorService service)
+          throws ReflectiveOperationException {
+    Field pool = AbstractFreeMarkerDocumentGeneratorService.class.getDeclaredField("bufferPool");
+    pool.setAccessible(true);
+    Object bufferPool = pool.get(service);
+    Field buffers = bufferPool.getClass().getDeclaredField("buffers");
+    buffers.setAccessible(true);
+    Object outputBuffer = ((Deque<?>) buffers.get(bufferPool)).peekFirst();
+    byte[] result = null;
+    if (outputBuffer != null) {
+      Field buffer = outputBuffer.getClass().getDeclaredField("buffer");
+      buffer.setAccessible(true);
+      result = (byte[]) buffer.get(outputBuffer);
+    }
+    return result;
+  }
+
   private void startServices() {
     if (!SUBJECT.isRunning()) {
       try {
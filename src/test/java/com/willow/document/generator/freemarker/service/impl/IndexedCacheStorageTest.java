@@ -0,0 +1,79 @@
+package com.willow.document.generator.freemarker.service.impl;
+
+import freemarker.cache.StrongCacheStorage;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class IndexedCacheStorageTest {
+
+  private static final Logger LOG = Logger.getLogger(IndexedCacheStorageTest.class);
+
+  @Test
+  public void testRemoveTemplateRemovesOnlyThatTemplate() {
+    LOG.info("Testing removing an indexed template leaves the other templates cached");
+
+    IndexedCacheStorage storage = new IndexedCacheStorage(new StrongCacheStorage());
+    NamedKey first = new NamedKey("first.ftl");
+    NamedKey firstAgain = new NamedKey("first.ftl");
+    NamedKey second = new NamedKey("second.ftl");
+    storage.put(first, "first");
+    storage.put(firstAgain, "first again");
+    storage.put(second, "second");
+
+    storage.removeTemplate("first.ftl");
+    assertNull(storage.get(first));
+    assertNull(storage.get(firstAgain));
+    assertEquals("second", storage.get(second));
+    assertEquals(1, storage.getSize());
+  }
+
+  @Test
+  public void testRemoveTemplateClearsAllWhenNamesCannotBeRead() {
+    LOG.info("Testing removing a template clears the whole cache when cache keys cannot be indexed");
+
+    IndexedCacheStorage storage = new IndexedCacheStorage(new StrongCacheStorage());
+    UnnamedKey first = new UnnamedKey("first.ftl");
+    UnnamedKey second = new UnnamedKey("second.ftl");
+    storage.put(first, "first");
+    storage.put(second, "second");
+    assertEquals(2, storage.getSize());
+
+    storage.removeTemplate("first.ftl");
+    assertNull(storage.get(first));
+    assertNull(storage.get(second));
+    assertEquals(0, storage.getSize());
+
+    storage.put(second, "second");
+    storage.removeTemplate("unknown.ftl");
+    assertNull(storage.get(second));
+  }
+
+  /**
+   * A cache key holding its template name in a field called name, as FreeMarker's cache key does.
+   */
+  private static final class NamedKey {
+
+    private final String name;
+
+    NamedKey(final String templateName) {
+      name = templateName;
+    }
+  }
+
+  /**
+   * A cache key whose template name cannot be found, as after a FreeMarker upgrade renaming the field.
+   */
+  private static final class UnnamedKey {
+
+    private final String templateName;
+
+    UnnamedKey(final String keyName) {
+      templateName = keyName;
+    }
+  }
+}